@@ -19,6 +19,7 @@ import com.google.common.base.Supplier;
 import org.sonatype.nexus.blobstore.api.Blob;
 import org.sonatype.nexus.repository.Facet;
 import org.sonatype.nexus.repository.p2.internal.AssetKind;
+import org.sonatype.nexus.repository.p2.internal.P2CreateLocks;
 import org.sonatype.nexus.repository.p2.internal.metadata.P2Attributes;
 import org.sonatype.nexus.repository.storage.Asset;
 import org.sonatype.nexus.repository.storage.Bucket;
@@ -86,6 +87,13 @@ public interface P2Facet
                     final Supplier<InputStream> contentSupplier,
                     final Payload payload) throws IOException;
 
+  /**
+   * Lock the creation of the component and asset of the attributes within this node until the section is closed.
+   *
+   * @since 1.1.14
+   */
+  P2CreateLocks.Section lockForCreate(final P2Attributes attributes);
+
   /**
    * Create Component with Asset if it missed
    *
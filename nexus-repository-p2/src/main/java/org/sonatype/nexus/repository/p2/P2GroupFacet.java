@@ -0,0 +1,51 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2;
+
+import java.io.IOException;
+
+import javax.annotation.Nullable;
+
+import org.sonatype.nexus.repository.Facet;
+import org.sonatype.nexus.repository.view.Context;
+import org.sonatype.nexus.repository.view.Content;
+
+/**
+ * Group P2 facet, serving the members of the group as the children of a generated composite repository, or merged
+ * into a single repository.
+ *
+ * @since 1.1.14
+ */
+@Facet.Exposed
+public interface P2GroupFacet
+    extends Facet
+{
+  /**
+   * Get the generated metadata at the root of the group.
+   *
+   * @param context the context of the request, which the metadata of the members is requested in
+   * @return the metadata, {@code null} if there is no such metadata
+   */
+  @Nullable
+  Content getMetadata(Context context, String path) throws IOException;
+
+  /**
+   * Find the site of the group an artifact at the root of the merged group is served by, without requesting the
+   * artifact from the members.
+   *
+   * @param artifactKey the classifier, id and version of the artifact separated by {@code /}
+   * @return the member followed by {@code /} and the site of the member if any, {@code null} if not known
+   */
+  @Nullable
+  String findSite(Context context, String artifactKey) throws IOException;
+}
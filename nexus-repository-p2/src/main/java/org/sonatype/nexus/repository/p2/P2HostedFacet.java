@@ -0,0 +1,61 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2;
+
+import java.io.IOException;
+
+import javax.annotation.Nullable;
+
+import org.sonatype.nexus.repository.Facet;
+import org.sonatype.nexus.repository.p2.internal.AssetKind;
+import org.sonatype.nexus.repository.view.Content;
+import org.sonatype.nexus.repository.view.Payload;
+import org.sonatype.nexus.repository.view.matchers.token.TokenMatcher;
+
+/**
+ * Hosted P2 facet, storing uploaded plugins, features and binaries and keeping the metadata of the repository up to
+ * date with them.
+ *
+ * @since 1.1.14
+ */
+@Facet.Exposed
+public interface P2HostedFacet
+    extends Facet
+{
+  /**
+   * Get a bundle or metadata file.
+   *
+   * @return the content, {@code null} if not found
+   */
+  @Nullable
+  Content get(String path);
+
+  /**
+   * Store a plugin or feature jar, or a binary, and schedule the metadata to be rebuilt.
+   *
+   * @param state the state of the route matching the path
+   */
+  Content put(String path, TokenMatcher.State state, AssetKind assetKind, Payload payload) throws IOException;
+
+  /**
+   * Delete a bundle and schedule the metadata to be rebuilt.
+   *
+   * @return whether the bundle existed
+   */
+  boolean delete(String path);
+
+  /**
+   * Rebuild the metadata from the stored bundles, unless they did not change since the metadata was last built.
+   */
+  void rebuildMetadata() throws IOException;
+}
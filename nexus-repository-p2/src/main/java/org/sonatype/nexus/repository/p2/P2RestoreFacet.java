@@ -33,4 +33,11 @@ public interface P2RestoreFacet
   Query getComponentQuery(final Blob blob, final String blobName, final String blobStoreName) throws IOException;
 
   boolean componentRequired(final String name);
+
+  /**
+   * Called once the restore of the repository's blobs finished.
+   *
+   * @since 1.1.14
+   */
+  void restoreFinished();
 }
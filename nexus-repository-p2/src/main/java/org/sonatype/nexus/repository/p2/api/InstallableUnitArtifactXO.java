@@ -0,0 +1,45 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.api;
+
+/**
+ * An artifact of an installable unit, at its path in the layout of the p2 repository.
+ *
+ * @since 1.1.14
+ */
+public class InstallableUnitArtifactXO
+{
+  private final String classifier;
+
+  private final String path;
+
+  private final String downloadUrl;
+
+  public InstallableUnitArtifactXO(final String classifier, final String path, final String downloadUrl) {
+    this.classifier = classifier;
+    this.path = path;
+    this.downloadUrl = downloadUrl;
+  }
+
+  public String getClassifier() {
+    return classifier;
+  }
+
+  public String getPath() {
+    return path;
+  }
+
+  public String getDownloadUrl() {
+    return downloadUrl;
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.api;
+
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * An installable unit of a site cached by a p2 repository, with the artifacts it provides.
+ *
+ * @since 1.1.14
+ */
+public class InstallableUnitXO
+{
+  private final String id;
+
+  private final String version;
+
+  @Nullable
+  private final String name;
+
+  private final String site;
+
+  private final List<InstallableUnitArtifactXO> artifacts;
+
+  public InstallableUnitXO(
+      final String id,
+      final String version,
+      @Nullable final String name,
+      final String site,
+      final List<InstallableUnitArtifactXO> artifacts)
+  {
+    this.id = id;
+    this.version = version;
+    this.name = name;
+    this.site = site;
+    this.artifacts = artifacts;
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public String getVersion() {
+    return version;
+  }
+
+  @Nullable
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * The site hash of the site listing the unit, empty for the remote root site.
+   */
+  public String getSite() {
+    return site;
+  }
+
+  public List<InstallableUnitArtifactXO> getArtifacts() {
+    return artifacts;
+  }
+}
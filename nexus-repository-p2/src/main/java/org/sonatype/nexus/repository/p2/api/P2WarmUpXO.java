@@ -0,0 +1,80 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.api;
+
+import java.util.List;
+
+/**
+ * The outcome of warming a p2 proxy repository up for a set of installable units: the size of their requirement
+ * closure, the artifacts queued to be fetched and the requirements which could not be resolved.
+ *
+ * @since 1.1.14
+ */
+public class P2WarmUpXO
+{
+  private final int resolved;
+
+  private final int artifacts;
+
+  private final int queued;
+
+  private final boolean truncated;
+
+  private final List<String> unresolved;
+
+  public P2WarmUpXO(
+      final int resolved,
+      final int artifacts,
+      final int queued,
+      final boolean truncated,
+      final List<String> unresolved)
+  {
+    this.resolved = resolved;
+    this.artifacts = artifacts;
+    this.queued = queued;
+    this.truncated = truncated;
+    this.unresolved = unresolved;
+  }
+
+  /**
+   * The number of installable units of the closure.
+   */
+  public int getResolved() {
+    return resolved;
+  }
+
+  /**
+   * The number of artifacts of the closure.
+   */
+  public int getArtifacts() {
+    return artifacts;
+  }
+
+  /**
+   * The number of artifacts queued to be fetched, the others were dropped as the queue is full.
+   */
+  public int getQueued() {
+    return queued;
+  }
+
+  /**
+   * Whether the closure was cut as it grew too large.
+   */
+  public boolean isTruncated() {
+    return truncated;
+  }
+
+  public List<String> getUnresolved() {
+    return unresolved;
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal;
+
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+
+import javax.annotation.Nullable;
+
+import com.codahale.metrics.Counter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Striped;
+
+/**
+ * Striped locks serializing the creation of components and assets of a repository within this node, keyed by the
+ * component name and version and by the asset path.
+ *
+ * A thread holds at most one section at a time: sections opened while one is held do not lock anything, so the locks
+ * of a section are always taken together and in the same order.
+ *
+ * @since 1.1.14
+ */
+public class P2CreateLocks
+{
+  private final Striped<Lock> stripes;
+
+  private final ThreadLocal<Section> current = new ThreadLocal<>();
+
+  private final Counter acquired = new Counter();
+
+  private final Counter contended = new Counter();
+
+  private final Counter retries = new Counter();
+
+  public P2CreateLocks(final int stripes) {
+    this.stripes = Striped.lock(stripes);
+  }
+
+  /**
+   * Lock the creation of the component and asset until the returned section is closed. The section is to enclose the
+   * transaction creating them, so another thread finds what it committed.
+   */
+  public Section lock(@Nullable final String name, @Nullable final String version, final String path) {
+    if (current.get() != null) {
+      return Section.NESTED;
+    }
+    List<Lock> locks = ImmutableList.copyOf(stripes.bulkGet(ImmutableList.of(name + '\n' + version, path)));
+    for (Lock lock : locks) {
+      if (!lock.tryLock()) {
+        contended.inc();
+        lock.lock();
+      }
+    }
+    acquired.inc();
+    Section section = new Section(current, locks);
+    current.set(section);
+    return section;
+  }
+
+  /**
+   * Record an attempt of the transaction enclosed by the section of the current thread, attempts after the first are
+   * counted as retries.
+   */
+  public void attempt() {
+    Section section = current.get();
+    if (section != null && section.attempts++ > 0) {
+      retries.inc();
+    }
+  }
+
+  public Counter getAcquired() {
+    return acquired;
+  }
+
+  public Counter getContended() {
+    return contended;
+  }
+
+  public Counter getRetries() {
+    return retries;
+  }
+
+  /**
+   * The locks held by a thread.
+   */
+  public static final class Section
+      implements AutoCloseable
+  {
+    private static final Section NESTED = new Section(null, ImmutableList.of());
+
+    @Nullable
+    private final ThreadLocal<Section> owner;
+
+    private final List<Lock> locks;
+
+    private int attempts;
+
+    private Section(@Nullable final ThreadLocal<Section> owner, final List<Lock> locks) {
+      this.owner = owner;
+      this.locks = locks;
+    }
+
+    @Override
+    public void close() {
+      if (owner == null) {
+        return;
+      }
+      owner.remove();
+      for (Lock lock : Lists.reverse(locks)) {
+        lock.unlock();
+      }
+    }
+  }
+}
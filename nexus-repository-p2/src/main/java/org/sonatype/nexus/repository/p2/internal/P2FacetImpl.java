@@ -15,12 +15,15 @@ package org.sonatype.nexus.repository.p2.internal;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Collection;
+import java.util.Objects;
 
 import javax.annotation.Nullable;
 import javax.inject.Named;
 
 import org.sonatype.nexus.blobstore.api.Blob;
 import org.sonatype.nexus.common.collect.AttributesMap;
+import org.sonatype.nexus.common.entity.EntityHelper;
+import org.sonatype.nexus.common.entity.EntityId;
 import org.sonatype.nexus.common.hash.HashAlgorithm;
 import org.sonatype.nexus.repository.FacetSupport;
 import org.sonatype.nexus.repository.Repository;
@@ -29,8 +32,14 @@ import org.sonatype.nexus.repository.p2.internal.metadata.P2Attributes;
 import org.sonatype.nexus.repository.p2.internal.util.P2PathUtils;
 import org.sonatype.nexus.repository.storage.Asset;
 import org.sonatype.nexus.repository.storage.AssetBlob;
+import org.sonatype.nexus.repository.storage.AssetCreatedEvent;
+import org.sonatype.nexus.repository.storage.AssetDeletedEvent;
+import org.sonatype.nexus.repository.storage.AssetEvent;
 import org.sonatype.nexus.repository.storage.Bucket;
 import org.sonatype.nexus.repository.storage.Component;
+import org.sonatype.nexus.repository.storage.ComponentCreatedEvent;
+import org.sonatype.nexus.repository.storage.ComponentDeletedEvent;
+import org.sonatype.nexus.repository.storage.ComponentEvent;
 import org.sonatype.nexus.repository.storage.MetadataNodeEntityAdapter;
 import org.sonatype.nexus.repository.storage.Query;
 import org.sonatype.nexus.repository.storage.StorageTx;
@@ -41,11 +50,17 @@ import org.sonatype.nexus.repository.view.Payload;
 import org.sonatype.nexus.repository.view.payloads.BlobPayload;
 import org.sonatype.nexus.transaction.UnitOfWork;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.RatioGauge;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
+import com.google.common.eventbus.AllowConcurrentEvents;
+import com.google.common.eventbus.Subscribe;
 
 import static java.util.Collections.singletonList;
 import static org.sonatype.nexus.common.hash.HashAlgorithm.SHA1;
+import static org.sonatype.nexus.repository.p2.internal.util.P2ComponentUtils.setSearchAttributes;
 import static org.sonatype.nexus.repository.p2.internal.util.P2PathUtils.PLUGIN_NAME;
 import static org.sonatype.nexus.repository.storage.AssetEntityAdapter.P_ASSET_KIND;
 import static org.sonatype.nexus.repository.storage.ComponentEntityAdapter.P_VERSION;
@@ -63,6 +78,93 @@ public class P2FacetImpl
 {
   public static final Collection<HashAlgorithm> HASH_ALGORITHMS = ImmutableList.of(SHA1);
 
+  private static final long LOOKUP_CACHE_SIZE = 10_000;
+
+  private static final String METRICS_GROUP = "lookups";
+
+  private static final int CREATE_LOCK_STRIPES = 256;
+
+  private static final String LOCKS_METRICS_GROUP = "locks";
+
+  private final P2CreateLocks createLocks = new P2CreateLocks(CREATE_LOCK_STRIPES);
+
+  @Nullable
+  private P2LookupCache lookupCache;
+
+  @Override
+  protected void doStart() throws Exception {
+    super.doStart();
+    P2LookupCache cache = new P2LookupCache(LOOKUP_CACHE_SIZE);
+    P2Metrics.register(getRepository(), METRICS_GROUP, "assetHits", cache.getAssetHits());
+    P2Metrics.register(getRepository(), METRICS_GROUP, "assetMisses", cache.getAssetMisses());
+    P2Metrics.register(getRepository(), METRICS_GROUP, "componentHits", cache.getComponentHits());
+    P2Metrics.register(getRepository(), METRICS_GROUP, "componentMisses", cache.getComponentMisses());
+    P2Metrics.register(getRepository(), METRICS_GROUP, "hitRate", new RatioGauge()
+    {
+      @Override
+      protected Ratio getRatio() {
+        long hits = cache.getAssetHits().getCount() + cache.getComponentHits().getCount();
+        return Ratio.of(hits, hits + cache.getAssetMisses().getCount() + cache.getComponentMisses().getCount());
+      }
+    });
+    P2Metrics.register(getRepository(), METRICS_GROUP, "size", (Gauge<Long>) cache::size);
+    lookupCache = cache;
+    P2Metrics.register(getRepository(), LOCKS_METRICS_GROUP, "acquired", createLocks.getAcquired());
+    P2Metrics.register(getRepository(), LOCKS_METRICS_GROUP, "contended", createLocks.getContended());
+    P2Metrics.register(getRepository(), LOCKS_METRICS_GROUP, "retries", createLocks.getRetries());
+  }
+
+  @VisibleForTesting
+  void setLookupCache(@Nullable final P2LookupCache lookupCache) {
+    this.lookupCache = lookupCache;
+  }
+
+  @Override
+  protected void doStop() throws Exception {
+    super.doStop();
+    lookupCache = null;
+    P2Metrics.removeAll(getRepository(), METRICS_GROUP);
+    P2Metrics.removeAll(getRepository(), LOCKS_METRICS_GROUP);
+  }
+
+  @Subscribe
+  @AllowConcurrentEvents
+  protected void on(final AssetCreatedEvent event) {
+    invalidateAsset(event);
+  }
+
+  @Subscribe
+  @AllowConcurrentEvents
+  protected void on(final AssetDeletedEvent event) {
+    invalidateAsset(event);
+  }
+
+  @Subscribe
+  @AllowConcurrentEvents
+  protected void on(final ComponentCreatedEvent event) {
+    invalidateComponent(event);
+  }
+
+  @Subscribe
+  @AllowConcurrentEvents
+  protected void on(final ComponentDeletedEvent event) {
+    invalidateComponent(event);
+  }
+
+  private void invalidateAsset(final AssetEvent event) {
+    P2LookupCache cache = lookupCache;
+    if (cache != null && getRepository().getName().equals(event.getRepositoryName())) {
+      cache.invalidateAsset(event.getAsset().name());
+    }
+  }
+
+  private void invalidateComponent(final ComponentEvent event) {
+    P2LookupCache cache = lookupCache;
+    if (cache != null && getRepository().getName().equals(event.getRepositoryName())) {
+      cache.invalidateComponent(event.getComponent().name(), event.getComponent().version());
+    }
+  }
+
   @Override
   public Component findOrCreateComponent(final StorageTx tx, final P2Attributes attributes) {
     String name = attributes.getComponentName();
@@ -74,9 +176,7 @@ public class P2FacetImpl
       component = tx.createComponent(bucket, getRepository().getFormat())
           .name(name)
           .version(version);
-      if (attributes.getPluginName() != null) {
-        component.formatAttributes().set(PLUGIN_NAME, attributes.getPluginName());
-      }
+      setSearchAttributes(component, attributes);
 
       tx.saveComponent(component);
     }
@@ -84,13 +184,29 @@ public class P2FacetImpl
     return component;
   }
 
-  @TransactionalStoreBlob
+  @Override
+  public P2CreateLocks.Section lockForCreate(final P2Attributes attributes) {
+    return createLocks.lock(attributes.getComponentName(), attributes.getComponentVersion(), attributes.getPath());
+  }
+
   @Override
   public Content doCreateOrSaveComponent(final P2Attributes p2Attributes,
                                          final TempBlob componentContent,
                                          final Payload payload,
                                          final AssetKind assetKind) throws IOException
   {
+    try (P2CreateLocks.Section section = lockForCreate(p2Attributes)) {
+      return createOrSaveComponent(p2Attributes, componentContent, payload, assetKind);
+    }
+  }
+
+  @TransactionalStoreBlob
+  protected Content createOrSaveComponent(final P2Attributes p2Attributes,
+                                          final TempBlob componentContent,
+                                          final Payload payload,
+                                          final AssetKind assetKind) throws IOException
+  {
+    createLocks.attempt();
     StorageTx tx = UnitOfWork.currentTx();
     Bucket bucket = tx.findBucket(getRepository());
 
@@ -152,6 +268,20 @@ public class P2FacetImpl
                                  final String name,
                                  final String version)
   {
+    P2LookupCache cache = lookupCache != null && repository.equals(getRepository()) ? lookupCache : null;
+    if (cache != null) {
+      EntityId id = cache.getComponentId(name, version);
+      if (id != null) {
+        Component component = tx.findComponentInBucket(id, tx.findBucket(repository));
+        if (component != null && name.equals(component.name()) && Objects.equals(version, component.version())) {
+          cache.getComponentHits().inc();
+          return component;
+        }
+        cache.invalidateComponent(name, version);
+      }
+      cache.getComponentMisses().inc();
+    }
+
     Iterable<Component> components = tx.findComponents(
         Query.builder()
             .where(P_NAME).eq(name)
@@ -160,7 +290,11 @@ public class P2FacetImpl
         singletonList(repository)
     );
     if (components.iterator().hasNext()) {
-      return components.iterator().next();
+      Component component = components.iterator().next();
+      if (cache != null && EntityHelper.hasMetadata(component)) {
+        cache.putComponent(name, version, EntityHelper.id(component));
+      }
+      return component;
     }
     return null;
   }
@@ -173,7 +307,25 @@ public class P2FacetImpl
   @Nullable
   @Override
   public Asset findAsset(final StorageTx tx, final Bucket bucket, final String assetName) {
-    return tx.findAssetWithProperty(MetadataNodeEntityAdapter.P_NAME, assetName, bucket);
+    P2LookupCache cache = lookupCache;
+    if (cache != null) {
+      EntityId id = cache.getAssetId(assetName);
+      if (id != null) {
+        Asset asset = tx.findAsset(id, bucket);
+        if (asset != null && assetName.equals(asset.name())) {
+          cache.getAssetHits().inc();
+          return asset;
+        }
+        cache.invalidateAsset(assetName);
+      }
+      cache.getAssetMisses().inc();
+    }
+
+    Asset asset = tx.findAssetWithProperty(MetadataNodeEntityAdapter.P_NAME, assetName, bucket);
+    if (asset != null && cache != null && EntityHelper.hasMetadata(asset)) {
+      cache.putAsset(assetName, EntityHelper.id(asset));
+    }
+    return asset;
   }
 
   /**
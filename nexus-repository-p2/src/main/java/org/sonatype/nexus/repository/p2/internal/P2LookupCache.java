@@ -0,0 +1,105 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal;
+
+import javax.annotation.Nullable;
+
+import org.sonatype.nexus.common.entity.EntityId;
+
+import com.codahale.metrics.Counter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Remembers the ids of the assets and components of a repository by path and by name and version, so they are loaded
+ * by id rather than looked up by their indexed properties.
+ *
+ * Remembered ids are only hints: entities loaded by id are checked to still have the path or name and version they were
+ * remembered for, and are forgotten otherwise.
+ *
+ * @since 1.1.14
+ */
+public class P2LookupCache
+{
+  private final Cache<String, EntityId> assets;
+
+  private final Cache<String, EntityId> components;
+
+  private final Counter assetHits = new Counter();
+
+  private final Counter assetMisses = new Counter();
+
+  private final Counter componentHits = new Counter();
+
+  private final Counter componentMisses = new Counter();
+
+  public P2LookupCache(final long maximumSize) {
+    this.assets = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+    this.components = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+  }
+
+  @Nullable
+  public EntityId getAssetId(final String path) {
+    return assets.getIfPresent(path);
+  }
+
+  public void putAsset(final String path, final EntityId id) {
+    assets.put(path, id);
+  }
+
+  public void invalidateAsset(final String path) {
+    assets.invalidate(path);
+  }
+
+  @Nullable
+  public EntityId getComponentId(final String name, final String version) {
+    return components.getIfPresent(key(name, version));
+  }
+
+  public void putComponent(final String name, final String version, final EntityId id) {
+    components.put(key(name, version), id);
+  }
+
+  public void invalidateComponent(final String name, final String version) {
+    components.invalidate(key(name, version));
+  }
+
+  public void invalidateAll() {
+    assets.invalidateAll();
+    components.invalidateAll();
+  }
+
+  public long size() {
+    return assets.size() + components.size();
+  }
+
+  public Counter getAssetHits() {
+    return assetHits;
+  }
+
+  public Counter getAssetMisses() {
+    return assetMisses;
+  }
+
+  public Counter getComponentHits() {
+    return componentHits;
+  }
+
+  public Counter getComponentMisses() {
+    return componentMisses;
+  }
+
+  private static String key(final String name, final String version) {
+    return name + '\n' + version;
+  }
+}
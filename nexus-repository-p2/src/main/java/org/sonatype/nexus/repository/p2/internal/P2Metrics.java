@@ -0,0 +1,91 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal;
+
+import org.sonatype.nexus.repository.Repository;
+
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+
+/**
+ * Registers p2 metrics with the shared Nexus metric registry.
+ *
+ * Per repository metrics are named {@code org.sonatype.nexus.repository.p2.<repository>.<group>.<name>}, metrics
+ * shared by all repositories {@code org.sonatype.nexus.repository.p2.<group>.<name>}.
+ *
+ * @since 1.1.14
+ */
+public final class P2Metrics
+{
+  private static final String REGISTRY_NAME = "nexus";
+
+  private static final String METRIC_PREFIX = "org.sonatype.nexus.repository.p2";
+
+  private P2Metrics() {
+    throw new UnsupportedOperationException();
+  }
+
+  public static String name(final Repository repository, final String group, final String... names) {
+    return MetricRegistry.name(prefix(repository, group), names);
+  }
+
+  /**
+   * Register the metric, replacing any metric previously registered under the same name.
+   */
+  public static <T extends Metric> T register(
+      final Repository repository,
+      final String group,
+      final String name,
+      final T metric)
+  {
+    MetricRegistry registry = registry();
+    String metricName = name(repository, group, name);
+    registry.remove(metricName);
+    return registry.register(metricName, metric);
+  }
+
+  /**
+   * Register the metric shared by all repositories, replacing any metric previously registered under the same name.
+   */
+  public static <T extends Metric> T register(final String group, final String name, final T metric) {
+    MetricRegistry registry = registry();
+    String metricName = MetricRegistry.name(METRIC_PREFIX, group, name);
+    registry.remove(metricName);
+    return registry.register(metricName, metric);
+  }
+
+  /**
+   * Remove all metrics of the group shared by all repositories.
+   */
+  public static void removeAll(final String group) {
+    String prefix = MetricRegistry.name(METRIC_PREFIX, group) + '.';
+    registry().removeMatching((name, metric) -> name.startsWith(prefix));
+  }
+
+  /**
+   * Remove all metrics of the group registered for the repository.
+   */
+  public static void removeAll(final Repository repository, final String group) {
+    String prefix = prefix(repository, group) + '.';
+    registry().removeMatching((name, metric) -> name.startsWith(prefix));
+  }
+
+  private static String prefix(final Repository repository, final String group) {
+    return MetricRegistry.name(METRIC_PREFIX, repository.getName(), group);
+  }
+
+  private static MetricRegistry registry() {
+    return SharedMetricRegistries.getOrCreate(REGISTRY_NAME);
+  }
+}
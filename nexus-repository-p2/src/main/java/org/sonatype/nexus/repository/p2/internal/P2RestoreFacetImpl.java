@@ -13,7 +13,9 @@
 package org.sonatype.nexus.repository.p2.internal;
 
 import java.io.IOException;
+import java.util.Optional;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Named;
 
@@ -24,6 +26,8 @@ import org.sonatype.nexus.repository.cache.CacheControllerHolder;
 import org.sonatype.nexus.repository.p2.P2Facet;
 import org.sonatype.nexus.repository.p2.P2RestoreFacet;
 import org.sonatype.nexus.repository.p2.internal.metadata.P2Attributes;
+import org.sonatype.nexus.repository.p2.internal.search.P2SearchFacet;
+import org.sonatype.nexus.repository.p2.internal.util.ContentMetadataAttributes;
 import org.sonatype.nexus.repository.p2.internal.util.P2PathUtils;
 import org.sonatype.nexus.repository.p2.internal.util.P2TempBlobUtils;
 import org.sonatype.nexus.repository.storage.Asset;
@@ -49,9 +53,17 @@ public class P2RestoreFacetImpl
 {
   private final P2TempBlobUtils p2TempBlobUtils;
 
+  private final ContentMetadataAttributes contentMetadataAttributes;
+
+  private volatile boolean restoring;
+
   @Inject
-  public P2RestoreFacetImpl(final P2TempBlobUtils p2TempBlobUtils) {
+  public P2RestoreFacetImpl(
+      final P2TempBlobUtils p2TempBlobUtils,
+      final ContentMetadataAttributes contentMetadataAttributes)
+  {
     this.p2TempBlobUtils = p2TempBlobUtils;
+    this.contentMetadataAttributes = contentMetadataAttributes;
   }
 
   @Override
@@ -64,12 +76,17 @@ public class P2RestoreFacetImpl
     if (componentRequired(path)) {
       P2Attributes attributes = P2Attributes.builder().build();
       try {
-        attributes = getComponentAttributes(assetBlob.getBlob(), path);
+        attributes = getComponentAttributes(tx, assetBlob.getBlob(), path);
       }
       catch (IOException e) {
         log.error("Exception of extracting components attributes from blob {}", assetBlob);
       }
 
+      if (!restoring) {
+        // one bulk window of index updates for the whole restore
+        restoring = true;
+        P2SearchFacet.openBulk(getRepository());
+      }
       Component component = facet.findOrCreateComponent(tx, attributes);
       asset = facet.findOrCreateAsset(tx, component, path, attributes);
     }
@@ -82,6 +99,14 @@ public class P2RestoreFacetImpl
     tx.saveAsset(asset);
   }
 
+  @Override
+  public void restoreFinished() {
+    if (restoring) {
+      restoring = false;
+      P2SearchFacet.closeBulk(getRepository());
+    }
+  }
+
   @Override
   @TransactionalTouchBlob
   public boolean assetExists(final String path) {
@@ -100,13 +125,16 @@ public class P2RestoreFacetImpl
   public Query getComponentQuery(final Blob blob, final String blobName, final String blobStoreName)
       throws IOException
   {
-    P2Attributes attributes = getComponentAttributes(blob, blobName);
+    P2Attributes attributes = getComponentAttributes(null, blob, blobName);
 
     return Query.builder().where(P_NAME).eq(attributes.getComponentName())
         .and(P_VERSION).eq(attributes.getComponentVersion()).build();
   }
 
-  private P2Attributes getComponentAttributes(final Blob blob, final String blobName)
+  /**
+   * @param tx the transaction in progress, if any
+   */
+  private P2Attributes getComponentAttributes(@Nullable final StorageTx tx, final Blob blob, final String blobName)
       throws IOException
   {
     P2Attributes attributes;
@@ -115,8 +143,22 @@ public class P2RestoreFacetImpl
       attributes = P2PathUtils.getBinaryAttributesFromBlobName(blobName);
     }
     else {
-      StorageFacet storageFacet = facet(StorageFacet.class);
-      attributes = P2PathUtils.getPackageAttributesFromBlob(storageFacet, p2TempBlobUtils, blob, blobName);
+      // the cached site metadata lists most bundles, only those it misses are opened
+      P2Attributes source = P2Attributes.builder().path(blobName).build();
+      Optional<P2Attributes> known = tx != null ? contentMetadataAttributes.mergeAttributes(tx, getRepository(), source)
+          : contentMetadataAttributes.mergeAttributes(getRepository(), source);
+      if (known.isPresent()) {
+        attributes = P2Attributes.builder()
+            .componentName(known.get().getComponentName())
+            .componentVersion(known.get().getComponentVersion())
+            .pluginName(known.get().getPluginName())
+            .assetKind(assetKind)
+            .build();
+      }
+      else {
+        StorageFacet storageFacet = facet(StorageFacet.class);
+        attributes = P2PathUtils.getPackageAttributesFromBlob(storageFacet, p2TempBlobUtils, blob, blobName);
+      }
     }
 
     return attributes;
@@ -0,0 +1,182 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.group;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.sonatype.nexus.common.io.SafeXml;
+import org.sonatype.nexus.repository.p2.internal.metadata.MetadataXml;
+import org.sonatype.nexus.repository.p2.internal.proxy.CompositeFlattener;
+import org.sonatype.nexus.repository.view.Content;
+import org.sonatype.nexus.repository.view.payloads.BytesPayload;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static javax.xml.stream.XMLStreamConstants.START_ELEMENT;
+
+/**
+ * The members of a group as the sites of a composite repository at the root of the group, so they are merged like the
+ * sites of a composite proxy. The sites of a member are its root, followed by {@code /}, and the sites of the
+ * composite metadata it serves, e.g. {@code member/0123.../}.
+ *
+ * @since 1.1.14
+ */
+public class MemberSites
+    implements CompositeFlattener.Sites
+{
+  /**
+   * Gets the assets of the members.
+   */
+  @FunctionalInterface
+  public interface Members
+  {
+    /**
+     * Get the asset at the path of the member as a request would.
+     *
+     * @return {@code null} if there is no such asset
+     */
+    @Nullable
+    Content get(String member, String path) throws IOException;
+  }
+
+  private static final String COMPOSITE_PREFIX = "composite";
+
+  private final List<String> members;
+
+  private final Members assets;
+
+  public MemberSites(final List<String> members, final Members assets) {
+    this.members = checkNotNull(members);
+    this.assets = checkNotNull(assets);
+  }
+
+  /**
+   * The composite metadata at the root of the group, whose children are the members, or the asset of a member.
+   */
+  @Nullable
+  @Override
+  public Content get(final String path) throws IOException {
+    int slash = path.indexOf('/');
+    if (slash < 0) {
+      return path.startsWith(COMPOSITE_PREFIX) ? new Content(new BytesPayload(new byte[0], "text/xml")) : null;
+    }
+    String member = path.substring(0, slash);
+    return members.contains(member) ? assets.get(member, path.substring(slash + 1)) : null;
+  }
+
+  /**
+   * The members for the composite metadata at the root of the group, else the child sites of the composite metadata
+   * of a member which are served by the member too.
+   */
+  @Override
+  public List<String> getChildren(final String path) {
+    int slash = path.indexOf('/');
+    if (slash < 0) {
+      List<String> sites = new ArrayList<>();
+      members.forEach(member -> sites.add(member + '/'));
+      return sites;
+    }
+    try {
+      Content content = get(path);
+      if (content == null) {
+        return Collections.emptyList();
+      }
+      String name = path.substring(path.lastIndexOf('/') + 1);
+      List<String> locations;
+      try (InputStream in = MetadataXml.openMetadataXml(name, entryName(name), content.openInputStream())) {
+        locations = readChildLocations(in);
+      }
+      List<String> sites = new ArrayList<>();
+      for (String location : locations) {
+        String site = resolve(path, location);
+        if (site != null && !sites.contains(site)) {
+          sites.add(site);
+        }
+      }
+      return sites;
+    }
+    catch (IOException e) {
+      return Collections.emptyList();
+    }
+  }
+
+  /**
+   * The site of the child location of the composite metadata at the path, {@code null} when the child is not served
+   * by the same member, e.g. when it is an absolute URL.
+   */
+  @Nullable
+  @VisibleForTesting
+  static String resolve(final String path, final String location) {
+    URI uri;
+    try {
+      uri = URI.create("member:/" + path).resolve(location.endsWith("/") ? location : location + '/');
+    }
+    catch (IllegalArgumentException e) {
+      return null;
+    }
+    String member = path.substring(0, path.indexOf('/') + 1);
+    if (!"member".equals(uri.getScheme()) || uri.getAuthority() != null || uri.getPath() == null
+        || !uri.getPath().startsWith('/' + member) || uri.getPath().length() == member.length() + 1) {
+      return null;
+    }
+    return uri.getPath().substring(1);
+  }
+
+  @VisibleForTesting
+  static List<String> readChildLocations(final InputStream in) throws IOException {
+    List<String> locations = new ArrayList<>();
+    XMLStreamReader reader = null;
+    try {
+      reader = SafeXml.newXmlInputFactory().createXMLStreamReader(in);
+      while (reader.hasNext()) {
+        if (reader.next() == START_ELEMENT && "child".equals(reader.getLocalName())) {
+          String location = reader.getAttributeValue(null, "location");
+          if (location != null) {
+            locations.add(location);
+          }
+        }
+      }
+      return locations;
+    }
+    catch (XMLStreamException e) {
+      throw new IOException(e);
+    }
+    finally {
+      if (reader != null) {
+        try {
+          reader.close();
+        }
+        catch (XMLStreamException e) {
+          // ignore
+        }
+      }
+    }
+  }
+
+  /**
+   * The name of the xml in the composite metadata jar, e.g. {@code compositeContent.xml}.
+   */
+  private static String entryName(final String name) {
+    return name.substring(0, name.indexOf('.')) + ".xml";
+  }
+}
@@ -0,0 +1,38 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.group;
+
+import javax.annotation.Nullable;
+
+/**
+ * The {@code p2} section of a p2 group repository configuration. An absent section retains the default behaviour.
+ *
+ * @since 1.1.14
+ */
+public class P2GroupConfig
+{
+  public static final String CONFIG_KEY = "p2";
+
+  /**
+   * Serve the members merged into a single repository rather than as the children of a composite repository.
+   */
+  @Nullable
+  public Boolean mergeMembers;
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "{" +
+        "mergeMembers=" + mergeMembers +
+        '}';
+  }
+}
@@ -0,0 +1,396 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.group;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.validation.groups.Default;
+
+import org.sonatype.nexus.repository.FacetSupport;
+import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.config.Configuration;
+import org.sonatype.nexus.repository.config.ConfigurationFacet;
+import org.sonatype.nexus.repository.group.GroupFacet;
+import org.sonatype.nexus.repository.p2.P2GroupFacet;
+import org.sonatype.nexus.repository.p2.internal.AssetKind;
+import org.sonatype.nexus.repository.p2.internal.metadata.MetadataMerger.Kind;
+import org.sonatype.nexus.repository.p2.internal.proxy.CompositeFlattener;
+import org.sonatype.nexus.repository.p2.internal.util.FlattenedRepositories;
+import org.sonatype.nexus.repository.proxy.ProxyFacet;
+import org.sonatype.nexus.repository.proxy.ProxyFacetSupport;
+import org.sonatype.nexus.repository.storage.AssetCreatedEvent;
+import org.sonatype.nexus.repository.storage.AssetDeletedEvent;
+import org.sonatype.nexus.repository.storage.AssetEvent;
+import org.sonatype.nexus.repository.storage.AssetUpdatedEvent;
+import org.sonatype.nexus.repository.view.Content;
+import org.sonatype.nexus.repository.view.Context;
+import org.sonatype.nexus.repository.view.Request;
+import org.sonatype.nexus.repository.view.Response;
+import org.sonatype.nexus.repository.view.ViewFacet;
+import org.sonatype.nexus.repository.view.payloads.BytesPayload;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.eventbus.AllowConcurrentEvents;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.hash.Hashing;
+import org.joda.time.DateTime;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Throwables.throwIfInstanceOf;
+import static com.google.common.base.Throwables.throwIfUnchecked;
+import static java.lang.Boolean.TRUE;
+import static org.sonatype.nexus.repository.cache.CacheControllerHolder.METADATA;
+import static org.sonatype.nexus.repository.http.HttpMethods.GET;
+import static org.sonatype.nexus.repository.storage.AssetEntityAdapter.P_ASSET_KIND;
+
+/**
+ * P2 group facet.
+ *
+ * The composite metadata is generated once for the members, its children are the members below the group, e.g.
+ * {@code member/}, so clients resolve every member through the group. The merged metadata is merged again only once
+ * the version of the metadata of a member changed, and the artifacts of the merged group are served by the site
+ * whose metadata they were taken from. The members are walked again once the metadata of a member is stored or
+ * deleted, or once the metadata of a proxy member may have expired.
+ *
+ * @since 1.1.14
+ */
+@Named
+public class P2GroupFacetImpl
+    extends FacetSupport
+    implements P2GroupFacet
+{
+  public static final String COMPOSITE_CONTENT = "compositeContent.xml";
+
+  public static final String COMPOSITE_ARTIFACTS = "compositeArtifacts.xml";
+
+  private static final String COMPOSITE_INDEX = "version=1\n" +
+      "metadata.repository.factory.order=compositeContent.xml,\\!\n" +
+      "artifact.repository.factory.order=compositeArtifacts.xml,\\!\n";
+
+  private static final String TEXT_CONTENT_TYPE = "text/plain";
+
+  private static final String XML_CONTENT_TYPE = "text/xml";
+
+  private static final String PROXY_CONFIG_KEY = "proxy";
+
+  private final FlattenedRepositories flattenedRepositories;
+
+  private P2GroupConfig p2Config = new P2GroupConfig();
+
+  @Nullable
+  private volatile Composite composite;
+
+  /**
+   * The request the members are merged for, so they are requested in its context.
+   */
+  private final ThreadLocal<Context> requests = new ThreadLocal<>();
+
+  private final Object flattenerLock = new Object();
+
+  @Nullable
+  private volatile CompositeFlattener flattener;
+
+  @Inject
+  public P2GroupFacetImpl(final FlattenedRepositories flattenedRepositories) {
+    this.flattenedRepositories = checkNotNull(flattenedRepositories);
+  }
+
+  @Override
+  protected void doValidate(final Configuration configuration) throws Exception {
+    super.doValidate(configuration);
+    facet(ConfigurationFacet.class).validateSection(configuration, P2GroupConfig.CONFIG_KEY, P2GroupConfig.class,
+        Default.class, getRepository().getType().getValidationGroup());
+  }
+
+  @Override
+  protected void doConfigure(final Configuration configuration) throws Exception {
+    super.doConfigure(configuration);
+    p2Config = Optional.ofNullable(facet(ConfigurationFacet.class)
+        .readSection(configuration, P2GroupConfig.CONFIG_KEY, P2GroupConfig.class))
+        .orElseGet(P2GroupConfig::new);
+    log.debug("p2 config: {}", p2Config);
+    // the members may have changed
+    composite = null;
+    flattener = null;
+  }
+
+  @Override
+  protected void doDelete() throws Exception {
+    super.doDelete();
+    flattenedRepositories.delete(getRepository());
+  }
+
+  @Override
+  protected void doDestroy() throws Exception {
+    super.doDestroy();
+    p2Config = new P2GroupConfig();
+    composite = null;
+    flattener = null;
+  }
+
+  @Subscribe
+  @AllowConcurrentEvents
+  protected void on(final AssetCreatedEvent event) {
+    invalidateFlattener(event);
+  }
+
+  @Subscribe
+  @AllowConcurrentEvents
+  protected void on(final AssetUpdatedEvent event) {
+    invalidateFlattener(event);
+  }
+
+  @Subscribe
+  @AllowConcurrentEvents
+  protected void on(final AssetDeletedEvent event) {
+    invalidateFlattener(event);
+  }
+
+  /**
+   * Walk the members again once the metadata of a member changed, the metadata whose version did not change is not
+   * merged again.
+   */
+  private void invalidateFlattener(final AssetEvent event) {
+    CompositeFlattener current = flattener;
+    if (current != null && isMetadata(event.getAsset().formatAttributes().get(P_ASSET_KIND))
+        && facet(GroupFacet.class).leafMembers().stream()
+        .anyMatch(member -> member.getName().equals(event.getRepositoryName()))) {
+      current.invalidate();
+    }
+  }
+
+  private static boolean isMetadata(@Nullable final Object assetKind) {
+    for (AssetKind kind : AssetKind.values()) {
+      if (kind.name().equals(assetKind)) {
+        return kind.getCacheType() == METADATA;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * The {@code p2.index} and the composite metadata, or the {@code p2.index} and the metadata jars of the merged
+   * members.
+   */
+  @Nullable
+  @Override
+  public Content getMetadata(final Context context, final String path) throws IOException {
+    if (!TRUE.equals(p2Config.mergeMembers)) {
+      switch (path) {
+        case CompositeFlattener.P2_INDEX:
+          return new Content(new BytesPayload(COMPOSITE_INDEX.getBytes(StandardCharsets.UTF_8), TEXT_CONTENT_TYPE));
+        case COMPOSITE_CONTENT:
+          return getComposite().toContent(Kind.CONTENT);
+        case COMPOSITE_ARTIFACTS:
+          return getComposite().toContent(Kind.ARTIFACTS);
+        default:
+          return null;
+      }
+    }
+
+    switch (path) {
+      case CompositeFlattener.P2_INDEX:
+        return flattener().getIndex();
+      case CompositeFlattener.CONTENT_JAR:
+        return flatten(context, flattener -> flattener.getMetadata(Kind.CONTENT));
+      case CompositeFlattener.ARTIFACTS_JAR:
+        return flatten(context, flattener -> flattener.getMetadata(Kind.ARTIFACTS));
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * The site from the artifacts metadata merged last, which clients fetch before the artifacts, merging it if it was
+   * not merged yet.
+   */
+  @Nullable
+  @Override
+  public String findSite(final Context context, final String artifactKey) throws IOException {
+    if (!TRUE.equals(p2Config.mergeMembers)) {
+      return null;
+    }
+    return flatten(context, flattener -> flattener.findSite(artifactKey));
+  }
+
+  /**
+   * Calls the flattener of the group, which requests the metadata of the members it walks in the context of the
+   * request.
+   */
+  @Nullable
+  private <T> T flatten(final Context context, final FlattenerCall<T> call) throws IOException {
+    Context previous = requests.get();
+    requests.set(context);
+    try {
+      return call.call(flattener());
+    }
+    finally {
+      if (previous == null) {
+        requests.remove();
+      }
+      else {
+        requests.set(previous);
+      }
+    }
+  }
+
+  /**
+   * The flattener of the current configuration, created once the members are first merged.
+   */
+  private CompositeFlattener flattener() {
+    CompositeFlattener current = flattener;
+    if (current == null) {
+      synchronized (flattenerLock) {
+        current = flattener;
+        if (current == null) {
+          current = new CompositeFlattener(getRepository(), flattenedRepositories,
+              new MemberSites(new ArrayList<>(members().keySet()), this::get), maxAgeMillis());
+          flattener = current;
+        }
+      }
+    }
+    return current;
+  }
+
+  /**
+   * The shortest time the metadata of a proxy member is cached for, so it is requested again once it may have
+   * expired, negative when no member is a proxy and the members are walked again only once their metadata changed.
+   */
+  private long maxAgeMillis() {
+    long maxAgeMillis = -1;
+    for (Repository member : facet(GroupFacet.class).leafMembers()) {
+      if (!member.optionalFacet(ProxyFacet.class).isPresent()) {
+        continue;
+      }
+      ProxyFacetSupport.Config proxyConfig = member.facet(ConfigurationFacet.class)
+          .readSection(member.getConfiguration(), PROXY_CONFIG_KEY, ProxyFacetSupport.Config.class);
+      if (proxyConfig != null && proxyConfig.metadataMaxAge >= 0) {
+        long memberMaxAge = TimeUnit.MINUTES.toMillis(proxyConfig.metadataMaxAge);
+        maxAgeMillis = maxAgeMillis < 0 ? memberMaxAge : Math.min(maxAgeMillis, memberMaxAge);
+      }
+    }
+    return maxAgeMillis;
+  }
+
+  private Map<String, Repository> members() {
+    Map<String, Repository> members = new LinkedHashMap<>();
+    facet(GroupFacet.class).members().forEach(member -> members.put(member.getName(), member));
+    return members;
+  }
+
+  /**
+   * Requests the asset of the member in the context of the request to the group.
+   */
+  @Nullable
+  private Content get(final String memberName, final String path) throws IOException {
+    Repository member = members().get(memberName);
+    if (member == null) {
+      return null;
+    }
+    Request request = new Request.Builder().action(GET).path('/' + path).build();
+    Response response;
+    try {
+      response = member.facet(ViewFacet.class).dispatch(request, requests.get());
+    }
+    catch (Exception e) {
+      // only the checked exceptions other than IOException are wrapped
+      throwIfInstanceOf(e, IOException.class);
+      throwIfUnchecked(e);
+      throw new IOException(e);
+    }
+    return response.getStatus().isSuccessful() && response.getPayload() instanceof Content
+        ? (Content) response.getPayload() : null;
+  }
+
+  private Composite getComposite() {
+    List<String> members = new ArrayList<>(members().keySet());
+    Composite current = composite;
+    if (current == null || !current.members.equals(members)) {
+      current = new Composite(getRepository().getName(), members, System.currentTimeMillis());
+      composite = current;
+    }
+    return current;
+  }
+
+  /**
+   * The composite metadata of the kind whose children are the members.
+   */
+  @VisibleForTesting
+  static String compositeXml(final Kind kind, final String name, final long timestamp, final List<String> members) {
+    boolean content = kind == Kind.CONTENT;
+    StringBuilder xml = new StringBuilder("<?xml version='1.0' encoding='UTF-8'?>\n")
+        .append(content ? "<?compositeMetadataRepository" : "<?compositeArtifactRepository")
+        .append(" version='1.0.0'?>\n")
+        .append("<repository name='").append(name).append("' type='")
+        .append(content ? "org.eclipse.equinox.internal.p2.metadata.repository.CompositeMetadataRepository"
+            : "org.eclipse.equinox.internal.p2.artifact.repository.CompositeArtifactRepository")
+        .append("' version='1.0.0'>\n")
+        .append("  <properties size='2'>\n")
+        .append("    <property name='p2.timestamp' value='").append(timestamp).append("'/>\n")
+        // a member which is not available does not fail loading the others
+        .append("    <property name='p2.atomic.composite.loading' value='false'/>\n")
+        .append("  </properties>\n")
+        .append("  <children size='").append(members.size()).append("'>\n");
+    for (String member : members) {
+      xml.append("    <child location='").append(member).append("/'/>\n");
+    }
+    return xml.append("  </children>\n").append("</repository>\n").toString();
+  }
+
+  @FunctionalInterface
+  private interface FlattenerCall<T>
+  {
+    @Nullable
+    T call(CompositeFlattener flattener) throws IOException;
+  }
+
+  /**
+   * The composite metadata generated for the members.
+   */
+  private static final class Composite
+  {
+    private final List<String> members;
+
+    private final long timestamp;
+
+    private final byte[] content;
+
+    private final byte[] artifacts;
+
+    Composite(final String name, final List<String> members, final long timestamp) {
+      this.members = members;
+      this.timestamp = timestamp;
+      this.content = compositeXml(Kind.CONTENT, name, timestamp, members).getBytes(StandardCharsets.UTF_8);
+      this.artifacts = compositeXml(Kind.ARTIFACTS, name, timestamp, members).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @SuppressWarnings("deprecation")
+    Content toContent(final Kind kind) {
+      byte[] bytes = kind == Kind.CONTENT ? content : artifacts;
+      Content result = new Content(new BytesPayload(bytes, XML_CONTENT_TYPE));
+      result.getAttributes().set(Content.CONTENT_LAST_MODIFIED, new DateTime(timestamp));
+      result.getAttributes().set(Content.CONTENT_ETAG, Hashing.sha1().hashBytes(bytes).toString());
+      return result;
+    }
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.group;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.group.GroupFacet;
+import org.sonatype.nexus.repository.group.GroupHandler;
+import org.sonatype.nexus.repository.p2.P2GroupFacet;
+import org.sonatype.nexus.repository.p2.internal.proxy.CompositeFlattener;
+import org.sonatype.nexus.repository.view.Content;
+import org.sonatype.nexus.repository.view.Context;
+import org.sonatype.nexus.repository.view.Request;
+import org.sonatype.nexus.repository.view.Response;
+import org.sonatype.nexus.repository.view.ViewFacet;
+
+import static org.sonatype.nexus.repository.http.HttpResponses.notFound;
+import static org.sonatype.nexus.repository.http.HttpResponses.ok;
+
+/**
+ * Serves the metadata generated by the {@link P2GroupFacet}, and dispatches the requests below a member, e.g.
+ * {@code member/plugins/...}, and the requests for the artifacts of the merged group to the single member serving
+ * them. Other requests, or artifacts the member serving them does not have, are looked up in the members in turn.
+ *
+ * @since 1.1.14
+ */
+@Named
+@Singleton
+public class P2GroupHandler
+    extends GroupHandler
+{
+  private static final Pattern ARTIFACT = Pattern.compile(
+      "(features|plugins|binary)/(.+)_(\\d+\\.\\d+\\.\\d+(\\.[A-Za-z0-9_-]+)?)(\\.jar(\\.pack\\.gz)?)?");
+
+  @Override
+  protected Response doGet(@Nonnull final Context context, @Nonnull final DispatchedRepositories dispatched)
+      throws Exception
+  {
+    String path = context.getRequest().getPath().substring(1);
+    int slash = path.indexOf('/');
+    if (slash < 0) {
+      Content metadata = context.getRepository().facet(P2GroupFacet.class).getMetadata(context, path);
+      return metadata == null ? notFound() : ok(metadata);
+    }
+
+    String site = findSite(context, path);
+    if (site != null) {
+      Response response = dispatch(context, site + path);
+      if (response != null && response.getStatus().isSuccessful()) {
+        return response;
+      }
+      log.debug("Artifact {} not found in {} of {}", path, site, context.getRepository().getName());
+    }
+    else {
+      Response response = dispatch(context, path);
+      if (response != null) {
+        return response;
+      }
+    }
+    return super.doGet(context, dispatched);
+  }
+
+  /**
+   * The site of the group serving the artifact at the path, {@code null} if the path is not an artifact of the
+   * merged group.
+   */
+  @Nullable
+  private static String findSite(final Context context, final String path) throws Exception {
+    Matcher matcher = ARTIFACT.matcher(path);
+    if (!matcher.matches()) {
+      return null;
+    }
+    return context.getRepository().facet(P2GroupFacet.class)
+        .findSite(context, CompositeFlattener.artifactKey(matcher.group(1), matcher.group(2), matcher.group(3)));
+  }
+
+  /**
+   * Dispatch the request to the member the path of the group is below.
+   *
+   * @return {@code null} if the path is not below a member
+   */
+  @Nullable
+  private static Response dispatch(final Context context, final String path) throws Exception {
+    int slash = path.indexOf('/');
+    String name = path.substring(0, slash);
+    for (Repository member : context.getRepository().facet(GroupFacet.class).members()) {
+      if (member.getName().equals(name)) {
+        Request request = new Request.Builder().copy(context.getRequest()).path(path.substring(slash)).build();
+        return member.facet(ViewFacet.class).dispatch(request, context);
+      }
+    }
+    return null;
+  }
+}
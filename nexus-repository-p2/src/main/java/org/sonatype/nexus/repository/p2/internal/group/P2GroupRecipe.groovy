@@ -0,0 +1,139 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.group
+
+import javax.annotation.Nonnull
+import javax.inject.Inject
+import javax.inject.Named
+import javax.inject.Provider
+import javax.inject.Singleton
+
+import org.sonatype.nexus.repository.Format
+import org.sonatype.nexus.repository.RecipeSupport
+import org.sonatype.nexus.repository.Repository
+import org.sonatype.nexus.repository.Type
+import org.sonatype.nexus.repository.attributes.AttributesFacet
+import org.sonatype.nexus.repository.group.GroupFacetImpl
+import org.sonatype.nexus.repository.http.HttpHandlers
+import org.sonatype.nexus.repository.p2.internal.P2Format
+import org.sonatype.nexus.repository.p2.internal.security.P2SecurityFacet
+import org.sonatype.nexus.repository.security.SecurityHandler
+import org.sonatype.nexus.repository.storage.StorageFacet
+import org.sonatype.nexus.repository.types.GroupType
+import org.sonatype.nexus.repository.view.ConfigurableViewFacet
+import org.sonatype.nexus.repository.view.Route
+import org.sonatype.nexus.repository.view.Router.Builder
+import org.sonatype.nexus.repository.view.ViewFacet
+import org.sonatype.nexus.repository.view.handlers.ExceptionHandler
+import org.sonatype.nexus.repository.view.handlers.FormatHighAvailabilitySupportHandler
+import org.sonatype.nexus.repository.view.handlers.HandlerContributor
+import org.sonatype.nexus.repository.view.handlers.HighAvailabilitySupportChecker
+import org.sonatype.nexus.repository.view.handlers.TimingHandler
+import org.sonatype.nexus.repository.view.matchers.token.TokenMatcher
+
+/**
+ * P2 group repository recipe.
+ *
+ * @since 1.1.14
+ */
+@Named(P2GroupRecipe.NAME)
+@Singleton
+class P2GroupRecipe
+    extends RecipeSupport
+{
+  public static final String NAME = 'p2-group'
+
+  @Inject
+  Provider<P2SecurityFacet> securityFacet
+
+  @Inject
+  Provider<ConfigurableViewFacet> viewFacet
+
+  @Inject
+  Provider<StorageFacet> storageFacet
+
+  @Inject
+  Provider<AttributesFacet> attributesFacet
+
+  @Inject
+  Provider<GroupFacetImpl> groupFacet
+
+  @Inject
+  Provider<P2GroupFacetImpl> p2GroupFacet
+
+  @Inject
+  ExceptionHandler exceptionHandler
+
+  @Inject
+  TimingHandler timingHandler
+
+  @Inject
+  SecurityHandler securityHandler
+
+  @Inject
+  HandlerContributor handlerContributor
+
+  @Inject
+  FormatHighAvailabilitySupportHandler highAvailabilitySupportHandler
+
+  @Inject
+  HighAvailabilitySupportChecker highAvailabilitySupportChecker
+
+  @Inject
+  P2GroupHandler groupHandler
+
+  @Inject
+  P2GroupRecipe(@Named(GroupType.NAME) final Type type,
+                @Named(P2Format.NAME) final Format format) {
+    super(type, format)
+  }
+
+  @Override
+  void apply(@Nonnull final Repository repository) throws Exception {
+    repository.attach(groupFacet.get())
+    repository.attach(storageFacet.get())
+    repository.attach(securityFacet.get())
+    repository.attach(configure(viewFacet.get()))
+    repository.attach(attributesFacet.get())
+    repository.attach(p2GroupFacet.get())
+  }
+
+  /**
+   * Configure {@link ViewFacet}.
+   */
+  private ViewFacet configure(final ConfigurableViewFacet facet) {
+    Builder builder = new Builder()
+
+    addBrowseUnsupportedRoute(builder)
+
+    builder.route(new Route.Builder().matcher(new TokenMatcher('/{path:.+}'))
+        .handler(timingHandler)
+        .handler(securityHandler)
+        .handler(highAvailabilitySupportHandler)
+        .handler(exceptionHandler)
+        .handler(handlerContributor)
+        .handler(groupHandler)
+        .create())
+
+    builder.defaultHandlers(HttpHandlers.notFound())
+
+    facet.configure(builder.create())
+
+    return facet
+  }
+
+  @Override
+  boolean isFeatureEnabled() {
+    return highAvailabilitySupportChecker.isSupported(getFormat().getValue());
+  }
+}
@@ -0,0 +1,204 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.hosted;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import javax.annotation.Nullable;
+
+import org.sonatype.goodies.common.ComponentSupport;
+
+import com.codahale.metrics.Counter;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Gathers the requests to rebuild the metadata of a repository and rebuilds it once they quieted down, so a batch of
+ * uploads is followed by a single rebuild. A rebuild is not put off longer than the maximum delay by requests which
+ * keep coming, and rebuilds never run concurrently.
+ *
+ * @since 1.1.14
+ */
+public class DebouncedRebuild
+    extends ComponentSupport
+{
+  /**
+   * Rebuilds the metadata.
+   */
+  @FunctionalInterface
+  public interface Rebuilder
+  {
+    void rebuild() throws Exception;
+  }
+
+  private static final long NONE = -1;
+
+  private final Rebuilder rebuilder;
+
+  private final long quietMillis;
+
+  private final long maxDelayMillis;
+
+  private final LongSupplier clock;
+
+  @Nullable
+  private final ScheduledExecutorService scheduler;
+
+  private final Counter requested = new Counter();
+
+  private final Counter rebuilt = new Counter();
+
+  private final Counter failures = new Counter();
+
+  private long firstRequest = NONE;
+
+  private long lastRequest = NONE;
+
+  private boolean scheduled;
+
+  public DebouncedRebuild(
+      final String name,
+      final long quietMillis,
+      final long maxDelayMillis,
+      final Rebuilder rebuilder)
+  {
+    this(rebuilder, quietMillis, maxDelayMillis, System::currentTimeMillis, Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat(name + "-%d").build()));
+  }
+
+  @VisibleForTesting
+  DebouncedRebuild(
+      final Rebuilder rebuilder,
+      final long quietMillis,
+      final long maxDelayMillis,
+      final LongSupplier clock,
+      @Nullable final ScheduledExecutorService scheduler)
+  {
+    this.rebuilder = rebuilder;
+    this.quietMillis = quietMillis;
+    this.maxDelayMillis = maxDelayMillis;
+    this.clock = clock;
+    this.scheduler = scheduler;
+  }
+
+  /**
+   * Request a rebuild, which is run once no other request came for the quiet period.
+   */
+  public void request() {
+    requested.inc();
+    synchronized (this) {
+      long now = clock.getAsLong();
+      if (firstRequest == NONE) {
+        firstRequest = now;
+      }
+      lastRequest = now;
+      if (!scheduled && scheduler != null) {
+        scheduled = schedule(quietMillis);
+      }
+    }
+  }
+
+  public synchronized boolean isPending() {
+    return firstRequest != NONE;
+  }
+
+  public Counter getRequested() {
+    return requested;
+  }
+
+  public Counter getRebuilt() {
+    return rebuilt;
+  }
+
+  public Counter getFailures() {
+    return failures;
+  }
+
+  /**
+   * Rebuild if a rebuild is due.
+   *
+   * @return the milliseconds until the pending rebuild is due, {@code 0} when no rebuild is pending (anymore)
+   */
+  @VisibleForTesting
+  long runIfDue() {
+    synchronized (this) {
+      if (firstRequest == NONE) {
+        return 0;
+      }
+      long now = clock.getAsLong();
+      long due = Math.min(lastRequest + quietMillis, firstRequest + maxDelayMillis);
+      if (now < due) {
+        return due - now;
+      }
+      // requests coming while rebuilding request another rebuild
+      firstRequest = NONE;
+      lastRequest = NONE;
+    }
+
+    try {
+      rebuilder.rebuild();
+      rebuilt.inc();
+    }
+    catch (Exception e) {
+      failures.inc();
+      log.warn("Unable to rebuild metadata, retrying: {}", e.toString(), log.isDebugEnabled() ? e : null);
+      synchronized (this) {
+        long now = clock.getAsLong();
+        if (firstRequest == NONE) {
+          firstRequest = now;
+        }
+        lastRequest = now;
+      }
+    }
+    return 0;
+  }
+
+  private void tick() {
+    long delay = runIfDue();
+    synchronized (this) {
+      if (delay > 0) {
+        scheduled = schedule(delay);
+      }
+      else if (firstRequest != NONE) {
+        scheduled = schedule(quietMillis);
+      }
+      else {
+        scheduled = false;
+      }
+    }
+  }
+
+  private boolean schedule(final long delayMillis) {
+    try {
+      scheduler.schedule(this::tick, delayMillis, TimeUnit.MILLISECONDS);
+      return true;
+    }
+    catch (RejectedExecutionException e) {
+      log.debug("Not scheduling the rebuild, shut down");
+      return false;
+    }
+  }
+
+  /**
+   * Stop rebuilding, a pending rebuild is dropped.
+   */
+  public void shutdown() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+  }
+}
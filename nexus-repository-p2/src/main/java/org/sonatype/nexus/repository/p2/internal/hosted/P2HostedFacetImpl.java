@@ -0,0 +1,596 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.hosted;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.sonatype.nexus.blobstore.api.Blob;
+import org.sonatype.nexus.blobstore.api.BlobRef;
+import org.sonatype.nexus.common.app.ApplicationDirectories;
+import org.sonatype.nexus.common.entity.EntityHelper;
+import org.sonatype.nexus.repository.FacetSupport;
+import org.sonatype.nexus.repository.InvalidContentException;
+import org.sonatype.nexus.repository.config.Configuration;
+import org.sonatype.nexus.repository.p2.P2Facet;
+import org.sonatype.nexus.repository.p2.P2HostedFacet;
+import org.sonatype.nexus.repository.p2.internal.AssetKind;
+import org.sonatype.nexus.repository.p2.internal.P2CreateLocks;
+import org.sonatype.nexus.repository.p2.internal.P2Metrics;
+import org.sonatype.nexus.repository.p2.internal.exception.AttributeParsingException;
+import org.sonatype.nexus.repository.p2.internal.metadata.MetadataMerger;
+import org.sonatype.nexus.repository.p2.internal.metadata.MetadataMerger.FragmentWriter;
+import org.sonatype.nexus.repository.p2.internal.metadata.MetadataMerger.Kind;
+import org.sonatype.nexus.repository.p2.internal.metadata.P2Attributes;
+import org.sonatype.nexus.repository.p2.internal.util.InstallableUnitPublisher;
+import org.sonatype.nexus.repository.p2.internal.util.InstallableUnitPublisher.Published;
+import org.sonatype.nexus.repository.p2.internal.util.P2ComponentUtils;
+import org.sonatype.nexus.repository.p2.internal.util.P2TempBlobUtils;
+import org.sonatype.nexus.repository.storage.Asset;
+import org.sonatype.nexus.repository.storage.AssetDeletedEvent;
+import org.sonatype.nexus.repository.storage.Bucket;
+import org.sonatype.nexus.repository.storage.Component;
+import org.sonatype.nexus.repository.storage.ComponentMaintenance;
+import org.sonatype.nexus.repository.storage.StorageFacet;
+import org.sonatype.nexus.repository.storage.StorageTx;
+import org.sonatype.nexus.repository.storage.TempBlob;
+import org.sonatype.nexus.repository.storage.WritePolicy;
+import org.sonatype.nexus.repository.transaction.TransactionalStoreBlob;
+import org.sonatype.nexus.repository.transaction.TransactionalTouchBlob;
+import org.sonatype.nexus.repository.transaction.TransactionalTouchMetadata;
+import org.sonatype.nexus.repository.view.Content;
+import org.sonatype.nexus.repository.view.Payload;
+import org.sonatype.nexus.repository.view.matchers.token.TokenMatcher;
+import org.sonatype.nexus.repository.view.payloads.StreamPayload;
+import org.sonatype.nexus.transaction.UnitOfWork;
+
+import com.codahale.metrics.Gauge;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.eventbus.AllowConcurrentEvents;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.apache.commons.compress.compressors.xz.XZCompressorOutputStream;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.sonatype.nexus.common.hash.HashAlgorithm.SHA1;
+import static org.sonatype.nexus.repository.p2.internal.AssetKind.ARTIFACTS_METADATA;
+import static org.sonatype.nexus.repository.p2.internal.AssetKind.BINARY_BUNDLE;
+import static org.sonatype.nexus.repository.p2.internal.AssetKind.BUNDLE;
+import static org.sonatype.nexus.repository.p2.internal.AssetKind.CONTENT_METADATA;
+import static org.sonatype.nexus.repository.p2.internal.AssetKind.P2_INDEX;
+import static org.sonatype.nexus.repository.p2.internal.P2FacetImpl.HASH_ALGORITHMS;
+import static org.sonatype.nexus.repository.p2.internal.util.P2PathUtils.PLUGIN_NAME;
+import static org.sonatype.nexus.repository.p2.internal.util.P2PathUtils.name;
+import static org.sonatype.nexus.repository.p2.internal.util.P2PathUtils.toP2Attributes;
+import static org.sonatype.nexus.repository.p2.internal.util.P2PathUtils.toP2AttributesBinary;
+import static org.sonatype.nexus.repository.p2.internal.util.P2PathUtils.version;
+import static org.sonatype.nexus.repository.storage.AssetEntityAdapter.P_ASSET_KIND;
+
+/**
+ * {@link P2HostedFacet} implementation.
+ *
+ * The units and artifacts of a bundle are generated as it is uploaded, to validate it, and again from its blob when the
+ * metadata of the repository is rebuilt, rather than kept with its asset where they would be indexed for search. The
+ * metadata is rebuilt in debounced batches and only once the bundles changed since it was last built, and the
+ * elements generated for unchanged bundles are remembered between rebuilds. It is served as {@code content.jar},
+ * {@code content.xml.xz}, {@code artifacts.jar} and {@code artifacts.xml.xz}, announced by the {@code p2.index}.
+ *
+ * @since 1.1.14
+ */
+@Named
+public class P2HostedFacetImpl
+    extends FacetSupport
+    implements P2HostedFacet
+{
+  /**
+   * Identifies the bundles the metadata was built from.
+   */
+  static final String SOURCE_DIGEST = "sourceDigest";
+
+  static final String P2_INDEX_NAME = "p2.index";
+
+  static final String CONTENT_JAR = "content.jar";
+
+  static final String CONTENT_XZ = "content.xml.xz";
+
+  static final String ARTIFACTS_JAR = "artifacts.jar";
+
+  static final String ARTIFACTS_XZ = "artifacts.xml.xz";
+
+  static final String INDEX = "version=1\n" +
+      "metadata.repository.factory.order=content.xml.xz,content.xml,\\!\n" +
+      "artifact.repository.factory.order=artifacts.xml.xz,artifacts.xml,\\!\n";
+
+  private static final Set<AssetKind> METADATA_KINDS = EnumSet.of(P2_INDEX, CONTENT_METADATA, ARTIFACTS_METADATA);
+
+  private static final long QUIET_MILLIS = TimeUnit.SECONDS.toMillis(2);
+
+  private static final long MAX_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+  private static final String METRICS_GROUP = "hosted";
+
+  private static final long PUBLISHED_CACHE_SIZE = 5_000;
+
+  private final P2TempBlobUtils p2TempBlobUtils;
+
+  private final InstallableUnitPublisher publisher;
+
+  private final ApplicationDirectories applicationDirectories;
+
+  /**
+   * The elements generated for bundles, keyed by their name and SHA-1.
+   */
+  private final Cache<String, Published> published =
+      CacheBuilder.newBuilder().maximumSize(PUBLISHED_CACHE_SIZE).build();
+
+  @Nullable
+  private DebouncedRebuild rebuilds;
+
+  @Inject
+  public P2HostedFacetImpl(
+      final P2TempBlobUtils p2TempBlobUtils,
+      final InstallableUnitPublisher publisher,
+      final ApplicationDirectories applicationDirectories)
+  {
+    this.p2TempBlobUtils = checkNotNull(p2TempBlobUtils);
+    this.publisher = checkNotNull(publisher);
+    this.applicationDirectories = checkNotNull(applicationDirectories);
+  }
+
+  @Override
+  protected void doInit(final Configuration configuration) throws Exception {
+    super.doInit(configuration);
+    // the metadata is rewritten as bundles come and go, whatever the write policy of the bundles
+    facet(StorageFacet.class).registerWritePolicySelector(
+        (asset, configured) -> isMetadata(asset) ? WritePolicy.ALLOW : configured);
+  }
+
+  @Override
+  protected void doStart() throws Exception {
+    super.doStart();
+    DebouncedRebuild debouncedRebuild = new DebouncedRebuild("p2-hosted-" + getRepository().getName(), QUIET_MILLIS,
+        MAX_DELAY_MILLIS, this::rebuildMetadata);
+    P2Metrics.register(getRepository(), METRICS_GROUP, "rebuildsRequested", debouncedRebuild.getRequested());
+    P2Metrics.register(getRepository(), METRICS_GROUP, "rebuilds", debouncedRebuild.getRebuilt());
+    P2Metrics.register(getRepository(), METRICS_GROUP, "rebuildFailures", debouncedRebuild.getFailures());
+    P2Metrics.register(getRepository(), METRICS_GROUP, "rebuildPending",
+        (Gauge<Boolean>) debouncedRebuild::isPending);
+    rebuilds = debouncedRebuild;
+    // builds the metadata of a new repository, and catches up on a rebuild dropped when last stopped
+    debouncedRebuild.request();
+  }
+
+  @Override
+  protected void doStop() throws Exception {
+    DebouncedRebuild debouncedRebuild = rebuilds;
+    rebuilds = null;
+    if (debouncedRebuild != null) {
+      debouncedRebuild.shutdown();
+    }
+    P2Metrics.removeAll(getRepository(), METRICS_GROUP);
+    super.doStop();
+  }
+
+  @Subscribe
+  @AllowConcurrentEvents
+  protected void on(final AssetDeletedEvent event) {
+    // bundles deleted through the UI or by cleanup rather than by this facet
+    if (getRepository().getName().equals(event.getRepositoryName()) && isBundle(event.getAsset())) {
+      requestRebuild();
+    }
+  }
+
+  private void requestRebuild() {
+    DebouncedRebuild debouncedRebuild = rebuilds;
+    if (debouncedRebuild != null) {
+      debouncedRebuild.request();
+    }
+  }
+
+  @Nullable
+  @Override
+  @TransactionalTouchBlob
+  public Content get(final String path) {
+    StorageTx tx = UnitOfWork.currentTx();
+    Asset asset = facet(P2Facet.class).findAsset(tx, tx.findBucket(getRepository()), path);
+    if (asset == null) {
+      return null;
+    }
+    if (asset.markAsDownloaded()) {
+      tx.saveAsset(asset);
+    }
+    return facet(P2Facet.class).toContent(asset, tx.requireBlob(asset.requireBlobRef()));
+  }
+
+  @Override
+  public Content put(
+      final String path,
+      final TokenMatcher.State state,
+      final AssetKind assetKind,
+      final Payload payload) throws IOException
+  {
+    StorageFacet storageFacet = facet(StorageFacet.class);
+    Content stored;
+    try (TempBlob tempBlob = storageFacet.createTempBlob(payload, HASH_ALGORITHMS)) {
+      P2Attributes p2Attributes;
+      if (assetKind == BINARY_BUNDLE) {
+        p2Attributes = toP2AttributesBinary(path, state);
+      }
+      else {
+        p2Attributes = p2TempBlobUtils.mergeAttributesFromTempBlob(tempBlob, toP2Attributes(path, state));
+        validate(path, state, tempBlob, p2Attributes);
+      }
+      try (P2CreateLocks.Section section = facet(P2Facet.class).lockForCreate(p2Attributes)) {
+        stored = doPut(p2Attributes, tempBlob, payload, assetKind);
+      }
+    }
+    requestRebuild();
+    return stored;
+  }
+
+  /**
+   * Make sure the units and artifact of a plugin or feature jar can be generated, and that it is named after its id and
+   * version as clients download it by them.
+   */
+  private void validate(
+      final String path,
+      final TokenMatcher.State state,
+      final TempBlob tempBlob,
+      final P2Attributes p2Attributes) throws IOException
+  {
+    boolean feature = P2ComponentUtils.isFeature(path);
+    Optional<Published> published;
+    try (InputStream in = tempBlob.get()) {
+      published = publisher.publishJar(in, feature, tempBlob.getBlob().getMetrics().getContentSize(),
+          p2Attributes.getPluginName());
+    }
+    catch (AttributeParsingException e) {
+      throw new InvalidContentException("Unable to read " + path + ": " + e.getMessage());
+    }
+    if (!published.isPresent()) {
+      throw new InvalidContentException(
+          path + " is not a " + (feature ? "feature jar with a feature.xml" : "plugin jar with a bundle manifest"));
+    }
+    if (!published.get().getId().equals(name(state)) || !published.get().getVersion().equals(version(state))) {
+      throw new InvalidContentException(path + " has to be named after the id and version of its content: " +
+          published.get().getId() + '_' + published.get().getVersion());
+    }
+  }
+
+  @TransactionalStoreBlob
+  protected Content doPut(
+      final P2Attributes p2Attributes,
+      final TempBlob tempBlob,
+      final Payload payload,
+      final AssetKind assetKind) throws IOException
+  {
+    return facet(P2Facet.class).doCreateOrSaveComponent(p2Attributes, tempBlob, payload, assetKind);
+  }
+
+  @Override
+  public boolean delete(final String path) {
+    Asset asset = findAsset(path);
+    if (asset == null || !isBundle(asset)) {
+      return false;
+    }
+    getRepository().facet(ComponentMaintenance.class).deleteAsset(EntityHelper.id(asset));
+    requestRebuild();
+    return true;
+  }
+
+  @Nullable
+  @TransactionalTouchMetadata
+  protected Asset findAsset(final String path) {
+    StorageTx tx = UnitOfWork.currentTx();
+    return facet(P2Facet.class).findAsset(tx, tx.findBucket(getRepository()), path);
+  }
+
+  @Override
+  public void rebuildMetadata() throws IOException {
+    Path directory = Files.createTempDirectory(applicationDirectories.getTemporaryDirectory().toPath(), "p2-hosted-");
+    try {
+      Path units = directory.resolve("content.frag");
+      Path artifacts = directory.resolve("artifacts.frag");
+      UnitOfWork.begin(facet(StorageFacet.class).txSupplier());
+      try {
+        List<Bundle> bundles = findBundles();
+        String digest = digest(bundles);
+        if (digest.equals(getSourceDigest())) {
+          log.debug("Metadata of {} is up to date", getRepository().getName());
+          return;
+        }
+        writeFragments(bundles, units, artifacts);
+        long timestamp = System.currentTimeMillis();
+        storeMetadata(P2_INDEX_NAME, P2_INDEX, write(directory.resolve(P2_INDEX_NAME),
+            out -> out.write(INDEX.getBytes(StandardCharsets.UTF_8))), null);
+        storeMetadata(ARTIFACTS_JAR, ARTIFACTS_METADATA, writeJar(directory, Kind.ARTIFACTS, artifacts, timestamp),
+            null);
+        storeMetadata(ARTIFACTS_XZ, ARTIFACTS_METADATA, writeXz(directory, Kind.ARTIFACTS, artifacts, timestamp),
+            null);
+        storeMetadata(CONTENT_XZ, CONTENT_METADATA, writeXz(directory, Kind.CONTENT, units, timestamp), null);
+        // written last, so the metadata is built again if anything before failed
+        storeMetadata(CONTENT_JAR, CONTENT_METADATA, writeJar(directory, Kind.CONTENT, units, timestamp), digest);
+        log.debug("Rebuilt metadata of {}", getRepository().getName());
+      }
+      finally {
+        UnitOfWork.end();
+      }
+    }
+    finally {
+      deleteDirectory(directory);
+    }
+  }
+
+  /**
+   * The bundles of the repository, in the order their elements are written.
+   */
+  @TransactionalTouchMetadata
+  protected List<Bundle> findBundles() {
+    StorageTx tx = UnitOfWork.currentTx();
+    List<Bundle> bundles = new ArrayList<>();
+    for (Asset asset : tx.browseAssets(tx.findBucket(getRepository()))) {
+      if (!isBundle(asset) || asset.blobRef() == null) {
+        continue;
+      }
+      Component component = asset.componentId() == null ? null : tx.findComponent(asset.componentId());
+      bundles.add(new Bundle(asset.name(), BINARY_BUNDLE.name().equals(asset.formatAttributes().get(P_ASSET_KIND)),
+          Optional.ofNullable(asset.getChecksum(SHA1)).map(Object::toString).orElse(asset.requireBlobRef().toString()),
+          Optional.ofNullable(asset.size()).orElse(0L), asset.formatAttributes().get(PLUGIN_NAME, String.class),
+          component == null ? null : component.name(), component == null ? null : component.version(),
+          asset.requireBlobRef()));
+    }
+    return bundles;
+  }
+
+  /**
+   * Identifies the bundles the metadata is built from.
+   */
+  @SuppressWarnings("deprecation")
+  private static String digest(final List<Bundle> bundles) {
+    Hasher hasher = Hashing.sha1().newHasher();
+    for (Bundle bundle : bundles) {
+      hasher.putString(bundle.name, StandardCharsets.UTF_8).putByte((byte) 0)
+          .putString(bundle.sha1, StandardCharsets.UTF_8).putByte((byte) 0);
+    }
+    return hasher.hash().toString();
+  }
+
+  /**
+   * Write the units and artifacts of the bundles into fragments.
+   */
+  private void writeFragments(final List<Bundle> bundles, final Path units, final Path artifacts) throws IOException {
+    try (FragmentWriter unitWriter = new FragmentWriter(units, "");
+         FragmentWriter artifactWriter = new FragmentWriter(artifacts, "")) {
+      for (Bundle bundle : bundles) {
+        Optional<Published> elements = publish(bundle);
+        if (elements.isPresent()) {
+          // bundles are named after their id and version, so the asset name keys their elements
+          write(unitWriter, bundle, elements.get().getUnits().values());
+          write(artifactWriter, bundle, elements.get().getArtifacts().values());
+        }
+      }
+      unitWriter.commit();
+      artifactWriter.commit();
+      log.debug("Collected {} unit(s) and {} artifact(s) of {}", unitWriter.getCount(), artifactWriter.getCount(),
+          getRepository().getName());
+    }
+  }
+
+  /**
+   * Generate the units and artifacts of the bundle, reading it unless they were generated for its content before.
+   */
+  private Optional<Published> publish(final Bundle bundle) throws IOException {
+    String key = bundle.name + '@' + bundle.sha1;
+    Published cached = published.getIfPresent(key);
+    if (cached != null) {
+      return Optional.of(cached);
+    }
+    Optional<Published> elements;
+    if (bundle.binary) {
+      if (bundle.componentName == null || bundle.componentVersion == null) {
+        log.warn("Leaving binary {} without a component out of the metadata of {}", bundle.name,
+            getRepository().getName());
+        return Optional.empty();
+      }
+      elements = Optional.of(publisher.publishBinary(bundle.componentName, bundle.componentVersion, bundle.size));
+    }
+    else {
+      try (InputStream in = requireBlob(bundle.blobRef).getInputStream()) {
+        elements = publisher.publishJar(in, P2ComponentUtils.isFeature(bundle.name), bundle.size, bundle.pluginName);
+      }
+      catch (AttributeParsingException e) {
+        log.warn("Leaving {} out of the metadata of {}: {}", bundle.name, getRepository().getName(), e.getMessage());
+        return Optional.empty();
+      }
+    }
+    elements.ifPresent(value -> published.put(key, value));
+    return elements;
+  }
+
+  @TransactionalTouchBlob
+  protected Blob requireBlob(final BlobRef blobRef) {
+    StorageTx tx = UnitOfWork.currentTx();
+    return tx.requireBlob(blobRef);
+  }
+
+  private static void write(final FragmentWriter writer, final Bundle bundle, final Collection<String> elements)
+      throws IOException
+  {
+    int i = 0;
+    for (String element : elements) {
+      writer.write(bundle.name + '#' + i++, element.getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  @Nullable
+  @TransactionalTouchMetadata
+  protected String getSourceDigest() {
+    StorageTx tx = UnitOfWork.currentTx();
+    Asset asset = facet(P2Facet.class).findAsset(tx, tx.findBucket(getRepository()), CONTENT_JAR);
+    return asset == null ? null : asset.formatAttributes().get(SOURCE_DIGEST, String.class);
+  }
+
+  @TransactionalStoreBlob
+  protected void storeMetadata(
+      final String path,
+      final AssetKind assetKind,
+      final Path file,
+      @Nullable final String digest) throws IOException
+  {
+    Content content = new Content(new StreamPayload(() -> Files.newInputStream(file), Files.size(file), null));
+    try (TempBlob tempBlob = facet(StorageFacet.class).createTempBlob(content.openInputStream(), HASH_ALGORITHMS)) {
+      StorageTx tx = UnitOfWork.currentTx();
+      Bucket bucket = tx.findBucket(getRepository());
+      Asset asset = facet(P2Facet.class).findAsset(tx, bucket, path);
+      if (asset == null) {
+        asset = tx.createAsset(bucket, getRepository().getFormat());
+        asset.name(path);
+        asset.formatAttributes().set(P_ASSET_KIND, assetKind.name());
+      }
+      if (digest != null) {
+        asset.formatAttributes().set(SOURCE_DIGEST, digest);
+      }
+      facet(P2Facet.class).saveAsset(tx, asset, tempBlob, content);
+    }
+  }
+
+  @FunctionalInterface
+  private interface Writer
+  {
+    void write(OutputStream out) throws IOException;
+  }
+
+  private static Path write(final Path file, final Writer writer) throws IOException {
+    try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+      writer.write(out);
+    }
+    return file;
+  }
+
+  private Path writeJar(final Path directory, final Kind kind, final Path fragment, final long timestamp)
+      throws IOException
+  {
+    return write(directory.resolve(kind == Kind.CONTENT ? CONTENT_JAR : ARTIFACTS_JAR), out -> {
+      JarOutputStream jar = new JarOutputStream(out);
+      jar.putNextEntry(new JarEntry(kind.getFileName()));
+      merge(kind, fragment, timestamp, jar);
+      jar.closeEntry();
+      jar.finish();
+    });
+  }
+
+  private Path writeXz(final Path directory, final Kind kind, final Path fragment, final long timestamp)
+      throws IOException
+  {
+    return write(directory.resolve(kind == Kind.CONTENT ? CONTENT_XZ : ARTIFACTS_XZ), out -> {
+      XZCompressorOutputStream xz = new XZCompressorOutputStream(out);
+      merge(kind, fragment, timestamp, xz);
+      xz.finish();
+    });
+  }
+
+  private void merge(final Kind kind, final Path fragment, final long timestamp, final OutputStream out)
+      throws IOException
+  {
+    MetadataMerger.merge(kind, getRepository().getName(), timestamp, Collections.singletonMap("", fragment), out);
+  }
+
+  private void deleteDirectory(final Path directory) {
+    try (Stream<Path> files = Files.walk(directory)) {
+      files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+    catch (IOException e) {
+      log.debug("Unable to delete {}: {}", directory, e.toString());
+    }
+  }
+
+  @VisibleForTesting
+  static boolean isBundle(final Asset asset) {
+    String assetKind = asset.formatAttributes().get(P_ASSET_KIND, String.class);
+    return BUNDLE.name().equals(assetKind) || BINARY_BUNDLE.name().equals(assetKind);
+  }
+
+  private static boolean isMetadata(final Asset asset) {
+    String assetKind = asset.formatAttributes().get(P_ASSET_KIND, String.class);
+    return METADATA_KINDS.stream().anyMatch(kind -> kind.name().equals(assetKind));
+  }
+
+  /**
+   * What the units and artifacts of a bundle are generated from.
+   */
+  static final class Bundle
+  {
+    private final String name;
+
+    private final boolean binary;
+
+    private final String sha1;
+
+    private final long size;
+
+    @Nullable
+    private final String pluginName;
+
+    @Nullable
+    private final String componentName;
+
+    @Nullable
+    private final String componentVersion;
+
+    private final BlobRef blobRef;
+
+    Bundle(
+        final String name,
+        final boolean binary,
+        final String sha1,
+        final long size,
+        @Nullable final String pluginName,
+        @Nullable final String componentName,
+        @Nullable final String componentVersion,
+        final BlobRef blobRef)
+    {
+      this.name = name;
+      this.binary = binary;
+      this.sha1 = sha1;
+      this.size = size;
+      this.pluginName = pluginName;
+      this.componentName = componentName;
+      this.componentVersion = componentVersion;
+      this.blobRef = blobRef;
+    }
+  }
+}
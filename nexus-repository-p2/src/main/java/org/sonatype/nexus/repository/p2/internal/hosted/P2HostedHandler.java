@@ -0,0 +1,76 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.hosted;
+
+import javax.annotation.Nonnull;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.sonatype.goodies.common.ComponentSupport;
+import org.sonatype.nexus.repository.p2.P2HostedFacet;
+import org.sonatype.nexus.repository.p2.internal.AssetKind;
+import org.sonatype.nexus.repository.view.Content;
+import org.sonatype.nexus.repository.view.Context;
+import org.sonatype.nexus.repository.view.Handler;
+import org.sonatype.nexus.repository.view.Payload;
+import org.sonatype.nexus.repository.view.Response;
+
+import static org.sonatype.nexus.repository.http.HttpMethods.DELETE;
+import static org.sonatype.nexus.repository.http.HttpMethods.GET;
+import static org.sonatype.nexus.repository.http.HttpMethods.HEAD;
+import static org.sonatype.nexus.repository.http.HttpMethods.PUT;
+import static org.sonatype.nexus.repository.http.HttpResponses.badRequest;
+import static org.sonatype.nexus.repository.http.HttpResponses.created;
+import static org.sonatype.nexus.repository.http.HttpResponses.methodNotAllowed;
+import static org.sonatype.nexus.repository.http.HttpResponses.noContent;
+import static org.sonatype.nexus.repository.http.HttpResponses.notFound;
+import static org.sonatype.nexus.repository.http.HttpResponses.ok;
+import static org.sonatype.nexus.repository.p2.internal.util.P2PathUtils.matcherState;
+
+/**
+ * Serves, stores and deletes the content of a hosted P2 repository through its {@link P2HostedFacet}.
+ *
+ * @since 1.1.14
+ */
+@Named
+@Singleton
+public class P2HostedHandler
+    extends ComponentSupport
+    implements Handler
+{
+  @Nonnull
+  @Override
+  public Response handle(@Nonnull final Context context) throws Exception {
+    String method = context.getRequest().getAction();
+    String path = context.getRequest().getPath().substring(1);
+    P2HostedFacet hostedFacet = context.getRepository().facet(P2HostedFacet.class);
+
+    switch (method) {
+      case GET:
+      case HEAD:
+        Content content = hostedFacet.get(path);
+        return content == null ? notFound() : ok(content);
+      case PUT:
+        Payload payload = context.getRequest().getPayload();
+        if (payload == null) {
+          return badRequest("Missing content of " + path);
+        }
+        hostedFacet.put(path, matcherState(context), context.getAttributes().require(AssetKind.class), payload);
+        return created();
+      case DELETE:
+        return hostedFacet.delete(path) ? noContent() : notFound();
+      default:
+        return methodNotAllowed(method, GET, HEAD, PUT, DELETE);
+    }
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.hosted
+
+import javax.annotation.Nonnull
+import javax.inject.Inject
+import javax.inject.Named
+import javax.inject.Provider
+import javax.inject.Singleton
+
+import org.sonatype.nexus.repository.Format
+import org.sonatype.nexus.repository.RecipeSupport
+import org.sonatype.nexus.repository.Repository
+import org.sonatype.nexus.repository.Type
+import org.sonatype.nexus.repository.attributes.AttributesFacet
+import org.sonatype.nexus.repository.http.HttpHandlers
+import org.sonatype.nexus.repository.http.PartialFetchHandler
+import org.sonatype.nexus.repository.p2.P2Facet
+import org.sonatype.nexus.repository.p2.internal.P2ComponentMaintenance
+import org.sonatype.nexus.repository.p2.internal.P2Format
+import org.sonatype.nexus.repository.p2.internal.search.P2SearchFacet
+import org.sonatype.nexus.repository.p2.internal.security.P2SecurityFacet
+import org.sonatype.nexus.repository.security.SecurityHandler
+import org.sonatype.nexus.repository.storage.StorageFacet
+import org.sonatype.nexus.repository.storage.UnitOfWorkHandler
+import org.sonatype.nexus.repository.types.HostedType
+import org.sonatype.nexus.repository.view.ConfigurableViewFacet
+import org.sonatype.nexus.repository.view.Matcher
+import org.sonatype.nexus.repository.view.Route
+import org.sonatype.nexus.repository.view.Router.Builder
+import org.sonatype.nexus.repository.view.ViewFacet
+import org.sonatype.nexus.repository.view.handlers.ConditionalRequestHandler
+import org.sonatype.nexus.repository.view.handlers.ContentHeadersHandler
+import org.sonatype.nexus.repository.view.handlers.ExceptionHandler
+import org.sonatype.nexus.repository.view.handlers.FormatHighAvailabilitySupportHandler
+import org.sonatype.nexus.repository.view.handlers.HandlerContributor
+import org.sonatype.nexus.repository.view.handlers.HighAvailabilitySupportChecker
+import org.sonatype.nexus.repository.view.handlers.TimingHandler
+
+import static org.sonatype.nexus.repository.http.HttpMethods.DELETE
+import static org.sonatype.nexus.repository.http.HttpMethods.GET
+import static org.sonatype.nexus.repository.http.HttpMethods.HEAD
+import static org.sonatype.nexus.repository.http.HttpMethods.PUT
+import static org.sonatype.nexus.repository.p2.internal.AssetKind.*
+import static org.sonatype.nexus.repository.p2.internal.proxy.P2ProxyRecipe.buildTokenMatcherForPatternAndAssetKind
+
+/**
+ * P2 hosted repository recipe.
+ *
+ * @since 1.1.14
+ */
+@Named(P2HostedRecipe.NAME)
+@Singleton
+class P2HostedRecipe
+    extends RecipeSupport
+{
+  public static final String NAME = 'p2-hosted'
+
+  @Inject
+  Provider<P2SecurityFacet> securityFacet
+
+  @Inject
+  Provider<ConfigurableViewFacet> viewFacet
+
+  @Inject
+  Provider<StorageFacet> storageFacet
+
+  @Inject
+  Provider<P2SearchFacet> searchFacet
+
+  @Inject
+  Provider<AttributesFacet> attributesFacet
+
+  @Inject
+  Provider<P2ComponentMaintenance> componentMaintenanceFacet
+
+  @Inject
+  Provider<P2Facet> p2Facet
+
+  @Inject
+  Provider<P2HostedFacetImpl> hostedFacet
+
+  @Inject
+  ExceptionHandler exceptionHandler
+
+  @Inject
+  TimingHandler timingHandler
+
+  @Inject
+  SecurityHandler securityHandler
+
+  @Inject
+  PartialFetchHandler partialFetchHandler
+
+  @Inject
+  ConditionalRequestHandler conditionalRequestHandler
+
+  @Inject
+  ContentHeadersHandler contentHeadersHandler
+
+  @Inject
+  UnitOfWorkHandler unitOfWorkHandler
+
+  @Inject
+  HandlerContributor handlerContributor
+
+  @Inject
+  FormatHighAvailabilitySupportHandler highAvailabilitySupportHandler
+
+  @Inject
+  HighAvailabilitySupportChecker highAvailabilitySupportChecker
+
+  @Inject
+  P2HostedHandler hostedHandler
+
+  @Inject
+  P2HostedRecipe(@Named(HostedType.NAME) final Type type,
+                 @Named(P2Format.NAME) final Format format) {
+    super(type, format)
+  }
+
+  @Override
+  void apply(@Nonnull final Repository repository) throws Exception {
+    repository.attach(securityFacet.get())
+    repository.attach(configure(viewFacet.get()))
+    repository.attach(storageFacet.get())
+    repository.attach(componentMaintenanceFacet.get())
+    repository.attach(searchFacet.get())
+    repository.attach(attributesFacet.get())
+    repository.attach(p2Facet.get())
+    repository.attach(hostedFacet.get())
+  }
+
+  /**
+   * Configure {@link ViewFacet}.
+   */
+  private ViewFacet configure(final ConfigurableViewFacet facet) {
+    Builder builder = new Builder()
+
+    addBrowseUnsupportedRoute(builder)
+
+    createMatchers().each { matcher ->
+      builder.route(new Route.Builder().matcher(matcher)
+          .handler(timingHandler)
+          .handler(securityHandler)
+          .handler(highAvailabilitySupportHandler)
+          .handler(exceptionHandler)
+          .handler(handlerContributor)
+          .handler(conditionalRequestHandler)
+          .handler(partialFetchHandler)
+          .handler(contentHeadersHandler)
+          .handler(unitOfWorkHandler)
+          .handler(hostedHandler)
+          .create())
+    }
+
+    builder.defaultHandlers(HttpHandlers.notFound())
+
+    facet.configure(builder.create())
+
+    return facet
+  }
+
+  /**
+   * The matchers of the generated metadata, which is only read, and of the bundles, which are also uploaded and
+   * deleted. Plugins and features are uploaded as jars.
+   */
+  static List<Matcher> createMatchers() {
+    String path = '{name:.*}_{version:\\\\d+\\\\.\\\\d+\\\\.\\\\d+(\\\\.[A-Za-z0-9_-]+)?}'
+    return [
+      buildTokenMatcherForPatternAndAssetKind('/p2.index', P2_INDEX, GET, HEAD),
+
+      buildTokenMatcherForPatternAndAssetKind('/content.jar', CONTENT_METADATA, GET, HEAD),
+      buildTokenMatcherForPatternAndAssetKind('/content.xml.xz', CONTENT_METADATA, GET, HEAD),
+
+      buildTokenMatcherForPatternAndAssetKind('/artifacts.jar', ARTIFACTS_METADATA, GET, HEAD),
+      buildTokenMatcherForPatternAndAssetKind('/artifacts.xml.xz', ARTIFACTS_METADATA, GET, HEAD),
+
+      buildTokenMatcherForPatternAndAssetKind('/{dir:features|plugins}/' + path + '.{extension:jar}',
+        BUNDLE, GET, HEAD, PUT, DELETE),
+
+      buildTokenMatcherForPatternAndAssetKind('/{dir:binary}/' + path, BINARY_BUNDLE, GET, HEAD, PUT, DELETE)
+    ]
+  }
+
+  @Override
+  boolean isFeatureEnabled() {
+    return highAvailabilitySupportChecker.isSupported(getFormat().getValue());
+  }
+}
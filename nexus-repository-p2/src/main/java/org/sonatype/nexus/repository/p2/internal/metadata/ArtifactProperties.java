@@ -0,0 +1,116 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.metadata;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.sonatype.nexus.common.io.SafeXml;
+
+import static javax.xml.stream.XMLStreamConstants.END_ELEMENT;
+import static javax.xml.stream.XMLStreamConstants.START_ELEMENT;
+
+/**
+ * Finds the properties of an artifact descriptor of an {@code artifacts.xml}, e.g. its {@code download.md5}, reading
+ * the metadata only up to the descriptor.
+ *
+ * @since 1.1.14
+ */
+public final class ArtifactProperties
+{
+  public static final String DOWNLOAD_MD5 = "download.md5";
+
+  public static final String DOWNLOAD_SHA256 = "download.checksum.sha-256";
+
+  public static final String DOWNLOAD_SHA512 = "download.checksum.sha-512";
+
+  private static final String FORMAT = "format";
+
+  private static final String PACKED = "packed";
+
+  private ArtifactProperties() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * The properties of the descriptor of the artifact, empty if there is no such descriptor.
+   *
+   * @param packed whether the descriptor of the {@code pack.gz} of the artifact is looked for, rather than the
+   *               descriptor of the canonical artifact
+   */
+  public static Map<String, String> find(
+      final InputStream artifactsXml,
+      final String classifier,
+      final String id,
+      final String version,
+      final boolean packed) throws IOException
+  {
+    XMLStreamReader reader = null;
+    try {
+      reader = SafeXml.newXmlInputFactory().createXMLStreamReader(artifactsXml);
+      Map<String, String> properties = null;
+      int depth = 0;
+      boolean descriptorProperties = false;
+      while (reader.hasNext()) {
+        int event = reader.next();
+        if (event == START_ELEMENT) {
+          depth++;
+          String element = reader.getLocalName();
+          if ("artifact".equals(element)) {
+            properties = classifier.equals(reader.getAttributeValue(null, "classifier"))
+                && id.equals(reader.getAttributeValue(null, "id"))
+                && version.equals(reader.getAttributeValue(null, "version")) ? new HashMap<>() : null;
+            depth = 0;
+          }
+          // only the properties of the descriptor, not its repository properties
+          else if (properties != null && depth == 1 && "properties".equals(element)) {
+            descriptorProperties = true;
+          }
+          else if (descriptorProperties && depth == 2 && "property".equals(element)) {
+            properties.put(reader.getAttributeValue(null, "name"), reader.getAttributeValue(null, "value"));
+          }
+        }
+        else if (event == END_ELEMENT) {
+          depth--;
+          descriptorProperties = descriptorProperties && depth > 0;
+          if (properties != null && "artifact".equals(reader.getLocalName())) {
+            if (packed == PACKED.equals(properties.get(FORMAT))) {
+              return properties;
+            }
+            properties = null;
+          }
+        }
+      }
+      return Collections.emptyMap();
+    }
+    catch (XMLStreamException e) {
+      throw new IOException(e);
+    }
+    finally {
+      if (reader != null) {
+        try {
+          reader.close();
+        }
+        catch (XMLStreamException e) {
+          // ignore
+        }
+      }
+    }
+  }
+}
@@ -43,13 +43,39 @@ public class CompositeRepositoryRewriter
 
   private final Function<String, String> uriConverter;
 
+  private final SiteUrlCanonicalizer canonicalizer;
+
   /**
    * This constructor is intended for use by an upgrade step, not general use.
    */
-  public CompositeRepositoryRewriter(final URI baseUri, final boolean isRoot, final Function<String, String> uriConverter ) {
+  public CompositeRepositoryRewriter(
+      final URI baseUri,
+      final boolean isRoot,
+      final Function<String, String> uriConverter,
+      final SiteUrlCanonicalizer canonicalizer)
+  {
     this.baseUri = baseUri;
     this.isRoot = isRoot;
     this.uriConverter = uriConverter;
+    this.canonicalizer = canonicalizer;
+  }
+
+  /**
+   * This constructor is intended for use by an upgrade step, not general use.
+   */
+  public CompositeRepositoryRewriter(final URI baseUri, final boolean isRoot, final Function<String, String> uriConverter ) {
+    this(baseUri, isRoot, uriConverter, SiteUrlCanonicalizer.NONE);
+  }
+
+  /**
+   * @param baseUri the base URI of the remote composite repository
+   * @param isRoot indicates whether this composite  site occurs at the root of the NXRM repository
+   * @param canonicalizer canonicalizes child site URLs before they are mapped to site hashes
+   *
+   * @since 1.1.14
+   */
+  public CompositeRepositoryRewriter(final URI baseUri, final boolean isRoot, final SiteUrlCanonicalizer canonicalizer) {
+    this(baseUri, isRoot, Function.identity(), canonicalizer);
   }
 
   /**
@@ -58,7 +84,7 @@ public class CompositeRepositoryRewriter
    *
    */
   public CompositeRepositoryRewriter(final URI baseUri, final boolean isRoot) {
-    this(baseUri, isRoot, Function.identity());
+    this(baseUri, isRoot, Function.identity(), SiteUrlCanonicalizer.NONE);
   }
 
   /**
@@ -102,8 +128,9 @@ public class CompositeRepositoryRewriter
     if (!remoteUrl.endsWith("/")) {
       remoteUrl += '/';
     }
+    // the child is fetched from its url, only its site hash is derived from the canonical url
     urls.add(remoteUrl);
-    String path = derivePath(remoteUrl);
+    String path = derivePath(canonicalizer.canonicalize(remoteUrl));
 
     StartElement startElement = XMLEventFactory.newInstance().createStartElement(
         new QName("child"), Collections
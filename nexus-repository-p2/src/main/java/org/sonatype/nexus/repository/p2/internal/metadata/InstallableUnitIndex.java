@@ -0,0 +1,941 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.metadata;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.sonatype.nexus.common.io.SafeXml;
+
+import static com.google.common.base.Preconditions.checkState;
+import static javax.xml.stream.XMLStreamConstants.END_ELEMENT;
+import static javax.xml.stream.XMLStreamConstants.START_ELEMENT;
+
+/**
+ * Index of the installable units of a site's {@code content.xml}: their id, version, name and filter, the capabilities
+ * they provide and require and the keys of their artifacts.
+ *
+ * The index is written once to a file, streaming the metadata, and read from the memory mapped file, so it is shared
+ * by restarts and kept off the heap. The file records the version of the metadata it was written from, an index of
+ * another version is not opened. A file is written per version of the metadata rather than replaced, as a mapped file
+ * cannot be replaced on Windows, and an index is {@link #close() closed} to unmap it before its file is deleted.
+ *
+ * Units are sorted by id and version, those of an id are found by binary search.
+ *
+ * @since 1.1.14
+ */
+public class InstallableUnitIndex
+{
+  /**
+   * The namespace of the capability every unit provides of its own id and version.
+   */
+  public static final String IU_NAMESPACE = "org.eclipse.equinox.p2.iu";
+
+  private static final int MAGIC = 0x50324955;
+
+  private static final int FORMAT_VERSION = 2;
+
+  private static final int UNIT_INTS = 10;
+
+  private static final int KEY_INTS = 3;
+
+  private static final int REQUIREMENT_INTS = 5;
+
+  private static final int OPTIONAL = 1;
+
+  private static final int NOT_GREEDY = 2;
+
+  private static final int NONE = -1;
+
+  /**
+   * The suffix of the id of the unit listing the jar of a feature, which has the id of the feature.
+   */
+  private static final String FEATURE_UNIT_SUFFIX = ".feature.jar";
+
+  private static final String NAME_PROPERTY = "org.eclipse.equinox.p2.name";
+
+  private static final String DEFAULT_LOCALE_PREFIX = "df_LT.";
+
+  private final ByteBuffer buffer;
+
+  private final String version;
+
+  private final int units;
+
+  private final int unitsStart;
+
+  private final int capabilitiesStart;
+
+  private final int artifactsStart;
+
+  private final int requirementsStart;
+
+  private final int stringOffsetsStart;
+
+  private final int stringsStart;
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  private boolean closed;
+
+  private InstallableUnitIndex(final ByteBuffer buffer) throws IOException {
+    this.buffer = buffer;
+    try {
+      if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+        throw new IOException("Not an installable unit index of format version " + FORMAT_VERSION);
+      }
+      byte[] versionBytes = new byte[buffer.getInt()];
+      buffer.get(versionBytes);
+      this.version = new String(versionBytes, StandardCharsets.UTF_8);
+      this.units = buffer.getInt();
+      int capabilities = buffer.getInt();
+      int artifacts = buffer.getInt();
+      int requirements = buffer.getInt();
+      int strings = buffer.getInt();
+      this.unitsStart = buffer.position();
+      this.capabilitiesStart = unitsStart + units * UNIT_INTS * 4;
+      this.artifactsStart = capabilitiesStart + capabilities * KEY_INTS * 4;
+      this.requirementsStart = artifactsStart + artifacts * KEY_INTS * 4;
+      this.stringOffsetsStart = requirementsStart + requirements * REQUIREMENT_INTS * 4;
+      this.stringsStart = stringOffsetsStart + strings * 4;
+      if (stringsStart > buffer.limit()) {
+        throw new IOException("Truncated installable unit index");
+      }
+    }
+    catch (BufferUnderflowException e) {
+      throw new IOException("Truncated installable unit index", e);
+    }
+  }
+
+  /**
+   * Open the index in the file if it was written from the version of the metadata, in this format.
+   *
+   * @return empty if there is no index of the version and format
+   */
+  public static Optional<InstallableUnitIndex> open(final Path file, final String version) throws IOException {
+    if (!Files.isRegularFile(file)) {
+      return Optional.empty();
+    }
+    MappedByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      // checked before mapping, so a file of another format is not left mapped
+      ByteBuffer header = ByteBuffer.allocate(8);
+      if (channel.read(header, 0) < 8 || header.getInt(0) != MAGIC || header.getInt(4) != FORMAT_VERSION) {
+        return Optional.empty();
+      }
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    InstallableUnitIndex index;
+    try {
+      index = new InstallableUnitIndex(buffer);
+    }
+    catch (IOException e) {
+      unmap(buffer);
+      throw e;
+    }
+    if (!version.equals(index.version)) {
+      index.close();
+      return Optional.empty();
+    }
+    return Optional.of(index);
+  }
+
+  /**
+   * Write the index of the {@code content.xml} to the file once complete, and open it. The file is replaced when it
+   * exists, so it must not be the file of an index which is open.
+   */
+  public static InstallableUnitIndex write(final InputStream contentXml, final Path file, final String version)
+      throws IOException
+  {
+    Builder builder = new Builder();
+    parse(contentXml, builder::add);
+    Files.createDirectories(file.toAbsolutePath().getParent());
+    Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+    try {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+        builder.write(out, version);
+      }
+      Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+    }
+    finally {
+      Files.deleteIfExists(temp);
+    }
+    return open(file, version).orElseThrow(() -> new IOException("Unable to open written index " + file));
+  }
+
+  /**
+   * The version of the metadata the index was written from.
+   */
+  public String getVersion() {
+    return version;
+  }
+
+  public int size() {
+    return units;
+  }
+
+  /**
+   * The units with the id, ordered by version.
+   */
+  public List<InstallableUnit> find(final String id) {
+    return read(() -> {
+      List<InstallableUnit> found = new ArrayList<>();
+      for (int i = firstUnit(id); i < units && id.equals(unitString(i, 0)); i++) {
+        found.add(unit(i));
+      }
+      return found;
+    });
+  }
+
+  public Optional<InstallableUnit> find(final String id, final String unitVersion) {
+    return read(() -> {
+      for (int i = firstUnit(id); i < units && id.equals(unitString(i, 0)); i++) {
+        if (unitVersion.equals(unitString(i, 1))) {
+          return Optional.of(unit(i));
+        }
+      }
+      return Optional.empty();
+    });
+  }
+
+  /**
+   * The unit listing the bundle or feature at the path relative to its site as an artifact, e.g.
+   * {@code plugins/org.eclipse.core.runtime_3.18.0.v20200506-2143.jar}, also when packed.
+   */
+  public Optional<InstallableUnit> findArtifact(final String path) {
+    String fileName = path.substring(path.lastIndexOf('/') + 1);
+    int extension = fileName.lastIndexOf(".jar");
+    if (extension != -1) {
+      fileName = fileName.substring(0, extension);
+    }
+    for (int split = fileName.indexOf('_'); split != -1; split = fileName.indexOf('_', split + 1)) {
+      String id = fileName.substring(0, split);
+      String artifactVersion = fileName.substring(split + 1);
+      for (String unitId : new String[]{id, id + FEATURE_UNIT_SUFFIX}) {
+        Optional<InstallableUnit> unit = find(unitId, artifactVersion)
+            .filter(found -> found.getArtifacts().stream().anyMatch(key -> key.isArtifactAt(path)));
+        if (unit.isPresent()) {
+          return unit;
+        }
+      }
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * The units providing a capability of the namespace and name, e.g. {@code java.package}.
+   */
+  public List<InstallableUnit> findProviders(final String namespace, final String name) {
+    return read(() -> {
+      List<InstallableUnit> found = new ArrayList<>();
+      for (int i = 0; i < units; i++) {
+        int start = unitInt(i, 3);
+        int count = unitInt(i, 4);
+        for (int c = start; c < start + count; c++) {
+          if (namespace.equals(string(keyInt(capabilitiesStart, c, 0)))
+              && name.equals(string(keyInt(capabilitiesStart, c, 1)))) {
+            found.add(unit(i));
+            break;
+          }
+        }
+      }
+      return found;
+    });
+  }
+
+  public InstallableUnit get(final int i) {
+    return read(() -> unit(i));
+  }
+
+  /**
+   * Unmap the index once the lookups in progress completed, so its file can be deleted. Lookups fail once the index
+   * is closed, the units found before remain valid.
+   */
+  public void close() {
+    lock.writeLock().lock();
+    try {
+      if (!closed) {
+        closed = true;
+        unmap(buffer);
+      }
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private <T> T read(final Supplier<T> reader) {
+    lock.readLock().lock();
+    try {
+      checkState(!closed, "Installable unit index is closed");
+      return reader.get();
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Release the mapping of the buffer rather than wait for it to be garbage collected, through the cleaner of the
+   * buffer on Java 8 and {@code Unsafe#invokeCleaner} on later versions. It is left to the garbage collector when
+   * neither is accessible.
+   */
+  private static void unmap(final ByteBuffer buffer) {
+    if (!buffer.isDirect()) {
+      return;
+    }
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      try {
+        Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+        theUnsafe.setAccessible(true);
+        invokeCleaner.invoke(theUnsafe.get(null), buffer);
+      }
+      catch (NoSuchMethodException e) {
+        Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+        cleanerMethod.setAccessible(true);
+        Object cleaner = cleanerMethod.invoke(buffer);
+        if (cleaner != null) {
+          cleaner.getClass().getMethod("clean").invoke(cleaner);
+        }
+      }
+    }
+    catch (ReflectiveOperationException | RuntimeException e) {
+      // unmapped once garbage collected
+    }
+  }
+
+  private int firstUnit(final String id) {
+    int low = 0;
+    int high = units;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (unitString(mid, 0).compareTo(id) < 0) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private InstallableUnit unit(final int i) {
+    return new InstallableUnit(unitString(i, 0), unitString(i, 1), unitString(i, 2),
+        keys(capabilitiesStart, unitInt(i, 3), unitInt(i, 4)), keys(artifactsStart, unitInt(i, 5), unitInt(i, 6)),
+        requirements(unitInt(i, 7), unitInt(i, 8)), unitString(i, 9));
+  }
+
+  private List<Requirement> requirements(final int start, final int count) {
+    List<Requirement> requirements = new ArrayList<>(count);
+    for (int r = start; r < start + count; r++) {
+      int at = requirementsStart + r * REQUIREMENT_INTS * 4;
+      int flags = buffer.getInt(at + 16);
+      requirements.add(new Requirement(string(buffer.getInt(at)), string(buffer.getInt(at + 4)),
+          string(buffer.getInt(at + 8)), string(buffer.getInt(at + 12)), (flags & OPTIONAL) != 0,
+          (flags & NOT_GREEDY) == 0));
+    }
+    return requirements;
+  }
+
+  private List<Key> keys(final int tableStart, final int start, final int count) {
+    List<Key> keys = new ArrayList<>(count);
+    for (int k = start; k < start + count; k++) {
+      keys.add(new Key(string(keyInt(tableStart, k, 0)), string(keyInt(tableStart, k, 1)),
+          string(keyInt(tableStart, k, 2))));
+    }
+    return keys;
+  }
+
+  private int unitInt(final int unit, final int field) {
+    return buffer.getInt(unitsStart + (unit * UNIT_INTS + field) * 4);
+  }
+
+  @Nullable
+  private String unitString(final int unit, final int field) {
+    return string(unitInt(unit, field));
+  }
+
+  private int keyInt(final int tableStart, final int key, final int field) {
+    return buffer.getInt(tableStart + (key * KEY_INTS + field) * 4);
+  }
+
+  @Nullable
+  private String string(final int index) {
+    if (index == NONE) {
+      return null;
+    }
+    int offset = stringsStart + buffer.getInt(stringOffsetsStart + index * 4);
+    byte[] bytes = new byte[buffer.getInt(offset)];
+    ByteBuffer view = buffer.duplicate();
+    view.position(offset + 4);
+    view.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Stream the units of a {@code content.xml} to the consumer.
+   */
+  static void parse(final InputStream in, final Consumer<InstallableUnit> consumer) throws IOException {
+    XMLInputFactory inputFactory = SafeXml.newXmlInputFactory();
+    XMLStreamReader reader = null;
+    try {
+      reader = inputFactory.createXMLStreamReader(in);
+      UnitReader unit = null;
+      int depth = 0;
+      while (reader.hasNext()) {
+        int event = reader.next();
+        if (event == START_ELEMENT) {
+          depth++;
+          String element = reader.getLocalName();
+          if ("unit".equals(element)) {
+            unit = new UnitReader(reader.getAttributeValue(null, "id"), reader.getAttributeValue(null, "version"));
+            unit.depth = depth;
+          }
+          else if (unit != null && "requires".equals(element) && depth == unit.depth + 1) {
+            unit.inRequires = true;
+          }
+          else if (unit != null && unit.inRequires && "required".equals(element)) {
+            unit.required = new RequirementReader(reader.getAttributeValue(null, "namespace"),
+                reader.getAttributeValue(null, "name"), reader.getAttributeValue(null, "range"),
+                Boolean.parseBoolean(reader.getAttributeValue(null, "optional")),
+                !"false".equals(reader.getAttributeValue(null, "greedy")));
+          }
+          else if (unit != null && "filter".equals(element)
+              && (unit.required != null || depth == unit.depth + 1)) {
+            String filter = reader.getElementText().trim();
+            depth--;
+            if (unit.required != null) {
+              unit.required.filter = filter;
+            }
+            else {
+              unit.filter = filter;
+            }
+          }
+          else if (unit != null && "property".equals(element)) {
+            unit.properties.put(reader.getAttributeValue(null, "name"), reader.getAttributeValue(null, "value"));
+          }
+          else if (unit != null && "provided".equals(element)) {
+            unit.provided.add(new Key(reader.getAttributeValue(null, "namespace"),
+                reader.getAttributeValue(null, "name"), reader.getAttributeValue(null, "version")));
+          }
+          else if (unit != null && "artifact".equals(element)) {
+            unit.artifacts.add(new Key(reader.getAttributeValue(null, "classifier"),
+                reader.getAttributeValue(null, "id"), reader.getAttributeValue(null, "version")));
+          }
+        }
+        else if (event == END_ELEMENT) {
+          depth--;
+          String element = reader.getLocalName();
+          if (unit != null && unit.required != null && "required".equals(element)) {
+            unit.requires.add(unit.required.toRequirement());
+            unit.required = null;
+          }
+          else if (unit != null && "requires".equals(element) && depth == unit.depth) {
+            unit.inRequires = false;
+          }
+          else if (unit != null && "unit".equals(element)) {
+            if (unit.id != null && unit.version != null) {
+              consumer.accept(unit.toUnit());
+            }
+            unit = null;
+          }
+        }
+      }
+    }
+    catch (XMLStreamException e) {
+      throw new IOException(e);
+    }
+    finally {
+      if (reader != null) {
+        try {
+          reader.close();
+        }
+        catch (XMLStreamException e) {
+          // do nothing
+        }
+      }
+    }
+  }
+
+  /**
+   * An installable unit.
+   */
+  public static final class InstallableUnit
+  {
+    private final String id;
+
+    private final String version;
+
+    @Nullable
+    private final String name;
+
+    private final List<Key> provided;
+
+    private final List<Key> artifacts;
+
+    private final List<Requirement> requirements;
+
+    @Nullable
+    private final String filter;
+
+    InstallableUnit(
+        final String id,
+        final String version,
+        @Nullable final String name,
+        final List<Key> provided,
+        final List<Key> artifacts,
+        final List<Requirement> requirements,
+        @Nullable final String filter)
+    {
+      this.id = id;
+      this.version = version;
+      this.name = name;
+      this.provided = Collections.unmodifiableList(provided);
+      this.artifacts = Collections.unmodifiableList(artifacts);
+      this.requirements = Collections.unmodifiableList(requirements);
+      this.filter = filter;
+    }
+
+    public String getId() {
+      return id;
+    }
+
+    public String getVersion() {
+      return version;
+    }
+
+    @Nullable
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * The provided capabilities, as namespace, name and version.
+     */
+    public List<Key> getProvided() {
+      return provided;
+    }
+
+    /**
+     * The artifact keys, as classifier, id and version.
+     */
+    public List<Key> getArtifacts() {
+      return artifacts;
+    }
+
+    /**
+     * The required capabilities, without the meta and host requirements.
+     */
+    public List<Requirement> getRequirements() {
+      return requirements;
+    }
+
+    /**
+     * The LDAP filter of the platforms the unit applies to, e.g. {@code (osgi.os=win32)}.
+     */
+    @Nullable
+    public String getFilter() {
+      return filter;
+    }
+
+    @Override
+    public String toString() {
+      return id + '_' + version;
+    }
+  }
+
+  /**
+   * A provided capability or an artifact key.
+   */
+  public static final class Key
+  {
+    @Nullable
+    private final String kind;
+
+    @Nullable
+    private final String name;
+
+    @Nullable
+    private final String version;
+
+    Key(@Nullable final String kind, @Nullable final String name, @Nullable final String version) {
+      this.kind = kind;
+      this.name = name;
+      this.version = version;
+    }
+
+    /**
+     * The namespace of a capability or the classifier of an artifact.
+     */
+    @Nullable
+    public String getKind() {
+      return kind;
+    }
+
+    @Nullable
+    public String getName() {
+      return name;
+    }
+
+    @Nullable
+    public String getVersion() {
+      return version;
+    }
+
+    /**
+     * The path of the artifact relative to its site, as served by a p2 repository.
+     *
+     * @return {@code null} for artifacts of another classifier than bundles, features and binaries
+     */
+    @Nullable
+    public String getArtifactPath() {
+      if (name == null || version == null) {
+        return null;
+      }
+      String fileName = name + '_' + version;
+      switch (String.valueOf(kind)) {
+        case "osgi.bundle":
+          return "plugins/" + fileName + ".jar";
+        case "org.eclipse.update.feature":
+          return "features/" + fileName + ".jar";
+        case "binary":
+          return "binary/" + fileName;
+        default:
+          return null;
+      }
+    }
+
+    /**
+     * Whether the artifact is served at the path relative to its site, also when packed, e.g.
+     * {@code plugins/org.eclipse.core.runtime_3.18.0.v20200506-2143.jar.pack.gz}.
+     */
+    public boolean isArtifactAt(final String path) {
+      String artifactPath = getArtifactPath();
+      return artifactPath != null
+          && (path.equals(artifactPath) || (artifactPath.endsWith(".jar") && path.startsWith(artifactPath + '.')));
+    }
+
+    @Override
+    public String toString() {
+      return kind + '/' + name + '/' + version;
+    }
+  }
+
+  /**
+   * A required capability.
+   */
+  public static final class Requirement
+  {
+    @Nullable
+    private final String namespace;
+
+    @Nullable
+    private final String name;
+
+    @Nullable
+    private final String range;
+
+    @Nullable
+    private final String filter;
+
+    private final boolean optional;
+
+    private final boolean greedy;
+
+    Requirement(
+        @Nullable final String namespace,
+        @Nullable final String name,
+        @Nullable final String range,
+        @Nullable final String filter,
+        final boolean optional,
+        final boolean greedy)
+    {
+      this.namespace = namespace;
+      this.name = name;
+      this.range = range;
+      this.filter = filter;
+      this.optional = optional;
+      this.greedy = greedy;
+    }
+
+    /**
+     * A requirement of the unit with the id, in the version range or of any version.
+     */
+    public static Requirement unit(final String id, @Nullable final String range) {
+      return new Requirement(IU_NAMESPACE, id, range, null, false, true);
+    }
+
+    @Nullable
+    public String getNamespace() {
+      return namespace;
+    }
+
+    @Nullable
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * The OSGi version range, {@code null} for any version.
+     */
+    @Nullable
+    public String getRange() {
+      return range;
+    }
+
+    /**
+     * The LDAP filter of the platforms the requirement applies to.
+     */
+    @Nullable
+    public String getFilter() {
+      return filter;
+    }
+
+    public boolean isOptional() {
+      return optional;
+    }
+
+    /**
+     * Whether the requirement pulls providers into an installation, rather than only being satisfied by them.
+     */
+    public boolean isGreedy() {
+      return greedy;
+    }
+
+    @Override
+    public String toString() {
+      return namespace + '/' + name + '/' + range;
+    }
+  }
+
+  private static class UnitReader
+  {
+    @Nullable
+    private final String id;
+
+    @Nullable
+    private final String version;
+
+    private final Map<String, String> properties = new HashMap<>();
+
+    private final List<Key> provided = new ArrayList<>();
+
+    private final List<Key> artifacts = new ArrayList<>();
+
+    private final List<Requirement> requires = new ArrayList<>();
+
+    @Nullable
+    private String filter;
+
+    private int depth;
+
+    private boolean inRequires;
+
+    @Nullable
+    private RequirementReader required;
+
+    private UnitReader(@Nullable final String id, @Nullable final String version) {
+      this.id = id;
+      this.version = version;
+    }
+
+    private InstallableUnit toUnit() {
+      String name = properties.get(NAME_PROPERTY);
+      if (name != null && name.startsWith("%")) {
+        name = Optional.ofNullable(properties.get(DEFAULT_LOCALE_PREFIX + name.substring(1))).orElse(name);
+      }
+      return new InstallableUnit(id, version, name, provided, artifacts, requires, filter);
+    }
+  }
+
+  private static class RequirementReader
+  {
+    @Nullable
+    private final String namespace;
+
+    @Nullable
+    private final String name;
+
+    @Nullable
+    private final String range;
+
+    private final boolean optional;
+
+    private final boolean greedy;
+
+    @Nullable
+    private String filter;
+
+    private RequirementReader(
+        @Nullable final String namespace,
+        @Nullable final String name,
+        @Nullable final String range,
+        final boolean optional,
+        final boolean greedy)
+    {
+      this.namespace = namespace;
+      this.name = name;
+      this.range = range;
+      this.optional = optional;
+      this.greedy = greedy;
+    }
+
+    private Requirement toRequirement() {
+      return new Requirement(namespace, name, range, filter, optional, greedy);
+    }
+  }
+
+  /**
+   * Collects the units and interns their strings, then writes them sorted.
+   */
+  private static class Builder
+  {
+    private final List<InstallableUnit> units = new ArrayList<>();
+
+    private final Map<String, Integer> stringIndexes = new HashMap<>();
+
+    private final List<String> strings = new ArrayList<>();
+
+    private void add(final InstallableUnit unit) {
+      units.add(unit);
+    }
+
+    private void write(final DataOutputStream out, final String version) throws IOException {
+      units.sort(Comparator.comparing(InstallableUnit::getId).thenComparing(InstallableUnit::getVersion));
+      int capabilities = units.stream().mapToInt(unit -> unit.getProvided().size()).sum();
+      int artifacts = units.stream().mapToInt(unit -> unit.getArtifacts().size()).sum();
+      int requirements = units.stream().mapToInt(unit -> unit.getRequirements().size()).sum();
+
+      int[] unitTable = new int[units.size() * UNIT_INTS];
+      int[] capabilityTable = new int[capabilities * KEY_INTS];
+      int[] artifactTable = new int[artifacts * KEY_INTS];
+      int[] requirementTable = new int[requirements * REQUIREMENT_INTS];
+      int capability = 0;
+      int artifact = 0;
+      int requirement = 0;
+      for (int i = 0; i < units.size(); i++) {
+        InstallableUnit unit = units.get(i);
+        int at = i * UNIT_INTS;
+        unitTable[at] = intern(unit.getId());
+        unitTable[at + 1] = intern(unit.getVersion());
+        unitTable[at + 2] = intern(unit.getName());
+        unitTable[at + 3] = capability;
+        unitTable[at + 4] = unit.getProvided().size();
+        for (Key key : unit.getProvided()) {
+          internKey(key, capabilityTable, capability++);
+        }
+        unitTable[at + 5] = artifact;
+        unitTable[at + 6] = unit.getArtifacts().size();
+        for (Key key : unit.getArtifacts()) {
+          internKey(key, artifactTable, artifact++);
+        }
+        unitTable[at + 7] = requirement;
+        unitTable[at + 8] = unit.getRequirements().size();
+        for (Requirement required : unit.getRequirements()) {
+          internRequirement(required, requirementTable, requirement++);
+        }
+        unitTable[at + 9] = intern(unit.getFilter());
+      }
+
+      byte[] versionBytes = version.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+      out.writeInt(versionBytes.length);
+      out.write(versionBytes);
+      out.writeInt(units.size());
+      out.writeInt(capabilities);
+      out.writeInt(artifacts);
+      out.writeInt(requirements);
+      out.writeInt(strings.size());
+      writeInts(out, unitTable);
+      writeInts(out, capabilityTable);
+      writeInts(out, artifactTable);
+      writeInts(out, requirementTable);
+
+      List<byte[]> encoded = new ArrayList<>(strings.size());
+      int offset = 0;
+      for (String string : strings) {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        encoded.add(bytes);
+        out.writeInt(offset);
+        offset += 4 + bytes.length;
+      }
+      for (byte[] bytes : encoded) {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      }
+    }
+
+    private void internKey(final Key key, final int[] table, final int index) {
+      table[index * KEY_INTS] = intern(key.getKind());
+      table[index * KEY_INTS + 1] = intern(key.getName());
+      table[index * KEY_INTS + 2] = intern(key.getVersion());
+    }
+
+    private void internRequirement(final Requirement required, final int[] table, final int index) {
+      int at = index * REQUIREMENT_INTS;
+      table[at] = intern(required.getNamespace());
+      table[at + 1] = intern(required.getName());
+      table[at + 2] = intern(required.getRange());
+      table[at + 3] = intern(required.getFilter());
+      table[at + 4] = (required.isOptional() ? OPTIONAL : 0) | (required.isGreedy() ? 0 : NOT_GREEDY);
+    }
+
+    private int intern(@Nullable final String string) {
+      if (string == null) {
+        return NONE;
+      }
+      return stringIndexes.computeIfAbsent(string, key -> {
+        strings.add(key);
+        return strings.size() - 1;
+      });
+    }
+
+    private static void writeInts(final DataOutputStream out, final int[] ints) throws IOException {
+      for (int value : ints) {
+        out.writeInt(value);
+      }
+    }
+  }
+}
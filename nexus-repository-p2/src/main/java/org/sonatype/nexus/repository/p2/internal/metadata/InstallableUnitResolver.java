@@ -0,0 +1,303 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.metadata;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import javax.annotation.Nullable;
+
+import org.sonatype.nexus.repository.p2.internal.metadata.InstallableUnitIndex.InstallableUnit;
+import org.sonatype.nexus.repository.p2.internal.metadata.InstallableUnitIndex.Key;
+import org.sonatype.nexus.repository.p2.internal.metadata.InstallableUnitIndex.Requirement;
+
+import static org.sonatype.nexus.repository.p2.internal.metadata.InstallableUnitIndex.IU_NAMESPACE;
+import static org.sonatype.nexus.repository.p2.internal.metadata.VersionRange.VERSION_ORDER;
+
+/**
+ * Resolves the transitive closure of requirements against the installable unit indexes of the sites of a repository.
+ *
+ * Each requirement is satisfied by a unit already in the closure if there is one, else by the provider of the highest
+ * version across the sites. Optional and non-greedy requirements are not followed, as they do not pull units into an
+ * installation, and neither are requirements whose filter does not match the platforms.
+ *
+ * @since 1.1.14
+ */
+public class InstallableUnitResolver
+{
+  static final int MAX_UNITS = 50_000;
+
+  private final Map<String, InstallableUnitIndex> indexes;
+
+  private final Predicate<String> filterMatcher;
+
+  private final Map<String, ResolvedUnit> resolved = new LinkedHashMap<>();
+
+  private final Map<String, List<ResolvedUnit>> resolvedById = new HashMap<>();
+
+  @Nullable
+  private Map<String, List<ResolvedUnit>> providers;
+
+  /**
+   * @param indexes       the indexes by site, the site hash followed by {@code /} or empty for the root site
+   * @param filterMatcher whether a unit or requirement with the LDAP filter applies to the platforms
+   */
+  public InstallableUnitResolver(
+      final Map<String, InstallableUnitIndex> indexes,
+      final Predicate<String> filterMatcher)
+  {
+    this.indexes = indexes;
+    this.filterMatcher = filterMatcher;
+  }
+
+  /**
+   * Resolve the closure of the root requirements.
+   */
+  public Resolution resolve(final List<Requirement> roots) {
+    Deque<ResolvedUnit> queue = new ArrayDeque<>();
+    Set<String> unresolved = new LinkedHashSet<>();
+    for (Requirement root : roots) {
+      ResolvedUnit unit = satisfy(root);
+      if (unit == null) {
+        unresolved.add(root.toString());
+      }
+      else if (add(unit)) {
+        queue.add(unit);
+      }
+    }
+    while (!queue.isEmpty() && resolved.size() < MAX_UNITS) {
+      ResolvedUnit unit = queue.poll();
+      for (Requirement requirement : unit.getUnit().getRequirements()) {
+        if (requirement.isOptional() || !requirement.isGreedy() || !applies(requirement.getFilter())) {
+          continue;
+        }
+        ResolvedUnit provider = satisfy(requirement);
+        if (provider == null) {
+          unresolved.add(unit.getUnit() + " requires " + requirement);
+        }
+        else if (add(provider)) {
+          queue.add(provider);
+        }
+      }
+    }
+    return new Resolution(new ArrayList<>(resolved.values()), new ArrayList<>(unresolved), !queue.isEmpty());
+  }
+
+  private boolean applies(@Nullable final String filter) {
+    return filter == null || filterMatcher.test(filter);
+  }
+
+  private boolean add(final ResolvedUnit unit) {
+    if (resolved.putIfAbsent(unit.getKey(), unit) != null) {
+      return false;
+    }
+    resolvedById.computeIfAbsent(unit.getUnit().getId(), id -> new ArrayList<>()).add(unit);
+    return true;
+  }
+
+  @Nullable
+  private ResolvedUnit satisfy(final Requirement requirement) {
+    if (requirement.getNamespace() == null || requirement.getName() == null) {
+      return null;
+    }
+    VersionRange range;
+    try {
+      range = VersionRange.parse(requirement.getRange());
+    }
+    catch (IllegalArgumentException e) {
+      return null;
+    }
+    if (IU_NAMESPACE.equals(requirement.getNamespace())) {
+      for (ResolvedUnit unit : resolvedById.getOrDefault(requirement.getName(), Collections.emptyList())) {
+        if (range.includes(unit.getUnit().getVersion())) {
+          return unit;
+        }
+      }
+      ResolvedUnit best = null;
+      for (Entry<String, InstallableUnitIndex> index : indexes.entrySet()) {
+        for (InstallableUnit unit : index.getValue().find(requirement.getName())) {
+          if (range.includes(unit.getVersion()) && applies(unit.getFilter())
+              && (best == null || VERSION_ORDER.compare(unit.getVersion(), best.getUnit().getVersion()) > 0)) {
+            best = new ResolvedUnit(index.getKey(), unit);
+          }
+        }
+      }
+      return best;
+    }
+
+    ResolvedUnit best = null;
+    String bestVersion = null;
+    for (ResolvedUnit provider : providers(requirement.getNamespace(), requirement.getName())) {
+      String version = providedVersion(provider.getUnit(), requirement.getNamespace(), requirement.getName(), range);
+      if (version == null || !applies(provider.getUnit().getFilter())) {
+        continue;
+      }
+      if (resolved.containsKey(provider.getKey())) {
+        return provider;
+      }
+      if (best == null || VERSION_ORDER.compare(version, bestVersion) > 0) {
+        best = provider;
+        bestVersion = version;
+      }
+    }
+    return best;
+  }
+
+  @Nullable
+  private static String providedVersion(
+      final InstallableUnit unit,
+      final String namespace,
+      final String name,
+      final VersionRange range)
+  {
+    for (Key capability : unit.getProvided()) {
+      if (namespace.equals(capability.getKind()) && name.equals(capability.getName())) {
+        String version = capability.getVersion() != null ? capability.getVersion() : "0.0.0";
+        if (range.includes(version)) {
+          return version;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * The units providing the capability, looked up from the capabilities of all units gathered on first use.
+   */
+  private List<ResolvedUnit> providers(final String namespace, final String name) {
+    if (providers == null) {
+      providers = new HashMap<>();
+      for (Entry<String, InstallableUnitIndex> index : indexes.entrySet()) {
+        for (int i = 0; i < index.getValue().size(); i++) {
+          InstallableUnit unit = index.getValue().get(i);
+          ResolvedUnit candidate = new ResolvedUnit(index.getKey(), unit);
+          Set<String> keys = new HashSet<>();
+          for (Key capability : unit.getProvided()) {
+            if (!IU_NAMESPACE.equals(capability.getKind())
+                && keys.add(capabilityKey(capability.getKind(), capability.getName()))) {
+              providers.computeIfAbsent(capabilityKey(capability.getKind(), capability.getName()),
+                  key -> new ArrayList<>()).add(candidate);
+            }
+          }
+        }
+      }
+    }
+    return providers.getOrDefault(capabilityKey(namespace, name), Collections.emptyList());
+  }
+
+  private static String capabilityKey(@Nullable final String namespace, @Nullable final String name) {
+    return namespace + '\n' + name;
+  }
+
+  /**
+   * A unit of the index of a site.
+   */
+  public static final class ResolvedUnit
+  {
+    private final String site;
+
+    private final InstallableUnit unit;
+
+    ResolvedUnit(final String site, final InstallableUnit unit) {
+      this.site = site;
+      this.unit = unit;
+    }
+
+    /**
+     * The site hash followed by {@code /}, or empty for the root site.
+     */
+    public String getSite() {
+      return site;
+    }
+
+    public InstallableUnit getUnit() {
+      return unit;
+    }
+
+    /**
+     * The paths of the artifacts of the unit in the repository.
+     */
+    public List<String> getArtifactPaths() {
+      List<String> paths = new ArrayList<>();
+      for (Key artifact : unit.getArtifacts()) {
+        String path = artifact.getArtifactPath();
+        if (path != null) {
+          paths.add(site + path);
+        }
+      }
+      return paths;
+    }
+
+    private String getKey() {
+      return site + unit;
+    }
+
+    @Override
+    public String toString() {
+      return getKey();
+    }
+  }
+
+  /**
+   * The units of a closure and the requirements which could not be satisfied.
+   */
+  public static final class Resolution
+  {
+    private final List<ResolvedUnit> units;
+
+    private final List<String> unresolved;
+
+    private final boolean truncated;
+
+    Resolution(final List<ResolvedUnit> units, final List<String> unresolved, final boolean truncated) {
+      this.units = Collections.unmodifiableList(units);
+      this.unresolved = Collections.unmodifiableList(unresolved);
+      this.truncated = truncated;
+    }
+
+    public List<ResolvedUnit> getUnits() {
+      return units;
+    }
+
+    public List<String> getUnresolved() {
+      return unresolved;
+    }
+
+    /**
+     * Whether the closure was cut at {@link #MAX_UNITS} units.
+     */
+    public boolean isTruncated() {
+      return truncated;
+    }
+
+    /**
+     * The paths of the artifacts of all units, in the repository.
+     */
+    public List<String> getArtifactPaths() {
+      Set<String> paths = new LinkedHashSet<>();
+      units.forEach(unit -> paths.addAll(unit.getArtifactPaths()));
+      return new ArrayList<>(paths);
+    }
+  }
+}
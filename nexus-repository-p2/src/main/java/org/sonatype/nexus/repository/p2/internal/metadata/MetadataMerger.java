@@ -0,0 +1,393 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.metadata;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import javax.annotation.Nullable;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import org.sonatype.nexus.common.io.SafeXml;
+
+/**
+ * Merges the units of the content metadata or the artifacts of the artifacts metadata of several sites into a single
+ * repository.
+ *
+ * The units or artifacts of each site are first extracted into a fragment file, which is kept as long as the metadata
+ * of the site does not change, so a merge only reads again the metadata of the sites that changed. A unit or artifact
+ * listed by several sites is taken from the first of them.
+ *
+ * @since 1.1.14
+ */
+public final class MetadataMerger
+{
+  /**
+   * The metadata merged.
+   */
+  public enum Kind
+  {
+    CONTENT("content.xml", "metadataRepository version='1.2.0'",
+        "org.eclipse.equinox.internal.p2.metadata.repository.LocalMetadataRepository", "units", "unit", ""),
+
+    ARTIFACTS("artifacts.xml", "artifactRepository version='1.1.0'",
+        "org.eclipse.equinox.p2.artifact.repository.simpleRepository", "artifacts", "artifact",
+        "  <mappings size='5'>\n" +
+        "    <rule filter='(&amp; (classifier=osgi.bundle) (format=packed))'" +
+        " output='${repoUrl}/plugins/${id}_${version}.jar.pack.gz'/>\n" +
+        "    <rule filter='(&amp; (classifier=osgi.bundle))' output='${repoUrl}/plugins/${id}_${version}.jar'/>\n" +
+        "    <rule filter='(&amp; (classifier=binary))' output='${repoUrl}/binary/${id}_${version}'/>\n" +
+        "    <rule filter='(&amp; (classifier=org.eclipse.update.feature) (format=packed))'" +
+        " output='${repoUrl}/features/${id}_${version}.jar.pack.gz'/>\n" +
+        "    <rule filter='(&amp; (classifier=org.eclipse.update.feature))'" +
+        " output='${repoUrl}/features/${id}_${version}.jar'/>\n" +
+        "  </mappings>\n");
+
+    private final String fileName;
+
+    private final String processingInstruction;
+
+    private final String type;
+
+    private final String container;
+
+    private final String element;
+
+    private final String prologue;
+
+    Kind(
+        final String fileName,
+        final String processingInstruction,
+        final String type,
+        final String container,
+        final String element,
+        final String prologue)
+    {
+      this.fileName = fileName;
+      this.processingInstruction = processingInstruction;
+      this.type = type;
+      this.container = container;
+      this.element = element;
+      this.prologue = prologue;
+    }
+
+    /**
+     * The name of the xml, also within a jar.
+     */
+    public String getFileName() {
+      return fileName;
+    }
+  }
+
+  private static final int FORMAT = 1;
+
+  private MetadataMerger() {
+    // empty
+  }
+
+  /**
+   * Extract the units or artifacts of the metadata xml into the fragment file.
+   *
+   * @param version the version of the metadata the fragment is extracted from, e.g. its SHA-1
+   * @return the number of units or artifacts extracted
+   */
+  public static int writeFragment(final Kind kind, final InputStream xml, final String version, final Path file)
+      throws IOException
+  {
+    try (FragmentWriter writer = new FragmentWriter(file, version)) {
+      extract(kind, xml, writer);
+      writer.commit();
+      return writer.getCount();
+    }
+  }
+
+  /**
+   * The version of the metadata the fragment file was extracted from, empty if there is no such fragment.
+   */
+  public static Optional<String> readFragmentVersion(final Path file) {
+    if (!Files.isRegularFile(file)) {
+      return Optional.empty();
+    }
+    try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+      return in.readInt() == FORMAT ? Optional.of(in.readUTF()) : Optional.empty();
+    }
+    catch (IOException e) {
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Write the repository merged from the fragments.
+   *
+   * @param fragments the fragment files by site, in order
+   * @return the site each unit or artifact of the merged repository is taken from, by unit key ({@code id/version})
+   * or artifact key ({@code classifier/id/version})
+   */
+  public static Map<String, String> merge(
+      final Kind kind,
+      final String name,
+      final long timestamp,
+      final Map<String, Path> fragments,
+      final OutputStream out) throws IOException
+  {
+    Map<String, String> owners = new LinkedHashMap<>();
+    // an artifact may be listed more than once by a site, e.g. packed and not
+    int size = 0;
+    for (Map.Entry<String, Path> fragment : fragments.entrySet()) {
+      try (DataInputStream in = openFragment(fragment.getValue())) {
+        String key;
+        while ((key = nextRecord(in)) != null) {
+          if (fragment.getKey().equals(owners.computeIfAbsent(key, k -> fragment.getKey()))) {
+            size++;
+          }
+          skipRecord(in);
+        }
+      }
+    }
+
+    writeText(out, "<?xml version='1.0' encoding='UTF-8'?>\n<?" + kind.processingInstruction + "?>\n" +
+        "<repository name='" + escape(name) + "' type='" + kind.type + "' version='1'>\n" +
+        "  <properties size='2'>\n" +
+        "    <property name='p2.timestamp' value='" + timestamp + "'/>\n" +
+        "    <property name='p2.compressed' value='true'/>\n" +
+        "  </properties>\n" +
+        kind.prologue +
+        "  <" + kind.container + " size='" + size + "'>\n");
+    byte[] buffer = new byte[8192];
+    for (Map.Entry<String, Path> fragment : fragments.entrySet()) {
+      try (DataInputStream in = openFragment(fragment.getValue())) {
+        String key;
+        while ((key = nextRecord(in)) != null) {
+          int length = in.readInt();
+          if (!fragment.getKey().equals(owners.get(key))) {
+            skipFully(in, length);
+            continue;
+          }
+          writeText(out, "    ");
+          for (int remaining = length; remaining > 0; ) {
+            int read = in.read(buffer, 0, Math.min(buffer.length, remaining));
+            if (read < 0) {
+              throw new EOFException();
+            }
+            out.write(buffer, 0, read);
+            remaining -= read;
+          }
+          writeText(out, "\n");
+        }
+      }
+    }
+    writeText(out, "  </" + kind.container + ">\n</repository>\n");
+    return owners;
+  }
+
+  private static void extract(final Kind kind, final InputStream xml, final FragmentWriter out)
+      throws IOException
+  {
+    XMLEventReader reader = null;
+    try {
+      reader = SafeXml.newXmlInputFactory().createXMLEventReader(xml);
+      ByteArrayOutputStream element = new ByteArrayOutputStream();
+      XMLEventWriter writer = XMLOutputFactory.newFactory().createXMLEventWriter(element, "UTF-8");
+      int depth = 0;
+      boolean inContainer = false;
+      String key = null;
+      while (reader.hasNext()) {
+        XMLEvent event = reader.nextEvent();
+        if (event.isStartElement()) {
+          depth++;
+          String localName = event.asStartElement().getName().getLocalPart();
+          if (depth == 2) {
+            inContainer = kind.container.equals(localName);
+          }
+          else if (depth == 3 && inContainer && kind.element.equals(localName)) {
+            key = key(kind, event.asStartElement());
+          }
+        }
+        if (key != null) {
+          writer.add(event);
+        }
+        if (event.isEndElement()) {
+          if (depth == 3 && key != null) {
+            writer.flush();
+            out.write(key, element.toByteArray());
+            element.reset();
+            key = null;
+          }
+          depth--;
+        }
+      }
+    }
+    catch (XMLStreamException e) {
+      throw new IOException(e);
+    }
+    finally {
+      if (reader != null) {
+        try {
+          reader.close();
+        }
+        catch (XMLStreamException e) {
+          // do nothing
+        }
+      }
+    }
+  }
+
+  @Nullable
+  private static String key(final Kind kind, final StartElement start) {
+    String id = attribute(start, "id");
+    String version = attribute(start, "version");
+    if (id == null || version == null) {
+      return null;
+    }
+    if (kind == Kind.CONTENT) {
+      return id + '/' + version;
+    }
+    String classifier = attribute(start, "classifier");
+    return classifier == null ? null : classifier + '/' + id + '/' + version;
+  }
+
+  @Nullable
+  private static String attribute(final StartElement start, final String name) {
+    Attribute attribute = start.getAttributeByName(new QName(name));
+    return attribute == null ? null : attribute.getValue();
+  }
+
+  private static DataInputStream openFragment(final Path file) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+    try {
+      if (in.readInt() != FORMAT) {
+        throw new IOException("Unexpected format of " + file);
+      }
+      in.readUTF();
+      return in;
+    }
+    catch (IOException e) {
+      in.close();
+      throw e;
+    }
+  }
+
+  @Nullable
+  private static String nextRecord(final DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  private static void skipRecord(final DataInputStream in) throws IOException {
+    skipFully(in, in.readInt());
+  }
+
+  private static void skipFully(final DataInputStream in, final int length) throws IOException {
+    if (in.skipBytes(length) != length) {
+      throw new EOFException();
+    }
+  }
+
+  private static void writeText(final OutputStream out, final String text) throws IOException {
+    out.write(text.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String escape(final String value) {
+    return value.replace("&", "&amp;").replace("<", "&lt;").replace("'", "&apos;").replace("\"", "&quot;");
+  }
+
+  /**
+   * Writes the units or artifacts of a fragment file one by one, e.g. as they are generated rather than extracted from
+   * metadata. The file is only replaced once the fragment is committed.
+   */
+  public static final class FragmentWriter
+      implements Closeable
+  {
+    private final Path file;
+
+    private final Path temp;
+
+    private final DataOutputStream out;
+
+    private int count;
+
+    private boolean committed;
+
+    /**
+     * @param version the version of what the fragment is written from
+     */
+    public FragmentWriter(final Path file, final String version) throws IOException {
+      this.file = file;
+      Files.createDirectories(file.toAbsolutePath().getParent());
+      temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+      out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)));
+      out.writeInt(FORMAT);
+      out.writeUTF(version);
+    }
+
+    /**
+     * Write a unit or artifact element.
+     *
+     * @param key the unit key ({@code id/version}) or artifact key ({@code classifier/id/version})
+     */
+    public void write(final String key, final byte[] element) throws IOException {
+      out.writeBoolean(true);
+      out.writeUTF(key);
+      out.writeInt(element.length);
+      out.write(element);
+      count++;
+    }
+
+    public int getCount() {
+      return count;
+    }
+
+    /**
+     * Replace the fragment file with what was written.
+     */
+    public void commit() throws IOException {
+      out.writeBoolean(false);
+      out.close();
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      committed = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (!committed) {
+        try {
+          out.close();
+        }
+        finally {
+          Files.deleteIfExists(temp);
+        }
+      }
+    }
+  }
+}
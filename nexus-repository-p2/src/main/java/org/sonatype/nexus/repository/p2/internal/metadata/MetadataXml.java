@@ -0,0 +1,68 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.metadata;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
+
+/**
+ * Opens the xml of p2 metadata stored as a jar, {@code .xml.xz} or plain {@code .xml}.
+ *
+ * @since 1.1.14
+ */
+public class MetadataXml
+{
+  private static final String CONTENT_XML = "content.xml";
+
+  private MetadataXml() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Open the {@code content.xml} of a {@code content.jar}, {@code content.xml.xz} or {@code content.xml}, closing the
+   * returned stream closes the given one.
+   */
+  public static InputStream openContentXml(final String assetName, final InputStream in) throws IOException {
+    return openMetadataXml(assetName, CONTENT_XML, in);
+  }
+
+  /**
+   * Open the xml of a metadata jar, {@code .xml.xz} or {@code .xml}, e.g. the {@code artifacts.xml} of an
+   * {@code artifacts.jar}. Closing the returned stream closes the given one.
+   *
+   * @param entryName the name of the xml in a jar
+   */
+  public static InputStream openMetadataXml(final String assetName, final String entryName, final InputStream in)
+      throws IOException
+  {
+    if (assetName.endsWith(".jar")) {
+      ZipInputStream zip = new ZipInputStream(in);
+      ZipEntry entry;
+      while ((entry = zip.getNextEntry()) != null) {
+        if (!entry.isDirectory() && entryName.equals(entry.getName())) {
+          return zip;
+        }
+      }
+      zip.close();
+      throw new IOException("Unable to locate entry with filename: " + entryName);
+    }
+    if (assetName.endsWith(".xz")) {
+      return new XZCompressorInputStream(in);
+    }
+    return in;
+  }
+}
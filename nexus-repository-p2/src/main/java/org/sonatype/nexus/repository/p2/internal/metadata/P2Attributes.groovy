@@ -40,6 +40,8 @@ class P2Attributes
 
   private AssetKind assetKind
 
+  private List<String> providedPackages
+
   private P2Attributes(final Builder builder) {
     this.pluginName = builder.pluginName
     this.componentName = builder.componentName
@@ -48,6 +50,7 @@ class P2Attributes
     this.fileName = builder.fileName
     this.extension = builder.extension
     this.assetKind = builder.assetKind
+    this.providedPackages = builder.providedPackages
   }
 
   static Builder builder() {
@@ -80,6 +83,8 @@ class P2Attributes
 
     private AssetKind assetKind
 
+    private List<String> providedPackages
+
     private Builder() {
     }
 
@@ -118,6 +123,14 @@ class P2Attributes
       return this
     }
 
+    /**
+     * @since 1.1.14
+     */
+    Builder providedPackages(final List<String> providedPackages) {
+      this.providedPackages = providedPackages
+      return this
+    }
+
     P2Attributes build() {
       return new P2Attributes(this)
     }
@@ -130,6 +143,7 @@ class P2Attributes
       fileName(ofNullable(two.getFileName()).orElse(one.getFileName()))
       extension(ofNullable(two.getExtension()).orElse(one.getExtension()))
       assetKind(ofNullable(two.getAssetKind()).orElse(one.getAssetKind()))
+      providedPackages(two.getProvidedPackages().isEmpty() ? one.getProvidedPackages() : two.getProvidedPackages())
       return this
     }
   }
@@ -168,4 +182,13 @@ class P2Attributes
   AssetKind getAssetKind() {
     return assetKind
   }
+
+  /**
+   * The packages exported by a bundle.
+   *
+   * @since 1.1.14
+   */
+  List<String> getProvidedPackages() {
+    return providedPackages == null ? Collections.emptyList() : providedPackages
+  }
 }
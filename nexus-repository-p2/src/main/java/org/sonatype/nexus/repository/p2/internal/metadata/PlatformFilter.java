@@ -0,0 +1,242 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.metadata;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nullable;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.InvalidSyntaxException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * The platforms, as operating system, windowing system and architecture, the clients of a repository run on, e.g.
+ * {@code linux/gtk/x86_64}. Matches the {@code os}, {@code ws} and {@code arch} attributes of feature inclusions and
+ * the LDAP filters of installable units against those platforms.
+ *
+ * A filter matches when it may match any of the platforms: comparisons of properties other than {@code osgi.os},
+ * {@code osgi.ws} and {@code osgi.arch} cannot be decided and are not held against it, so only what is definitely
+ * meant for other platforms is left out. Filters are evaluated by OSGi, the properties a platform does not set are
+ * tried absent and with each value the filter compares them to.
+ *
+ * @since 1.1.14
+ */
+public final class PlatformFilter
+{
+  public static final String OS = "osgi.os";
+
+  public static final String WS = "osgi.ws";
+
+  public static final String ARCH = "osgi.arch";
+
+  /**
+   * Matches every platform.
+   */
+  public static final PlatformFilter ALL = new PlatformFilter(Collections.emptyList());
+
+  private static final String ANY = "*";
+
+  private static final int MAX_CACHED_FILTERS = 10_000;
+
+  /**
+   * Filters needing more assignments of the properties a platform does not set are considered to match.
+   */
+  private static final int MAX_ASSIGNMENTS = 256;
+
+  /**
+   * A comparison of an LDAP filter, only used to find the properties and values a filter compares.
+   */
+  private static final Pattern COMPARISON =
+      Pattern.compile("\\(\\s*([^=<>~()&|!\\s][^=<>~()]*?)\\s*[<>~]?=((?:\\\\.|[^\\\\)])*)\\)");
+
+  private final List<Map<String, String>> platforms;
+
+  private final Cache<String, Boolean> filterMatches = CacheBuilder.newBuilder().maximumSize(MAX_CACHED_FILTERS)
+      .build();
+
+  private PlatformFilter(final List<Map<String, String>> platforms) {
+    this.platforms = platforms;
+  }
+
+  /**
+   * The filter of the platforms given as {@code os/ws/arch}, {@code *} standing for any value, matching every platform
+   * when there are none.
+   *
+   * @throws IllegalArgumentException if a platform is not given as {@code os/ws/arch}
+   */
+  public static PlatformFilter of(@Nullable final Collection<String> platforms) {
+    if (platforms == null || platforms.isEmpty()) {
+      return ALL;
+    }
+    List<Map<String, String>> parsed = new ArrayList<>();
+    for (String platform : platforms) {
+      String[] segments = platform.trim().split("/", -1);
+      checkArgument(segments.length == 3, "Invalid platform, expected os/ws/arch: %s", platform);
+      Map<String, String> properties = new HashMap<>();
+      put(properties, OS, segments[0], platform);
+      put(properties, WS, segments[1], platform);
+      put(properties, ARCH, segments[2], platform);
+      parsed.add(properties);
+    }
+    return new PlatformFilter(parsed);
+  }
+
+  private static void put(
+      final Map<String, String> properties,
+      final String key,
+      final String segment,
+      final String platform)
+  {
+    String value = segment.trim();
+    checkArgument(!value.isEmpty(), "Invalid platform, expected os/ws/arch: %s", platform);
+    if (!ANY.equals(value)) {
+      properties.put(key, value);
+    }
+  }
+
+  public boolean isAll() {
+    return platforms.isEmpty();
+  }
+
+  /**
+   * Whether the comma separated {@code os}, {@code ws} and {@code arch} values of a feature inclusion match a
+   * platform, absent values match any.
+   */
+  public boolean matches(@Nullable final String os, @Nullable final String ws, @Nullable final String arch) {
+    if (isAll()) {
+      return true;
+    }
+    for (Map<String, String> platform : platforms) {
+      if (matchesAnyOf(os, platform.get(OS)) && matchesAnyOf(ws, platform.get(WS))
+          && matchesAnyOf(arch, platform.get(ARCH))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean matchesAnyOf(@Nullable final String values, @Nullable final String value) {
+    if (values == null || values.trim().isEmpty() || value == null) {
+      return true;
+    }
+    for (String candidate : values.split(",")) {
+      if (candidate.trim().equals(value)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Whether the LDAP filter may match a platform, filters which cannot be parsed match.
+   */
+  public boolean matches(@Nullable final String filter) {
+    if (filter == null || isAll()) {
+      return true;
+    }
+    Boolean matches = filterMatches.getIfPresent(filter);
+    if (matches == null) {
+      matches = evaluate(filter);
+      filterMatches.put(filter, matches);
+    }
+    return matches;
+  }
+
+  private boolean evaluate(final String filter) {
+    Filter parsed;
+    try {
+      parsed = FrameworkUtil.createFilter(filter);
+    }
+    catch (InvalidSyntaxException e) {
+      return true;
+    }
+    Map<String, Set<String>> comparedValues = comparedValues(filter);
+    for (Map<String, String> platform : platforms) {
+      List<String> unset = new ArrayList<>(comparedValues.keySet());
+      unset.removeAll(platform.keySet());
+      long assignments = 1;
+      for (int i = 0; i < unset.size() && assignments <= MAX_ASSIGNMENTS; i++) {
+        assignments *= comparedValues.get(unset.get(i)).size() + 1;
+      }
+      if (assignments > MAX_ASSIGNMENTS || mayMatch(parsed, new Hashtable<>(platform), unset, 0, comparedValues)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Whether the filter matches the properties with any assignment of the unset properties from the given index on.
+   */
+  private static boolean mayMatch(
+      final Filter filter,
+      final Hashtable<String, Object> properties,
+      final List<String> unset,
+      final int index,
+      final Map<String, Set<String>> comparedValues)
+  {
+    if (index == unset.size()) {
+      // case insensitive keys, like the values of the filters
+      return filter.match(properties);
+    }
+    String key = unset.get(index);
+    properties.remove(key);
+    if (mayMatch(filter, properties, unset, index + 1, comparedValues)) {
+      return true;
+    }
+    for (String value : comparedValues.get(key)) {
+      properties.put(key, value);
+      if (mayMatch(filter, properties, unset, index + 1, comparedValues)) {
+        return true;
+      }
+    }
+    properties.remove(key);
+    return false;
+  }
+
+  /**
+   * The values the properties are compared to by the filter, by lower case property, values of substring comparisons
+   * without their wildcards so they match.
+   */
+  private static Map<String, Set<String>> comparedValues(final String filter) {
+    Map<String, Set<String>> values = new HashMap<>();
+    Matcher matcher = COMPARISON.matcher(filter);
+    while (matcher.find()) {
+      String key = matcher.group(1).trim().toLowerCase(Locale.ENGLISH);
+      String value = matcher.group(2).replaceAll("\\\\(.)|\\*", "$1");
+      values.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(value);
+    }
+    return values;
+  }
+
+  @Override
+  public String toString() {
+    return isAll() ? "all platforms" : platforms.toString();
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.metadata;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.sonatype.nexus.repository.p2.internal.metadata.InstallableUnitIndex.InstallableUnit;
+import org.sonatype.nexus.repository.p2.internal.metadata.InstallableUnitIndex.Key;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Drops the units whose filter does not match the platforms when filtering metadata, and the artifacts only such
+ * units refer to in the indexes of the sites. Artifacts no indexed unit refers to are kept.
+ *
+ * @since 1.1.14
+ */
+public class PlatformUnitFilter
+    implements UnitFilterTransformer.Filter
+{
+  private final PlatformFilter platformFilter;
+
+  private final Set<String> excludedArtifacts = new HashSet<>();
+
+  public PlatformUnitFilter(final PlatformFilter platformFilter, final Iterable<InstallableUnitIndex> indexes) {
+    this.platformFilter = checkNotNull(platformFilter);
+    Set<String> includedArtifacts = new HashSet<>();
+    for (InstallableUnitIndex index : indexes) {
+      for (int i = 0; i < index.size(); i++) {
+        InstallableUnit unit = index.get(i);
+        Set<String> artifacts = platformFilter.matches(unit.getFilter()) ? includedArtifacts : excludedArtifacts;
+        for (Key artifact : unit.getArtifacts()) {
+          artifacts.add(artifact.toString());
+        }
+      }
+    }
+    excludedArtifacts.removeAll(includedArtifacts);
+  }
+
+  @Override
+  public boolean keepUnit(
+      final String id,
+      final String version,
+      @Nullable final String filter,
+      final boolean fragment)
+  {
+    return platformFilter.matches(filter);
+  }
+
+  @Override
+  public boolean keepArtifact(final String classifier, final String id, final String version) {
+    return !excludedArtifacts.contains(classifier + '/' + id + '/' + version);
+  }
+
+  /**
+   * The number of artifacts dropped.
+   */
+  public int getExcludedArtifacts() {
+    return excludedArtifacts.size();
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.metadata;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.annotation.Nullable;
+
+/**
+ * Canonicalizes remote p2 site URLs before they are mapped to a site hash so that equivalent locations share a
+ * single cache.
+ *
+ * The following stages are applied in order, each of which is disabled unless configured:
+ * <ol>
+ * <li>scheme folding, {@code http} is treated as {@code https}</li>
+ * <li>host aliases, e.g. a mirror host is replaced by the host it mirrors</li>
+ * <li>path normalization, lower-cases scheme and host, drops default ports and fragments, collapses duplicate
+ * slashes, resolves dot segments and removes a trailing {@code index}, {@code index.htm} or {@code index.html}</li>
+ * <li>explicit equivalences, the longest matching URL prefix is replaced by its canonical prefix</li>
+ * </ol>
+ *
+ * @since 1.1.14
+ */
+public class SiteUrlCanonicalizer
+{
+  public static final SiteUrlCanonicalizer NONE =
+      new SiteUrlCanonicalizer(false, Collections.emptyMap(), false, Collections.emptyMap());
+
+  private static final String HTTP = "http";
+
+  private static final String HTTPS = "https";
+
+  private final boolean foldScheme;
+
+  private final Map<String, String> hostAliases;
+
+  private final boolean normalizePath;
+
+  private final Map<String, String> equivalences;
+
+  /**
+   * @param foldScheme    whether {@code http} URLs should be treated as {@code https}
+   * @param hostAliases   alias host to canonical host
+   * @param normalizePath whether URL paths should be normalized
+   * @param equivalences  URL prefix to the canonical URL prefix it is equivalent to
+   */
+  public SiteUrlCanonicalizer(
+      final boolean foldScheme,
+      @Nullable final Map<String, String> hostAliases,
+      final boolean normalizePath,
+      @Nullable final Map<String, String> equivalences)
+  {
+    this.foldScheme = foldScheme;
+    this.normalizePath = normalizePath;
+
+    Map<String, String> aliases = new LinkedHashMap<>();
+    if (hostAliases != null) {
+      hostAliases.forEach(
+          (alias, host) -> aliases.put(alias.toLowerCase(Locale.ENGLISH), host.toLowerCase(Locale.ENGLISH)));
+    }
+    this.hostAliases = Collections.unmodifiableMap(aliases);
+
+    // equivalences are matched after the other stages so the configured prefixes are canonicalized the same way
+    Map<String, String> prefixes = new LinkedHashMap<>();
+    if (equivalences != null) {
+      equivalences.entrySet().stream()
+          .sorted(Comparator.comparing((Entry<String, String> e) -> e.getKey().length()).reversed())
+          .forEach(e -> prefixes.put(withSlash(normalize(e.getKey())), withSlash(normalize(e.getValue()))));
+    }
+    this.equivalences = Collections.unmodifiableMap(prefixes);
+  }
+
+  public boolean isIdentity() {
+    return !foldScheme && !normalizePath && hostAliases.isEmpty() && equivalences.isEmpty();
+  }
+
+  /**
+   * Returns the canonical form of the given URL, URLs which cannot be parsed are returned unchanged. The canonical
+   * form identifies a site, it is not meant to be fetched from.
+   */
+  public String canonicalize(final String url) {
+    if (isIdentity()) {
+      return url;
+    }
+    String result = normalize(url);
+    String slashed = withSlash(result);
+    for (Entry<String, String> equivalence : equivalences.entrySet()) {
+      if (slashed.startsWith(equivalence.getKey())) {
+        String canonical = equivalence.getValue() + slashed.substring(equivalence.getKey().length());
+        // the prefixes end with a slash, the URL only keeps one if it had one
+        return result.endsWith("/") ? canonical : canonical.substring(0, canonical.length() - 1);
+      }
+    }
+    return result;
+  }
+
+  public URI canonicalize(final URI uri) {
+    return URI.create(canonicalize(uri.toString()));
+  }
+
+  private String normalize(final String url) {
+    URI uri;
+    try {
+      uri = new URI(url);
+    }
+    catch (URISyntaxException e) {
+      return url;
+    }
+    if (!uri.isAbsolute() || uri.isOpaque()) {
+      return url;
+    }
+
+    String scheme = uri.getScheme();
+    String host = uri.getHost();
+    int port = uri.getPort();
+    String path = uri.getRawPath();
+
+    if (foldScheme && HTTP.equalsIgnoreCase(scheme)) {
+      scheme = HTTPS;
+      if (port == 80) {
+        port = -1;
+      }
+    }
+    if (host != null && hostAliases.containsKey(host.toLowerCase(Locale.ENGLISH))) {
+      host = hostAliases.get(host.toLowerCase(Locale.ENGLISH));
+    }
+    if (normalizePath) {
+      scheme = scheme.toLowerCase(Locale.ENGLISH);
+      host = host == null ? null : host.toLowerCase(Locale.ENGLISH);
+      if ((HTTP.equals(scheme) && port == 80) || (HTTPS.equals(scheme) && port == 443)) {
+        port = -1;
+      }
+      path = normalizePath(path);
+    }
+
+    StringBuilder result = new StringBuilder(scheme).append("://");
+    if (uri.getRawUserInfo() != null) {
+      result.append(uri.getRawUserInfo()).append('@');
+    }
+    if (host != null) {
+      result.append(host);
+    }
+    if (port != -1) {
+      result.append(':').append(port);
+    }
+    if (path != null) {
+      result.append(path);
+    }
+    if (uri.getRawQuery() != null) {
+      result.append('?').append(uri.getRawQuery());
+    }
+    if (!normalizePath && uri.getRawFragment() != null) {
+      result.append('#').append(uri.getRawFragment());
+    }
+    return result.toString();
+  }
+
+  private static String normalizePath(@Nullable final String path) {
+    if (path == null || path.isEmpty()) {
+      return "/";
+    }
+    String collapsed = path.replaceAll("/{2,}", "/");
+    String normalized = URI.create(collapsed).normalize().toString();
+    return normalized.replaceFirst("/index(\\.html?)?$", "/");
+  }
+
+  private static String withSlash(final String url) {
+    return url.endsWith("/") ? url : url + '/';
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.metadata;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.sonatype.nexus.common.io.SafeXml;
+import org.sonatype.nexus.repository.p2.internal.metadata.InstallableUnitIndex.Requirement;
+
+import static javax.xml.stream.XMLStreamConstants.END_ELEMENT;
+import static javax.xml.stream.XMLStreamConstants.START_ELEMENT;
+
+/**
+ * Reads the installable units to warm a repository up for, from a Tycho / PDE target definition ({@code .target}
+ * file) or a list of units.
+ *
+ * Units of {@code InstallableUnit} locations are required at their version, or at any version when it is
+ * {@code 0.0.0} or absent as the latest version is meant. Other kinds of locations are ignored.
+ *
+ * @since 1.1.14
+ */
+public final class TargetDefinition
+{
+  private static final String IU_LOCATION = "InstallableUnit";
+
+  private static final String ANY_VERSION = "0.0.0";
+
+  private TargetDefinition() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * The requirements of the units of the target definition.
+   */
+  public static List<Requirement> parse(final InputStream in) throws IOException {
+    XMLInputFactory inputFactory = SafeXml.newXmlInputFactory();
+    List<Requirement> units = new ArrayList<>();
+    XMLStreamReader reader = null;
+    try {
+      reader = inputFactory.createXMLStreamReader(in);
+      boolean inLocation = false;
+      while (reader.hasNext()) {
+        int event = reader.next();
+        if (event == START_ELEMENT && "location".equals(reader.getLocalName())) {
+          inLocation = IU_LOCATION.equals(reader.getAttributeValue(null, "type"));
+        }
+        else if (event == START_ELEMENT && inLocation && "unit".equals(reader.getLocalName())) {
+          String id = reader.getAttributeValue(null, "id");
+          if (id != null && !id.trim().isEmpty()) {
+            units.add(Requirement.unit(id.trim(), range(reader.getAttributeValue(null, "version"))));
+          }
+        }
+        else if (event == END_ELEMENT && "location".equals(reader.getLocalName())) {
+          inLocation = false;
+        }
+      }
+    }
+    catch (XMLStreamException e) {
+      throw new IOException(e);
+    }
+    finally {
+      if (reader != null) {
+        try {
+          reader.close();
+        }
+        catch (XMLStreamException e) {
+          // do nothing
+        }
+      }
+    }
+    return units;
+  }
+
+  /**
+   * The requirements of units listed one per line as an id optionally followed by a version range, e.g.
+   * {@code org.eclipse.platform.feature.group [4.16.0,4.17.0)}, or of the target definition in the text.
+   *
+   * @throws IllegalArgumentException if a version range is not valid
+   */
+  public static List<Requirement> parseUnits(final String text) throws IOException {
+    String trimmed = text.trim();
+    if (trimmed.startsWith("<")) {
+      return parse(new ByteArrayInputStream(trimmed.getBytes(StandardCharsets.UTF_8)));
+    }
+    List<Requirement> units = new ArrayList<>();
+    for (String line : trimmed.split("\\R")) {
+      String unit = line.trim();
+      if (unit.isEmpty() || unit.startsWith("#")) {
+        continue;
+      }
+      units.add(parseUnit(unit));
+    }
+    return units;
+  }
+
+  /**
+   * The requirement of a unit given as an id optionally followed by a version range.
+   *
+   * @throws IllegalArgumentException if the version range is not valid
+   */
+  public static Requirement parseUnit(final String unit) {
+    String trimmed = unit.trim();
+    int space = trimmed.indexOf(' ');
+    String range = space == -1 ? null : trimmed.substring(space + 1).trim();
+    VersionRange.parse(range);
+    return Requirement.unit(space == -1 ? trimmed : trimmed.substring(0, space), range);
+  }
+
+  @Nullable
+  private static String range(@Nullable final String version) {
+    if (version == null || version.trim().isEmpty() || ANY_VERSION.equals(version.trim())) {
+      return null;
+    }
+    return '[' + version.trim() + ',' + version.trim() + ']';
+  }
+}
@@ -0,0 +1,243 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.metadata;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.annotation.Nullable;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * Drops the units of content metadata and the artifacts of artifacts metadata the filter does not keep, and corrects
+ * the size of the enclosing {@code units} or {@code artifacts} element. The kept elements are buffered until the end
+ * of the enclosing element, so the memory used grows with the size of the result rather than of the metadata.
+ *
+ * @since 1.1.14
+ */
+public class UnitFilterTransformer
+    extends XmlTransformer
+{
+  /**
+   * Decides which units and artifacts are kept.
+   */
+  public interface Filter
+  {
+    /**
+     * @param filter   the LDAP filter of the platforms the unit applies to
+     * @param fragment whether the unit is a fragment attaching to host units, e.g. a configuration unit
+     */
+    boolean keepUnit(String id, String version, @Nullable String filter, boolean fragment);
+
+    boolean keepArtifact(String classifier, String id, String version);
+
+    /**
+     * The filter keeping what both this and the other filter keep.
+     */
+    default Filter and(final Filter other) {
+      Filter self = this;
+      return new Filter()
+      {
+        @Override
+        public boolean keepUnit(
+            final String id,
+            final String version,
+            @Nullable final String filter,
+            final boolean fragment)
+        {
+          return self.keepUnit(id, version, filter, fragment) && other.keepUnit(id, version, filter, fragment);
+        }
+
+        @Override
+        public boolean keepArtifact(final String classifier, final String id, final String version) {
+          return self.keepArtifact(classifier, id, version) && other.keepArtifact(classifier, id, version);
+        }
+      };
+    }
+  }
+
+  private static final String UNITS = "units";
+
+  private static final String UNIT = "unit";
+
+  private static final String ARTIFACTS = "artifacts";
+
+  private static final String ARTIFACT = "artifact";
+
+  private static final String FILTER = "filter";
+
+  private static final String HOST_REQUIREMENTS = "hostRequirements";
+
+  private static final String SIZE = "size";
+
+  private final Filter filter;
+
+  private int kept;
+
+  private int removed;
+
+  public UnitFilterTransformer(final Filter filter) {
+    this.filter = filter;
+  }
+
+  /**
+   * The number of units or artifacts kept.
+   */
+  public int getKept() {
+    return kept;
+  }
+
+  /**
+   * The number of units or artifacts dropped.
+   */
+  public int getRemoved() {
+    return removed;
+  }
+
+  @Override
+  protected void transform(final XMLEventReader reader, final XMLEventWriter writer) throws XMLStreamException {
+    XMLEventFactory eventFactory = XMLEventFactory.newInstance();
+    int depth = 0;
+    // the units or artifacts element of the repository, its kept children and the whitespace before the next child
+    StartElement container = null;
+    List<XMLEvent> buffer = new ArrayList<>();
+    List<XMLEvent> pending = new ArrayList<>();
+    int containerKept = 0;
+    // the unit or artifact being read
+    List<XMLEvent> element = null;
+    StringBuilder unitFilter = null;
+    boolean inUnitFilter = false;
+    boolean fragment = false;
+
+    while (reader.hasNext()) {
+      XMLEvent event = reader.nextEvent();
+      if (event.isStartElement()) {
+        depth++;
+      }
+
+      if (container == null) {
+        if (depth == 2 && (isStartTagWithName(event, UNITS) || isStartTagWithName(event, ARTIFACTS))) {
+          container = event.asStartElement();
+          containerKept = 0;
+        }
+        else {
+          writer.add(event);
+        }
+      }
+      else if (element == null) {
+        if (depth == 2 && event.isEndElement()) {
+          writer.add(updateSize(container, containerKept, eventFactory));
+          for (XMLEvent kept : buffer) {
+            writer.add(kept);
+          }
+          for (XMLEvent whitespace : pending) {
+            writer.add(whitespace);
+          }
+          writer.add(event);
+          container = null;
+          buffer.clear();
+          pending.clear();
+        }
+        else if (depth == 3 && (isStartTagWithName(event, UNIT) || isStartTagWithName(event, ARTIFACT))) {
+          element = new ArrayList<>();
+          element.add(event);
+          unitFilter = null;
+          fragment = false;
+        }
+        else if (event.isCharacters() && event.asCharacters().isWhiteSpace()) {
+          pending.add(event);
+        }
+        else {
+          buffer.addAll(pending);
+          pending.clear();
+          buffer.add(event);
+        }
+      }
+      else {
+        element.add(event);
+        if (depth == 4 && isStartTagWithName(event, FILTER)) {
+          unitFilter = new StringBuilder();
+          inUnitFilter = true;
+        }
+        else if (depth == 4 && isEndTagWithName(event, FILTER)) {
+          inUnitFilter = false;
+        }
+        else if (inUnitFilter && event.isCharacters()) {
+          unitFilter.append(event.asCharacters().getData());
+        }
+        else if (depth == 4 && isStartTagWithName(event, HOST_REQUIREMENTS)) {
+          fragment = true;
+        }
+        else if (depth == 3 && event.isEndElement()) {
+          if (keep(element.get(0).asStartElement(), unitFilter, fragment)) {
+            buffer.addAll(pending);
+            buffer.addAll(element);
+            containerKept++;
+            kept++;
+          }
+          else {
+            removed++;
+          }
+          pending.clear();
+          element = null;
+        }
+      }
+
+      if (event.isEndElement()) {
+        depth--;
+      }
+    }
+  }
+
+  private boolean keep(final StartElement start, @Nullable final StringBuilder unitFilter, final boolean fragment) {
+    String id = attribute(start, "id");
+    String version = attribute(start, "version");
+    if (id == null || version == null) {
+      return true;
+    }
+    if (UNIT.equals(start.getName().getLocalPart())) {
+      String filterValue = unitFilter == null || unitFilter.toString().trim().isEmpty() ? null
+          : unitFilter.toString().trim();
+      return filter.keepUnit(id, version, filterValue, fragment);
+    }
+    String classifier = attribute(start, "classifier");
+    return classifier == null || filter.keepArtifact(classifier, id, version);
+  }
+
+  @Nullable
+  private static String attribute(final StartElement start, final String name) {
+    Attribute attribute = start.getAttributeByName(new QName(name));
+    return attribute == null ? null : attribute.getValue();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static XMLEvent updateSize(final StartElement tag, final int size, final XMLEventFactory eventFactory) {
+    List<Attribute> attributes = new ArrayList<>();
+    Iterator<Attribute> iterator = tag.getAttributes();
+    while (iterator.hasNext()) {
+      Attribute attribute = iterator.next();
+      attributes.add(SIZE.equals(attribute.getName().getLocalPart())
+          ? eventFactory.createAttribute(attribute.getName(), Integer.toString(size)) : attribute);
+    }
+    return eventFactory.createStartElement(tag.getName().getPrefix(), tag.getName().getNamespaceURI(),
+        tag.getName().getLocalPart(), attributes.iterator(), tag.getNamespaces());
+  }
+}
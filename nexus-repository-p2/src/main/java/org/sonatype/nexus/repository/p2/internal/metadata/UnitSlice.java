@@ -0,0 +1,69 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.metadata;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.sonatype.nexus.repository.p2.internal.metadata.InstallableUnitIndex.InstallableUnit;
+import org.sonatype.nexus.repository.p2.internal.metadata.InstallableUnitIndex.Key;
+import org.sonatype.nexus.repository.p2.internal.metadata.InstallableUnitResolver.Resolution;
+import org.sonatype.nexus.repository.p2.internal.metadata.InstallableUnitResolver.ResolvedUnit;
+
+/**
+ * Keeps the units of a requirement closure and their artifacts when filtering metadata, whichever site they are from.
+ * Fragments are kept as well, as the closure does not follow the host requirements attaching them to its units.
+ *
+ * @since 1.1.14
+ */
+public class UnitSlice
+    implements UnitFilterTransformer.Filter
+{
+  private final Set<String> units = new HashSet<>();
+
+  private final Set<String> artifacts = new HashSet<>();
+
+  public UnitSlice(final Resolution resolution) {
+    for (ResolvedUnit resolved : resolution.getUnits()) {
+      InstallableUnit unit = resolved.getUnit();
+      units.add(unit.getId() + '_' + unit.getVersion());
+      for (Key artifact : unit.getArtifacts()) {
+        artifacts.add(artifact.toString());
+      }
+    }
+  }
+
+  @Override
+  public boolean keepUnit(
+      final String id,
+      final String version,
+      @Nullable final String filter,
+      final boolean fragment)
+  {
+    return fragment || units.contains(id + '_' + version);
+  }
+
+  @Override
+  public boolean keepArtifact(final String classifier, final String id, final String version) {
+    return artifacts.contains(classifier + '/' + id + '/' + version);
+  }
+
+  /**
+   * The number of units of the slice.
+   */
+  public int size() {
+    return units.size();
+  }
+}
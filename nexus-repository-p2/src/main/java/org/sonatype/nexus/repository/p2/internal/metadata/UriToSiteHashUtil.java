@@ -31,4 +31,13 @@ public class UriToSiteHashUtil
   public static String map(final URI url) {
     return map(url.toString());
   }
+
+  /**
+   * Maps the canonical form of the url to a hash.
+   *
+   * @since 1.1.14
+   */
+  public static String map(final String url, final SiteUrlCanonicalizer canonicalizer) {
+    return map(canonicalizer.canonicalize(url));
+  }
 }
@@ -0,0 +1,136 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.metadata;
+
+import java.util.Comparator;
+
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * An OSGi version range, e.g. {@code [3.18.0,4.0.0)}, or a version which is the minimum of the range. Versions are
+ * compared as OSGi versions: numeric major, minor and micro, then the qualifier as text.
+ *
+ * @since 1.1.14
+ */
+public class VersionRange
+{
+  public static final Comparator<String> VERSION_ORDER = VersionRange::compare;
+
+  private static final VersionRange ANY = new VersionRange("0.0.0", true, null, false);
+
+  private final String minimum;
+
+  private final boolean minimumIncluded;
+
+  @Nullable
+  private final String maximum;
+
+  private final boolean maximumIncluded;
+
+  private VersionRange(
+      final String minimum,
+      final boolean minimumIncluded,
+      @Nullable final String maximum,
+      final boolean maximumIncluded)
+  {
+    this.minimum = minimum;
+    this.minimumIncluded = minimumIncluded;
+    this.maximum = maximum;
+    this.maximumIncluded = maximumIncluded;
+  }
+
+  /**
+   * Parse a range, an absent range includes any version.
+   *
+   * @throws IllegalArgumentException if the range or its versions are not valid
+   */
+  public static VersionRange parse(@Nullable final String range) {
+    if (range == null || range.trim().isEmpty()) {
+      return ANY;
+    }
+    String trimmed = range.trim();
+    char first = trimmed.charAt(0);
+    if (first != '[' && first != '(') {
+      return new VersionRange(valid(trimmed), true, null, false);
+    }
+    char last = trimmed.charAt(trimmed.length() - 1);
+    int comma = trimmed.indexOf(',');
+    checkArgument((last == ']' || last == ')') && comma != -1, "Invalid version range: %s", range);
+    String minimum = valid(trimmed.substring(1, comma).trim());
+    String maximum = valid(trimmed.substring(comma + 1, trimmed.length() - 1).trim());
+    checkArgument(compare(minimum, maximum) <= 0, "Invalid version range: %s", range);
+    return new VersionRange(minimum, first == '[', maximum, last == ']');
+  }
+
+  public boolean includes(final String version) {
+    int min = compare(version, minimum);
+    if (min < 0 || (min == 0 && !minimumIncluded)) {
+      return false;
+    }
+    if (maximum == null) {
+      return true;
+    }
+    int max = compare(version, maximum);
+    return max < 0 || (max == 0 && maximumIncluded);
+  }
+
+  /**
+   * Compare OSGi versions, versions which are not valid are ordered after valid ones.
+   */
+  public static int compare(final String one, final String two) {
+    String[] first = one.split("\\.", 4);
+    String[] second = two.split("\\.", 4);
+    for (int i = 0; i < 3; i++) {
+      int result = Long.compare(number(first, i), number(second, i));
+      if (result != 0) {
+        return result;
+      }
+    }
+    return qualifier(first).compareTo(qualifier(second));
+  }
+
+  private static String valid(final String version) {
+    String[] segments = version.split("\\.", 4);
+    for (int i = 0; i < Math.min(3, segments.length); i++) {
+      checkArgument(!segments[i].isEmpty() && segments[i].chars().allMatch(Character::isDigit),
+          "Invalid version: %s", version);
+    }
+    return version;
+  }
+
+  private static long number(final String[] segments, final int index) {
+    if (index >= segments.length) {
+      return 0;
+    }
+    try {
+      return Long.parseLong(segments[index]);
+    }
+    catch (NumberFormatException e) {
+      return Long.MAX_VALUE;
+    }
+  }
+
+  private static String qualifier(final String[] segments) {
+    return segments.length > 3 ? segments[3] : "";
+  }
+
+  @Override
+  public String toString() {
+    if (maximum == null) {
+      return minimum;
+    }
+    return (minimumIncluded ? "[" : "(") + minimum + ',' + maximum + (maximumIncluded ? "]" : ")");
+  }
+}
@@ -0,0 +1,397 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.proxy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import org.sonatype.goodies.common.ComponentSupport;
+import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.p2.internal.metadata.MetadataMerger.Kind;
+import org.sonatype.nexus.repository.p2.internal.util.FlattenedRepositories;
+import org.sonatype.nexus.repository.p2.internal.util.FlattenedRepositories.Merged;
+import org.sonatype.nexus.repository.p2.internal.util.FlattenedRepositories.Source;
+import org.sonatype.nexus.repository.view.Content;
+import org.sonatype.nexus.repository.view.payloads.BytesPayload;
+import org.sonatype.nexus.repository.view.payloads.StreamPayload;
+
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Serves the sites of a composite repository, and of the composites nested in it, merged into a single repository at
+ * the root, so clients fetch one pair of metadata rather than the metadata of every child site.
+ *
+ * The sites are found by fetching the composite metadata through the proxy, so the tree is refreshed as the metadata
+ * of its sites expires, and only the metadata of the sites which changed is merged again. The sites found and their
+ * merged metadata are kept until the metadata of the sites may have expired or they are invalidated, so the tree is
+ * not walked on every request.
+ *
+ * @since 1.1.14
+ */
+public class CompositeFlattener
+    extends ComponentSupport
+{
+  /**
+   * The sites of the repository.
+   */
+  public interface Sites
+  {
+    /**
+     * Get the asset at the path as a request would, fetching it when it is not cached or stale.
+     *
+     * @return {@code null} if there is no such asset
+     */
+    @Nullable
+    Content get(String path) throws IOException;
+
+    /**
+     * The child sites of the stored composite metadata at the path, as site hashes followed by {@code /}.
+     */
+    List<String> getChildren(String path);
+  }
+
+  public static final String P2_INDEX = "p2.index";
+
+  /**
+   * The name of the merged content metadata at the root.
+   */
+  public static final String CONTENT_JAR = "content.jar";
+
+  /**
+   * The name of the merged artifacts metadata at the root.
+   */
+  public static final String ARTIFACTS_JAR = "artifacts.jar";
+
+  private static final String INDEX = "version=1\n" +
+      "metadata.repository.factory.order=content.xml,\\!\n" +
+      "artifact.repository.factory.order=artifacts.xml,\\!\n";
+
+  private static final String JAR_CONTENT_TYPE = "application/java-archive";
+
+  private static final String TEXT_CONTENT_TYPE = "text/plain";
+
+  private static final String COMPOSITE_PREFIX = "composite";
+
+  private static final String STOP = "!";
+
+  private static final int MAX_DEPTH = 16;
+
+  private static final DateTimeFormatter LAST_MODIFIED = ISODateTimeFormat.dateTime();
+
+  private final Repository repository;
+
+  private final FlattenedRepositories flattenedRepositories;
+
+  private final Sites sites;
+
+  private final long maxAgeMillis;
+
+  private final Map<Kind, Resolved> resolved = new ConcurrentHashMap<>();
+
+  private final Map<Kind, Object> locks = new EnumMap<>(Kind.class);
+
+  private final AtomicLong generation = new AtomicLong();
+
+  @Nullable
+  private volatile Merged artifacts;
+
+  /**
+   * @param maxAgeMillis how long the sites found and their merged metadata are kept, negative to keep them until the
+   *                     metadata of a site fails to be merged
+   */
+  public CompositeFlattener(
+      final Repository repository,
+      final FlattenedRepositories flattenedRepositories,
+      final Sites sites,
+      final long maxAgeMillis)
+  {
+    this.repository = checkNotNull(repository);
+    this.flattenedRepositories = checkNotNull(flattenedRepositories);
+    this.sites = checkNotNull(sites);
+    this.maxAgeMillis = maxAgeMillis;
+    for (Kind kind : Kind.values()) {
+      locks.put(kind, new Object());
+    }
+  }
+
+  /**
+   * The {@code p2.index} pointing clients at the merged repository.
+   */
+  public Content getIndex() {
+    return new Content(new BytesPayload(INDEX.getBytes(StandardCharsets.UTF_8), TEXT_CONTENT_TYPE));
+  }
+
+  /**
+   * The jar of the merged metadata, {@code null} when no site has such metadata.
+   */
+  @Nullable
+  public Content getMetadata(final Kind kind) throws IOException {
+    Merged merged = merge(kind);
+    if (merged == null) {
+      return null;
+    }
+    Content content = new Content(new StreamPayload(() -> Files.newInputStream(merged.getFile()), merged.getSize(),
+        JAR_CONTENT_TYPE));
+    content.getAttributes().set(Content.CONTENT_LAST_MODIFIED,
+        new DateTime(Files.getLastModifiedTime(merged.getFile()).toMillis()));
+    content.getAttributes().set(Content.CONTENT_ETAG, merged.getDigest());
+    return content;
+  }
+
+  /**
+   * The site the artifact of the merged repository is served by, merging the artifacts metadata if it was not merged
+   * yet.
+   *
+   * @param artifactKey the classifier, id and version of the artifact separated by {@code /}
+   * @return the site hash followed by {@code /}, empty for the root site, {@code null} if no site has the artifact
+   */
+  @Nullable
+  public String findSite(final String artifactKey) throws IOException {
+    Merged merged = artifacts;
+    if (merged == null) {
+      getMetadata(Kind.ARTIFACTS);
+      merged = artifacts;
+    }
+    return merged == null ? null : merged.getSite(artifactKey).orElse(null);
+  }
+
+  /**
+   * The artifacts metadata merged last, {@code null} if it was not merged yet.
+   */
+  @Nullable
+  public Merged getArtifacts() {
+    return artifacts;
+  }
+
+  /**
+   * Find the sites and merge their metadata again on the next request, e.g. once the metadata of a site changed. The
+   * artifacts merged last are still used to find the site of an artifact until then.
+   */
+  public void invalidate() {
+    generation.incrementAndGet();
+  }
+
+  /**
+   * The key of the artifact at {@code dir/name_version}, as used to find the site serving it.
+   */
+  public static String artifactKey(final String dir, final String name, final String version) {
+    String classifier;
+    switch (dir) {
+      case "plugins":
+        classifier = "osgi.bundle";
+        break;
+      case "features":
+        classifier = "org.eclipse.update.feature";
+        break;
+      default:
+        classifier = dir;
+    }
+    return classifier + '/' + name + '/' + version;
+  }
+
+  /**
+   * The merged metadata, merged again once the sites found before may have expired or were invalidated.
+   */
+  @Nullable
+  private Merged merge(final Kind kind) throws IOException {
+    synchronized (locks.get(kind)) {
+      Resolved current = resolved.get(kind);
+      long now = System.currentTimeMillis();
+      long seen = generation.get();
+      if (current != null && current.generation == seen
+          && (maxAgeMillis < 0 || now - current.resolvedAt < maxAgeMillis)) {
+        return current.merged;
+      }
+      resolved.remove(kind);
+      List<Source> sources = findSources(kind);
+      Merged merged = sources.isEmpty() ? null : flattenedRepositories.merge(repository, kind, sources);
+      // invalidated while the sites were walked, found again on the next request
+      resolved.put(kind, new Resolved(merged, now, seen));
+      if (kind == Kind.ARTIFACTS) {
+        artifacts = merged;
+      }
+      return merged;
+    }
+  }
+
+  private List<Source> findSources(final Kind kind) throws IOException {
+    Map<String, Source> sources = new LinkedHashMap<>();
+    collect(kind, "", 0, new HashSet<>(), sources);
+    return new ArrayList<>(sources.values());
+  }
+
+  private void collect(
+      final Kind kind,
+      final String site,
+      final int depth,
+      final Set<String> visited,
+      final Map<String, Source> sources) throws IOException
+  {
+    if (depth > MAX_DEPTH || !visited.add(site)) {
+      return;
+    }
+    for (String name : findNames(kind, site)) {
+      String path = site + name;
+      Content content = sites.get(path);
+      if (content == null) {
+        continue;
+      }
+      if (name.startsWith(COMPOSITE_PREFIX)) {
+        for (String child : sites.getChildren(path)) {
+          collect(kind, child, depth + 1, visited, sources);
+        }
+      }
+      else {
+        String version = version(content);
+        if (version != null) {
+          sources.put(site, new SiteSource(site, path, version, content));
+        }
+        else {
+          log.debug("Leaving {} of {} without SHA-1 or last modified time out", path, repository.getName());
+        }
+      }
+      return;
+    }
+    log.debug("No {} metadata found for {}{}", kind, site, repository.getName());
+  }
+
+  /**
+   * The version of the metadata of a site, its SHA-1 or else its last modified time.
+   */
+  @Nullable
+  private static String version(final Content content) {
+    String version = P2ProxyFacetImpl.version(content);
+    if (version != null) {
+      return version;
+    }
+    DateTime lastModified = content.getAttributes().get(Content.CONTENT_LAST_MODIFIED, DateTime.class);
+    return lastModified == null ? null : LAST_MODIFIED.print(lastModified);
+  }
+
+  /**
+   * The names of the metadata of the site to try in turn, in the order of the {@code p2.index} of the site if it has
+   * one.
+   */
+  private List<String> findNames(final Kind kind, final String site) throws IOException {
+    String simple = kind.getFileName();
+    String composite = COMPOSITE_PREFIX + Character.toUpperCase(simple.charAt(0)) + simple.substring(1);
+    List<String> known = Arrays.asList(simple + ".xz", simple, composite);
+
+    Content index = sites.get(site + P2_INDEX);
+    List<String> order = known;
+    if (index != null) {
+      Properties properties = new Properties();
+      try (InputStream in = index.openInputStream()) {
+        properties.load(in);
+      }
+      String factoryOrder = properties.getProperty(
+          kind == Kind.CONTENT ? "metadata.repository.factory.order" : "artifact.repository.factory.order");
+      if (factoryOrder != null) {
+        order = new ArrayList<>();
+        for (String entry : factoryOrder.split(",")) {
+          if (STOP.equals(entry.trim())) {
+            break;
+          }
+          if (known.contains(entry.trim())) {
+            order.add(entry.trim());
+          }
+        }
+      }
+    }
+
+    List<String> names = new ArrayList<>();
+    for (String name : order) {
+      if (name.endsWith(".xml")) {
+        // like p2 the jar is preferred to the xml
+        names.add(name.substring(0, name.length() - ".xml".length()) + ".jar");
+      }
+      names.add(name);
+    }
+    return Collections.unmodifiableList(names);
+  }
+
+  private static class SiteSource
+      implements Source
+  {
+    private final String site;
+
+    private final String name;
+
+    private final String version;
+
+    private final Content content;
+
+    SiteSource(final String site, final String name, final String version, final Content content) {
+      this.site = site;
+      this.name = name;
+      this.version = version;
+      this.content = content;
+    }
+
+    @Override
+    public String getSite() {
+      return site;
+    }
+
+    @Override
+    public String getName() {
+      return name;
+    }
+
+    @Override
+    public String getVersion() {
+      return version;
+    }
+
+    @Override
+    public InputStream openInputStream() throws IOException {
+      return content.openInputStream();
+    }
+  }
+
+  private static class Resolved
+  {
+    @Nullable
+    private final Merged merged;
+
+    private final long resolvedAt;
+
+    private final long generation;
+
+    Resolved(@Nullable final Merged merged, final long resolvedAt, final long generation) {
+      this.merged = merged;
+      this.resolvedAt = resolvedAt;
+      this.generation = generation;
+    }
+  }
+}
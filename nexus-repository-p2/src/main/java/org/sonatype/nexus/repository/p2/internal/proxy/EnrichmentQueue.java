@@ -0,0 +1,123 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.proxy;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.sonatype.goodies.common.ComponentSupport;
+
+import com.codahale.metrics.Counter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Bounded pool of workers enriching stored bundles with the attributes extracted from their content.
+ *
+ * Assets are queued by name and queued at most once at a time. When the queue is full an asset is dropped; it stays
+ * marked as pending and is picked up by the next catch-up.
+ *
+ * @since 1.1.14
+ */
+public class EnrichmentQueue
+    extends ComponentSupport
+{
+  /**
+   * Enriches the named asset.
+   */
+  @FunctionalInterface
+  public interface Enricher
+  {
+    void enrich(String assetName) throws Exception;
+  }
+
+  private final ThreadPoolExecutor executor;
+
+  private final Enricher enricher;
+
+  private final Set<String> queued = ConcurrentHashMap.newKeySet();
+
+  private final Counter enriched = new Counter();
+
+  private final Counter failed = new Counter();
+
+  private final Counter dropped = new Counter();
+
+  public EnrichmentQueue(final String name, final int threads, final int capacity, final Enricher enricher) {
+    this.enricher = enricher;
+    this.executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(capacity),
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat(name + "-%d").build());
+    this.executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Queue the asset to be enriched.
+   *
+   * @return {@code false} if the asset was dropped because the queue is full
+   */
+  public boolean submit(final String assetName) {
+    if (!queued.add(assetName)) {
+      return true;
+    }
+    try {
+      executor.execute(() -> {
+        queued.remove(assetName);
+        try {
+          enricher.enrich(assetName);
+          enriched.inc();
+        }
+        catch (Exception e) {
+          failed.inc();
+          log.warn("Unable to enrich {}: {}", assetName, e.toString(), log.isDebugEnabled() ? e : null);
+        }
+      });
+      return true;
+    }
+    catch (RejectedExecutionException e) {
+      queued.remove(assetName);
+      dropped.inc();
+      log.debug("Enrichment queue full, {} is left to the catch-up", assetName);
+      return false;
+    }
+  }
+
+  /**
+   * Run the task on the workers, e.g. to queue the assets pending enrichment.
+   */
+  public void execute(final Runnable task) {
+    executor.execute(task);
+  }
+
+  public int getQueueDepth() {
+    return executor.getQueue().size();
+  }
+
+  public Counter getEnriched() {
+    return enriched;
+  }
+
+  public Counter getFailed() {
+    return failed;
+  }
+
+  public Counter getDropped() {
+    return dropped;
+  }
+
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+}
@@ -0,0 +1,184 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.proxy;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import org.sonatype.nexus.common.entity.EntityHelper;
+import org.sonatype.nexus.common.entity.EntityId;
+import org.sonatype.nexus.repository.storage.Asset;
+
+import com.codahale.metrics.Counter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Keeps the content of small metadata assets in memory, so they are served without reading the asset and its blob.
+ *
+ * The cache is bounded by the total size of the content it holds. Entries are dropped when their asset is stored,
+ * updated, renamed or deleted, and expire after a while so the asset is read again.
+ *
+ * @since 1.1.14
+ */
+public class MetadataContentCache
+{
+  private final Cache<String, Entry> entries;
+
+  private final ConcurrentMap<EntityId, String> paths = new ConcurrentHashMap<>();
+
+  private final long maxAssetSize;
+
+  private final AtomicLong bytes = new AtomicLong();
+
+  private final AtomicLong invalidations = new AtomicLong();
+
+  private final Counter hits = new Counter();
+
+  private final Counter misses = new Counter();
+
+  public MetadataContentCache(final long maxBytes, final long maxAssetSize, final long ttlSeconds) {
+    this.maxAssetSize = maxAssetSize;
+    this.entries = CacheBuilder.newBuilder()
+        .maximumWeight(maxBytes)
+        .<String, Entry>weigher((path, entry) -> entry.bytes.length)
+        .<String, Entry>removalListener(removal -> {
+          bytes.addAndGet(-removal.getValue().bytes.length);
+          if (removal.getValue().assetId != null) {
+            paths.remove(removal.getValue().assetId, removal.getKey());
+          }
+        })
+        .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+        .build();
+  }
+
+  @Nullable
+  public Entry get(final String path) {
+    Entry entry = entries.getIfPresent(path);
+    if (entry != null) {
+      hits.inc();
+    }
+    else {
+      misses.inc();
+    }
+    return entry;
+  }
+
+  /**
+   * Whether content of the size is kept, unknown sizes are not.
+   */
+  public boolean accepts(final long size) {
+    return size >= 0 && size <= maxAssetSize;
+  }
+
+  /**
+   * A mark to pass to {@link #put}, taken before the asset is read.
+   */
+  public long mark() {
+    return invalidations.get();
+  }
+
+  /**
+   * Keep the content of the asset read since the mark, unless an asset was invalidated meanwhile.
+   */
+  public void put(final String path, final long mark, final Asset asset, final byte[] content, final String contentType)
+  {
+    if (content.length > maxAssetSize || mark != invalidations.get()) {
+      return;
+    }
+    bytes.addAndGet(content.length);
+    Entry entry = new Entry(asset, content, contentType);
+    entries.put(path, entry);
+    if (entry.assetId != null) {
+      paths.put(entry.assetId, path);
+    }
+    if (mark != invalidations.get()) {
+      entries.invalidate(path);
+    }
+  }
+
+  public void invalidate(final String path) {
+    invalidations.incrementAndGet();
+    entries.invalidate(path);
+  }
+
+  /**
+   * Drop the content of the asset, also when it was kept under the former name of a renamed asset.
+   */
+  public void invalidate(final String path, @Nullable final EntityId assetId) {
+    invalidate(path);
+    String former = assetId != null ? paths.get(assetId) : null;
+    if (former != null && !former.equals(path)) {
+      entries.invalidate(former);
+    }
+  }
+
+  public void invalidateAll() {
+    invalidations.incrementAndGet();
+    entries.invalidateAll();
+  }
+
+  public long size() {
+    return entries.size();
+  }
+
+  public long getBytes() {
+    return bytes.get();
+  }
+
+  public Counter getHits() {
+    return hits;
+  }
+
+  public Counter getMisses() {
+    return misses;
+  }
+
+  /**
+   * The content of an asset and the asset it was read with.
+   */
+  public static final class Entry
+  {
+    private final Asset asset;
+
+    @Nullable
+    private final EntityId assetId;
+
+    private final byte[] bytes;
+
+    private final String contentType;
+
+    private Entry(final Asset asset, final byte[] bytes, final String contentType) {
+      this.asset = asset;
+      this.assetId = EntityHelper.hasMetadata(asset) ? EntityHelper.id(asset) : null;
+      this.bytes = bytes;
+      this.contentType = contentType;
+    }
+
+    public Asset getAsset() {
+      return asset;
+    }
+
+    public byte[] getBytes() {
+      return bytes;
+    }
+
+    public String getContentType() {
+      return contentType;
+    }
+  }
+}
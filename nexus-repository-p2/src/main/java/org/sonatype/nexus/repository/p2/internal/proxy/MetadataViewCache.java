@@ -0,0 +1,147 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.proxy;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import com.codahale.metrics.Counter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+
+/**
+ * Keeps content and artifacts metadata transformed to a view of the repository, e.g. a slice, in memory.
+ *
+ * An entry is valid for the version of the stored metadata it was derived from and for the generation of the view, it
+ * is derived again once either changed. The cache is bounded by the total size of the content it holds.
+ *
+ * @since 1.1.14
+ */
+public class MetadataViewCache
+{
+  private final Cache<String, Entry> entries;
+
+  private final AtomicLong bytes = new AtomicLong();
+
+  private final Counter hits = new Counter();
+
+  private final Counter misses = new Counter();
+
+  public MetadataViewCache(final long maxBytes) {
+    this.entries = CacheBuilder.newBuilder()
+        .maximumWeight(maxBytes)
+        .<String, Entry>weigher((path, entry) -> entry.bytes.length)
+        .<String, Entry>removalListener(removal -> bytes.addAndGet(-removal.getValue().bytes.length))
+        .build();
+  }
+
+  /**
+   * The view of the metadata at the path derived from the version of the stored metadata for the generation.
+   */
+  @Nullable
+  public Entry get(final String path, @Nullable final String sourceSha1, final long generation) {
+    Entry entry = entries.getIfPresent(path);
+    if (entry != null && sourceSha1 != null && sourceSha1.equals(entry.sourceSha1) && generation == entry.generation) {
+      hits.inc();
+      return entry;
+    }
+    misses.inc();
+    return null;
+  }
+
+  /**
+   * Keep the view derived from the stored metadata, which is not kept when its version is unknown.
+   */
+  public Entry put(
+      final String path,
+      @Nullable final String sourceSha1,
+      final long generation,
+      final byte[] content,
+      final String contentType)
+  {
+    Entry entry = new Entry(sourceSha1, generation, content, contentType);
+    if (sourceSha1 != null) {
+      bytes.addAndGet(content.length);
+      entries.put(path, entry);
+    }
+    return entry;
+  }
+
+  public void invalidateAll() {
+    entries.invalidateAll();
+  }
+
+  public long size() {
+    return entries.size();
+  }
+
+  public long getBytes() {
+    return bytes.get();
+  }
+
+  public Counter getHits() {
+    return hits;
+  }
+
+  public Counter getMisses() {
+    return misses;
+  }
+
+  /**
+   * The content of a view and the version and generation it was derived for.
+   */
+  public static final class Entry
+  {
+    @Nullable
+    private final String sourceSha1;
+
+    private final long generation;
+
+    private final byte[] bytes;
+
+    private final String contentType;
+
+    private final String sha1;
+
+    @SuppressWarnings("deprecation")
+    private Entry(
+        @Nullable final String sourceSha1,
+        final long generation,
+        final byte[] bytes,
+        final String contentType)
+    {
+      this.sourceSha1 = sourceSha1;
+      this.generation = generation;
+      this.bytes = bytes;
+      this.contentType = contentType;
+      this.sha1 = Hashing.sha1().hashBytes(bytes).toString();
+    }
+
+    public byte[] getBytes() {
+      return bytes;
+    }
+
+    public String getContentType() {
+      return contentType;
+    }
+
+    /**
+     * The SHA-1 of the content of the view.
+     */
+    public String getSha1() {
+      return sha1;
+    }
+  }
+}
@@ -0,0 +1,385 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.proxy;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import javax.annotation.Nullable;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import org.sonatype.goodies.common.ComponentSupport;
+import org.sonatype.nexus.common.io.SafeXml;
+
+import com.codahale.metrics.Counter;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Ranks the mirrors advertised through the {@code p2.mirrorsURL} property of remote artifact repositories by their
+ * measured latency and throughput.
+ *
+ * Mirror lists are loaded asynchronously the first time a site is asked for and refreshed once they are older than the
+ * refresh interval; until a list is available {@link #select(String)} returns nothing and the primary site is used.
+ * Mirrors which have not been measured yet are preferred so every candidate is measured, failing mirrors are avoided
+ * for a back off period.
+ *
+ * @since 1.1.14
+ */
+public class MirrorSelector
+    extends ComponentSupport
+{
+  /**
+   * Loads the mirror base URLs listed by a {@code p2.mirrorsURL}.
+   */
+  @FunctionalInterface
+  public interface MirrorListLoader
+  {
+    List<String> load(String mirrorsUrl) throws IOException;
+  }
+
+  private static final String ROOT_SITE = "";
+
+  /**
+   * Only the first candidates of a mirror list are considered, remote sites order mirrors by proximity.
+   */
+  private static final int MAX_CANDIDATES = 8;
+
+  private static final long FAILURE_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+  /**
+   * Mirrors are compared by the expected time to fetch an artifact of this size.
+   */
+  private static final double REFERENCE_SIZE_BYTES = 1024 * 1024;
+
+  private static final double EWMA_WEIGHT = 0.3;
+
+  private final ConcurrentMap<String, SiteMirrors> sites = new ConcurrentHashMap<>();
+
+  private final Function<String, Optional<String>> mirrorsUrlLookup;
+
+  private final MirrorListLoader loader;
+
+  private final Executor executor;
+
+  private final long refreshMillis;
+
+  private final boolean spread;
+
+  private final Counter mirrorFetches = new Counter();
+
+  private final Counter fallbacks = new Counter();
+
+  /**
+   * @param mirrorsUrlLookup finds the {@code p2.mirrorsURL} of a site, {@code null} denoting the root site
+   * @param loader           loads the mirror list from a {@code p2.mirrorsURL}
+   * @param executor         used to load mirror lists
+   * @param refreshSeconds   age after which a mirror list is reloaded
+   * @param spread           whether concurrent fetches should be spread across the best mirrors
+   */
+  public MirrorSelector(
+      final Function<String, Optional<String>> mirrorsUrlLookup,
+      final MirrorListLoader loader,
+      final Executor executor,
+      final long refreshSeconds,
+      final boolean spread)
+  {
+    this.mirrorsUrlLookup = mirrorsUrlLookup;
+    this.loader = loader;
+    this.executor = executor;
+    this.refreshMillis = TimeUnit.SECONDS.toMillis(refreshSeconds);
+    this.spread = spread;
+  }
+
+  /**
+   * Select the mirror to fetch an artifact of the site from.
+   */
+  public Optional<Mirror> select(@Nullable final String site) {
+    SiteMirrors siteMirrors = sites.computeIfAbsent(key(site), k -> new SiteMirrors());
+    long now = System.currentTimeMillis();
+    if (siteMirrors.isStale(now)) {
+      refresh(site, siteMirrors);
+    }
+
+    Optional<Mirror> mirror = siteMirrors.mirrors.stream()
+        .filter(m -> m.isAvailable(now))
+        .min(Comparator.comparingDouble(m -> spread ? (m.score() + 1) * (1 + m.inFlight.get()) : m.score()));
+    mirror.ifPresent(m -> mirrorFetches.inc());
+    return mirror;
+  }
+
+  /**
+   * Forget the mirror list of the site, e.g. because its artifact metadata changed.
+   */
+  public void invalidate(@Nullable final String site) {
+    SiteMirrors siteMirrors = sites.get(key(site));
+    if (siteMirrors != null) {
+      siteMirrors.loadedAt = 0;
+    }
+  }
+
+  /**
+   * A fetch from the mirror failed and the primary site is used instead.
+   */
+  public void fallback(final Mirror mirror) {
+    fallbacks.inc();
+    mirror.failed();
+  }
+
+  public int size() {
+    return sites.values().stream().mapToInt(s -> s.mirrors.size()).sum();
+  }
+
+  public Counter getMirrorFetches() {
+    return mirrorFetches;
+  }
+
+  public Counter getFallbacks() {
+    return fallbacks;
+  }
+
+  private void refresh(@Nullable final String site, final SiteMirrors siteMirrors) {
+    if (!siteMirrors.loading.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      executor.execute(() -> {
+        try {
+          Optional<String> mirrorsUrl = mirrorsUrlLookup.apply(site);
+          List<String> urls = mirrorsUrl.isPresent() ? loader.load(mirrorsUrl.get()) : Collections.emptyList();
+          log.debug("Loaded {} mirror(s) for site {} from {}", urls.size(), site, mirrorsUrl);
+          siteMirrors.update(urls);
+        }
+        catch (Exception e) {
+          log.warn("Unable to load mirrors for site {}: {}", site, e.toString(), log.isDebugEnabled() ? e : null);
+          siteMirrors.update(Collections.emptyList());
+        }
+        finally {
+          siteMirrors.loading.set(false);
+        }
+      });
+    }
+    catch (RejectedExecutionException e) {
+      // e.g. while the repository stops, refreshed on a later request
+      siteMirrors.loading.set(false);
+    }
+  }
+
+  private static String key(@Nullable final String site) {
+    return site == null ? ROOT_SITE : site;
+  }
+
+  /**
+   * Parse the mirror base URLs from a p2 mirrors document, e.g.
+   * {@code <mirrors><mirror url="https://mirror.example.com/eclipse/releases/" label="..."/></mirrors>}.
+   */
+  public static List<String> parseMirrors(final InputStream in) throws IOException {
+    List<String> urls = new ArrayList<>();
+    XMLEventReader reader = null;
+    try {
+      reader = SafeXml.newXmlInputFactory().createXMLEventReader(in);
+      while (reader.hasNext()) {
+        XMLEvent event = reader.nextEvent();
+        if (event.isStartElement() && "mirror".equals(event.asStartElement().getName().getLocalPart())) {
+          StartElement mirror = event.asStartElement();
+          Attribute url = mirror.getAttributeByName(new QName("url"));
+          if (url != null && !url.getValue().trim().isEmpty()) {
+            urls.add(url.getValue().trim());
+          }
+        }
+      }
+    }
+    catch (XMLStreamException e) {
+      throw new IOException(e);
+    }
+    finally {
+      if (reader != null) {
+        try {
+          reader.close();
+        }
+        catch (XMLStreamException e) {
+          // do nothing
+        }
+      }
+    }
+    return urls;
+  }
+
+  private class SiteMirrors
+  {
+    private final AtomicBoolean loading = new AtomicBoolean();
+
+    private volatile long loadedAt;
+
+    private volatile List<Mirror> mirrors = Collections.emptyList();
+
+    private boolean isStale(final long now) {
+      return now - loadedAt > refreshMillis;
+    }
+
+    private void update(final List<String> urls) {
+      List<Mirror> previous = mirrors;
+      // keep the measurements of mirrors which are still listed
+      mirrors = urls.stream()
+          .limit(MAX_CANDIDATES)
+          .map(url -> previous.stream().filter(m -> m.base.equals(withSlash(url))).findFirst()
+              .orElseGet(() -> new Mirror(url)))
+          .collect(toList());
+      loadedAt = System.currentTimeMillis();
+    }
+  }
+
+  /**
+   * A mirror of a remote artifact repository along with its measurements.
+   */
+  public static class Mirror
+  {
+    private final String base;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private volatile double latencyMillis = -1;
+
+    private volatile double bytesPerMilli = -1;
+
+    private volatile long failedAt;
+
+    Mirror(final String base) {
+      this.base = withSlash(base);
+    }
+
+    public URI resolve(final String relativePath) {
+      return URI.create(base).resolve(relativePath);
+    }
+
+    /**
+     * A request to the mirror is about to be sent.
+     */
+    public void begin() {
+      inFlight.incrementAndGet();
+    }
+
+    /**
+     * The mirror responded successfully, the response body is yet to be read.
+     */
+    public void responded(final long latency) {
+      latencyMillis = latencyMillis < 0 ? latency : ewma(latencyMillis, latency);
+    }
+
+    /**
+     * The response body of the mirror was read.
+     */
+    public void finished(final long bytes, final long millis) {
+      inFlight.decrementAndGet();
+      if (bytes > 0) {
+        double throughput = bytes / (double) Math.max(1, millis);
+        bytesPerMilli = bytesPerMilli < 0 ? throughput : ewma(bytesPerMilli, throughput);
+      }
+    }
+
+    void failed() {
+      inFlight.decrementAndGet();
+      failedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Wrap the response body so its throughput is measured once it was read.
+     */
+    public InputStream measure(final InputStream in) {
+      long start = System.currentTimeMillis();
+      return new FilterInputStream(in)
+      {
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private long bytes;
+
+        @Override
+        public int read() throws IOException {
+          int b = super.read();
+          if (b != -1) {
+            bytes++;
+          }
+          return b;
+        }
+
+        @Override
+        public int read(final byte[] buffer, final int off, final int len) throws IOException {
+          int count = super.read(buffer, off, len);
+          if (count > 0) {
+            bytes += count;
+          }
+          return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+          try {
+            super.close();
+          }
+          finally {
+            if (closed.compareAndSet(false, true)) {
+              finished(bytes, System.currentTimeMillis() - start);
+            }
+          }
+        }
+      };
+    }
+
+    private boolean isAvailable(final long now) {
+      return now - failedAt > FAILURE_BACKOFF_MILLIS;
+    }
+
+    /**
+     * The expected milliseconds to fetch an artifact of the reference size, unmeasured mirrors score best.
+     */
+    double score() {
+      if (latencyMillis < 0) {
+        return 0;
+      }
+      return latencyMillis + (bytesPerMilli > 0 ? REFERENCE_SIZE_BYTES / bytesPerMilli : 0);
+    }
+
+    private static double ewma(final double current, final double sample) {
+      return current + EWMA_WEIGHT * (sample - current);
+    }
+
+    @Override
+    public String toString() {
+      return base;
+    }
+  }
+
+  private static String withSlash(final String url) {
+    return url.endsWith("/") ? url : url + '/';
+  }
+}
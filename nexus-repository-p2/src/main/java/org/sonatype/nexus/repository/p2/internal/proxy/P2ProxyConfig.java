@@ -0,0 +1,323 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.proxy;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import org.sonatype.nexus.repository.p2.internal.metadata.InstallableUnitIndex.Requirement;
+import org.sonatype.nexus.repository.p2.internal.metadata.PlatformFilter;
+import org.sonatype.nexus.repository.p2.internal.metadata.SiteUrlCanonicalizer;
+import org.sonatype.nexus.repository.p2.internal.metadata.TargetDefinition;
+
+import static java.lang.Boolean.TRUE;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * The {@code p2} section of a p2 proxy repository configuration. All settings are optional, an absent section
+ * retains the default behaviour.
+ *
+ * @since 1.1.14
+ */
+public class P2ProxyConfig
+{
+  public static final String CONFIG_KEY = "p2";
+
+  public static final int DEFAULT_REDIRECT_CACHE_TTL = 0;
+
+  public static final int DEFAULT_MIRRORS_REFRESH_INTERVAL = 86400;
+
+  public static final long DEFAULT_SEGMENTED_DOWNLOAD_THRESHOLD = 0;
+
+  public static final int DEFAULT_SEGMENTED_DOWNLOAD_SEGMENTS = 4;
+
+  public static final int DEFAULT_ENRICHMENT_THREADS = 2;
+
+  public static final int DEFAULT_ENRICHMENT_QUEUE_SIZE = 10_000;
+
+  public static final long DEFAULT_METADATA_CACHE_MAX_ASSET_SIZE = 256L * 1024;
+
+  public static final int DEFAULT_PREFETCH_THREADS = 4;
+
+  public static final int DEFAULT_PREFETCH_QUEUE_SIZE = 10_000;
+
+  public static final long DEFAULT_SLICE_CACHE_SIZE = 64L * 1024 * 1024;
+
+  /**
+   * Treat {@code http} site URLs as {@code https} when computing site hashes.
+   */
+  @Nullable
+  public Boolean foldScheme;
+
+  /**
+   * Normalize site URL paths (duplicate slashes, dot segments, trailing index pages) when computing site hashes.
+   */
+  @Nullable
+  public Boolean normalizeUrls;
+
+  /**
+   * Alias host to canonical host, e.g. a mirror host to the host it mirrors.
+   */
+  @Nullable
+  public Map<String, String> hostAliases;
+
+  /**
+   * Site URL prefix to the canonical site URL prefix it is equivalent to.
+   */
+  @Nullable
+  public Map<String, String> siteEquivalences;
+
+  /**
+   * Seconds to remember redirect targets observed for remote sites, {@code 0}, the default, disables redirect
+   * caching.
+   */
+  @Nullable
+  public Integer redirectCacheTtl;
+
+  /**
+   * Fetch bundles from the mirrors advertised by the {@code p2.mirrorsURL} of remote artifact repositories.
+   */
+  @Nullable
+  public Boolean mirrors;
+
+  /**
+   * Seconds after which mirror lists are reloaded.
+   */
+  @Nullable
+  public Integer mirrorsRefreshInterval;
+
+  /**
+   * Spread concurrent bundle fetches across the best mirrors rather than always using the best one.
+   */
+  @Nullable
+  public Boolean mirrorsSpread;
+
+  /**
+   * Size in bytes from which bundles are downloaded in parallel range segments, e.g. {@code 67108864}. Segmented
+   * downloads are disabled by default and with {@code 0}.
+   */
+  @Nullable
+  public Long segmentedDownloadThreshold;
+
+  /**
+   * Maximum number of segments a bundle is downloaded in.
+   */
+  @Nullable
+  public Integer segmentedDownloadSegments;
+
+  /**
+   * Serve bundles to the client while they are being stored rather than once they were stored.
+   */
+  @Nullable
+  public Boolean streamThrough;
+
+  /**
+   * Store bundles under the component derived from their path and extract their manifest and feature attributes in
+   * the background.
+   */
+  @Nullable
+  public Boolean deferEnrichment;
+
+  /**
+   * Number of workers extracting the attributes of bundles stored with deferred enrichment.
+   */
+  @Nullable
+  public Integer enrichmentThreads;
+
+  /**
+   * Maximum number of bundles waiting for enrichment, further bundles are left to the catch-up on the next start.
+   */
+  @Nullable
+  public Integer enrichmentQueueSize;
+
+  /**
+   * Seconds download marks and cache info of cached assets are kept in memory before they are written in a batch,
+   * {@code 0} writes them with every request.
+   */
+  @Nullable
+  public Integer writeBehindInterval;
+
+  /**
+   * Bytes of small metadata content kept in memory and served without reading the asset, {@code 0} keeps none.
+   */
+  @Nullable
+  public Long metadataCacheSize;
+
+  /**
+   * Size of the largest metadata content kept in memory.
+   */
+  @Nullable
+  public Long metadataCacheMaxAssetSize;
+
+  /**
+   * Index the installable units of the content metadata of a site once it is cached, rather than when first needed.
+   */
+  @Nullable
+  public Boolean indexUnits;
+
+  /**
+   * Concurrent fetches of assets prefetched ahead of requests, e.g. by target platform warm-ups.
+   */
+  @Nullable
+  public Integer prefetchThreads;
+
+  /**
+   * Prefetches queued at most, further ones are dropped.
+   */
+  @Nullable
+  public Integer prefetchQueueSize;
+
+  /**
+   * Platforms the clients of the repository run on as {@code os/ws/arch}, e.g. {@code linux/gtk/x86_64}, {@code *}
+   * standing for any value. Absent or empty for all platforms.
+   */
+  @Nullable
+  public List<String> platforms;
+
+  /**
+   * Prefetch the plugins and features included by a feature once the feature jar is fetched, for the platforms only.
+   */
+  @Nullable
+  public Boolean prefetchInclusions;
+
+  /**
+   * Serve content and artifacts metadata without the units whose filter does not match the platforms, and without
+   * the artifacts only those units refer to.
+   */
+  @Nullable
+  public Boolean filterPlatforms;
+
+  /**
+   * Root installable units, each as an id optionally followed by a version range, to serve content and artifacts
+   * metadata sliced to the requirement closure of. Absent or empty to serve the metadata in full.
+   */
+  @Nullable
+  public List<String> slice;
+
+  /**
+   * Bytes of sliced or platform filtered metadata kept in memory.
+   */
+  @Nullable
+  public Long sliceCacheSize;
+
+  /**
+   * Serve the sites of a composite remote, and of the composites nested in it, merged into a single repository at the
+   * root rather than as a tree of child sites.
+   */
+  @Nullable
+  public Boolean flattenComposites;
+
+  public SiteUrlCanonicalizer siteUrlCanonicalizer() {
+    return new SiteUrlCanonicalizer(TRUE.equals(foldScheme), hostAliases, TRUE.equals(normalizeUrls),
+        siteEquivalences);
+  }
+
+  public int redirectCacheTtl() {
+    return redirectCacheTtl == null ? DEFAULT_REDIRECT_CACHE_TTL : redirectCacheTtl;
+  }
+
+  public int mirrorsRefreshInterval() {
+    return mirrorsRefreshInterval == null ? DEFAULT_MIRRORS_REFRESH_INTERVAL : mirrorsRefreshInterval;
+  }
+
+  public long segmentedDownloadThreshold() {
+    return segmentedDownloadThreshold == null ? DEFAULT_SEGMENTED_DOWNLOAD_THRESHOLD : segmentedDownloadThreshold;
+  }
+
+  public int segmentedDownloadSegments() {
+    return segmentedDownloadSegments == null ? DEFAULT_SEGMENTED_DOWNLOAD_SEGMENTS : segmentedDownloadSegments;
+  }
+
+  public int enrichmentThreads() {
+    return enrichmentThreads == null ? DEFAULT_ENRICHMENT_THREADS : enrichmentThreads;
+  }
+
+  public int enrichmentQueueSize() {
+    return enrichmentQueueSize == null ? DEFAULT_ENRICHMENT_QUEUE_SIZE : enrichmentQueueSize;
+  }
+
+  public int writeBehindInterval() {
+    return writeBehindInterval == null ? 0 : writeBehindInterval;
+  }
+
+  public long metadataCacheSize() {
+    return metadataCacheSize == null ? 0 : metadataCacheSize;
+  }
+
+  public long metadataCacheMaxAssetSize() {
+    return metadataCacheMaxAssetSize == null ? DEFAULT_METADATA_CACHE_MAX_ASSET_SIZE : metadataCacheMaxAssetSize;
+  }
+
+  public int prefetchThreads() {
+    return prefetchThreads == null || prefetchThreads < 1 ? DEFAULT_PREFETCH_THREADS : prefetchThreads;
+  }
+
+  public int prefetchQueueSize() {
+    return prefetchQueueSize == null || prefetchQueueSize < 1 ? DEFAULT_PREFETCH_QUEUE_SIZE : prefetchQueueSize;
+  }
+
+  public PlatformFilter platformFilter() {
+    return PlatformFilter.of(platforms);
+  }
+
+  /**
+   * The requirements of the root units of the slice, empty when metadata is not sliced.
+   *
+   * @throws IllegalArgumentException if a version range is not valid
+   */
+  public List<Requirement> sliceRoots() {
+    if (slice == null) {
+      return Collections.emptyList();
+    }
+    return slice.stream().filter(unit -> !unit.trim().isEmpty()).map(TargetDefinition::parseUnit).collect(toList());
+  }
+
+  public long sliceCacheSize() {
+    return sliceCacheSize == null || sliceCacheSize < 0 ? DEFAULT_SLICE_CACHE_SIZE : sliceCacheSize;
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "{" +
+        "foldScheme=" + foldScheme +
+        ", normalizeUrls=" + normalizeUrls +
+        ", hostAliases=" + hostAliases +
+        ", siteEquivalences=" + siteEquivalences +
+        ", redirectCacheTtl=" + redirectCacheTtl +
+        ", mirrors=" + mirrors +
+        ", mirrorsRefreshInterval=" + mirrorsRefreshInterval +
+        ", mirrorsSpread=" + mirrorsSpread +
+        ", segmentedDownloadThreshold=" + segmentedDownloadThreshold +
+        ", segmentedDownloadSegments=" + segmentedDownloadSegments +
+        ", streamThrough=" + streamThrough +
+        ", deferEnrichment=" + deferEnrichment +
+        ", enrichmentThreads=" + enrichmentThreads +
+        ", enrichmentQueueSize=" + enrichmentQueueSize +
+        ", writeBehindInterval=" + writeBehindInterval +
+        ", metadataCacheSize=" + metadataCacheSize +
+        ", metadataCacheMaxAssetSize=" + metadataCacheMaxAssetSize +
+        ", indexUnits=" + indexUnits +
+        ", prefetchThreads=" + prefetchThreads +
+        ", prefetchQueueSize=" + prefetchQueueSize +
+        ", platforms=" + platforms +
+        ", prefetchInclusions=" + prefetchInclusions +
+        ", filterPlatforms=" + filterPlatforms +
+        ", slice=" + slice +
+        ", sliceCacheSize=" + sliceCacheSize +
+        ", flattenComposites=" + flattenComposites +
+        '}';
+  }
+}
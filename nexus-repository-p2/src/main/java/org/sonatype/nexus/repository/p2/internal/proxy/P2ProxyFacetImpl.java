@@ -16,33 +16,87 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.validation.groups.Default;
 
+import org.sonatype.nexus.blobstore.api.Blob;
+import org.sonatype.nexus.common.app.ApplicationDirectories;
+import org.sonatype.nexus.common.entity.EntityHelper;
 import org.sonatype.nexus.repository.cache.CacheInfo;
 import org.sonatype.nexus.repository.config.Configuration;
+import org.sonatype.nexus.repository.config.ConfigurationFacet;
+import org.sonatype.nexus.repository.httpclient.HttpClientFacet;
 import org.sonatype.nexus.repository.mime.ContentValidator;
 import org.sonatype.nexus.repository.p2.P2Facet;
 import org.sonatype.nexus.repository.p2.internal.AssetKind;
+import org.sonatype.nexus.repository.p2.internal.P2CreateLocks;
 import org.sonatype.nexus.repository.p2.internal.P2Format;
+import org.sonatype.nexus.repository.p2.internal.P2Metrics;
+import org.sonatype.nexus.repository.p2.internal.exception.AttributeParsingException;
+import org.sonatype.nexus.repository.p2.internal.metadata.ArtifactProperties;
 import org.sonatype.nexus.repository.p2.internal.metadata.CompositeRepositoryRewriter;
+import org.sonatype.nexus.repository.p2.internal.metadata.InstallableUnitIndex;
+import org.sonatype.nexus.repository.p2.internal.metadata.InstallableUnitIndex.Requirement;
+import org.sonatype.nexus.repository.p2.internal.metadata.InstallableUnitResolver;
+import org.sonatype.nexus.repository.p2.internal.metadata.InstallableUnitResolver.Resolution;
+import org.sonatype.nexus.repository.p2.internal.metadata.MetadataMerger.Kind;
+import org.sonatype.nexus.repository.p2.internal.metadata.MetadataXml;
 import org.sonatype.nexus.repository.p2.internal.metadata.P2Attributes;
+import org.sonatype.nexus.repository.p2.internal.metadata.PlatformFilter;
+import org.sonatype.nexus.repository.p2.internal.metadata.PlatformUnitFilter;
 import org.sonatype.nexus.repository.p2.internal.metadata.RemoveMirrorTransformer;
+import org.sonatype.nexus.repository.p2.internal.metadata.SiteUrlCanonicalizer;
+import org.sonatype.nexus.repository.p2.internal.metadata.UnitFilterTransformer;
+import org.sonatype.nexus.repository.p2.internal.metadata.UnitSlice;
 import org.sonatype.nexus.repository.p2.internal.metadata.UriToSiteHashUtil;
 import org.sonatype.nexus.repository.p2.internal.metadata.XmlTransformer;
+import org.sonatype.nexus.repository.p2.internal.proxy.MirrorSelector.Mirror;
+import org.sonatype.nexus.repository.p2.internal.proxy.RedirectCache.Resolved;
+import org.sonatype.nexus.repository.p2.internal.proxy.SegmentedDownloader.Digest;
+import org.sonatype.nexus.repository.p2.internal.proxy.SegmentedDownloader.RangeNotHonouredException;
+import org.sonatype.nexus.repository.p2.internal.search.P2SearchFacet;
+import org.sonatype.nexus.repository.p2.internal.util.AttributesParserFeatureXml.Inclusion;
+import org.sonatype.nexus.repository.p2.internal.util.AttributesTee;
+import org.sonatype.nexus.repository.p2.internal.util.ContentMetadataAttributes;
+import org.sonatype.nexus.repository.p2.internal.util.FlattenedRepositories;
+import org.sonatype.nexus.repository.p2.internal.util.InstallableUnitIndexes;
+import org.sonatype.nexus.repository.p2.internal.util.P2ComponentUtils;
 import org.sonatype.nexus.repository.p2.internal.util.P2TempBlobUtils;
 import org.sonatype.nexus.repository.proxy.ProxyFacet;
 import org.sonatype.nexus.repository.proxy.ProxyFacetSupport;
 import org.sonatype.nexus.repository.storage.Asset;
+import org.sonatype.nexus.repository.storage.AssetCreatedEvent;
+import org.sonatype.nexus.repository.storage.AssetDeletedEvent;
+import org.sonatype.nexus.repository.storage.AssetEvent;
+import org.sonatype.nexus.repository.storage.AssetUpdatedEvent;
 import org.sonatype.nexus.repository.storage.Bucket;
+import org.sonatype.nexus.repository.storage.Component;
 import org.sonatype.nexus.repository.storage.Query;
 import org.sonatype.nexus.repository.storage.StorageFacet;
 import org.sonatype.nexus.repository.storage.StorageTx;
@@ -52,22 +106,49 @@ import org.sonatype.nexus.repository.transaction.TransactionalTouchBlob;
 import org.sonatype.nexus.repository.transaction.TransactionalTouchMetadata;
 import org.sonatype.nexus.repository.view.Content;
 import org.sonatype.nexus.repository.view.Context;
+import org.sonatype.nexus.repository.view.Matcher;
 import org.sonatype.nexus.repository.view.Payload;
+import org.sonatype.nexus.repository.view.Request;
 import org.sonatype.nexus.repository.view.matchers.token.TokenMatcher;
+import org.sonatype.nexus.repository.view.payloads.BytesPayload;
 import org.sonatype.nexus.transaction.Transactional;
 import org.sonatype.nexus.transaction.UnitOfWork;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.RatioGauge;
+import com.google.common.collect.ImmutableList;
+import com.google.common.eventbus.AllowConcurrentEvents;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.hash.HashCode;
 import com.google.common.reflect.TypeToken;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.HttpClientUtils;
+import org.apache.http.entity.HttpEntityWrapper;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.Streams.stream;
+import static java.lang.Boolean.TRUE;
+import static java.util.stream.Collectors.toList;
+import static org.sonatype.nexus.common.hash.HashAlgorithm.SHA1;
+import static org.sonatype.nexus.repository.http.HttpMethods.GET;
 import static org.sonatype.nexus.repository.p2.internal.AssetKind.BINARY_BUNDLE;
+import static org.sonatype.nexus.repository.p2.internal.AssetKind.BUNDLE;
 import static org.sonatype.nexus.repository.p2.internal.P2FacetImpl.HASH_ALGORITHMS;
+import static org.sonatype.nexus.repository.p2.internal.util.P2PathUtils.PLUGIN_NAME;
 import static org.sonatype.nexus.repository.p2.internal.util.P2PathUtils.matcherState;
 import static org.sonatype.nexus.repository.p2.internal.util.P2PathUtils.toP2Attributes;
 import static org.sonatype.nexus.repository.p2.internal.util.P2PathUtils.toP2AttributesBinary;
 import static org.sonatype.nexus.repository.storage.AssetEntityAdapter.P_ASSET_KIND;
 import static org.sonatype.nexus.repository.storage.MetadataNodeEntityAdapter.P_ATTRIBUTES;
+import static org.sonatype.nexus.repository.storage.MetadataNodeEntityAdapter.P_NAME;
 
 /**
  * P2 {@link ProxyFacet} implementation.
@@ -86,17 +167,127 @@ public class P2ProxyFacetImpl
 
   public static final String CHILD_URLS = "child_urls";
 
+  /**
+   * Marks a bundle stored with the attributes derived from its path, awaiting the attributes from its content.
+   *
+   * @since 1.1.14
+   */
+  public static final String ENRICHMENT_PENDING = "enrichment_pending";
+
+  private static final long REDIRECT_CACHE_SIZE = 10_000;
+
+  private static final String METRICS_GROUP = "proxy";
+
+  private static final String PROXY_CONFIG_KEY = "proxy";
+
+  private static final int SEGMENT_ATTEMPTS = 3;
+
+  /**
+   * The most threads downloading segments at once, further segmented downloads fall back to one piece.
+   */
+  private static final int SEGMENT_THREADS = 16;
+
+  private static final int PENDING_ENRICHMENT_PAGE_SIZE = 1000;
+
+  /**
+   * The location a request was sent to, after any mirror selection and redirects.
+   */
+  private static final String LOCATION = "p2.location";
+
+  private static final long METADATA_CACHE_TTL = 3600;
+
+  private static final List<String> ARTIFACTS_METADATA_NAMES =
+      ImmutableList.of("artifacts.jar", "artifacts.xml.xz", "artifacts.xml");
+
+  private static final List<Matcher> MATCHERS = P2ProxyRecipe.createMatchers();
+
   private final P2TempBlobUtils p2TempBlobUtils;
 
   private final ContentValidator contentValidator;
 
+  private final ContentMetadataAttributes contentMetadataAttributes;
+
+  private final InstallableUnitIndexes installableUnitIndexes;
+
+  private final FlattenedRepositories flattenedRepositories;
+
+  private final ApplicationDirectories applicationDirectories;
+
+  private P2ProxyConfig p2Config = new P2ProxyConfig();
+
+  private SiteUrlCanonicalizer siteUrlCanonicalizer = SiteUrlCanonicalizer.NONE;
+
+  @Nullable
+  private RedirectCache redirectCache;
+
+  @Nullable
+  private MirrorSelector mirrorSelector;
+
+  @Nullable
+  private ExecutorService mirrorsExecutor;
+
+  @Nullable
+  private SegmentedDownloader segmentedDownloader;
+
+  @Nullable
+  private ExecutorService proxyExecutor;
+
+  @Nullable
+  private ExecutorService segmentExecutor;
+
+  @Nullable
+  private EnrichmentQueue enrichmentQueue;
+
+  @Nullable
+  private WriteBehindUpdates writeBehindUpdates;
+
+  @Nullable
+  private MetadataContentCache metadataCache;
+
+  @Nullable
+  private Prefetcher prefetcher;
+
+  private PlatformFilter platformFilter = PlatformFilter.ALL;
+
+  private List<Requirement> sliceRoots = Collections.emptyList();
+
+  @Nullable
+  private MetadataViewCache viewCache;
+
+  private final AtomicLong viewGeneration = new AtomicLong();
+
+  private boolean filterPlatforms;
+
+  private final Object viewFilterLock = new Object();
+
+  @Nullable
+  private UnitFilterTransformer.Filter viewFilter;
+
+  private long viewFilterGeneration;
+
+  /**
+   * The versions of the content metadata of the sites the view filter was derived from, by site.
+   */
+  private volatile Map<String, String> viewSources = Collections.emptyMap();
+
+  @Nullable
+  private CompositeFlattener compositeFlattener;
+
   @Inject
   public P2ProxyFacetImpl(
       final P2TempBlobUtils p2TempBlobUtils,
-      final ContentValidator contentValidator)
+      final ContentValidator contentValidator,
+      final ContentMetadataAttributes contentMetadataAttributes,
+      final InstallableUnitIndexes installableUnitIndexes,
+      final FlattenedRepositories flattenedRepositories,
+      final ApplicationDirectories applicationDirectories)
   {
     this.p2TempBlobUtils = checkNotNull(p2TempBlobUtils);
     this.contentValidator = checkNotNull(contentValidator);
+    this.contentMetadataAttributes = checkNotNull(contentMetadataAttributes);
+    this.installableUnitIndexes = checkNotNull(installableUnitIndexes);
+    this.flattenedRepositories = checkNotNull(flattenedRepositories);
+    this.applicationDirectories = checkNotNull(applicationDirectories);
 
   }
 
@@ -104,11 +295,457 @@ public class P2ProxyFacetImpl
   @Override
   protected void doValidate(final Configuration configuration) throws Exception {
     super.doValidate(configuration);
+    facet(ConfigurationFacet.class).validateSection(configuration, P2ProxyConfig.CONFIG_KEY, P2ProxyConfig.class,
+        Default.class, getRepository().getType().getValidationGroup());
+    Optional.ofNullable(facet(ConfigurationFacet.class)
+        .readSection(configuration, P2ProxyConfig.CONFIG_KEY, P2ProxyConfig.class))
+        .ifPresent(config -> {
+          config.platformFilter();
+          config.sliceRoots();
+        });
+  }
+
+  @Override
+  protected void doConfigure(final Configuration configuration) throws Exception {
+    super.doConfigure(configuration);
+    p2Config = Optional.ofNullable(facet(ConfigurationFacet.class)
+        .readSection(configuration, P2ProxyConfig.CONFIG_KEY, P2ProxyConfig.class))
+        .orElseGet(P2ProxyConfig::new);
+    log.debug("p2 config: {}", p2Config);
+    siteUrlCanonicalizer = p2Config.siteUrlCanonicalizer();
+    platformFilter = p2Config.platformFilter();
+    configureRedirectCache(p2Config.redirectCacheTtl());
+    configureMirrors();
+    configureSegmentedDownloads();
+    configureMetadataCache();
+    configureViews();
+    configureFlattening(configuration);
+  }
+
+  private void configureRedirectCache(final int ttl) {
+    redirectCache = null;
+    P2Metrics.removeAll(getRepository(), METRICS_GROUP + ".redirects");
+    if (ttl <= 0) {
+      return;
+    }
+
+    RedirectCache cache = new RedirectCache(ttl, REDIRECT_CACHE_SIZE);
+    String group = METRICS_GROUP + ".redirects";
+    P2Metrics.register(getRepository(), group, "hits", cache.getHits());
+    P2Metrics.register(getRepository(), group, "misses", cache.getMisses());
+    P2Metrics.register(getRepository(), group, "fallbacks", cache.getFallbacks());
+    P2Metrics.register(getRepository(), group, "roundTripsSaved", cache.getRoundTripsSaved());
+    P2Metrics.register(getRepository(), group, "size", (Gauge<Long>) cache::size);
+    redirectCache = cache;
+  }
+
+  private void configureMirrors() {
+    mirrorSelector = null;
+    P2Metrics.removeAll(getRepository(), METRICS_GROUP + ".mirrors");
+    if (!TRUE.equals(p2Config.mirrors)) {
+      return;
+    }
+
+    // created on the first refresh, so a facet configured again after it stopped refreshes on a new executor
+    MirrorSelector selector = new MirrorSelector(this::findMirrorsUrl, this::loadMirrors,
+        command -> mirrorsExecutor().execute(command), p2Config.mirrorsRefreshInterval(),
+        TRUE.equals(p2Config.mirrorsSpread));
+    String group = METRICS_GROUP + ".mirrors";
+    P2Metrics.register(getRepository(), group, "fetches", selector.getMirrorFetches());
+    P2Metrics.register(getRepository(), group, "fallbacks", selector.getFallbacks());
+    P2Metrics.register(getRepository(), group, "size", (Gauge<Integer>) selector::size);
+    mirrorSelector = selector;
+  }
+
+  private void configureSegmentedDownloads() {
+    segmentedDownloader = null;
+    P2Metrics.removeAll(getRepository(), METRICS_GROUP + ".segments");
+    if (p2Config.segmentedDownloadThreshold() <= 0 || p2Config.segmentedDownloadSegments() < 2) {
+      return;
+    }
+    SegmentedDownloader downloader =
+        new SegmentedDownloader(command -> segmentExecutor().execute(command),
+            applicationDirectories.getTemporaryDirectory().toPath(), p2Config.segmentedDownloadSegments(),
+            SEGMENT_ATTEMPTS);
+    String group = METRICS_GROUP + ".segments";
+    P2Metrics.register(getRepository(), group, "downloads", downloader.getDownloads());
+    P2Metrics.register(getRepository(), group, "resumes", downloader.getResumes());
+    P2Metrics.register(getRepository(), group, "fallbacks", downloader.getFallbacks());
+    P2Metrics.register(getRepository(), group, "unverifiable", downloader.getUnverifiable());
+    segmentedDownloader = downloader;
+  }
+
+  private void configureMetadataCache() {
+    metadataCache = null;
+    P2Metrics.removeAll(getRepository(), METRICS_GROUP + ".metadataCache");
+    if (p2Config.metadataCacheSize() <= 0) {
+      return;
+    }
+    MetadataContentCache cache = new MetadataContentCache(p2Config.metadataCacheSize(),
+        p2Config.metadataCacheMaxAssetSize(), METADATA_CACHE_TTL);
+    String group = METRICS_GROUP + ".metadataCache";
+    P2Metrics.register(getRepository(), group, "hits", cache.getHits());
+    P2Metrics.register(getRepository(), group, "misses", cache.getMisses());
+    P2Metrics.register(getRepository(), group, "hitRatio", new RatioGauge()
+    {
+      @Override
+      protected Ratio getRatio() {
+        long hits = cache.getHits().getCount();
+        return Ratio.of(hits, hits + cache.getMisses().getCount());
+      }
+    });
+    P2Metrics.register(getRepository(), group, "bytes", (Gauge<Long>) cache::getBytes);
+    P2Metrics.register(getRepository(), group, "size", (Gauge<Long>) cache::size);
+    metadataCache = cache;
+  }
+
+  private void configureViews() {
+    viewCache = null;
+    P2Metrics.removeAll(getRepository(), METRICS_GROUP + ".views");
+    sliceRoots = p2Config.sliceRoots();
+    filterPlatforms = TRUE.equals(p2Config.filterPlatforms) && !platformFilter.isAll();
+    viewGeneration.incrementAndGet();
+    if (sliceRoots.isEmpty() && !filterPlatforms) {
+      return;
+    }
+    MetadataViewCache cache = new MetadataViewCache(p2Config.sliceCacheSize());
+    String group = METRICS_GROUP + ".views";
+    P2Metrics.register(getRepository(), group, "hits", cache.getHits());
+    P2Metrics.register(getRepository(), group, "misses", cache.getMisses());
+    P2Metrics.register(getRepository(), group, "bytes", (Gauge<Long>) cache::getBytes);
+    P2Metrics.register(getRepository(), group, "size", (Gauge<Long>) cache::size);
+    viewCache = cache;
+  }
+
+  private void configureFlattening(final Configuration configuration) {
+    compositeFlattener = null;
+    if (!TRUE.equals(p2Config.flattenComposites)) {
+      return;
+    }
+    // the sites are walked again once their metadata may have expired
+    ProxyFacetSupport.Config proxyConfig = facet(ConfigurationFacet.class)
+        .readSection(configuration, PROXY_CONFIG_KEY, ProxyFacetSupport.Config.class);
+    long maxAgeMillis = proxyConfig == null || proxyConfig.metadataMaxAge < 0 ? -1
+        : TimeUnit.MINUTES.toMillis(proxyConfig.metadataMaxAge);
+    compositeFlattener = new CompositeFlattener(getRepository(), flattenedRepositories, new CompositeFlattener.Sites()
+    {
+      @Nullable
+      @Override
+      public Content get(final String path) throws IOException {
+        return getSiteAsset(path);
+      }
+
+      @Override
+      public List<String> getChildren(final String path) {
+        return findChildSites(path);
+      }
+    }, maxAgeMillis);
   }
 
+  @Subscribe
+  @AllowConcurrentEvents
+  protected void on(final AssetCreatedEvent event) {
+    invalidateMetadata(event);
+    invalidateViews(event, false);
+  }
+
+  @Subscribe
+  @AllowConcurrentEvents
+  protected void on(final AssetUpdatedEvent event) {
+    invalidateMetadata(event);
+    invalidateViews(event, false);
+  }
+
+  @Subscribe
+  @AllowConcurrentEvents
+  protected void on(final AssetDeletedEvent event) {
+    invalidateMetadata(event);
+    invalidateViews(event, true);
+  }
+
+  private void invalidateMetadata(final AssetEvent event) {
+    MetadataContentCache cache = metadataCache;
+    if (cache != null && getRepository().getName().equals(event.getRepositoryName())) {
+      // the asset may have been renamed, e.g. when duplicate sites are merged
+      cache.invalidate(event.getAsset().name(), event.getAssetId());
+    }
+  }
+
+  private void invalidateMetadata(final String path) {
+    MetadataContentCache cache = metadataCache;
+    if (cache != null) {
+      cache.invalidate(path);
+    }
+  }
+
+  /**
+   * Derive the views again once the content metadata of a site was stored or deleted, e.g. on another node.
+   */
+  private void invalidateViews(final AssetEvent event, final boolean deleted) {
+    if (viewCache == null || !getRepository().getName().equals(event.getRepositoryName())
+        || !AssetKind.CONTENT_METADATA.name().equals(event.getAsset().formatAttributes().get(P_ASSET_KIND))) {
+      return;
+    }
+    String site = site(event.getAsset().name());
+    if (deleted) {
+      viewSourceDeleted(site);
+    }
+    else {
+      HashCode sha1 = event.getAsset().getChecksum(SHA1);
+      viewSourceStored(site, sha1 == null ? null : sha1.toString());
+    }
+  }
+
+  /**
+   * Derive the views again unless the views were derived from the same version of the content metadata of the site.
+   *
+   * @param version the version of the stored content metadata, {@code null} when it is not known
+   */
+  private void viewSourceStored(final String site, @Nullable final String version) {
+    if (version == null || !version.equals(viewSources.get(site))) {
+      viewGeneration.incrementAndGet();
+    }
+  }
+
+  /**
+   * Derive the views again if they were derived from the content metadata of the site.
+   */
+  private void viewSourceDeleted(final String site) {
+    if (viewSources.containsKey(site)) {
+      viewGeneration.incrementAndGet();
+    }
+  }
+
+  private static String site(final String path) {
+    return path.substring(0, path.lastIndexOf('/') + 1);
+  }
+
+  @Override
+  protected void doStart() throws Exception {
+    super.doStart();
+    startEnrichment();
+    startWriteBehind();
+  }
+
+  private void startEnrichment() {
+    P2Metrics.removeAll(getRepository(), METRICS_GROUP + ".enrichment");
+    if (!TRUE.equals(p2Config.deferEnrichment)) {
+      return;
+    }
+    EnrichmentQueue queue = new EnrichmentQueue("p2-enrich-" + getRepository().getName(),
+        p2Config.enrichmentThreads(), p2Config.enrichmentQueueSize(), this::enrich);
+    String group = METRICS_GROUP + ".enrichment";
+    P2Metrics.register(getRepository(), group, "queueDepth", (Gauge<Integer>) queue::getQueueDepth);
+    P2Metrics.register(getRepository(), group, "enriched", queue.getEnriched());
+    P2Metrics.register(getRepository(), group, "failed", queue.getFailed());
+    P2Metrics.register(getRepository(), group, "dropped", queue.getDropped());
+    enrichmentQueue = queue;
+    // catch up with the bundles left pending when the repository was stopped
+    queue.execute(this::queuePendingEnrichment);
+  }
+
+  private void startWriteBehind() {
+    P2Metrics.removeAll(getRepository(), METRICS_GROUP + ".writeBehind");
+    if (p2Config.writeBehindInterval() <= 0) {
+      return;
+    }
+    WriteBehindUpdates updates = new WriteBehindUpdates("p2-write-behind-" + getRepository().getName(),
+        p2Config.writeBehindInterval(), this::writeUpdates);
+    String group = METRICS_GROUP + ".writeBehind";
+    P2Metrics.register(getRepository(), group, "pending", (Gauge<Integer>) updates::getPending);
+    P2Metrics.register(getRepository(), group, "flushed", updates.getFlushed());
+    P2Metrics.register(getRepository(), group, "failures", updates.getFailures());
+    writeBehindUpdates = updates;
+  }
+
+  @Override
+  protected void doStop() throws Exception {
+    if (prefetcher != null) {
+      prefetcher.shutdown();
+      prefetcher = null;
+      P2Metrics.removeAll(getRepository(), METRICS_GROUP + ".prefetch");
+    }
+    if (writeBehindUpdates != null) {
+      // write what was gathered while the storage is still available
+      writeBehindUpdates.shutdown();
+      writeBehindUpdates = null;
+    }
+    super.doStop();
+    if (enrichmentQueue != null) {
+      enrichmentQueue.shutdown();
+      enrichmentQueue = null;
+    }
+    if (mirrorsExecutor != null) {
+      mirrorsExecutor.shutdownNow();
+      mirrorsExecutor = null;
+    }
+    if (proxyExecutor != null) {
+      proxyExecutor.shutdownNow();
+      proxyExecutor = null;
+    }
+    if (segmentExecutor != null) {
+      segmentExecutor.shutdownNow();
+      segmentExecutor = null;
+    }
+  }
+
+  /**
+   * The executor for segmented downloads, stream through ingests and attribute extraction while streaming.
+   */
+  private synchronized ExecutorService proxyExecutor() {
+    if (proxyExecutor == null) {
+      proxyExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true)
+          .setNameFormat("p2-proxy-" + getRepository().getName() + "-%d").build());
+    }
+    return proxyExecutor;
+  }
+
+  /**
+   * The prefetcher, started the first time something is prefetched so repositories which never prefetch hold no
+   * threads for it.
+   */
+  private synchronized Prefetcher prefetcher() {
+    if (prefetcher == null) {
+      Prefetcher fetcher = new Prefetcher("p2-prefetch-" + getRepository().getName(), p2Config.prefetchThreads(),
+          p2Config.prefetchQueueSize(), this::prefetchAsset);
+      String group = METRICS_GROUP + ".prefetch";
+      P2Metrics.register(getRepository(), group, "queueDepth", (Gauge<Integer>) fetcher::getQueueDepth);
+      P2Metrics.register(getRepository(), group, "fetched", fetcher.getFetched());
+      P2Metrics.register(getRepository(), group, "failed", fetcher.getFailed());
+      P2Metrics.register(getRepository(), group, "dropped", fetcher.getDropped());
+      prefetcher = fetcher;
+    }
+    return prefetcher;
+  }
+
+  /**
+   * The executor refreshing the mirrors in the background.
+   */
+  private synchronized ExecutorService mirrorsExecutor() {
+    if (mirrorsExecutor == null) {
+      mirrorsExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setDaemon(true)
+          .setNameFormat("p2-mirrors-" + getRepository().getName() + "-%d").build());
+    }
+    return mirrorsExecutor;
+  }
+
+  /**
+   * The executor for the range requests of segmented downloads, bounded so they cannot exhaust the threads.
+   */
+  private synchronized ExecutorService segmentExecutor() {
+    if (segmentExecutor == null) {
+      segmentExecutor = new ThreadPoolExecutor(0, SEGMENT_THREADS, 60L, TimeUnit.SECONDS, new SynchronousQueue<>(),
+          new ThreadFactoryBuilder().setDaemon(true)
+              .setNameFormat("p2-segments-" + getRepository().getName() + "-%d").build());
+    }
+    return segmentExecutor;
+  }
+
+  @Override
+  protected void doDelete() throws Exception {
+    super.doDelete();
+    installableUnitIndexes.delete(getRepository());
+    flattenedRepositories.delete(getRepository());
+  }
+
+  @Override
+  protected void doDestroy() throws Exception {
+    super.doDestroy();
+    p2Config = new P2ProxyConfig();
+    siteUrlCanonicalizer = SiteUrlCanonicalizer.NONE;
+    redirectCache = null;
+    mirrorSelector = null;
+    segmentedDownloader = null;
+    metadataCache = null;
+    compositeFlattener = null;
+    P2Metrics.removeAll(getRepository(), METRICS_GROUP);
+  }
+
+  /**
+   * The canonicalizer applied to remote site URLs before they are mapped to site hashes.
+   *
+   * @since 1.1.14
+   */
+  public SiteUrlCanonicalizer getSiteUrlCanonicalizer() {
+    return siteUrlCanonicalizer;
+  }
+
+  /**
+   * Serve the root metadata merged from the sites of the composite tree, and content and artifacts metadata sliced to
+   * the closure of the root units or filtered to the platforms, when configured.
+   */
   @Nullable
   @Override
-  protected Content getCachedContent(final Context context) {
+  public Content get(final Context context) throws IOException {
+    AssetKind assetKind = context.getAttributes().get(AssetKind.class);
+    String path = context.getRequest().getPath().substring(1);
+    CompositeFlattener flattener = compositeFlattener;
+    Content content = flattener != null && isFlattened(context, assetKind) ? getFlattened(flattener, path, assetKind)
+        : super.get(context);
+    if (content == null || viewCache == null
+        || (assetKind != AssetKind.CONTENT_METADATA && assetKind != AssetKind.ARTIFACTS_METADATA)) {
+      return content;
+    }
+    return toView(path, assetKind, content);
+  }
+
+  private static boolean isFlattened(final Context context, @Nullable final AssetKind assetKind) {
+    return matcherState(context).getTokens().get("site") == null && (assetKind == AssetKind.P2_INDEX
+        || assetKind == AssetKind.CONTENT_METADATA || assetKind == AssetKind.ARTIFACTS_METADATA);
+  }
+
+  /**
+   * The {@code p2.index} and metadata jars of the merged repository, other metadata names are not served at the root.
+   */
+  @Nullable
+  private Content getFlattened(final CompositeFlattener flattener, final String path, final AssetKind assetKind)
+      throws IOException
+  {
+    switch (assetKind) {
+      case P2_INDEX:
+        return flattener.getIndex();
+      case CONTENT_METADATA:
+        return CompositeFlattener.CONTENT_JAR.equals(path) ? flattener.getMetadata(Kind.CONTENT) : null;
+      case ARTIFACTS_METADATA:
+        return CompositeFlattener.ARTIFACTS_JAR.equals(path) ? flattener.getMetadata(Kind.ARTIFACTS) : null;
+      default:
+        throw new IllegalStateException();
+    }
+  }
+
+  /**
+   * Get the asset at the path as a request would, without merging the root metadata or filtering it.
+   */
+  @Nullable
+  private Content getSiteAsset(final String path) throws IOException {
+    Context context = new Context(getRepository(), new Request.Builder().action(GET).path('/' + path).build());
+    if (MATCHERS.stream().noneMatch(matcher -> matcher.matches(context))) {
+      throw new IOException("Not a p2 path: " + path);
+    }
+    return super.get(context);
+  }
+
+  /**
+   * The child sites of the stored composite metadata at the path, as site hashes followed by {@code /}.
+   */
+  private List<String> findChildSites(final String path) {
+    return Transactional.operation.withDb(facet(StorageFacet.class).txSupplier()).call(() -> {
+      StorageTx tx = UnitOfWork.currentTx();
+      Asset asset = facet(P2Facet.class).findAsset(tx, tx.findBucket(getRepository()), path);
+      List<String> urls = asset == null ? null : extractUris(asset);
+      if (urls == null) {
+        return Collections.<String>emptyList();
+      }
+      return urls.stream()
+          .map(url -> UriToSiteHashUtil.map(siteUrlCanonicalizer.canonicalize(url)) + '/')
+          .distinct()
+          .collect(toList());
+    });
+  }
+
+  @Nullable
+  @Override
+  protected Content getCachedContent(final Context context) throws IOException {
     AssetKind assetKind = context.getAttributes().require(AssetKind.class);
     switch (assetKind) {
       case COMPOSITE_ARTIFACTS:
@@ -116,6 +753,7 @@ public class P2ProxyFacetImpl
       case P2_INDEX:
       case ARTIFACTS_METADATA:
       case CONTENT_METADATA:
+        return getMetadata(context.getRequest().getPath().substring(1));
       case BUNDLE:
       case BINARY_BUNDLE:
         return getAsset(context.getRequest().getPath().substring(1));
@@ -130,17 +768,26 @@ public class P2ProxyFacetImpl
     String remoteUrl = context.getAttributes().require(REMOTE_URL, String.class);
     TokenMatcher.State matcherState = matcherState(context);
     String path = context.getRequest().getPath().substring(1);
+    StreamThrough streamThrough = context.getAttributes().get(StreamThrough.class);
+    if (streamThrough != null) {
+      P2Attributes p2Attributes = assetKind == BINARY_BUNDLE ? toP2AttributesBinary(path, matcherState)
+          : toP2Attributes(path, matcherState);
+      streamThrough.ingestWith(in -> prefetchInclusions(path, ingest(p2Attributes, in, content, assetKind)));
+      // the remote content is served, it is stored as the client reads it
+      return content;
+    }
     switch (assetKind) {
       case COMPOSITE_ARTIFACTS:
       case COMPOSITE_CONTENT:
-        return storeCompositeMetadata(path, content, assetKind, matcherState, remoteUrl);
+        return metadataStored(path, storeCompositeMetadata(path, content, assetKind, matcherState, remoteUrl));
       case P2_INDEX:
+        return metadataStored(path, putMetadataAsset(path, content, assetKind, remoteUrl));
       case CONTENT_METADATA:
-        return putMetadataAsset(path, content, assetKind, remoteUrl);
+        return contentMetadataStored(path, putMetadataAsset(path, content, assetKind, remoteUrl));
       case ARTIFACTS_METADATA:
-        return storeArtifactsMetadata(path, content, assetKind, matcherState, remoteUrl);
+        return metadataStored(path, storeArtifactsMetadata(path, content, assetKind, matcherState, remoteUrl));
       case BUNDLE:
-        return putComponent(toP2Attributes(path, matcherState), content, assetKind);
+        return prefetchInclusions(path, putBundle(toP2Attributes(path, matcherState), content, assetKind));
       case BINARY_BUNDLE:
         return putBinary(toP2AttributesBinary(path, matcherState), content);
       default:
@@ -148,6 +795,230 @@ public class P2ProxyFacetImpl
     }
   }
 
+  /**
+   * Drop what was derived from the content metadata of the sites and index the installable units of the stored
+   * content metadata.
+   */
+  private Content contentMetadataStored(final String path, final Content content) {
+    metadataStored(path, content);
+    viewSourceStored(site(path), version(content));
+    return indexUnits(path, content);
+  }
+
+  /**
+   * Index the installable units of the stored content metadata in the background, when configured.
+   */
+  private Content indexUnits(final String path, final Content content) {
+    if (TRUE.equals(p2Config.indexUnits)) {
+      String site = site(path);
+      proxyExecutor().execute(() -> installableUnitIndexes.getIndex(getRepository(), site));
+    }
+    return content;
+  }
+
+  /**
+   * Queue the plugins and features included by the stored feature jar to be prefetched in the background, when
+   * configured.
+   */
+  private Content prefetchInclusions(final String path, final Content content) {
+    if (!TRUE.equals(p2Config.prefetchInclusions) || !P2ComponentUtils.isFeature(path) || !path.endsWith(".jar")) {
+      return content;
+    }
+    try {
+      prefetcher().execute(() -> prefetch(findInclusions(path, content)));
+    }
+    catch (RejectedExecutionException e) {
+      log.debug("Prefetch queue full, the inclusions of {} are not prefetched", path);
+    }
+    return content;
+  }
+
+  /**
+   * The paths of the plugins and features included by the feature jar for the platforms of the repository.
+   */
+  private List<String> findInclusions(final String path, final Content content) {
+    List<Inclusion> inclusions;
+    try (InputStream in = content.openInputStream()) {
+      inclusions = p2TempBlobUtils.getFeatureInclusions(in);
+    }
+    catch (IOException | AttributeParsingException e) {
+      log.debug("Unable to read the inclusions of {}: {}", path, e.toString());
+      return Collections.emptyList();
+    }
+    String site = path.substring(0, path.lastIndexOf("features/"));
+    List<String> paths = new ArrayList<>();
+    for (Inclusion inclusion : inclusions) {
+      String included = inclusion.getPath();
+      if (included != null && platformFilter.matches(inclusion.getOs(), inclusion.getWs(), inclusion.getArch())
+          && platformFilter.matches(inclusion.getFilter())) {
+        paths.add(site + included);
+      }
+    }
+    log.debug("Prefetching {} of {} inclusion(s) of {}", paths.size(), inclusions.size(), path);
+    return paths;
+  }
+
+  /**
+   * The platforms the clients of the repository run on.
+   */
+  public PlatformFilter getPlatformFilter() {
+    return platformFilter;
+  }
+
+  /**
+   * Resolve the closure of the requirements against the content metadata cached for the sites of the repository.
+   *
+   * @param filterMatcher whether a unit or requirement with the LDAP filter applies to the platforms
+   */
+  public Resolution resolve(final List<Requirement> roots, final Predicate<String> filterMatcher) {
+    return new InstallableUnitResolver(indexes(), filterMatcher).resolve(roots);
+  }
+
+  /**
+   * The indexes of the content metadata cached for the sites of the repository, by site.
+   */
+  private Map<String, InstallableUnitIndex> indexes() {
+    Map<String, InstallableUnitIndex> indexes = new LinkedHashMap<>();
+    for (String site : installableUnitIndexes.findSites(getRepository())) {
+      installableUnitIndexes.getIndex(getRepository(), site).ifPresent(index -> indexes.put(site, index));
+    }
+    return indexes;
+  }
+
+  /**
+   * Queue the assets at the paths to be fetched into the cache in the background.
+   *
+   * @return the number of paths queued, the others were dropped as the queue is full
+   */
+  public int prefetch(final Collection<String> paths) {
+    if (paths.isEmpty()) {
+      return 0;
+    }
+    Prefetcher fetcher = prefetcher();
+    P2SearchFacet.bulk(getRepository());
+    int queued = 0;
+    for (String path : paths) {
+      if (fetcher.submit(path)) {
+        queued++;
+      }
+    }
+    return queued;
+  }
+
+  /**
+   * Get the asset at the path as a request would, fetching it when it is not cached or stale.
+   */
+  private void prefetchAsset(final String path) throws IOException {
+    Context context = new Context(getRepository(), new Request.Builder().action(GET).path('/' + path).build());
+    if (MATCHERS.stream().noneMatch(matcher -> matcher.matches(context))) {
+      throw new IOException("Not a p2 path: " + path);
+    }
+    UnitOfWork.begin(facet(StorageFacet.class).txSupplier());
+    try {
+      if (get(context) == null) {
+        throw new IOException("Not found: " + path);
+      }
+    }
+    finally {
+      UnitOfWork.end();
+    }
+  }
+
+  /**
+   * The metadata filtered to the units and artifacts of the slice and the platforms, derived once per version of the
+   * stored metadata.
+   */
+  private Content toView(final String path, final AssetKind assetKind, final Content content) throws IOException {
+    MetadataViewCache cache = checkNotNull(viewCache);
+    long generation = viewGeneration.get();
+    String sourceSha1 = version(content);
+    MetadataViewCache.Entry entry = cache.get(path, sourceSha1, generation);
+    if (entry == null) {
+      UnitFilterTransformer transformer = new UnitFilterTransformer(getViewFilter(generation));
+      // the stored metadata is streamed through the transformer, only the view is kept
+      String mimeType = contentValidator.determineContentType(false, () -> {
+        try {
+          return content.openInputStream();
+        }
+        catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }, null, path, content.getContentType());
+      String internalFilename = assetKind == AssetKind.CONTENT_METADATA ? "content.xml" : "artifacts.xml";
+      ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+      try (InputStream in = content.openInputStream()) {
+        StreamCopier.copierFor(mimeType, internalFilename, in, buffer).process(transformer);
+      }
+      log.debug("Filtered {} to {} of {} element(s)", path, transformer.getKept(),
+          transformer.getKept() + transformer.getRemoved());
+      entry = cache.put(path, sourceSha1, generation, buffer.toByteArray(), content.getContentType());
+    }
+
+    Content view = new Content(new BytesPayload(entry.getBytes(), entry.getContentType()));
+    Object lastModified = content.getAttributes().get(Content.CONTENT_LAST_MODIFIED);
+    if (lastModified != null) {
+      view.getAttributes().set(Content.CONTENT_LAST_MODIFIED, lastModified);
+    }
+    view.getAttributes().set(Content.CONTENT_ETAG, entry.getSha1());
+    return view;
+  }
+
+  /**
+   * The filter for the generation of the views, derived again from the indexes of all sites once it changed.
+   */
+  private UnitFilterTransformer.Filter getViewFilter(final long generation) {
+    synchronized (viewFilterLock) {
+      if (viewFilter == null || viewFilterGeneration != generation) {
+        Map<String, InstallableUnitIndex> indexes = indexes();
+        Map<String, String> sources = new HashMap<>();
+        indexes.forEach((site, index) -> sources.put(site, index.getVersion()));
+        UnitFilterTransformer.Filter filter = null;
+        if (filterPlatforms) {
+          PlatformUnitFilter platformUnitFilter = new PlatformUnitFilter(platformFilter, indexes.values());
+          log.debug("Filtering {} to {}, dropping {} artifact(s)", getRepository().getName(), platformFilter,
+              platformUnitFilter.getExcludedArtifacts());
+          filter = platformUnitFilter;
+        }
+        if (!sliceRoots.isEmpty()) {
+          Resolution resolution = new InstallableUnitResolver(indexes, platformFilter::matches).resolve(sliceRoots);
+          if (!resolution.getUnresolved().isEmpty()) {
+            log.debug("Unresolved in the slice of {}: {}", getRepository().getName(), resolution.getUnresolved());
+          }
+          UnitSlice slice = new UnitSlice(resolution);
+          log.debug("Sliced {} to {} unit(s)", getRepository().getName(), slice.size());
+          filter = filter == null ? slice : filter.and(slice);
+        }
+        viewFilter = checkNotNull(filter);
+        viewFilterGeneration = generation;
+        viewSources = sources;
+      }
+      return viewFilter;
+    }
+  }
+
+  /**
+   * Identifies the version of the content, the SHA-1 of stored content and else its entity tag.
+   */
+  @Nullable
+  static String version(final Content content) {
+    Asset asset = content.getAttributes().get(Asset.class);
+    if (asset != null && asset.getChecksum(SHA1) != null) {
+      return asset.getChecksum(SHA1).toString();
+    }
+    Map<?, ?> hashes = content.getAttributes().get(Content.CONTENT_HASH_CODES_MAP, Map.class);
+    Object sha1 = hashes == null ? null : hashes.get(SHA1);
+    if (sha1 != null) {
+      return sha1.toString();
+    }
+    Object etag = content.getAttributes().get(Content.CONTENT_ETAG);
+    return etag == null ? null : etag.toString();
+  }
+
+  private Content metadataStored(final String path, final Content content) {
+    invalidateMetadata(path);
+    return content;
+  }
+
   @Override
   @Nullable
   protected Content fetch(final Context context, final Content stale) throws IOException {
@@ -164,7 +1035,11 @@ public class P2ProxyFacetImpl
     String site = matcherState.getTokens().get("site");
 
     String remoteUrl;
-    if (site == null) {
+    Optional<URI> flattenedSiteUrl = site == null ? findFlattenedSiteUrl(context) : Optional.empty();
+    if (flattenedSiteUrl.isPresent()) {
+      remoteUrl = flattenedSiteUrl.get().resolve(context.getRequest().getPath().substring(1)).toString();
+    }
+    else if (site == null) {
       String repositoryUrl = getRemoteUrl().toString();
       remoteUrl = URI.create(repositoryUrl.endsWith("/") ? repositoryUrl : repositoryUrl + '/')
           .resolve(context.getRequest().getPath().substring(1)).toString();
@@ -182,6 +1057,260 @@ public class P2ProxyFacetImpl
     return remoteUrl;
   }
 
+  /**
+   * The URL of the site a bundle of the merged repository is fetched from, empty when it is fetched from the root site
+   * or repositories are not merged.
+   */
+  private Optional<URI> findFlattenedSiteUrl(final Context context) {
+    CompositeFlattener flattener = compositeFlattener;
+    AssetKind assetKind = context.getAttributes().get(AssetKind.class);
+    if (flattener == null || (assetKind != BUNDLE && assetKind != BINARY_BUNDLE)) {
+      return Optional.empty();
+    }
+    Map<String, String> tokens = matcherState(context).getTokens();
+    try {
+      String site = flattener.findSite(
+          CompositeFlattener.artifactKey(tokens.get("dir"), tokens.get("name"), tokens.get("version")));
+      if (site == null || site.isEmpty()) {
+        return Optional.empty();
+      }
+      return findRepositoryUrl(site.substring(0, site.length() - 1));
+    }
+    catch (IOException e) {
+      log.debug("Unable to find the site of {} in {}: {}", context.getRequest().getPath(), getRepository().getName(),
+          e.toString());
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Execute the request against the best mirror of the site when the request is for a bundle, falling back to the
+   * site itself. Large bundles are downloaded in segments when the remote allows it.
+   */
+  @Override
+  protected HttpResponse execute(final Context context, final HttpClient client, final HttpRequestBase request)
+      throws IOException
+  {
+    Optional<HttpResponse> mirrored = executeOnMirror(context, client, request);
+    HttpResponse response = mirrored.isPresent() ? mirrored.get() : executeWithRedirectCache(context, client, request);
+    return streamThrough(context, downloadInSegments(context, client, request, response));
+  }
+
+  private HttpResponse streamThrough(final Context context, final HttpResponse response) {
+    AssetKind assetKind = context.getAttributes().require(AssetKind.class);
+    if (!TRUE.equals(p2Config.streamThrough) || (assetKind != BUNDLE && assetKind != BINARY_BUNDLE) ||
+        response.getStatusLine().getStatusCode() != HttpStatus.SC_OK || response.getEntity() == null) {
+      return response;
+    }
+    StreamThrough streamThrough = new StreamThrough(response.getEntity(), proxyExecutor());
+    response.setEntity(streamThrough.entity());
+    context.getAttributes().set(StreamThrough.class, streamThrough);
+    return response;
+  }
+
+  private HttpResponse downloadInSegments(
+      final Context context,
+      final HttpClient client,
+      final HttpRequestBase request,
+      final HttpResponse response) throws IOException
+  {
+    SegmentedDownloader downloader = segmentedDownloader;
+    AssetKind assetKind = context.getAttributes().require(AssetKind.class);
+    if (downloader == null || (assetKind != BUNDLE && assetKind != BINARY_BUNDLE) ||
+        !downloader.isSegmentable(response, p2Config.segmentedDownloadThreshold())) {
+      return response;
+    }
+
+    Optional<Digest> digest = downloader.digest(findArtifactProperties(context), response);
+    URI location = Optional.ofNullable(context.getAttributes().get(LOCATION, URI.class)).orElse(request.getURI());
+    if (!digest.isPresent()) {
+      log.debug("Downloading {} in one piece, its digest is not known", location);
+      return response;
+    }
+    try {
+      response.setEntity(downloader.download(client, location, request, response, digest.get()));
+      return response;
+    }
+    catch (RangeNotHonouredException e) {
+      log.debug("Downloading {} in one piece: {}", location, e.getMessage());
+      downloader.fallback();
+      HttpClientUtils.closeQuietly(response);
+      request.reset();
+      request.setURI(location);
+      return client.execute(request);
+    }
+  }
+
+  /**
+   * The properties of the descriptor of the bundle in the artifacts metadata of its site, empty when the metadata is
+   * not stored or does not describe the bundle.
+   */
+  private Map<String, String> findArtifactProperties(final Context context) {
+    Map<String, String> tokens = matcherState(context).getTokens();
+    String key = CompositeFlattener.artifactKey(tokens.get("dir"), tokens.get("name"), tokens.get("version"));
+    String site = tokens.get("site");
+    try {
+      CompositeFlattener flattener = compositeFlattener;
+      if (site == null && flattener != null) {
+        String flattened = flattener.findSite(key);
+        site = flattened == null || flattened.isEmpty() ? null : flattened.substring(0, flattened.length() - 1);
+      }
+      Optional<Entry<String, Blob>> metadata = findArtifactsMetadata(site);
+      if (!metadata.isPresent()) {
+        return Collections.emptyMap();
+      }
+      String[] artifact = key.split("/", 3);
+      String extension = tokens.get("extension");
+      try (InputStream in = MetadataXml.openMetadataXml(metadata.get().getKey(), "artifacts.xml",
+          metadata.get().getValue().getInputStream())) {
+        return ArtifactProperties.find(in, artifact[0], artifact[1], artifact[2],
+            extension != null && extension.endsWith("pack.gz"));
+      }
+    }
+    catch (IOException e) {
+      log.debug("Unable to find the properties of {} in {}: {}", context.getRequest().getPath(),
+          getRepository().getName(), e.toString());
+      return Collections.emptyMap();
+    }
+  }
+
+  /**
+   * The name and blob of the artifacts metadata of the site.
+   */
+  private Optional<Entry<String, Blob>> findArtifactsMetadata(@Nullable final String site) {
+    return Transactional.operation.withDb(facet(StorageFacet.class).txSupplier()).call(() -> {
+      StorageTx tx = UnitOfWork.currentTx();
+      Bucket bucket = tx.findBucket(getRepository());
+      for (String name : ARTIFACTS_METADATA_NAMES) {
+        Asset asset = facet(P2Facet.class).findAsset(tx, bucket, site == null ? name : site + '/' + name);
+        if (asset != null && asset.blobRef() != null) {
+          return Optional.of(new SimpleImmutableEntry<>(name, tx.requireBlob(asset.requireBlobRef())));
+        }
+      }
+      return Optional.empty();
+    });
+  }
+
+  private Optional<HttpResponse> executeOnMirror(
+      final Context context,
+      final HttpClient client,
+      final HttpRequestBase request)
+  {
+    MirrorSelector selector = mirrorSelector;
+    AssetKind assetKind = context.getAttributes().require(AssetKind.class);
+    if (selector == null || (assetKind != BUNDLE && assetKind != BINARY_BUNDLE)) {
+      return Optional.empty();
+    }
+
+    String site = matcherState(context).getTokens().get("site");
+    Optional<Mirror> mirror = selector.select(site);
+    if (!mirror.isPresent()) {
+      return Optional.empty();
+    }
+
+    String path = context.getRequest().getPath().substring(site == null ? 1 : 2 + site.length());
+    URI original = request.getURI();
+    request.setURI(mirror.get().resolve(path));
+    context.getAttributes().set(LOCATION, request.getURI());
+    mirror.get().begin();
+    long start = System.currentTimeMillis();
+    try {
+      HttpResponse response = client.execute(request);
+      if (isSuccessful(response)) {
+        mirror.get().responded(System.currentTimeMillis() - start);
+        HttpEntity entity = response.getEntity();
+        if (entity == null) {
+          mirror.get().finished(0, 0);
+        }
+        else {
+          response.setEntity(new HttpEntityWrapper(entity)
+          {
+            @Override
+            public InputStream getContent() throws IOException {
+              return mirror.get().measure(super.getContent());
+            }
+          });
+        }
+        return Optional.of(response);
+      }
+      log.debug("Mirror {} returned {} for {}, falling back", mirror.get(), response.getStatusLine(), original);
+      HttpClientUtils.closeQuietly(response);
+    }
+    catch (IOException e) {
+      log.debug("Mirror {} failed for {}, falling back", mirror.get(), original, e);
+    }
+    selector.fallback(mirror.get());
+    request.reset();
+    request.setURI(original);
+    context.getAttributes().remove(LOCATION);
+    return Optional.empty();
+  }
+
+  /**
+   * Execute the request against the location a previous request to the same site was redirected to, falling back to
+   * the original location when that fails. Redirects followed for the original location are remembered, as rules for
+   * the sibling bundles of a bundle and for the exact url of metadata.
+   */
+  private HttpResponse executeWithRedirectCache(
+      final Context context,
+      final HttpClient client,
+      final HttpRequestBase request) throws IOException
+  {
+    RedirectCache cache = redirectCache;
+    if (cache == null) {
+      return super.execute(context, client, request);
+    }
+
+    String site = matcherState(context).getTokens().get("site");
+    URI original = request.getURI();
+    AssetKind assetKind = context.getAttributes().require(AssetKind.class);
+    boolean bundle = assetKind == BUNDLE || assetKind == BINARY_BUNDLE;
+
+    Optional<Resolved> resolved = bundle ? cache.resolve(site, original) : cache.resolveExact(site, original);
+    if (resolved.isPresent()) {
+      request.setURI(resolved.get().getLocation());
+      try {
+        HttpResponse response = client.execute(request);
+        if (isSuccessful(response)) {
+          cache.succeeded(resolved.get());
+          context.getAttributes().set(LOCATION, resolved.get().getLocation());
+          return response;
+        }
+        log.debug("Redirect target {} for {} returned {}, falling back", resolved.get().getLocation(), original,
+            response.getStatusLine());
+        HttpClientUtils.closeQuietly(response);
+      }
+      catch (IOException e) {
+        log.debug("Redirect target {} for {} failed, falling back", resolved.get().getLocation(), original, e);
+      }
+      cache.invalidate(site, resolved.get());
+      request.reset();
+      request.setURI(original);
+    }
+
+    HttpClientContext httpContext = HttpClientContext.create();
+    HttpResponse response = client.execute(request, httpContext);
+    List<URI> redirects = httpContext.getRedirectLocations();
+    if (redirects != null && !redirects.isEmpty() && isSuccessful(response)) {
+      URI target = redirects.get(redirects.size() - 1);
+      log.trace("Remembering redirect of {} to {}", original, target);
+      if (bundle) {
+        cache.record(site, original, target, redirects.size());
+      }
+      else {
+        cache.recordExact(site, original, target, redirects.size());
+      }
+      context.getAttributes().set(LOCATION, target);
+    }
+    return response;
+  }
+
+  private static boolean isSuccessful(final HttpResponse response) {
+    int status = response.getStatusLine().getStatusCode();
+    return (status >= HttpStatus.SC_OK && status < HttpStatus.SC_MULTIPLE_CHOICES) ||
+        status == HttpStatus.SC_NOT_MODIFIED;
+  }
+
   private Optional<URI> findRepositoryUrl(final String site) {
     Iterable<Asset> assets = Transactional.operation.withDb(facet(StorageFacet.class).txSupplier()).call(() -> {
       StorageTx tx = UnitOfWork.currentTx();
@@ -194,7 +1323,8 @@ public class P2ProxyFacetImpl
     for (Asset asset : assets) {
       List<String> urls = extractUris(asset);
       for (String url : urls) {
-        if (UriToSiteHashUtil.map(url).equals(site)) {
+        // the site hash is of the canonical url, the site is fetched from the url as recorded
+        if (UriToSiteHashUtil.map(url, siteUrlCanonicalizer).equals(site)) {
           return Optional.of(URI.create(url));
         }
       }
@@ -203,6 +1333,39 @@ public class P2ProxyFacetImpl
     return Optional.empty();
   }
 
+  /**
+   * Find the {@code p2.mirrorsURL} extracted from the artifacts metadata of the site.
+   */
+  private Optional<String> findMirrorsUrl(@Nullable final String site) {
+    return Transactional.operation.withDb(facet(StorageFacet.class).txSupplier()).call(() -> {
+      StorageTx tx = UnitOfWork.currentTx();
+      Bucket bucket = tx.findBucket(getRepository());
+      for (String name : ARTIFACTS_METADATA_NAMES) {
+        Asset asset = facet(P2Facet.class).findAsset(tx, bucket, site == null ? name : site + '/' + name);
+        if (asset != null) {
+          return Optional.ofNullable(asset.formatAttributes().get(MIRRORS_URL, String.class));
+        }
+      }
+      return Optional.empty();
+    });
+  }
+
+  private List<String> loadMirrors(final String mirrorsUrl) throws IOException {
+    HttpClient client = facet(HttpClientFacet.class).getHttpClient();
+    HttpResponse response = client.execute(new HttpGet(mirrorsUrl));
+    try {
+      if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK || response.getEntity() == null) {
+        throw new IOException("Unexpected response " + response.getStatusLine() + " from " + mirrorsUrl);
+      }
+      try (InputStream in = response.getEntity().getContent()) {
+        return MirrorSelector.parseMirrors(in);
+      }
+    }
+    finally {
+      HttpClientUtils.closeQuietly(response);
+    }
+  }
+
   private List<String> extractUris(final Asset asset) {
     return asset.formatAttributes().get(CHILD_URLS, new TypeToken<List<String>>()
     {
@@ -235,7 +1398,8 @@ public class P2ProxyFacetImpl
 
   private Content putBinary(final P2Attributes p2attributes, final Content content) throws IOException {
     StorageFacet storageFacet = facet(StorageFacet.class);
-    try (TempBlob tempBlob = storageFacet.createTempBlob(content.openInputStream(), HASH_ALGORITHMS)) {
+    try (TempBlob tempBlob = storageFacet.createTempBlob(content.openInputStream(), HASH_ALGORITHMS);
+         P2CreateLocks.Section section = facet(P2Facet.class).lockForCreate(p2attributes)) {
       return doPutBinary(p2attributes, tempBlob, content);
     }
   }
@@ -249,36 +1413,306 @@ public class P2ProxyFacetImpl
     return facet(P2Facet.class).doCreateOrSaveComponent(p2Attributes, componentContent, payload, BINARY_BUNDLE);
   }
 
+  /**
+   * Store a bundle with the attributes the site metadata gives for it, or else with those extracted from its content.
+   */
+  private Content putBundle(
+      final P2Attributes p2Attributes,
+      final Content content,
+      final AssetKind assetKind) throws IOException
+  {
+    Optional<P2Attributes> known = contentMetadataAttributes.mergeAttributes(getRepository(), p2Attributes);
+    if (known.isPresent()) {
+      try (TempBlob tempBlob = facet(StorageFacet.class).createTempBlob(content.openInputStream(), HASH_ALGORITHMS);
+           P2CreateLocks.Section section = facet(P2Facet.class).lockForCreate(known.get())) {
+        return doPutBundle(known.get(), tempBlob, content, assetKind);
+      }
+    }
+    return enrichmentQueue != null ? putDeferred(p2Attributes, content, assetKind)
+        : putComponent(p2Attributes, content, assetKind);
+  }
+
   @TransactionalStoreBlob
-  protected Content putComponent(
+  protected Content doPutBundle(
+      final P2Attributes p2Attributes,
+      final TempBlob componentContent,
+      final Payload payload,
+      final AssetKind assetKind) throws IOException
+  {
+    return facet(P2Facet.class).doCreateOrSaveComponent(p2Attributes, componentContent, payload, assetKind);
+  }
+
+  /**
+   * Store a bundle with the attributes extracted from its content, the component is created in a transaction of its
+   * own once they are known.
+   */
+  private Content putComponent(
       final P2Attributes p2Attributes,
       final Content content,
       final AssetKind assetKind) throws IOException
   {
     StorageFacet storageFacet = facet(StorageFacet.class);
-    try (TempBlob tempBlob = storageFacet.createTempBlob(content.openInputStream(), HASH_ALGORITHMS)) {
-      return doPutComponent(p2Attributes, tempBlob, content, assetKind);
+    AttributesTee tee = p2TempBlobUtils.teeAttributes(content.openInputStream(), p2Attributes, proxyExecutor());
+    try (TempBlob tempBlob = storageFacet.createTempBlob(tee.stream(), HASH_ALGORITHMS)) {
+      return doPutComponent(p2Attributes, tempBlob, tee, content, assetKind);
     }
   }
 
   private Content doPutComponent(
       final P2Attributes p2Attributes,
       final TempBlob componentContent,
+      final AttributesTee tee,
       final Payload payload,
       final AssetKind assetKind) throws IOException
   {
-    P2Attributes mergedP2Attributes = p2TempBlobUtils.mergeAttributesFromTempBlob(componentContent, p2Attributes);
+    P2Attributes mergedP2Attributes = p2TempBlobUtils.mergeAttributes(tee, componentContent, p2Attributes);
 
     return facet(P2Facet.class).doCreateOrSaveComponent(mergedP2Attributes, componentContent, payload, assetKind);
   }
 
+  /**
+   * Store a bundle under the component derived from its path, its attributes are extracted by the enrichment queue
+   * once it is committed.
+   */
+  private Content putDeferred(
+      final P2Attributes p2Attributes,
+      final Content content,
+      final AssetKind assetKind) throws IOException
+  {
+    StorageFacet storageFacet = facet(StorageFacet.class);
+    Content stored;
+    try (TempBlob tempBlob = storageFacet.createTempBlob(content.openInputStream(), HASH_ALGORITHMS);
+         P2CreateLocks.Section section = facet(P2Facet.class).lockForCreate(p2Attributes)) {
+      stored = doPutDeferred(p2Attributes, tempBlob, content, assetKind);
+    }
+    enqueueEnrichment(p2Attributes.getPath());
+    return stored;
+  }
+
+  @TransactionalStoreBlob
+  protected Content doPutDeferred(
+      final P2Attributes p2Attributes,
+      final TempBlob componentContent,
+      final Payload payload,
+      final AssetKind assetKind) throws IOException
+  {
+    Content content = facet(P2Facet.class).doCreateOrSaveComponent(p2Attributes, componentContent, payload, assetKind);
+    StorageTx tx = UnitOfWork.currentTx();
+    Asset asset = content.getAttributes().require(Asset.class);
+    asset.formatAttributes().set(ENRICHMENT_PENDING, true);
+    tx.saveAsset(asset);
+    return content;
+  }
+
+  private void enqueueEnrichment(final String assetName) {
+    EnrichmentQueue queue = enrichmentQueue;
+    if (queue != null) {
+      queue.submit(assetName);
+    }
+  }
+
+  /**
+   * Store a bundle from the stream its remote content is served to the client through.
+   */
+  private Content ingest(
+      final P2Attributes p2Attributes,
+      final InputStream in,
+      final Content content,
+      final AssetKind assetKind) throws IOException
+  {
+    StorageFacet storageFacet = facet(StorageFacet.class);
+    Optional<P2Attributes> known = assetKind == BINARY_BUNDLE ? Optional.empty()
+        : contentMetadataAttributes.mergeAttributes(getRepository(), p2Attributes);
+    boolean deferred = assetKind != BINARY_BUNDLE && !known.isPresent() && enrichmentQueue != null;
+    AttributesTee tee = assetKind == BINARY_BUNDLE || known.isPresent() || deferred ? null
+        : p2TempBlobUtils.teeAttributes(in, p2Attributes, proxyExecutor());
+    Content stored;
+    UnitOfWork.begin(storageFacet.txSupplier());
+    try (TempBlob tempBlob = storageFacet.createTempBlob(tee == null ? in : tee.stream(), HASH_ALGORITHMS)) {
+      if (tee != null) {
+        stored = doPutComponent(p2Attributes, tempBlob, tee, content, assetKind);
+      }
+      else {
+        try (P2CreateLocks.Section section = facet(P2Facet.class).lockForCreate(known.orElse(p2Attributes))) {
+          if (known.isPresent()) {
+            stored = doPutBundle(known.get(), tempBlob, content, assetKind);
+          }
+          else if (deferred) {
+            stored = doPutDeferred(p2Attributes, tempBlob, content, assetKind);
+          }
+          else {
+            stored = doPutBinary(p2Attributes, tempBlob, content);
+          }
+        }
+      }
+    }
+    finally {
+      UnitOfWork.end();
+    }
+    if (deferred) {
+      enqueueEnrichment(p2Attributes.getPath());
+    }
+    return stored;
+  }
+
+  /**
+   * Find a page of the bundles stored with deferred enrichment which were not enriched yet, in the order of their
+   * names.
+   *
+   * @param after the name of the last bundle of the previous page, {@code null} for the first page
+   * @return empty after the last page
+   * @since 1.1.14
+   */
+  public List<String> findPendingEnrichment(@Nullable final String after) {
+    return Transactional.operation.withDb(facet(StorageFacet.class).txSupplier()).call(() -> {
+      StorageTx tx = UnitOfWork.currentTx();
+      Query.Builder query = Query.builder().where(P_ATTRIBUTES + '.' + P2Format.NAME + '.' + ENRICHMENT_PENDING)
+          .eq(true);
+      if (after != null) {
+        query.and(P_NAME + " > ").param(after);
+      }
+      query.suffix(" ORDER BY " + P_NAME + " LIMIT " + PENDING_ENRICHMENT_PAGE_SIZE);
+      return stream(tx.findAssets(query.build(), Collections.singleton(getRepository()))).map(Asset::name)
+          .collect(toList());
+    });
+  }
+
+  private void queuePendingEnrichment() {
+    EnrichmentQueue queue = enrichmentQueue;
+    if (queue == null) {
+      return;
+    }
+    int queued = 0;
+    List<String> pending = findPendingEnrichment(null);
+    while (!pending.isEmpty()) {
+      pending.forEach(queue::submit);
+      queued += pending.size();
+      pending = findPendingEnrichment(pending.get(pending.size() - 1));
+    }
+    if (queued > 0) {
+      log.info("Queued {} bundle(s) pending enrichment in p2 repository: {}", queued, getRepository().getName());
+    }
+  }
+
+  /**
+   * Extract the attributes of a bundle stored with deferred enrichment from its content, moving it to the component
+   * they identify.
+   *
+   * @since 1.1.14
+   */
+  public void enrich(final String assetName) throws IOException {
+    UnitOfWork.begin(facet(StorageFacet.class).txSupplier());
+    try {
+      doEnrich(assetName);
+    }
+    finally {
+      UnitOfWork.end();
+    }
+  }
+
+  @TransactionalStoreBlob
+  protected void doEnrich(final String assetName) throws IOException {
+    StorageTx tx = UnitOfWork.currentTx();
+    Bucket bucket = tx.findBucket(getRepository());
+    P2Facet p2Facet = facet(P2Facet.class);
+
+    Asset asset = p2Facet.findAsset(tx, bucket, assetName);
+    if (asset == null || asset.componentId() == null ||
+        !TRUE.equals(asset.formatAttributes().get(ENRICHMENT_PENDING, Boolean.class))) {
+      return;
+    }
+    Component component = tx.findComponentInBucket(asset.componentId(), bucket);
+    if (component == null) {
+      return;
+    }
+
+    String fileName = assetName.substring(assetName.lastIndexOf('/') + 1);
+    P2Attributes source = P2Attributes.builder()
+        .componentName(component.name())
+        .componentVersion(component.version())
+        .extension(extension(fileName))
+        .fileName(fileName)
+        .path(assetName)
+        .build();
+    Blob blob = tx.requireBlob(asset.requireBlobRef());
+    P2Attributes enriched = extractAttributes(tx, blob, source);
+
+    if (!Objects.equals(enriched.getComponentName(), component.name()) ||
+        !Objects.equals(enriched.getComponentVersion(), component.version())) {
+      log.debug("Moving {} from {}:{} to {}:{}", assetName, component.name(), component.version(),
+          enriched.getComponentName(), enriched.getComponentVersion());
+      moveAsset(tx, asset, p2Facet.findOrCreateComponent(tx, enriched));
+      if (!tx.browseAssets(component).iterator().hasNext()) {
+        tx.deleteComponent(component);
+      }
+    }
+    else if (P2ComponentUtils.setSearchAttributes(component, enriched)) {
+      tx.saveComponent(component);
+    }
+
+    asset.formatAttributes().set(PLUGIN_NAME, enriched.getPluginName());
+    asset.formatAttributes().remove(ENRICHMENT_PENDING);
+    tx.saveAsset(asset);
+  }
+
+  private P2Attributes extractAttributes(final StorageTx tx, final Blob blob, final P2Attributes source)
+      throws IOException
+  {
+    Optional<P2Attributes> known = contentMetadataAttributes.mergeAttributes(tx, getRepository(), source);
+    if (known.isPresent()) {
+      return known.get();
+    }
+    Optional<P2Attributes> memoized = p2TempBlobUtils.getMemoizedAttributes(blob.getMetrics().getSha1Hash());
+    if (memoized.isPresent()) {
+      return P2Attributes.builder().merge(source, memoized.get()).build();
+    }
+    Optional<P2Attributes> streamed;
+    try (InputStream in = blob.getInputStream()) {
+      streamed = p2TempBlobUtils.mergeAttributesFromJarStream(in, source);
+    }
+    if (streamed.isPresent()) {
+      return streamed.get();
+    }
+    try (TempBlob tempBlob = facet(StorageFacet.class).createTempBlob(blob.getInputStream(), HASH_ALGORITHMS)) {
+      return p2TempBlobUtils.mergeAttributesFromTempBlob(tempBlob, source);
+    }
+  }
+
+  /**
+   * Attach the asset to the component, keeping its blob and attributes.
+   */
+  private static void moveAsset(final StorageTx tx, final Asset asset, final Component target) {
+    asset.componentId(EntityHelper.id(target));
+    tx.saveAsset(asset);
+  }
+
+  /**
+   * The extension of a bundle file name, {@code jar} for jars and pack200 jars, e.g. {@code jar.pack.gz}.
+   */
+  private static String extension(final String fileName) {
+    int jar = fileName.lastIndexOf(".jar");
+    if (jar != -1 && (jar + 4 == fileName.length() || fileName.charAt(jar + 4) == '.')) {
+      return fileName.substring(jar + 1);
+    }
+    return fileName.substring(fileName.lastIndexOf('.') + 1);
+  }
+
   @Override
   protected void indicateVerified(final Context context, final Content content, final CacheInfo cacheInfo) {
     setCacheInfo(content, cacheInfo);
+    if (writeBehindUpdates == null) {
+      invalidateMetadata(content.getAttributes().require(Asset.class).name());
+    }
   }
 
   @TransactionalTouchMetadata
   public void setCacheInfo(final Content content, final CacheInfo cacheInfo) {
+    WriteBehindUpdates updates = writeBehindUpdates;
+    if (updates != null) {
+      log.debug("Deferring cacheInfo of {} to {}", content.getAttributes().require(Asset.class), cacheInfo);
+      updates.verified(content.getAttributes().require(Asset.class).name(), cacheInfo);
+      return;
+    }
     StorageTx tx = UnitOfWork.currentTx();
     Asset asset = Content.findAsset(tx, tx.findBucket(getRepository()), content);
     if (asset == null) {
@@ -299,10 +1733,113 @@ public class P2ProxyFacetImpl
     if (asset == null) {
       return null;
     }
+    WriteBehindUpdates updates = writeBehindUpdates;
+    if (updates == null) {
+      if (asset.markAsDownloaded()) {
+        tx.saveAsset(asset);
+      }
+      return facet(P2Facet.class).toContent(asset, tx.requireBlob(asset.requireBlobRef()));
+    }
+
     if (asset.markAsDownloaded()) {
-      tx.saveAsset(asset);
+      updates.downloaded(name);
+    }
+    return withPendingCacheInfo(updates, asset,
+        facet(P2Facet.class).toContent(asset, tx.requireBlob(asset.requireBlobRef())));
+  }
+
+  /**
+   * Overlay the cache info of a verification not written yet, unless the asset was invalidated meanwhile.
+   */
+  private static Content withPendingCacheInfo(
+      final WriteBehindUpdates updates,
+      final Asset asset,
+      final Content content)
+  {
+    if (!isInvalidated(asset)) {
+      updates.getPendingCacheInfo(asset.name())
+          .ifPresent(cacheInfo -> content.getAttributes().set(CacheInfo.class, cacheInfo));
+    }
+    return content;
+  }
+
+  /**
+   * Serve small metadata from memory when kept there, else read the asset and keep its content.
+   */
+  @Nullable
+  private Content getMetadata(final String name) throws IOException {
+    MetadataContentCache cache = metadataCache;
+    if (cache == null) {
+      return getAsset(name);
+    }
+
+    MetadataContentCache.Entry entry = cache.get(name);
+    if (entry != null) {
+      Content content = new Content(new BytesPayload(entry.getBytes(), entry.getContentType()));
+      Content.extractFromAsset(entry.getAsset(), HASH_ALGORITHMS, content.getAttributes());
+      WriteBehindUpdates updates = writeBehindUpdates;
+      if (updates == null) {
+        // the kept asset limits the writes to one per download mark interval
+        if (entry.getAsset().markAsDownloaded()) {
+          markAsDownloaded(name);
+        }
+        return content;
+      }
+      updates.downloaded(name);
+      return withPendingCacheInfo(updates, entry.getAsset(), content);
     }
-    return facet(P2Facet.class).toContent(asset, tx.requireBlob(asset.requireBlobRef()));
+
+    long mark = cache.mark();
+    Content content = getAsset(name);
+    if (content != null && cache.accepts(content.getSize())) {
+      try (InputStream in = content.openInputStream()) {
+        cache.put(name, mark, content.getAttributes().require(Asset.class), IOUtils.toByteArray(in),
+            content.getContentType());
+      }
+    }
+    return content;
+  }
+
+  private void markAsDownloaded(final String name) {
+    Transactional.operation.withDb(facet(StorageFacet.class).txSupplier()).run(() -> {
+      StorageTx tx = UnitOfWork.currentTx();
+      Asset asset = facet(P2Facet.class).findAsset(tx, tx.findBucket(getRepository()), name);
+      if (asset != null && asset.markAsDownloaded()) {
+        tx.saveAsset(asset);
+      }
+    });
+  }
+
+  /**
+   * Write a batch of download marks and cache info gathered by the write-behind updates in a single transaction.
+   */
+  private void writeUpdates(final Map<String, WriteBehindUpdates.Update> updates) {
+    Transactional.operation.withDb(facet(StorageFacet.class).txSupplier()).call(() -> {
+      StorageTx tx = UnitOfWork.currentTx();
+      Bucket bucket = tx.findBucket(getRepository());
+      for (Map.Entry<String, WriteBehindUpdates.Update> entry : updates.entrySet()) {
+        Asset asset = facet(P2Facet.class).findAsset(tx, bucket, entry.getKey());
+        if (asset == null) {
+          continue;
+        }
+        WriteBehindUpdates.Update update = entry.getValue();
+        boolean changed = update.isDownloaded() && asset.markAsDownloaded();
+        // an invalidation since the verification wins, the asset is verified again on the next request
+        if (update.getCacheInfo() != null && !isInvalidated(asset)) {
+          CacheInfo.applyToAsset(asset, update.getCacheInfo());
+          changed = true;
+        }
+        if (changed) {
+          tx.saveAsset(asset);
+        }
+      }
+      return null;
+    });
+  }
+
+  private static boolean isInvalidated(final Asset asset) {
+    CacheInfo cacheInfo = CacheInfo.extractFromAsset(asset);
+    return cacheInfo != null && CacheInfo.INVALIDATED.equals(cacheInfo.getCacheToken());
   }
 
   private Content storeCompositeMetadata(
@@ -315,7 +1852,7 @@ public class P2ProxyFacetImpl
     String site = getSiteHash(matcherState);
     String filename = AssetKind.COMPOSITE_ARTIFACTS == assetKind ? "compositeArtifacts.xml" : "compositeContent.xml";
     URI baseUri = URI.create(remoteUrl);
-    CompositeRepositoryRewriter rewriter = new CompositeRepositoryRewriter(baseUri, site == null);
+    CompositeRepositoryRewriter rewriter = new CompositeRepositoryRewriter(baseUri, site == null, siteUrlCanonicalizer);
 
     Consumer<Asset> assetModifier = (asset) -> asset.formatAttributes().set(CHILD_URLS, rewriter.getUrls());
 
@@ -337,6 +1874,10 @@ public class P2ProxyFacetImpl
       if (mirrorUrl.isPresent()) {
         asset.formatAttributes().set(MIRRORS_URL, mirrorUrl.get());
       }
+      MirrorSelector selector = mirrorSelector;
+      if (selector != null) {
+        selector.invalidate(matcherState.getTokens().get("site"));
+      }
     };
 
     return rewriteAndStoreMetadata(assetPath, content, "artifacts.xml", assetKind, matcherState,
@@ -394,6 +1935,6 @@ public class P2ProxyFacetImpl
     if (site == null) {
       return null;
     }
-    return UriToSiteHashUtil.map(getRemoteUrl());
+    return UriToSiteHashUtil.map(getRemoteUrl().toString(), siteUrlCanonicalizer);
   }
 }
@@ -33,11 +33,11 @@ import org.sonatype.nexus.repository.p2.P2RestoreFacet
 import org.sonatype.nexus.repository.p2.internal.AssetKind
 import org.sonatype.nexus.repository.p2.internal.P2ComponentMaintenance
 import org.sonatype.nexus.repository.p2.internal.P2Format
+import org.sonatype.nexus.repository.p2.internal.search.P2SearchFacet
 import org.sonatype.nexus.repository.p2.internal.security.P2SecurityFacet
 import org.sonatype.nexus.repository.proxy.ProxyHandler
 import org.sonatype.nexus.repository.purge.PurgeUnusedFacet
 import org.sonatype.nexus.repository.routing.RoutingRuleHandler
-import org.sonatype.nexus.repository.search.SearchFacet
 import org.sonatype.nexus.repository.security.SecurityHandler
 import org.sonatype.nexus.repository.storage.StorageFacet
 import org.sonatype.nexus.repository.storage.UnitOfWorkHandler
@@ -75,6 +75,8 @@ class P2ProxyRecipe
 {
   public static final String NAME = 'p2-proxy'
 
+  private static final String SITE_PREFIX = '/{site:[0-9a-f]{64\\}}'
+
   @Inject
   Provider<P2SecurityFacet> securityFacet
 
@@ -85,7 +87,7 @@ class P2ProxyRecipe
   Provider<StorageFacet> storageFacet
 
   @Inject
-  Provider<SearchFacet> searchFacet
+  Provider<P2SearchFacet> searchFacet
 
   @Inject
   Provider<AttributesFacet> attributesFacet
@@ -200,7 +202,7 @@ class P2ProxyRecipe
 
     addBrowseUnsupportedRoute(builder)
 
-    (createMatchers('/{site:[0-9a-f]{64\\}}') + createMatchers('')).each { matcher ->
+    createMatchers().each { matcher ->
       builder.route(new Route.Builder().matcher(matcher)
           .handler(timingHandler)
           .handler(securityHandler)
@@ -224,7 +226,14 @@ class P2ProxyRecipe
     return facet
   }
 
-  List<Matcher> createMatchers(String prefix) {
+  /**
+   * The matchers of the paths of sites and of the root site.
+   */
+  static List<Matcher> createMatchers() {
+    return createMatchers(SITE_PREFIX) + createMatchers('')
+  }
+
+  static List<Matcher> createMatchers(String prefix) {
     String path = '{name:.*}_{version:\\\\d+\\\\.\\\\d+\\\\.\\\\d+(\\\\.[A-Za-z0-9_-]+)?}'
     return [
       buildTokenMatcherForPatternAndAssetKind(prefix + '/p2.index', P2_INDEX, GET, HEAD),
@@ -0,0 +1,124 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.proxy;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.sonatype.goodies.common.ComponentSupport;
+
+import com.codahale.metrics.Counter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Bounded pool of workers fetching assets into the proxy cache ahead of the requests for them.
+ *
+ * Paths are queued at most once at a time. When the queue is full a path is dropped, it is then fetched on the first
+ * request as without prefetching.
+ *
+ * @since 1.1.14
+ */
+public class Prefetcher
+    extends ComponentSupport
+{
+  /**
+   * Fetches the asset at the path into the cache, if it is not cached yet.
+   */
+  @FunctionalInterface
+  public interface Fetcher
+  {
+    void fetch(String path) throws Exception;
+  }
+
+  private final ThreadPoolExecutor executor;
+
+  private final Fetcher fetcher;
+
+  private final Set<String> queued = ConcurrentHashMap.newKeySet();
+
+  private final Counter fetched = new Counter();
+
+  private final Counter failed = new Counter();
+
+  private final Counter dropped = new Counter();
+
+  public Prefetcher(final String name, final int threads, final int capacity, final Fetcher fetcher) {
+    this.fetcher = fetcher;
+    this.executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(capacity),
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat(name + "-%d").build());
+    this.executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Queue the path to be fetched.
+   *
+   * @return {@code false} if the path was dropped because the queue is full
+   */
+  public boolean submit(final String path) {
+    if (!queued.add(path)) {
+      return true;
+    }
+    try {
+      executor.execute(() -> {
+        try {
+          fetcher.fetch(path);
+          fetched.inc();
+        }
+        catch (Exception e) {
+          failed.inc();
+          log.debug("Unable to prefetch {}: {}", path, e.toString(), log.isTraceEnabled() ? e : null);
+        }
+        finally {
+          queued.remove(path);
+        }
+      });
+      return true;
+    }
+    catch (RejectedExecutionException e) {
+      queued.remove(path);
+      dropped.inc();
+      return false;
+    }
+  }
+
+  /**
+   * Run the task on the workers, e.g. to find further paths to queue.
+   */
+  public void execute(final Runnable task) {
+    executor.execute(task);
+  }
+
+  public int getQueueDepth() {
+    return executor.getQueue().size();
+  }
+
+  public Counter getFetched() {
+    return fetched;
+  }
+
+  public Counter getFailed() {
+    return failed;
+  }
+
+  public Counter getDropped() {
+    return dropped;
+  }
+
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+}
@@ -0,0 +1,248 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.proxy;
+
+import java.net.URI;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import com.codahale.metrics.Counter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Remembers the redirect targets observed when fetching from remote p2 sites so later fetches from the same site can
+ * go straight to the resolved location.
+ *
+ * When the original and final URLs of a bundle share a common trailing path (e.g. {@code plugins/foo_1.0.0.jar}) the
+ * remaining prefixes are remembered as a rule for the site, otherwise only the exact URL is remembered. Metadata is
+ * only ever remembered and resolved by its exact URL, as sites often redirect it elsewhere than their bundles. Entries
+ * expire after the configured TTL and can be invalidated when the resolved location fails.
+ *
+ * @since 1.1.14
+ */
+public class RedirectCache
+{
+  private static final String ROOT_SITE = "";
+
+  private final Cache<Key, Target> targets;
+
+  private final Counter hits = new Counter();
+
+  private final Counter misses = new Counter();
+
+  private final Counter fallbacks = new Counter();
+
+  private final Counter roundTripsSaved = new Counter();
+
+  public RedirectCache(final long ttlSeconds, final long maximumSize) {
+    this.targets = CacheBuilder.newBuilder()
+        .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+        .maximumSize(maximumSize)
+        .build();
+  }
+
+  /**
+   * Resolve the location to fetch the url from, based on the redirects previously observed for the site.
+   */
+  public Optional<Resolved> resolve(@Nullable final String site, final URI url) {
+    String urlString = url.toString();
+    String candidate = urlString;
+    while (candidate != null) {
+      Target target = targets.getIfPresent(new Key(site, candidate));
+      if (target != null) {
+        hits.inc();
+        URI location = URI.create(target.prefix + urlString.substring(candidate.length()));
+        return Optional.of(new Resolved(candidate, target, location));
+      }
+      candidate = parentPrefix(candidate);
+    }
+    misses.inc();
+    return Optional.empty();
+  }
+
+  /**
+   * Resolve the location to fetch the url from, based only on the redirect previously observed for the same url.
+   */
+  public Optional<Resolved> resolveExact(@Nullable final String site, final URI url) {
+    String urlString = url.toString();
+    Target target = targets.getIfPresent(new Key(site, urlString));
+    if (target == null) {
+      misses.inc();
+      return Optional.empty();
+    }
+    hits.inc();
+    return Optional.of(new Resolved(urlString, target, URI.create(target.prefix)));
+  }
+
+  /**
+   * Record that fetching the url from the site was redirected, in {@code hops} round trips, to the target.
+   */
+  public void record(@Nullable final String site, final URI url, final URI target, final int hops) {
+    String original = url.toString();
+    String resolved = target.toString();
+
+    if (url.getRawQuery() == null && target.getRawQuery() == null) {
+      int common = commonSuffixAtSegment(original, resolved);
+      if (common > 0) {
+        targets.put(new Key(site, original.substring(0, original.length() - common)),
+            new Target(resolved.substring(0, resolved.length() - common), hops));
+        return;
+      }
+    }
+    targets.put(new Key(site, original), new Target(resolved, hops));
+  }
+
+  /**
+   * Record that fetching exactly the url from the site was redirected, in {@code hops} round trips, to the target.
+   */
+  public void recordExact(@Nullable final String site, final URI url, final URI target, final int hops) {
+    targets.put(new Key(site, url.toString()), new Target(target.toString(), hops));
+  }
+
+  /**
+   * The resolved location failed, forget it and account for the fallback to the original url.
+   */
+  public void invalidate(@Nullable final String site, final Resolved resolved) {
+    fallbacks.inc();
+    targets.invalidate(new Key(site, resolved.originalPrefix));
+  }
+
+  /**
+   * The resolved location succeeded, account for the round trips that were saved.
+   */
+  public void succeeded(final Resolved resolved) {
+    roundTripsSaved.inc(resolved.target.hops);
+  }
+
+  public long size() {
+    return targets.size();
+  }
+
+  public void invalidateAll() {
+    targets.invalidateAll();
+  }
+
+  public Counter getHits() {
+    return hits;
+  }
+
+  public Counter getMisses() {
+    return misses;
+  }
+
+  public Counter getFallbacks() {
+    return fallbacks;
+  }
+
+  public Counter getRoundTripsSaved() {
+    return roundTripsSaved;
+  }
+
+  @Nullable
+  private static String parentPrefix(final String candidate) {
+    int end = candidate.endsWith("/") ? candidate.length() - 1 : candidate.length();
+    int slash = candidate.lastIndexOf('/', end - 1);
+    // never generalize beyond the host, i.e. past the '//' following the scheme
+    if (slash <= 0 || candidate.charAt(slash - 1) == '/') {
+      return null;
+    }
+    return candidate.substring(0, slash + 1);
+  }
+
+  /**
+   * The length of the longest common suffix of both urls which starts immediately after a path separator.
+   */
+  private static int commonSuffixAtSegment(final String original, final String resolved) {
+    int i = original.length() - 1;
+    int j = resolved.length() - 1;
+    int common = 0;
+    while (i >= 0 && j >= 0 && original.charAt(i) == resolved.charAt(j)) {
+      if (original.charAt(i) == '/') {
+        if (i > 0 && original.charAt(i - 1) == '/') {
+          break;
+        }
+        common = original.length() - 1 - i;
+      }
+      i--;
+      j--;
+    }
+    return common;
+  }
+
+  /**
+   * A location resolved from a previously observed redirect.
+   */
+  public static class Resolved
+  {
+    private final String originalPrefix;
+
+    private final Target target;
+
+    private final URI location;
+
+    private Resolved(final String originalPrefix, final Target target, final URI location) {
+      this.originalPrefix = originalPrefix;
+      this.target = target;
+      this.location = location;
+    }
+
+    public URI getLocation() {
+      return location;
+    }
+  }
+
+  private static class Target
+  {
+    private final String prefix;
+
+    private final int hops;
+
+    private Target(final String prefix, final int hops) {
+      this.prefix = prefix;
+      this.hops = hops;
+    }
+  }
+
+  private static class Key
+  {
+    private final String site;
+
+    private final String prefix;
+
+    private Key(@Nullable final String site, final String prefix) {
+      this.site = site == null ? ROOT_SITE : site;
+      this.prefix = prefix;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      Key key = (Key) o;
+      return site.equals(key.site) && prefix.equals(key.prefix);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(site, prefix);
+    }
+  }
+}
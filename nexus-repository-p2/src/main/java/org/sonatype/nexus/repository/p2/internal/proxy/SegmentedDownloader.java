@@ -0,0 +1,737 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.proxy;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nullable;
+
+import org.sonatype.goodies.common.ComponentSupport;
+import org.sonatype.nexus.repository.p2.internal.metadata.ArtifactProperties;
+
+import com.codahale.metrics.Counter;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.utils.HttpClientUtils;
+import org.apache.http.entity.InputStreamEntity;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.nio.file.StandardOpenOption.DELETE_ON_CLOSE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Downloads large artifacts in parallel byte range segments when the remote advertises {@code Accept-Ranges: bytes}.
+ *
+ * The response which was already received serves the first segment, the remaining segments are requested with
+ * {@code Range} and {@code If-Range} so every segment comes from the same version of the artifact. A segment which is
+ * interrupted is resumed from the last byte received.
+ *
+ * The artifact is read in order while it is downloaded: the first segment straight from the response, the others
+ * from a local file they are written to as far as they are ahead of the reader. An artifact is only downloaded in
+ * segments when its digest is known, from the properties of its descriptor in the artifacts metadata or else from
+ * the response, and the artifact fails to be read at its end unless its digest matches.
+ *
+ * @since 1.1.14
+ */
+public class SegmentedDownloader
+    extends ComponentSupport
+{
+  /**
+   * Thrown when the artifact cannot be downloaded in segments, e.g. because the remote does not honour a range
+   * request or no thread is available for the segments; the artifact can still be downloaded in one piece.
+   */
+  public static class RangeNotHonouredException
+      extends IOException
+  {
+    public RangeNotHonouredException(final String message) {
+      super(message);
+    }
+  }
+
+  /**
+   * The digest a downloaded artifact is verified against.
+   */
+  public static final class Digest
+  {
+    private final String algorithm;
+
+    private final HashFunction function;
+
+    private final HashCode expected;
+
+    Digest(final String algorithm, final HashFunction function, final HashCode expected) {
+      this.algorithm = checkNotNull(algorithm);
+      this.function = checkNotNull(function);
+      this.expected = checkNotNull(expected);
+    }
+
+    @Override
+    public String toString() {
+      return algorithm + '=' + expected;
+    }
+  }
+
+  private static final long MIN_SEGMENT_SIZE = 8L * 1024 * 1024;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private static final long POLL_MILLIS = 100;
+
+  private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+|\\*)");
+
+  private static final String DIGEST = "Digest";
+
+  private static final String CONTENT_MD5 = "Content-MD5";
+
+  private final Executor executor;
+
+  private final Path directory;
+
+  private final int segments;
+
+  private final int maxAttempts;
+
+  private final Counter downloads = new Counter();
+
+  private final Counter resumes = new Counter();
+
+  private final Counter fallbacks = new Counter();
+
+  private final Counter unverifiable = new Counter();
+
+  /**
+   * @param executor    runs the range requests of all segments but the first, rejecting them when it is busy
+   * @param directory   the directory the artifacts are written to while they are downloaded
+   * @param segments    the maximum number of segments to download an artifact in
+   * @param maxAttempts the maximum number of attempts to download each segment
+   */
+  public SegmentedDownloader(
+      final Executor executor,
+      final Path directory,
+      final int segments,
+      final int maxAttempts)
+  {
+    this.executor = executor;
+    this.directory = directory;
+    this.segments = segments;
+    this.maxAttempts = maxAttempts;
+  }
+
+  /**
+   * Whether the response is a complete, uncompressed artifact of at least the threshold size which the remote allows
+   * to be requested in ranges.
+   */
+  public boolean isSegmentable(final HttpResponse response, final long threshold) {
+    if (segments < 2 || response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+      return false;
+    }
+    HttpEntity entity = response.getEntity();
+    Header acceptRanges = response.getFirstHeader(HttpHeaders.ACCEPT_RANGES);
+    return entity != null && entity.getContentLength() >= Math.max(threshold, 2 * MIN_SEGMENT_SIZE) &&
+        entity.getContentEncoding() == null && !response.containsHeader(HttpHeaders.CONTENT_ENCODING) &&
+        acceptRanges != null && acceptRanges.getValue().toLowerCase(Locale.ENGLISH).contains("bytes");
+  }
+
+  /**
+   * The digest to verify the artifact of the response against, the strongest checksum of the properties of its
+   * descriptor, else an RFC 3230 {@code Digest} or a {@code Content-MD5} header of the response. Empty when there is
+   * none, so the artifact is not downloaded in segments.
+   */
+  public Optional<Digest> digest(final Map<String, String> properties, final HttpResponse response) {
+    Optional<Digest> digest = propertiesDigest(properties);
+    if (!digest.isPresent()) {
+      digest = headerDigest(response);
+    }
+    if (!digest.isPresent()) {
+      unverifiable.inc();
+    }
+    return digest;
+  }
+
+  /**
+   * Download the artifact of the response in segments.
+   *
+   * @param client   the client to request the remaining segments with
+   * @param location the location the response was received from, after any redirects
+   * @param request  the request the response was received for, it is aborted once the first segment was read
+   * @param response the response of the request
+   * @param digest   the digest to verify the artifact against
+   * @return an entity reading the artifact as it is downloaded, failing at its end when its digest does not match
+   */
+  public HttpEntity download(
+      final HttpClient client,
+      final URI location,
+      final HttpRequestBase request,
+      final HttpResponse response,
+      final Digest digest) throws IOException
+  {
+    HttpEntity entity = response.getEntity();
+    long length = entity.getContentLength();
+    String validator = validator(response);
+    List<Segment> plan = plan(length);
+    log.debug("Downloading {} bytes from {} in {} segments, verifying {}", length, location, plan.size(), digest);
+
+    Path file = Files.createTempFile(directory, "p2-download-", ".part");
+    FileChannel channel;
+    try {
+      channel = FileChannel.open(file, READ, WRITE, DELETE_ON_CLOSE);
+    }
+    catch (IOException e) {
+      Files.deleteIfExists(file);
+      throw e;
+    }
+    SegmentedInputStream in = new SegmentedInputStream(client, location, validator, request, entity.getContent(),
+        plan, channel, digest, length);
+    try {
+      for (int i = 1; i < plan.size(); i++) {
+        in.start(i);
+      }
+    }
+    catch (RejectedExecutionException e) {
+      in.abort();
+      throw new RangeNotHonouredException("No thread available to download the segments of " + location);
+    }
+
+    InputStreamEntity downloaded = new InputStreamEntity(in, length);
+    downloaded.setContentType(entity.getContentType());
+    return downloaded;
+  }
+
+  /**
+   * A segmented download was abandoned and the artifact is downloaded in one piece instead.
+   */
+  public void fallback() {
+    fallbacks.inc();
+  }
+
+  public Counter getDownloads() {
+    return downloads;
+  }
+
+  public Counter getResumes() {
+    return resumes;
+  }
+
+  public Counter getFallbacks() {
+    return fallbacks;
+  }
+
+  /**
+   * Artifacts not downloaded in segments because their digest is not known.
+   */
+  public Counter getUnverifiable() {
+    return unverifiable;
+  }
+
+  private List<Segment> plan(final long length) {
+    int count = (int) Math.max(1, Math.min(segments, length / MIN_SEGMENT_SIZE));
+    long size = (length + count - 1) / count;
+    List<Segment> plan = new ArrayList<>(count);
+    for (long start = 0; start < length; start += size) {
+      plan.add(new Segment(start, Math.min(start + size, length) - 1));
+    }
+    return plan;
+  }
+
+  /**
+   * Fetch the segment into the file, resuming from the last byte received when the transfer is interrupted.
+   *
+   * @param progress told the position up to which the segment was written
+   */
+  private void fetch(
+      final HttpClient client,
+      final URI location,
+      @Nullable final String validator,
+      final Segment segment,
+      final FileChannel channel,
+      final AtomicBoolean aborted,
+      final LongConsumer progress) throws IOException
+  {
+    long position = segment.start;
+    int attempts = 0;
+    while (true) {
+      HttpGet get = null;
+      HttpResponse response = null;
+      try {
+        get = rangeRequest(location, validator, position, segment.end);
+        response = client.execute(get);
+        InputStream in = openRange(response, position, location);
+        position = copy(in, channel, position, segment.end, aborted, progress);
+        if (position > segment.end) {
+          return;
+        }
+        throw new EOFException("Premature end of segment " + segment + " of " + location + " at " + position);
+      }
+      catch (IOException e) {
+        if (get != null) {
+          get.abort();
+        }
+        if (e instanceof RangeNotHonouredException || aborted.get() || ++attempts >= maxAttempts) {
+          throw e;
+        }
+        log.debug("Resuming segment {} of {} at {}: {}", segment, location, position, e.toString());
+        resumes.inc();
+      }
+      finally {
+        if (response != null) {
+          HttpClientUtils.closeQuietly(response);
+        }
+      }
+    }
+  }
+
+  private static HttpGet rangeRequest(
+      final URI location,
+      @Nullable final String validator,
+      final long start,
+      final long end)
+  {
+    HttpGet get = new HttpGet(location);
+    get.setHeader(HttpHeaders.RANGE, "bytes=" + start + '-' + end);
+    get.setHeader(HttpHeaders.ACCEPT_ENCODING, "identity");
+    if (validator != null) {
+      get.setHeader(HttpHeaders.IF_RANGE, validator);
+    }
+    return get;
+  }
+
+  private static InputStream openRange(final HttpResponse response, final long position, final URI location)
+      throws IOException
+  {
+    int status = response.getStatusLine().getStatusCode();
+    if (status == HttpStatus.SC_OK) {
+      throw new RangeNotHonouredException("Remote returned the complete artifact for a range of " + location);
+    }
+    if (status != HttpStatus.SC_PARTIAL_CONTENT || response.getEntity() == null) {
+      throw new IOException("Unexpected response " + response.getStatusLine() + " for a range of " + location);
+    }
+    Header contentRange = response.getFirstHeader(HttpHeaders.CONTENT_RANGE);
+    Matcher matcher = contentRange == null ? null : CONTENT_RANGE.matcher(contentRange.getValue().trim());
+    if (matcher == null || !matcher.matches() || Long.parseLong(matcher.group(1)) != position) {
+      throw new RangeNotHonouredException("Unexpected Content-Range " + contentRange + " for " + location);
+    }
+    return response.getEntity().getContent();
+  }
+
+  private static long copy(
+      final InputStream in,
+      final FileChannel channel,
+      final long start,
+      final long end,
+      final AtomicBoolean aborted,
+      final LongConsumer progress) throws IOException
+  {
+    byte[] buffer = new byte[BUFFER_SIZE];
+    long position = start;
+    while (position <= end) {
+      if (aborted.get()) {
+        throw new IOException("Download aborted");
+      }
+      int read = in.read(buffer, 0, (int) Math.min(buffer.length, end - position + 1));
+      if (read < 0) {
+        break;
+      }
+      ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, read);
+      while (bytes.hasRemaining()) {
+        position += channel.write(bytes, position);
+      }
+      progress.accept(position);
+    }
+    return position;
+  }
+
+  /**
+   * The strong validator of the response used to make sure all segments come from the same version of the artifact.
+   */
+  @Nullable
+  private static String validator(final HttpResponse response) {
+    Header etag = response.getFirstHeader(HttpHeaders.ETAG);
+    if (etag != null && !etag.getValue().startsWith("W/")) {
+      return etag.getValue();
+    }
+    Header lastModified = response.getFirstHeader(HttpHeaders.LAST_MODIFIED);
+    return lastModified == null ? null : lastModified.getValue();
+  }
+
+  /**
+   * The digest of the strongest checksum of the properties of an artifact descriptor, which are hex encoded.
+   */
+  @SuppressWarnings("deprecation")
+  static Optional<Digest> propertiesDigest(final Map<String, String> properties) {
+    String[][] checksums = {
+        {ArtifactProperties.DOWNLOAD_SHA512, "SHA-512"},
+        {ArtifactProperties.DOWNLOAD_SHA256, "SHA-256"},
+        {ArtifactProperties.DOWNLOAD_MD5, "MD5"}
+    };
+    for (String[] checksum : checksums) {
+      String value = properties.get(checksum[0]);
+      if (value != null && !value.trim().isEmpty()) {
+        try {
+          return Optional.of(new Digest(checksum[1], hashFunction(checksum[1]),
+              HashCode.fromString(value.trim().toLowerCase(Locale.ENGLISH))));
+        }
+        catch (IllegalArgumentException e) {
+          // not hex, try the next one
+        }
+      }
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * The digest of an RFC 3230 {@code Digest} or a {@code Content-MD5} header, which are base64 encoded.
+   */
+  @SuppressWarnings("deprecation")
+  static Optional<Digest> headerDigest(final HttpResponse response) {
+    Header digest = response.getFirstHeader(DIGEST);
+    if (digest != null) {
+      for (String instance : digest.getValue().split(",")) {
+        int separator = instance.indexOf('=');
+        if (separator < 0) {
+          continue;
+        }
+        String algorithm = instance.substring(0, separator).trim();
+        HashFunction function = hashFunction(algorithm);
+        Optional<HashCode> expected = base64(instance.substring(separator + 1));
+        if (function != null && expected.isPresent()) {
+          return Optional.of(new Digest(algorithm, function, expected.get()));
+        }
+      }
+    }
+    Header contentMd5 = response.getFirstHeader(CONTENT_MD5);
+    Optional<HashCode> expected = contentMd5 == null ? Optional.empty() : base64(contentMd5.getValue());
+    return expected.map(hash -> new Digest("MD5", Hashing.md5(), hash));
+  }
+
+  private static Optional<HashCode> base64(final String value) {
+    try {
+      return Optional.of(HashCode.fromBytes(BaseEncoding.base64().decode(value.trim())));
+    }
+    catch (IllegalArgumentException e) {
+      return Optional.empty();
+    }
+  }
+
+  @SuppressWarnings("deprecation")
+  @Nullable
+  private static HashFunction hashFunction(final String algorithm) {
+    switch (algorithm.toUpperCase(Locale.ENGLISH)) {
+      case "SHA-512":
+        return Hashing.sha512();
+      case "SHA-256":
+        return Hashing.sha256();
+      case "SHA":
+        return Hashing.sha1();
+      case "MD5":
+        return Hashing.md5();
+      default:
+        return null;
+    }
+  }
+
+  private static void closeQuietly(@Nullable final InputStream in) {
+    if (in == null) {
+      return;
+    }
+    try {
+      in.close();
+    }
+    catch (IOException e) {
+      // do nothing
+    }
+  }
+
+  /**
+   * Reads the segments of an artifact in order as they are downloaded, the first one from the response of the
+   * request, and verifies the digest of the artifact at its end.
+   */
+  private class SegmentedInputStream
+      extends InputStream
+  {
+    private final HttpClient client;
+
+    private final URI location;
+
+    @Nullable
+    private final String validator;
+
+    private final HttpRequestBase request;
+
+    private final List<Segment> plan;
+
+    private final FileChannel channel;
+
+    private final Digest digest;
+
+    private final Hasher hasher;
+
+    private final long length;
+
+    private final AtomicBoolean aborted = new AtomicBoolean();
+
+    /**
+     * The position up to which each segment was written to the file, guarded by this stream.
+     */
+    private final long[] written;
+
+    @Nullable
+    private volatile IOException failure;
+
+    @Nullable
+    private InputStream first;
+
+    @Nullable
+    private HttpGet firstResume;
+
+    private int firstAttempts;
+
+    private int index;
+
+    private long position;
+
+    private boolean closed;
+
+    SegmentedInputStream(
+        final HttpClient client,
+        final URI location,
+        @Nullable final String validator,
+        final HttpRequestBase request,
+        final InputStream first,
+        final List<Segment> plan,
+        final FileChannel channel,
+        final Digest digest,
+        final long length)
+    {
+      this.client = client;
+      this.location = location;
+      this.validator = validator;
+      this.request = request;
+      this.first = first;
+      this.plan = plan;
+      this.channel = channel;
+      this.digest = digest;
+      this.hasher = digest.function.newHasher();
+      this.length = length;
+      this.written = new long[plan.size()];
+      for (int i = 0; i < written.length; i++) {
+        written[i] = plan.get(i).start;
+      }
+    }
+
+    /**
+     * Start downloading the segment into the file.
+     */
+    void start(final int segment) {
+      executor.execute(() -> {
+        try {
+          fetch(client, location, validator, plan.get(segment), channel, aborted, position -> {
+            synchronized (this) {
+              written[segment] = position;
+              notifyAll();
+            }
+          });
+        }
+        catch (IOException e) {
+          if (!aborted.get()) {
+            failure = e;
+          }
+          synchronized (this) {
+            notifyAll();
+          }
+        }
+      });
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] one = new byte[1];
+      int read = read(one, 0, 1);
+      return read < 0 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] buffer, final int offset, final int len) throws IOException {
+      if (closed) {
+        throw new IOException("Stream closed");
+      }
+      if (len == 0) {
+        return 0;
+      }
+      if (position >= length) {
+        return -1;
+      }
+      Segment segment = plan.get(index);
+      int wanted = (int) Math.min(len, segment.end - position + 1);
+      int read = index == 0 ? readFirst(buffer, offset, wanted) : readWritten(buffer, offset, wanted);
+      hasher.putBytes(buffer, offset, read);
+      position += read;
+      if (position > segment.end) {
+        if (index == 0) {
+          // the remainder of the first response is served by the other segments
+          request.abort();
+          closeQuietly(first);
+          first = null;
+        }
+        index++;
+      }
+      if (position >= length) {
+        verify();
+      }
+      return read;
+    }
+
+    /**
+     * Read the first segment from the response, resuming with a range request when the transfer is interrupted.
+     */
+    private int readFirst(final byte[] buffer, final int offset, final int len) throws IOException {
+      while (true) {
+        try {
+          if (first == null) {
+            firstResume = rangeRequest(location, validator, position, plan.get(0).end);
+            first = openRange(client.execute(firstResume), position, location);
+          }
+          int read = first.read(buffer, offset, len);
+          if (read > 0) {
+            return read;
+          }
+          throw new EOFException("Premature end of segment " + plan.get(0) + " of " + location + " at " + position);
+        }
+        catch (IOException e) {
+          if (firstResume != null) {
+            firstResume.abort();
+          }
+          closeQuietly(first);
+          first = null;
+          if (e instanceof RangeNotHonouredException || ++firstAttempts >= maxAttempts) {
+            abort();
+            throw e;
+          }
+          log.debug("Resuming segment {} of {} at {}: {}", plan.get(0), location, position, e.toString());
+          resumes.inc();
+        }
+      }
+    }
+
+    /**
+     * Read the segment from the file once it was written there.
+     */
+    private int readWritten(final byte[] buffer, final int offset, final int len) throws IOException {
+      long available;
+      synchronized (this) {
+        while ((available = written[index] - position) <= 0) {
+          IOException failed = failure;
+          if (failed != null) {
+            abort();
+            throw failed;
+          }
+          try {
+            wait(POLL_MILLIS);
+          }
+          catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abort();
+            throw new IOException("Interrupted while downloading " + location, e);
+          }
+        }
+      }
+      int read = channel.read(ByteBuffer.wrap(buffer, offset, (int) Math.min(len, available)), position);
+      if (read <= 0) {
+        throw new IOException("Unable to read the downloaded segment of " + location + " at " + position);
+      }
+      return read;
+    }
+
+    private void verify() throws IOException {
+      HashCode actual = hasher.hash();
+      if (!actual.equals(digest.expected)) {
+        abort();
+        throw new IOException("Digest mismatch for " + location + ": expected " + digest + ", was " + actual);
+      }
+      downloads.inc();
+    }
+
+    /**
+     * Stop the download of all segments and remove the file.
+     */
+    void abort() {
+      aborted.set(true);
+      request.abort();
+      if (firstResume != null) {
+        firstResume.abort();
+      }
+      closeQuietly(first);
+      first = null;
+      try {
+        channel.close();
+      }
+      catch (IOException e) {
+        log.debug("Unable to remove the download of {}: {}", location, e.toString());
+      }
+    }
+
+    @Override
+    public void close() {
+      if (!closed) {
+        closed = true;
+        abort();
+      }
+    }
+  }
+
+  private static class Segment
+  {
+    private final long start;
+
+    private final long end;
+
+    private Segment(final long start, final long end) {
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    public String toString() {
+      return start + "-" + end;
+    }
+  }
+}
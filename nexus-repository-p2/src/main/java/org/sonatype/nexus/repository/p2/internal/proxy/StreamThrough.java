@@ -0,0 +1,157 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.proxy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nullable;
+
+import org.sonatype.goodies.common.ComponentSupport;
+import org.sonatype.nexus.repository.p2.internal.util.ChunkPipe;
+import org.sonatype.nexus.repository.view.Content;
+
+import com.google.common.io.ByteStreams;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+
+/**
+ * Serves a remote artifact to the client while it is being stored.
+ *
+ * The {@link #entity() entity} replaces the entity of the remote response. The first stream opened from it reads the
+ * remote content and hands every chunk read on to the {@link #ingestWith(Ingest) ingest}, which runs on the executor
+ * and stores the artifact from those chunks. The ingest is fed through a bounded queue, so the client is
+ * only held back when storing falls behind. Should the client stream fail or be closed before the end of the artifact
+ * the ingest fails and the partially written blob is discarded; should the ingest fail the client is still served.
+ * Any further stream waits for the ingest and reads the stored artifact.
+ *
+ * @since 1.1.14
+ */
+public class StreamThrough
+    extends ComponentSupport
+{
+  /**
+   * Stores the artifact read from the given stream.
+   */
+  @FunctionalInterface
+  public interface Ingest
+  {
+    Content ingest(InputStream in) throws IOException;
+  }
+
+  private final HttpEntity remote;
+
+  private final Executor executor;
+
+  private final AtomicBoolean opened = new AtomicBoolean();
+
+  private final CompletableFuture<Content> stored = new CompletableFuture<>();
+
+  @Nullable
+  private volatile Ingest ingest;
+
+  public StreamThrough(final HttpEntity remote, final Executor executor) {
+    this.remote = remote;
+    this.executor = executor;
+  }
+
+  /**
+   * Set how the artifact is stored, the artifact is only served if no ingest was set when the stream is opened.
+   */
+  public void ingestWith(final Ingest ingest) {
+    this.ingest = ingest;
+  }
+
+  /**
+   * The entity serving the remote artifact through this stream through.
+   */
+  public HttpEntity entity() {
+    return new HttpEntityWrapper(remote)
+    {
+      @Override
+      public boolean isRepeatable() {
+        return false;
+      }
+
+      @Override
+      public InputStream getContent() throws IOException {
+        return openInputStream();
+      }
+
+      @Override
+      public void writeTo(final OutputStream out) throws IOException {
+        try (InputStream in = openInputStream()) {
+          ByteStreams.copy(in, out);
+        }
+      }
+    };
+  }
+
+  public InputStream openInputStream() throws IOException {
+    if (!opened.compareAndSet(false, true)) {
+      return getStored().openInputStream();
+    }
+
+    Ingest ingest = this.ingest;
+    if (ingest == null) {
+      stored.completeExceptionally(new IOException("Artifact was not stored"));
+      return remote.getContent();
+    }
+
+    ChunkPipe pipe = new ChunkPipe();
+    try {
+      executor.execute(() -> {
+        try (InputStream in = pipe.source()) {
+          stored.complete(ingest.ingest(in));
+        }
+        catch (Exception e) {
+          log.warn("Unable to store artifact streamed to client: {}", e.toString(), log.isDebugEnabled() ? e : null);
+          stored.completeExceptionally(e);
+        }
+      });
+    }
+    catch (RejectedExecutionException e) {
+      log.debug("Serving artifact without storing it", e);
+      stored.completeExceptionally(e);
+      pipe.sourceClosed();
+    }
+    return pipe.tee(remote.getContent(), remote.getContentLength());
+  }
+
+  /**
+   * The stored artifact, available once the remote content was read to its end and stored.
+   */
+  public Content getStored() throws IOException {
+    try {
+      return stored.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+    catch (ExecutionException e) {
+      throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+    }
+  }
+
+  public boolean isStored() {
+    return stored.isDone() && !stored.isCompletedExceptionally();
+  }
+}
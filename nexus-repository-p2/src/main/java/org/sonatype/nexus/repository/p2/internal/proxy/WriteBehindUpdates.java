@@ -0,0 +1,174 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.proxy;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import org.sonatype.goodies.common.ComponentSupport;
+import org.sonatype.nexus.repository.cache.CacheInfo;
+
+import com.codahale.metrics.Counter;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Gathers the download marks and cache info of cached assets in memory and writes them in batches, so serving and
+ * verifying cached content does not write to the database on every request.
+ *
+ * Updates of the same asset are merged until they are flushed, the most recent cache info wins.
+ *
+ * @since 1.1.14
+ */
+public class WriteBehindUpdates
+    extends ComponentSupport
+{
+  private static final int BATCH_SIZE = 500;
+
+  /**
+   * Writes a batch of updates by asset name.
+   */
+  @FunctionalInterface
+  public interface Flusher
+  {
+    void flush(Map<String, Update> updates) throws Exception;
+  }
+
+  /**
+   * The pending update of an asset.
+   */
+  public static final class Update
+  {
+    private static final Update DOWNLOADED = new Update(true, null);
+
+    private final boolean downloaded;
+
+    @Nullable
+    private final CacheInfo cacheInfo;
+
+    private Update(final boolean downloaded, @Nullable final CacheInfo cacheInfo) {
+      this.downloaded = downloaded;
+      this.cacheInfo = cacheInfo;
+    }
+
+    public boolean isDownloaded() {
+      return downloaded;
+    }
+
+    @Nullable
+    public CacheInfo getCacheInfo() {
+      return cacheInfo;
+    }
+
+    private Update merge(final Update other) {
+      return new Update(downloaded || other.downloaded, other.cacheInfo != null ? other.cacheInfo : cacheInfo);
+    }
+  }
+
+  private final ConcurrentMap<String, Update> pending = new ConcurrentHashMap<>();
+
+  private final Flusher flusher;
+
+  @Nullable
+  private final ScheduledExecutorService scheduler;
+
+  private final Counter flushed = new Counter();
+
+  private final Counter failures = new Counter();
+
+  public WriteBehindUpdates(final String name, final int intervalSeconds, final Flusher flusher) {
+    this(flusher, Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat(name + "-%d").build()));
+    scheduler.scheduleWithFixedDelay(this::flush, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+  }
+
+  @VisibleForTesting
+  WriteBehindUpdates(final Flusher flusher, @Nullable final ScheduledExecutorService scheduler) {
+    this.flusher = flusher;
+    this.scheduler = scheduler;
+  }
+
+  public void downloaded(final String assetName) {
+    pending.merge(assetName, Update.DOWNLOADED, Update::merge);
+  }
+
+  public void verified(final String assetName, final CacheInfo cacheInfo) {
+    pending.merge(assetName, new Update(false, cacheInfo), Update::merge);
+  }
+
+  /**
+   * The cache info of the asset which was not written yet.
+   */
+  public Optional<CacheInfo> getPendingCacheInfo(final String assetName) {
+    return Optional.ofNullable(pending.get(assetName)).map(Update::getCacheInfo);
+  }
+
+  public int getPending() {
+    return pending.size();
+  }
+
+  public Counter getFlushed() {
+    return flushed;
+  }
+
+  public Counter getFailures() {
+    return failures;
+  }
+
+  /**
+   * Write the pending updates. Updates of a batch which fails to be written are kept for the next flush.
+   */
+  public synchronized void flush() {
+    List<String> names = new ArrayList<>(pending.keySet());
+    for (int start = 0; start < names.size(); start += BATCH_SIZE) {
+      Map<String, Update> batch = new LinkedHashMap<>();
+      for (String name : names.subList(start, Math.min(start + BATCH_SIZE, names.size()))) {
+        Update update = pending.remove(name);
+        if (update != null) {
+          batch.put(name, update);
+        }
+      }
+      try {
+        flusher.flush(batch);
+        flushed.inc(batch.size());
+      }
+      catch (Exception e) {
+        failures.inc();
+        log.warn("Unable to write {} asset update(s), retrying with the next flush: {}", batch.size(), e.toString(),
+            log.isDebugEnabled() ? e : null);
+        // updates gathered meanwhile are more recent
+        batch.forEach((name, update) -> pending.merge(name, update, (newer, older) -> older.merge(newer)));
+      }
+    }
+  }
+
+  /**
+   * Stop flushing periodically and write the pending updates.
+   */
+  public void shutdown() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+    flush();
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.search;
+
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * The {@code p2Search} section of a p2 repository configuration, selecting what is search indexed. All settings are
+ * optional, an absent section indexes every component as it is stored.
+ *
+ * @since 1.1.14
+ */
+public class P2SearchConfig
+{
+  public static final String CONFIG_KEY = "p2Search";
+
+  public static final int DEFAULT_INDEX_BATCH_SIZE = 500;
+
+  /**
+   * Asset kinds not to index, e.g. {@code BINARY_BUNDLE}. A component is left out when all its assets are excluded.
+   */
+  @Nullable
+  public List<String> excludedAssetKinds;
+
+  /**
+   * Sites not to index, as site hashes or remote site URLs, e.g. nightly build sites.
+   */
+  @Nullable
+  public List<String> excludedSites;
+
+  /**
+   * Seconds to gather index updates before they are sent in batches, {@code 0} indexes every update at once.
+   */
+  @Nullable
+  public Integer indexBatchInterval;
+
+  /**
+   * Components indexed per batch, by batched updates and index rebuilds.
+   */
+  @Nullable
+  public Integer indexBatchSize;
+
+  public int indexBatchInterval() {
+    return indexBatchInterval != null ? indexBatchInterval : 0;
+  }
+
+  public int indexBatchSize() {
+    return indexBatchSize != null && indexBatchSize > 0 ? indexBatchSize : DEFAULT_INDEX_BATCH_SIZE;
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "{" +
+        "excludedAssetKinds=" + excludedAssetKinds +
+        ", excludedSites=" + excludedSites +
+        ", indexBatchInterval=" + indexBatchInterval +
+        ", indexBatchSize=" + indexBatchSize +
+        '}';
+  }
+}
@@ -0,0 +1,391 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.validation.groups.Default;
+
+import org.sonatype.nexus.common.entity.EntityId;
+import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.config.Configuration;
+import org.sonatype.nexus.repository.config.ConfigurationFacet;
+import org.sonatype.nexus.repository.p2.internal.P2Metrics;
+import org.sonatype.nexus.repository.search.ComponentMetadataProducer;
+import org.sonatype.nexus.repository.search.SearchFacet;
+import org.sonatype.nexus.repository.search.SearchFacetImpl;
+import org.sonatype.nexus.repository.search.index.SearchIndexService;
+import org.sonatype.nexus.repository.storage.Bucket;
+import org.sonatype.nexus.repository.storage.BucketEntityAdapter;
+import org.sonatype.nexus.repository.storage.Component;
+import org.sonatype.nexus.repository.storage.ComponentEntityAdapter;
+import org.sonatype.nexus.repository.storage.ComponentStore;
+import org.sonatype.nexus.repository.storage.StorageFacet;
+import org.sonatype.nexus.repository.storage.StorageTx;
+import org.sonatype.nexus.transaction.Transactional;
+import org.sonatype.nexus.transaction.UnitOfWork;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.eclipse.sisu.Typed;
+
+/**
+ * p2 {@link SearchFacet}, indexing components like the default search facet according to the {@link P2SearchConfig}
+ * of the repository.
+ *
+ * Components whose assets are all excluded by the {@link P2SearchIndexPolicy} are not indexed, and are removed from
+ * the fresh index when it is rebuilt. Index updates are gathered and sent in batches with a batch interval, for a
+ * short while after {@link #bulk()} is called by site warm-ups, or between {@link #openBulk()} and {@link #closeBulk()}
+ * around bulk operations like restores.
+ *
+ * @since 1.1.14
+ */
+@Named
+@Typed(P2SearchFacet.class)
+public class P2SearchFacet
+    extends SearchFacetImpl
+{
+  private static final String METRICS_GROUP = "search";
+
+  private static final long BULK_WINDOW_MILLIS = 10_000L;
+
+  private static final long BULK_FLUSH_INTERVAL_MILLIS = 1_000L;
+
+  private volatile P2SearchIndexPolicy policy = P2SearchIndexPolicy.INDEX_ALL;
+
+  private volatile int batchSize = P2SearchConfig.DEFAULT_INDEX_BATCH_SIZE;
+
+  private volatile boolean batching;
+
+  private volatile long bulkUntil;
+
+  private volatile boolean bulkOpen;
+
+  private volatile boolean rebuilding;
+
+  private final Set<EntityId> pending = new LinkedHashSet<>();
+
+  @Nullable
+  private ScheduledExecutorService scheduler;
+
+  private final Counter indexed = new Counter();
+
+  private final Counter excluded = new Counter();
+
+  private final Counter batches = new Counter();
+
+  @Inject
+  public P2SearchFacet(
+      final SearchIndexService searchIndexService,
+      final Map<String, ComponentMetadataProducer> componentMetadataProducers,
+      final ComponentEntityAdapter componentEntityAdapter,
+      final ComponentStore componentStore,
+      final BucketEntityAdapter bucketEntityAdapter)
+  {
+    super(searchIndexService, componentMetadataProducers, componentEntityAdapter, componentStore,
+        bucketEntityAdapter);
+  }
+
+  @Override
+  protected void doValidate(final Configuration configuration) throws Exception {
+    super.doValidate(configuration);
+    facet(ConfigurationFacet.class).validateSection(configuration, P2SearchConfig.CONFIG_KEY, P2SearchConfig.class,
+        Default.class, getRepository().getType().getValidationGroup());
+    P2SearchIndexPolicy.of(readConfig(configuration));
+  }
+
+  @Override
+  protected void doConfigure(final Configuration configuration) throws Exception {
+    super.doConfigure(configuration);
+    P2SearchConfig config = readConfig(configuration);
+    log.debug("p2 search config: {}", config);
+    policy = P2SearchIndexPolicy.of(config);
+    batchSize = config.indexBatchSize();
+    stopBatching();
+    if (config.indexBatchInterval() > 0) {
+      startBatching(TimeUnit.SECONDS.toMillis(config.indexBatchInterval()));
+      batching = true;
+    }
+  }
+
+  private P2SearchConfig readConfig(final Configuration configuration) {
+    return Optional.ofNullable(facet(ConfigurationFacet.class)
+        .readSection(configuration, P2SearchConfig.CONFIG_KEY, P2SearchConfig.class))
+        .orElseGet(P2SearchConfig::new);
+  }
+
+  @Override
+  protected void doStart() throws Exception {
+    super.doStart();
+    P2Metrics.register(getRepository(), METRICS_GROUP, "indexed", indexed);
+    P2Metrics.register(getRepository(), METRICS_GROUP, "excluded", excluded);
+    P2Metrics.register(getRepository(), METRICS_GROUP, "batches", batches);
+    P2Metrics.register(getRepository(), METRICS_GROUP, "pending", (Gauge<Integer>) this::getPending);
+  }
+
+  @Override
+  protected void doStop() throws Exception {
+    stopBatching();
+    P2Metrics.removeAll(getRepository(), METRICS_GROUP);
+    super.doStop();
+  }
+
+  @Override
+  protected void doDestroy() throws Exception {
+    stopBatching();
+    super.doDestroy();
+  }
+
+  private synchronized void startBatching(final long intervalMillis) {
+    if (scheduler == null) {
+      scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true)
+          .setNameFormat("p2-search-" + getRepository().getName() + "-%d").build());
+      scheduler.scheduleWithFixedDelay(this::flushGathered, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Send the gathered updates, stopping the scheduler once the bulk window closed and no batch interval is
+   * configured.
+   */
+  private void flushGathered() {
+    boolean closed = !isGathering();
+    flush();
+    if (closed) {
+      synchronized (this) {
+        // the window may have been opened again since
+        if (isGathering() || scheduler == null) {
+          return;
+        }
+        scheduler.shutdown();
+        scheduler = null;
+      }
+      // what was gathered while the window closed
+      flush();
+    }
+  }
+
+  /**
+   * Stop gathering updates, sending the pending ones.
+   */
+  private synchronized void stopBatching() {
+    batching = false;
+    bulkUntil = 0;
+    bulkOpen = false;
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+      scheduler = null;
+      flush();
+    }
+  }
+
+  /**
+   * Gather the index updates of the next seconds into batches, called by bulk operations as they store components.
+   */
+  public void bulk() {
+    bulkUntil = System.currentTimeMillis() + BULK_WINDOW_MILLIS;
+    startBatching(BULK_FLUSH_INTERVAL_MILLIS);
+  }
+
+  /**
+   * Gather the index updates of the repository into batches, if it is indexed by a {@link P2SearchFacet}.
+   */
+  public static void bulk(final Repository repository) {
+    of(repository).ifPresent(P2SearchFacet::bulk);
+  }
+
+  /**
+   * Gather the index updates into batches until {@link #closeBulk()} is called.
+   */
+  public void openBulk() {
+    bulkOpen = true;
+    startBatching(BULK_FLUSH_INTERVAL_MILLIS);
+  }
+
+  /**
+   * Stop gathering the index updates started by {@link #openBulk()}, sending the pending ones.
+   */
+  public void closeBulk() {
+    bulkOpen = false;
+    flush();
+  }
+
+  public static void openBulk(final Repository repository) {
+    of(repository).ifPresent(P2SearchFacet::openBulk);
+  }
+
+  public static void closeBulk(final Repository repository) {
+    of(repository).ifPresent(P2SearchFacet::closeBulk);
+  }
+
+  private static Optional<P2SearchFacet> of(final Repository repository) {
+    return repository.optionalFacet(SearchFacet.class)
+        .filter(P2SearchFacet.class::isInstance)
+        .map(P2SearchFacet.class::cast);
+  }
+
+  private boolean isGathering() {
+    return !rebuilding && (batching || bulkOpen || System.currentTimeMillis() < bulkUntil);
+  }
+
+  /**
+   * Rebuild the index of the repository into a fresh index, a page of components at a time. The pages are sent
+   * through {@link #bulkPut(Iterable)} right away, so the components excluded by the policy are left out.
+   */
+  @Override
+  public void rebuildIndex() {
+    rebuilding = true;
+    try {
+      super.rebuildIndex();
+    }
+    finally {
+      rebuilding = false;
+    }
+  }
+
+  @Override
+  public void put(final EntityId componentId) {
+    if (isGathering()) {
+      synchronized (pending) {
+        pending.add(componentId);
+      }
+    }
+    else if (policy.isIndexAll()) {
+      super.put(componentId);
+      indexed.inc();
+    }
+    else {
+      send(Collections.singletonList(componentId));
+    }
+  }
+
+  @Override
+  public void bulkPut(final Iterable<EntityId> componentIds) {
+    if (isGathering()) {
+      synchronized (pending) {
+        Iterables.addAll(pending, componentIds);
+      }
+      return;
+    }
+    send(Lists.newArrayList(componentIds));
+  }
+
+  @Override
+  public void delete(final EntityId componentId) {
+    synchronized (pending) {
+      pending.remove(componentId);
+    }
+    super.delete(componentId);
+  }
+
+  @Override
+  public void bulkDelete(final Iterable<EntityId> componentIds) {
+    List<EntityId> ids = Lists.newArrayList(componentIds);
+    synchronized (pending) {
+      pending.removeAll(ids);
+    }
+    super.bulkDelete(ids);
+  }
+
+  /**
+   * Send the gathered updates in batches.
+   */
+  public void flush() {
+    List<EntityId> componentIds;
+    synchronized (pending) {
+      componentIds = new ArrayList<>(pending);
+      pending.clear();
+    }
+    try {
+      Lists.partition(componentIds, batchSize).forEach(this::send);
+    }
+    catch (RuntimeException e) {
+      log.warn("Unable to index {} component(s) of p2 repository {}: {}", componentIds.size(),
+          getRepository().getName(), e.toString(), log.isDebugEnabled() ? e : null);
+    }
+  }
+
+  /**
+   * Index the components allowed by the policy.
+   */
+  private void send(final List<EntityId> componentIds) {
+    if (componentIds.isEmpty()) {
+      return;
+    }
+    List<EntityId> included = filter(componentIds);
+    index(included);
+    excluded.inc(componentIds.size() - included.size());
+  }
+
+  private void index(final List<EntityId> componentIds) {
+    if (!componentIds.isEmpty()) {
+      super.bulkPut(componentIds);
+      indexed.inc(componentIds.size());
+      batches.inc();
+    }
+  }
+
+  private List<EntityId> filter(final List<EntityId> componentIds) {
+    P2SearchIndexPolicy current = policy;
+    if (current.isIndexAll()) {
+      return componentIds;
+    }
+    return inTx(tx -> {
+      Bucket bucket = tx.findBucket(getRepository());
+      List<EntityId> included = new ArrayList<>(componentIds.size());
+      for (EntityId componentId : componentIds) {
+        Component component = tx.findComponentInBucket(componentId, bucket);
+        if (component == null || current.indexes(tx.browseAssets(component))) {
+          included.add(componentId);
+        }
+      }
+      return included;
+    });
+  }
+
+  private <T> T inTx(final TxFunction<T> function) {
+    return Transactional.operation.withDb(facet(StorageFacet.class).txSupplier())
+        .call(() -> function.apply(UnitOfWork.currentTx()));
+  }
+
+  @FunctionalInterface
+  private interface TxFunction<T>
+  {
+    T apply(StorageTx tx);
+  }
+
+  public P2SearchIndexPolicy getPolicy() {
+    return policy;
+  }
+
+  public int getPending() {
+    synchronized (pending) {
+      return pending.size();
+    }
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.search;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nullable;
+
+import org.sonatype.nexus.repository.p2.internal.AssetKind;
+import org.sonatype.nexus.repository.p2.internal.metadata.UriToSiteHashUtil;
+import org.sonatype.nexus.repository.storage.Asset;
+
+import static org.sonatype.nexus.repository.storage.AssetEntityAdapter.P_ASSET_KIND;
+
+/**
+ * Decides which components of a p2 repository are search indexed, from the kinds and sites of their assets.
+ *
+ * @since 1.1.14
+ */
+public class P2SearchIndexPolicy
+{
+  public static final P2SearchIndexPolicy INDEX_ALL =
+      new P2SearchIndexPolicy(Collections.emptySet(), Collections.emptySet());
+
+  private static final Pattern SITE_HASH = Pattern.compile("[0-9a-f]{64}");
+
+  private final Set<String> excludedAssetKinds;
+
+  private final Set<String> excludedSites;
+
+  private P2SearchIndexPolicy(final Set<String> excludedAssetKinds, final Set<String> excludedSites) {
+    this.excludedAssetKinds = excludedAssetKinds;
+    this.excludedSites = excludedSites;
+  }
+
+  /**
+   * The policy of the configuration, sites given by URL are mapped to their site hashes.
+   *
+   * @throws IllegalArgumentException if an asset kind is unknown
+   */
+  public static P2SearchIndexPolicy of(final P2SearchConfig config) {
+    Set<String> assetKinds = new HashSet<>();
+    if (config.excludedAssetKinds != null) {
+      for (String assetKind : config.excludedAssetKinds) {
+        assetKinds.add(assetKind(assetKind).name());
+      }
+    }
+    Set<String> sites = new HashSet<>();
+    if (config.excludedSites != null) {
+      for (String site : config.excludedSites) {
+        sites.add(SITE_HASH.matcher(site).matches() ? site : UriToSiteHashUtil.map(site));
+      }
+    }
+    return assetKinds.isEmpty() && sites.isEmpty() ? INDEX_ALL : new P2SearchIndexPolicy(assetKinds, sites);
+  }
+
+  private static AssetKind assetKind(final String name) {
+    try {
+      return AssetKind.valueOf(name);
+    }
+    catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Unknown p2 asset kind: " + name, e);
+    }
+  }
+
+  public boolean isIndexAll() {
+    return excludedAssetKinds.isEmpty() && excludedSites.isEmpty();
+  }
+
+  /**
+   * Whether the asset is excluded from the search index.
+   *
+   * @param path      the asset path, e.g. {@code <site hash>/plugins/org.example_1.0.0.jar}
+   * @param assetKind the name of the kind of the asset
+   */
+  public boolean excludes(final String path, @Nullable final String assetKind) {
+    if (assetKind != null && excludedAssetKinds.contains(assetKind)) {
+      return true;
+    }
+    int slash = path.indexOf('/');
+    return slash != -1 && excludedSites.contains(path.substring(0, slash));
+  }
+
+  /**
+   * Whether a component with the assets is indexed, which is unless all its assets are excluded. Components without
+   * assets are indexed.
+   */
+  public boolean indexes(final Iterable<Asset> assets) {
+    if (isIndexAll()) {
+      return true;
+    }
+    boolean empty = true;
+    for (Asset asset : assets) {
+      if (!excludes(asset.name(), asset.formatAttributes().get(P_ASSET_KIND, String.class))) {
+        return true;
+      }
+      empty = false;
+    }
+    return empty;
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "{" +
+        "excludedAssetKinds=" + excludedAssetKinds +
+        ", excludedSites=" + excludedSites +
+        '}';
+  }
+}
@@ -34,7 +34,12 @@ public class P2SearchMappings
     implements SearchMappings
 {
   private static final List<SearchMapping> MAPPINGS = ImmutableList.of(
-      new SearchMapping("p2.pluginName", "attributes.p2.pluginName", "p2 plugin name")
+      new SearchMapping("p2.pluginName", "attributes.p2.pluginName", "p2 plugin name"),
+      new SearchMapping("p2.symbolicName", "name", "p2 bundle symbolic name or feature id"),
+      new SearchMapping("p2.version", "version", "p2 bundle or feature version"),
+      new SearchMapping("p2.featureId", "attributes.p2.featureId", "p2 feature id"),
+      new SearchMapping("p2.providedPackages", "attributes.p2.providedPackages", "p2 exported java package"),
+      new SearchMapping("p2.assetKind", "assets.attributes.p2.asset_kind", "p2 asset kind")
   );
 
   @Override
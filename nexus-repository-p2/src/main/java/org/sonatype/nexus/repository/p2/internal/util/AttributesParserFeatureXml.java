@@ -13,6 +13,10 @@
 package org.sonatype.nexus.repository.p2.internal.util;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 import java.util.PropertyResourceBundle;
 import java.util.jar.JarEntry;
@@ -22,23 +26,17 @@ import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.sonatype.nexus.common.io.SafeXml;
 import org.sonatype.nexus.repository.p2.internal.exception.AttributeParsingException;
 import org.sonatype.nexus.repository.p2.internal.metadata.P2Attributes;
-import org.sonatype.nexus.repository.p2.internal.metadata.P2Attributes.Builder;
 import org.sonatype.nexus.repository.storage.TempBlob;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.xml.sax.SAXException;
-
-import static javax.xml.xpath.XPathConstants.NODE;
+import static javax.xml.stream.XMLStreamConstants.END_ELEMENT;
+import static javax.xml.stream.XMLStreamConstants.START_ELEMENT;
 
 /**
  * @since 1.0.0
@@ -48,91 +46,353 @@ import static javax.xml.xpath.XPathConstants.NODE;
 public class AttributesParserFeatureXml
     implements AttributesParser
 {
-  private static final String XML_VERSION_PATH = "feature/@version";
+  private static final String FEATURE_ELEMENT = "feature";
+
+  private static final String VERSION_ATTRIBUTE = "version";
+
+  private static final String PLUGIN_ATTRIBUTE = "plugin";
 
-  private static final String XML_PLUGIN_NAME_PATH = "feature/@plugin";
+  private static final String ID_ATTRIBUTE = "id";
 
-  private static final String XML_PLUGIN_ID_PATH = "feature/@id";
+  private static final String LABEL_ATTRIBUTE = "label";
 
-  private static final String XML_NAME_PATH = "feature/@label";
+  private static final String INCLUDES_ELEMENT = "includes";
 
-  private static final String XML_FILE_NAME = "feature.xml";
+  private static final String OPTIONAL_ATTRIBUTE = "optional";
 
-  private static final String FEATURE_PROPERTIES = "feature";
+  private static final String UNQUALIFIED_VERSION = "0.0.0";
 
-  private JarExtractor<Document> documentJarExtractor;
+  static final String XML_FILE_NAME = "feature.xml";
+
+  static final String FEATURE_PROPERTIES = "feature";
+
+  private JarExtractor<FeatureXml> featureJarExtractor;
 
   private PropertyParser propertyParser;
 
-  private final DocumentBuilderFactory documentBuilderFactory;
+  private final XMLInputFactory inputFactory;
 
   @Inject
-  public AttributesParserFeatureXml(final TempBlobConverter tempBlobConverter, final PropertyParser propertyParser) throws ParserConfigurationException {
+  public AttributesParserFeatureXml(final TempBlobConverter tempBlobConverter, final PropertyParser propertyParser) {
     this.propertyParser = propertyParser;
 
-    documentBuilderFactory = SafeXml.newdocumentBuilderFactory();
-    documentBuilderFactory.setValidating(false);
+    inputFactory = SafeXml.newXmlInputFactory();
 
-    documentJarExtractor = new JarExtractor<Document>(tempBlobConverter)
+    featureJarExtractor = new JarExtractor<FeatureXml>(tempBlobConverter)
     {
       @Override
-      protected Document createSpecificEntity(final JarInputStream jis, final JarEntry jarEntry)
+      protected FeatureXml createSpecificEntity(final JarInputStream jis, final JarEntry jarEntry)
           throws IOException, AttributeParsingException
       {
-        try {
-          return documentBuilderFactory.newDocumentBuilder().parse(jis);
+        return parseFeatureXml(jis);
+      }
+    };
+  }
+
+  /**
+   * Read the attributes of the root {@code feature} element of a feature.xml, the rest of the document is not read.
+   *
+   * @since 1.1.14
+   */
+  public FeatureXml parseFeatureXml(final InputStream in) throws AttributeParsingException {
+    XMLStreamReader reader = null;
+    try {
+      reader = inputFactory.createXMLStreamReader(in);
+      while (reader.hasNext()) {
+        if (reader.next() == START_ELEMENT) {
+          if (!FEATURE_ELEMENT.equals(reader.getLocalName())) {
+            return FeatureXml.EMPTY;
+          }
+          return new FeatureXml(
+              reader.getAttributeValue(null, ID_ATTRIBUTE),
+              reader.getAttributeValue(null, PLUGIN_ATTRIBUTE),
+              reader.getAttributeValue(null, LABEL_ATTRIBUTE),
+              reader.getAttributeValue(null, VERSION_ATTRIBUTE));
         }
-        catch (ParserConfigurationException | SAXException e) {
-          throw new AttributeParsingException(e);
+      }
+      return FeatureXml.EMPTY;
+    }
+    catch (XMLStreamException e) {
+      throw new AttributeParsingException(e);
+    }
+    finally {
+      close(reader);
+    }
+  }
+
+  /**
+   * Read the plugins and features included by the feature.xml in a feature jar, empty if the jar has no feature.xml.
+   *
+   * @since 1.1.14
+   */
+  public List<Inclusion> getInclusionsFromJar(final InputStream in) throws IOException, AttributeParsingException {
+    try (JarInputStream jis = new JarInputStream(in)) {
+      JarEntry jarEntry;
+      while ((jarEntry = jis.getNextJarEntry()) != null) {
+        if (jarEntry.getName().startsWith(XML_FILE_NAME)) {
+          return parseInclusions(jis);
         }
       }
-    };
+    }
+    return Collections.emptyList();
+  }
+
+  /**
+   * Read the {@code plugin} and {@code includes} elements of a feature.xml.
+   *
+   * @since 1.1.14
+   */
+  public List<Inclusion> parseInclusions(final InputStream in) throws AttributeParsingException {
+    List<Inclusion> inclusions = new ArrayList<>();
+    XMLStreamReader reader = null;
+    try {
+      reader = inputFactory.createXMLStreamReader(in);
+      int depth = 0;
+      while (reader.hasNext()) {
+        int event = reader.next();
+        if (event == END_ELEMENT) {
+          depth--;
+        }
+        else if (event == START_ELEMENT) {
+          depth++;
+          String element = reader.getLocalName();
+          if (depth == 1 && !FEATURE_ELEMENT.equals(element)) {
+            break;
+          }
+          if (depth == 2 && (PLUGIN_ATTRIBUTE.equals(element) || INCLUDES_ELEMENT.equals(element))) {
+            inclusions.add(new Inclusion(
+                INCLUDES_ELEMENT.equals(element),
+                reader.getAttributeValue(null, ID_ATTRIBUTE),
+                reader.getAttributeValue(null, VERSION_ATTRIBUTE),
+                reader.getAttributeValue(null, "os"),
+                reader.getAttributeValue(null, "ws"),
+                reader.getAttributeValue(null, "arch"),
+                reader.getAttributeValue(null, "filter"),
+                Boolean.parseBoolean(reader.getAttributeValue(null, OPTIONAL_ATTRIBUTE))));
+          }
+        }
+      }
+      return inclusions;
+    }
+    catch (XMLStreamException e) {
+      throw new AttributeParsingException(e);
+    }
+    finally {
+      close(reader);
+    }
   }
 
   @Override
   public P2Attributes getAttributesFromBlob(final TempBlob tempBlob, final String extension)
       throws IOException, AttributeParsingException
   {
-    Builder p2AttributesBuilder = P2Attributes.builder();
-    Optional<Document> featureXmlOpt = documentJarExtractor.getSpecificEntity(tempBlob, extension, XML_FILE_NAME);
+    Optional<FeatureXml> featureXmlOpt = featureJarExtractor.getSpecificEntity(tempBlob, extension, XML_FILE_NAME);
     Optional<PropertyResourceBundle> propertiesOpt =
         propertyParser.getBundleProperties(tempBlob, extension, FEATURE_PROPERTIES);
 
-    if (featureXmlOpt.isPresent()) {
-      Document document = featureXmlOpt.get();
-      String pluginId = extractValueFromDocument(XML_PLUGIN_NAME_PATH, document);
-      if (pluginId == null) {
-        pluginId = extractValueFromDocument(XML_PLUGIN_ID_PATH, document);
+    return featureXmlOpt.isPresent() ? getAttributesFromFeatureXml(featureXmlOpt.get(), propertiesOpt)
+        : P2Attributes.builder().build();
+  }
+
+  /**
+   * Extract the attributes from a parsed feature.xml, localized by the feature.properties.
+   *
+   * @since 1.1.14
+   */
+  public P2Attributes getAttributesFromFeatureXml(
+      final FeatureXml featureXml,
+      final Optional<PropertyResourceBundle> propertiesOpt)
+  {
+    String pluginId = featureXml.plugin;
+    if (pluginId == null) {
+      pluginId = featureXml.id;
+    }
+
+    String componentName = propertyParser.extractValueFromProperty(pluginId, propertiesOpt);
+    return P2Attributes.builder()
+        .componentName(componentName)
+        .pluginName(propertyParser.extractValueFromProperty(featureXml.label, propertiesOpt))
+        .componentVersion(featureXml.version)
+        .build();
+  }
+
+  private static void close(@Nullable final XMLStreamReader reader) {
+    try {
+      if (reader != null) {
+        reader.close();
       }
+    }
+    catch (Exception e) {
+      // do nothing
+    }
+  }
 
-      String componentName = propertyParser.extractValueFromProperty(pluginId, propertiesOpt);
-      p2AttributesBuilder
-          .componentName(componentName)
-          .pluginName(
-              propertyParser.extractValueFromProperty(extractValueFromDocument(XML_NAME_PATH, document), propertiesOpt))
-          .componentVersion(extractValueFromDocument(XML_VERSION_PATH, document));
+  /**
+   * The attributes of the root {@code feature} element of a feature.xml.
+   *
+   * @since 1.1.14
+   */
+  public static final class FeatureXml
+  {
+    static final FeatureXml EMPTY = new FeatureXml(null, null, null, null);
+
+    @Nullable
+    private final String id;
+
+    @Nullable
+    private final String plugin;
+
+    @Nullable
+    private final String label;
+
+    @Nullable
+    private final String version;
+
+    FeatureXml(
+        @Nullable final String id,
+        @Nullable final String plugin,
+        @Nullable final String label,
+        @Nullable final String version)
+    {
+      this.id = id;
+      this.plugin = plugin;
+      this.label = label;
+      this.version = version;
+    }
+
+    @Nullable
+    public String getId() {
+      return id;
+    }
+
+    @Nullable
+    public String getLabel() {
+      return label;
     }
 
-    return p2AttributesBuilder.build();
+    @Nullable
+    public String getVersion() {
+      return version;
+    }
   }
 
-  @Nullable
-  private String extractValueFromDocument(
-      final String path,
-      final Document from) throws AttributeParsingException
+  /**
+   * A plugin or feature included by a feature.xml, with the platforms it is included for.
+   *
+   * @since 1.1.14
+   */
+  public static final class Inclusion
   {
-    XPath xPath = XPathFactory.newInstance().newXPath();
-    Node node;
-    try {
-      node = (Node) xPath.evaluate(path, from, NODE);
+    private final boolean feature;
+
+    @Nullable
+    private final String id;
+
+    @Nullable
+    private final String version;
+
+    @Nullable
+    private final String os;
+
+    @Nullable
+    private final String ws;
+
+    @Nullable
+    private final String arch;
+
+    @Nullable
+    private final String filter;
+
+    private final boolean optional;
+
+    Inclusion(
+        final boolean feature,
+        @Nullable final String id,
+        @Nullable final String version,
+        @Nullable final String os,
+        @Nullable final String ws,
+        @Nullable final String arch,
+        @Nullable final String filter,
+        final boolean optional)
+    {
+      this.feature = feature;
+      this.id = id;
+      this.version = version;
+      this.os = os;
+      this.ws = ws;
+      this.arch = arch;
+      this.filter = filter;
+      this.optional = optional;
     }
-    catch (XPathExpressionException e) {
-      throw new AttributeParsingException(e);
+
+    /**
+     * Whether a feature rather than a plugin is included.
+     */
+    public boolean isFeature() {
+      return feature;
+    }
+
+    @Nullable
+    public String getId() {
+      return id;
+    }
+
+    @Nullable
+    public String getVersion() {
+      return version;
+    }
+
+    /**
+     * The comma separated operating systems the inclusion is limited to.
+     */
+    @Nullable
+    public String getOs() {
+      return os;
+    }
+
+    /**
+     * The comma separated windowing systems the inclusion is limited to.
+     */
+    @Nullable
+    public String getWs() {
+      return ws;
+    }
+
+    /**
+     * The comma separated architectures the inclusion is limited to.
+     */
+    @Nullable
+    public String getArch() {
+      return arch;
+    }
+
+    /**
+     * The LDAP filter of the platforms the inclusion is limited to.
+     */
+    @Nullable
+    public String getFilter() {
+      return filter;
     }
-    if (node != null) {
-      return node.getNodeValue();
+
+    public boolean isOptional() {
+      return optional;
     }
 
-    return null;
+    /**
+     * The path of the jar of the plugin or feature relative to the site, {@code null} when the inclusion does not
+     * name a qualified version.
+     */
+    @Nullable
+    public String getPath() {
+      if (id == null || id.isEmpty() || version == null || version.isEmpty() || UNQUALIFIED_VERSION.equals(version)) {
+        return null;
+      }
+      return (feature ? "features/" : "plugins/") + id + '_' + version + ".jar";
+    }
+
+    @Override
+    public String toString() {
+      return (feature ? "feature " : "plugin ") + id + '_' + version;
+    }
   }
 }
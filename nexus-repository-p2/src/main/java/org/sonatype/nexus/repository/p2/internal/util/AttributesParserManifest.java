@@ -13,20 +13,24 @@
 package org.sonatype.nexus.repository.p2.internal.util;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Optional;
 import java.util.PropertyResourceBundle;
+import java.util.Set;
 import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
 import java.util.jar.JarInputStream;
 import java.util.jar.Manifest;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
 import org.sonatype.nexus.repository.p2.internal.exception.AttributeParsingException;
 import org.sonatype.nexus.repository.p2.internal.metadata.P2Attributes;
-import org.sonatype.nexus.repository.p2.internal.metadata.P2Attributes.Builder;
 import org.sonatype.nexus.repository.storage.TempBlob;
 
 /**
@@ -37,7 +41,7 @@ import org.sonatype.nexus.repository.storage.TempBlob;
 public class AttributesParserManifest
     implements AttributesParser
 {
-  private static final String MANIFEST_FILE_PREFIX = "META-INF/";
+  static final String MANIFEST_FILE_PREFIX = "META-INF/";
 
   private static final String BUNDLE_PROPERTIES = "OSGI-INF/l10n/bundle";
 
@@ -66,27 +70,67 @@ public class AttributesParserManifest
   public P2Attributes getAttributesFromBlob(final TempBlob tempBlob, final String extension)
       throws IOException, AttributeParsingException
   {
-    Builder p2AttributesBuilder = P2Attributes.builder();
     Optional<Manifest> manifestJarEntity =
         manifestJarExtractor.getSpecificEntity(tempBlob, extension, MANIFEST_FILE_PREFIX);
     if (manifestJarEntity.isPresent()) {
-      Attributes mainManifestAttributes = manifestJarEntity.get().getMainAttributes();
-      String bundleLocalizationValue = mainManifestAttributes.getValue("Bundle-Localization");
       Optional<PropertyResourceBundle> propertiesOpt =
-          propertyParser.getBundleProperties(tempBlob, extension,
-              bundleLocalizationValue == null ? BUNDLE_PROPERTIES : bundleLocalizationValue);
-
-      p2AttributesBuilder
-          .componentName(normalizeName(propertyParser
-              .extractValueFromProperty(mainManifestAttributes.getValue("Bundle-SymbolicName"), propertiesOpt)))
-          .pluginName(
-              propertyParser.extractValueFromProperty(mainManifestAttributes.getValue("Bundle-Name"), propertiesOpt))
-          .componentVersion(
-              propertyParser
-                  .extractValueFromProperty(mainManifestAttributes.getValue("Bundle-Version"), propertiesOpt));
+          propertyParser.getBundleProperties(tempBlob, extension, getLocalization(manifestJarEntity.get()));
+      return getAttributesFromManifest(manifestJarEntity.get(), propertiesOpt);
     }
 
-    return p2AttributesBuilder.build();
+    return P2Attributes.builder().build();
+  }
+
+  /**
+   * The base name of the properties localizing the manifest.
+   *
+   * @since 1.1.14
+   */
+  public String getLocalization(final Manifest manifest) {
+    String bundleLocalizationValue = manifest.getMainAttributes().getValue("Bundle-Localization");
+    return bundleLocalizationValue == null ? BUNDLE_PROPERTIES : bundleLocalizationValue;
+  }
+
+  /**
+   * Extract the attributes from a manifest, localized by its bundle properties.
+   *
+   * @since 1.1.14
+   */
+  public P2Attributes getAttributesFromManifest(
+      final Manifest manifest,
+      final Optional<PropertyResourceBundle> propertiesOpt)
+  {
+    Attributes mainManifestAttributes = manifest.getMainAttributes();
+    return P2Attributes.builder()
+        .componentName(normalizeName(propertyParser
+            .extractValueFromProperty(mainManifestAttributes.getValue("Bundle-SymbolicName"), propertiesOpt)))
+        .pluginName(
+            propertyParser.extractValueFromProperty(mainManifestAttributes.getValue("Bundle-Name"), propertiesOpt))
+        .componentVersion(
+            propertyParser
+                .extractValueFromProperty(mainManifestAttributes.getValue("Bundle-Version"), propertiesOpt))
+        .providedPackages(exportedPackages(mainManifestAttributes.getValue("Export-Package")))
+        .build();
+  }
+
+  /**
+   * The names of the packages of an {@code Export-Package} header, without their versions and directives, e.g.
+   * {@code org.a;org.b;version="1.0";uses:="org.c,org.d",org.e} exports {@code org.a}, {@code org.b} and
+   * {@code org.e}.
+   *
+   * @since 1.1.14
+   */
+  static List<String> exportedPackages(@Nullable final String header) {
+    Set<String> packages = new LinkedHashSet<>();
+    for (ManifestHeader.Clause clause : ManifestHeader.parse(header)) {
+      for (String name : clause.getNames()) {
+        if (packages.size() == P2ComponentUtils.MAX_PROVIDED_PACKAGES) {
+          return new ArrayList<>(packages);
+        }
+        packages.add(name);
+      }
+    }
+    return new ArrayList<>(packages);
   }
 
   private String normalizeName(final String name) {
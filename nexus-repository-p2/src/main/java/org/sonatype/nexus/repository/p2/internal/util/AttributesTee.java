@@ -0,0 +1,64 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.sonatype.nexus.repository.p2.internal.metadata.P2Attributes;
+
+/**
+ * A stream of a bundle being stored along with the attributes extracted from it while it is read.
+ *
+ * @see P2TempBlobUtils#teeAttributes(InputStream, P2Attributes, java.util.concurrent.Executor)
+ * @since 1.1.14
+ */
+public class AttributesTee
+{
+  private final InputStream stream;
+
+  private final CompletableFuture<Optional<P2Attributes>> extracted;
+
+  AttributesTee(final InputStream stream, final CompletableFuture<Optional<P2Attributes>> extracted) {
+    this.stream = stream;
+    this.extracted = extracted;
+  }
+
+  /**
+   * The stream to store the bundle from.
+   */
+  public InputStream stream() {
+    return stream;
+  }
+
+  /**
+   * The attributes extracted from the bundle, available once the {@link #stream() stream} was read to its end; empty
+   * if they could not be extracted while streaming.
+   */
+  public Optional<P2Attributes> getAttributes() throws IOException {
+    try {
+      return extracted.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+    catch (ExecutionException e) {
+      return Optional.empty();
+    }
+  }
+}
@@ -0,0 +1,228 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded hand over of the bytes read from one stream to a consumer reading them on another thread.
+ *
+ * The {@link #tee(InputStream, long) tee} passes every chunk read on to the {@link #source() source}, holding the
+ * reader back only while the consumer falls behind. A failure of the teed stream, or closing it before its end, fails
+ * the source; once the consumer closed the source further chunks are dropped.
+ *
+ * @since 1.1.14
+ */
+public class ChunkPipe
+{
+  private static final int DEFAULT_CHUNKS = 64;
+
+  private static final long POLL_MILLIS = 100;
+
+  private static final byte[] END = new byte[0];
+
+  private final BlockingQueue<byte[]> queue;
+
+  private volatile IOException failure;
+
+  private volatile boolean sourceClosed;
+
+  public ChunkPipe() {
+    this(DEFAULT_CHUNKS);
+  }
+
+  public ChunkPipe(final int chunks) {
+    this.queue = new ArrayBlockingQueue<>(chunks);
+  }
+
+  /**
+   * Wrap the stream so all bytes read from it are passed on to the source.
+   *
+   * @param size the size of the stream if known, {@code -1} otherwise; a stream closed once this many bytes were read
+   *             is complete even when its end was not read
+   */
+  public InputStream tee(final InputStream in, final long size) {
+    return new TeeInputStream(in, size);
+  }
+
+  /**
+   * The stream of the bytes read from the tee, to be read on another thread than the tee.
+   */
+  public InputStream source() {
+    return new SourceInputStream();
+  }
+
+  /**
+   * The consumer stopped reading, e.g. because it found what it was looking for.
+   */
+  public void sourceClosed() {
+    sourceClosed = true;
+    queue.clear();
+  }
+
+  private void offer(final byte[] chunk) throws InterruptedIOException {
+    try {
+      while (!sourceClosed && !queue.offer(chunk, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+        // wait for the consumer to catch up
+      }
+    }
+    catch (InterruptedException e) {
+      fail(new InterruptedIOException());
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+  }
+
+  private void fail(final IOException e) {
+    failure = e;
+    queue.clear();
+  }
+
+  private class SourceInputStream
+      extends InputStream
+  {
+    private byte[] chunk;
+
+    private int position;
+
+    @Override
+    public int read() throws IOException {
+      byte[] single = new byte[1];
+      return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] buffer, final int off, final int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      while (chunk == null || position == chunk.length) {
+        if (chunk == END) {
+          return -1;
+        }
+        chunk = next();
+        position = 0;
+      }
+      int count = Math.min(len, chunk.length - position);
+      System.arraycopy(chunk, position, buffer, off, count);
+      position += count;
+      return count;
+    }
+
+    @Override
+    public void close() {
+      sourceClosed();
+    }
+
+    private byte[] next() throws IOException {
+      try {
+        while (true) {
+          byte[] next = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+          if (failure != null) {
+            throw new IOException("Teed stream failed", failure);
+          }
+          if (next != null) {
+            return next;
+          }
+        }
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+    }
+  }
+
+  private class TeeInputStream
+      extends FilterInputStream
+  {
+    private final long size;
+
+    private long count;
+
+    private boolean complete;
+
+    private TeeInputStream(final InputStream in, final long size) {
+      super(in);
+      this.size = size;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] single = new byte[1];
+      return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] buffer, final int off, final int len) throws IOException {
+      int read;
+      try {
+        read = super.read(buffer, off, len);
+      }
+      catch (IOException e) {
+        fail(e);
+        throw e;
+      }
+      if (read > 0) {
+        count += read;
+        offer(Arrays.copyOfRange(buffer, off, off + read));
+      }
+      else if (read < 0) {
+        complete();
+      }
+      return read;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+      // skipped bytes must still reach the source
+      byte[] buffer = new byte[(int) Math.min(n, 8192)];
+      return Math.max(read(buffer, 0, buffer.length), 0);
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        super.close();
+      }
+      finally {
+        // readers may stop once they received the announced size
+        if (size >= 0 && count == size) {
+          complete();
+        }
+        if (!complete) {
+          fail(new IOException("Teed stream closed before its end"));
+        }
+      }
+    }
+
+    private void complete() throws InterruptedIOException {
+      if (!complete) {
+        complete = true;
+        offer(END);
+      }
+    }
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.util;
+
+import java.util.Objects;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.sonatype.goodies.common.ComponentSupport;
+import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.p2.internal.metadata.InstallableUnitIndex.InstallableUnit;
+import org.sonatype.nexus.repository.p2.internal.metadata.InstallableUnitIndex.Key;
+import org.sonatype.nexus.repository.p2.internal.metadata.P2Attributes;
+import org.sonatype.nexus.repository.storage.StorageFacet;
+import org.sonatype.nexus.repository.storage.StorageTx;
+import org.sonatype.nexus.transaction.Transactional;
+import org.sonatype.nexus.transaction.UnitOfWork;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.stream.Collectors.toList;
+import static org.sonatype.nexus.repository.p2.internal.util.P2ComponentUtils.MAX_PROVIDED_PACKAGES;
+
+/**
+ * Derives the attributes of bundles and features from the {@link InstallableUnitIndexes installable unit index} of
+ * their site, so they need not be opened. Artifacts missing from the site metadata are left to jar parsing, as are
+ * the artifacts of a site whose index is not written yet.
+ *
+ * @since 1.1.14
+ */
+@Named
+@Singleton
+public class ContentMetadataAttributes
+    extends ComponentSupport
+{
+  private static final Pattern ARTIFACT_PATH = Pattern.compile("([0-9a-f]{64}/)?((features|plugins)/.+)");
+
+  private static final String PACKAGE_NAMESPACE = "java.package";
+
+  private final InstallableUnitIndexes installableUnitIndexes;
+
+  @Inject
+  public ContentMetadataAttributes(final InstallableUnitIndexes installableUnitIndexes) {
+    this.installableUnitIndexes = checkNotNull(installableUnitIndexes);
+  }
+
+  /**
+   * Merge the attributes the site metadata gives for the artifact at the path of the source attributes into them.
+   *
+   * @return empty if the site metadata is not cached, not indexed yet or does not list the artifact
+   */
+  public Optional<P2Attributes> mergeAttributes(final Repository repository, final P2Attributes source) {
+    return Transactional.operation.withDb(repository.facet(StorageFacet.class).txSupplier())
+        .call(() -> mergeAttributes(UnitOfWork.currentTx(), repository, source));
+  }
+
+  /**
+   * Merge the attributes the site metadata gives for the artifact at the path of the source attributes into them,
+   * within the transaction in progress.
+   *
+   * @return empty if the site metadata is not cached, not indexed yet or does not list the artifact
+   */
+  public Optional<P2Attributes> mergeAttributes(
+      final StorageTx tx,
+      final Repository repository,
+      final P2Attributes source)
+  {
+    String path = source.getPath();
+    Matcher matcher = path == null ? null : ARTIFACT_PATH.matcher(path);
+    if (matcher == null || !matcher.matches()) {
+      return Optional.empty();
+    }
+    String site = Optional.ofNullable(matcher.group(1)).orElse("");
+    String artifactPath = matcher.group(2);
+
+    Optional<P2Attributes> found = installableUnitIndexes.findIndex(tx, repository, site)
+        .flatMap(index -> index.findArtifact(artifactPath))
+        .flatMap(unit -> attributes(unit, artifactPath));
+    log.trace("Attributes of {} from site metadata: {}", path, found.isPresent());
+    return found.map(attributes -> P2Attributes.builder().merge(source, attributes).build());
+  }
+
+  private static Optional<P2Attributes> attributes(final InstallableUnit unit, final String artifactPath) {
+    return unit.getArtifacts().stream()
+        .filter(key -> key.isArtifactAt(artifactPath))
+        .findFirst()
+        .map(artifact -> P2Attributes.builder()
+            .componentName(artifact.getName())
+            .componentVersion(artifact.getVersion())
+            .pluginName(unit.getName())
+            .providedPackages(unit.getProvided().stream()
+                .filter(key -> PACKAGE_NAMESPACE.equals(key.getKind()))
+                .map(Key::getName)
+                .filter(Objects::nonNull)
+                .distinct()
+                .limit(MAX_PROVIDED_PACKAGES)
+                .collect(toList()))
+            .build());
+  }
+}
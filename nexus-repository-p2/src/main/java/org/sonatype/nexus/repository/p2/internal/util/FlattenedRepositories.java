@@ -0,0 +1,296 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.util;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.sonatype.goodies.common.ComponentSupport;
+import org.sonatype.nexus.common.app.ApplicationDirectories;
+import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.p2.internal.metadata.MetadataMerger;
+import org.sonatype.nexus.repository.p2.internal.metadata.MetadataMerger.Kind;
+import org.sonatype.nexus.repository.p2.internal.metadata.MetadataXml;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Keeps the metadata of the sites of a repository merged into a single repository, as {@code content.jar} and
+ * {@code artifacts.jar} in the work directory.
+ *
+ * The units or artifacts of a site are extracted again only once the version of its metadata changed, and the merged
+ * jar is written again only once the sites or their versions changed. The extracted units or artifacts of sites no
+ * longer merged are deleted.
+ *
+ * @since 1.1.14
+ */
+@Named
+@Singleton
+public class FlattenedRepositories
+    extends ComponentSupport
+{
+  static final String DIRECTORY = "flattened";
+
+  private static final String ROOT_SITE = "root";
+
+  private final Path directory;
+
+  private final Map<String, Merged> merged = new ConcurrentHashMap<>();
+
+  private final Map<String, Object> locks = new ConcurrentHashMap<>();
+
+  /**
+   * The metadata of a site to merge.
+   */
+  public interface Source
+  {
+    /**
+     * The site hash followed by {@code /}, or empty for the root site.
+     */
+    String getSite();
+
+    /**
+     * The name of the metadata asset, e.g. {@code 0123.../content.jar}.
+     */
+    String getName();
+
+    /**
+     * The version of the metadata, e.g. its SHA-1 or last modified time.
+     */
+    String getVersion();
+
+    InputStream openInputStream() throws IOException;
+  }
+
+  @Inject
+  public FlattenedRepositories(final ApplicationDirectories directories) {
+    this(new File(directories.getWorkDirectory("p2"), DIRECTORY).toPath());
+  }
+
+  @VisibleForTesting
+  FlattenedRepositories(final Path directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * The metadata of the sources merged into a single repository.
+   */
+  public Merged merge(final Repository repository, final Kind kind, final List<Source> sources) throws IOException {
+    String key = repository.getName() + '/' + kind;
+    String digest = digest(kind, sources);
+    Merged current = merged.get(key);
+    if (current != null && current.digest.equals(digest)) {
+      return current;
+    }
+
+    synchronized (locks.computeIfAbsent(key, k -> new Object())) {
+      current = merged.get(key);
+      if (current != null && current.digest.equals(digest)) {
+        return current;
+      }
+      Path kindDirectory = directory.resolve(repository.getName()).resolve(kind.name().toLowerCase(Locale.ENGLISH));
+      Files.createDirectories(kindDirectory);
+      Map<String, Path> fragments = new LinkedHashMap<>();
+      for (Source source : sources) {
+        fragments.put(source.getSite(), fragment(kindDirectory, kind, source));
+      }
+
+      // named by digest, so content still being served from the previous jar is not replaced underneath
+      Path file = kindDirectory.resolve(jarName(kind, digest));
+      Path temp = Files.createTempFile(kindDirectory, file.getFileName().toString(), ".tmp");
+      Map<String, String> owners;
+      try {
+        try (JarOutputStream jar = new JarOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+          jar.putNextEntry(new JarEntry(kind.getFileName()));
+          owners = MetadataMerger.merge(kind, repository.getName(), System.currentTimeMillis(), fragments, jar);
+          jar.closeEntry();
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      }
+      finally {
+        Files.deleteIfExists(temp);
+      }
+      Merged previous = current;
+      current = new Merged(file, Files.size(file), digest, owners);
+      merged.put(key, current);
+      deleteJars(kindDirectory, kind, file, previous == null ? null : previous.file);
+      deleteFragments(kindDirectory, fragments.values());
+      log.debug("Merged {} site(s) of {} into {} with {} element(s)", sources.size(), repository.getName(), file,
+          owners.size());
+      return current;
+    }
+  }
+
+  /**
+   * Forget the merged metadata of the repository and delete its files.
+   */
+  public void delete(final Repository repository) {
+    String prefix = repository.getName() + '/';
+    merged.keySet().removeIf(key -> key.startsWith(prefix));
+    Path repositoryDirectory = directory.resolve(repository.getName());
+    if (!Files.isDirectory(repositoryDirectory)) {
+      return;
+    }
+    try (Stream<Path> files = Files.walk(repositoryDirectory)) {
+      files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+    catch (IOException e) {
+      log.warn("Unable to delete merged metadata of {}: {}", repository.getName(), e.toString());
+    }
+  }
+
+  private Path fragment(final Path kindDirectory, final Kind kind, final Source source) throws IOException {
+    String site = source.getSite();
+    Path file = kindDirectory.resolve((site.isEmpty() ? ROOT_SITE : site.substring(0, site.length() - 1)) + ".frag");
+    // the sites of group members are nested in a directory per member
+    Files.createDirectories(file.getParent());
+    String version = source.getVersion();
+    if (MetadataMerger.readFragmentVersion(file).filter(version::equals).isPresent()) {
+      return file;
+    }
+    try (InputStream in = MetadataXml.openMetadataXml(source.getName(), kind.getFileName(),
+        source.openInputStream())) {
+      int count = MetadataMerger.writeFragment(kind, in, version, file);
+      log.debug("Extracted {} element(s) of {}", count, source.getName());
+    }
+    return file;
+  }
+
+  @SuppressWarnings("deprecation")
+  private static String digest(final Kind kind, final List<Source> sources) {
+    Hasher hasher = Hashing.sha1().newHasher().putString(kind.name(), StandardCharsets.UTF_8);
+    for (Source source : sources) {
+      hasher.putString(source.getSite(), StandardCharsets.UTF_8).putByte((byte) 0)
+          .putString(source.getVersion(), StandardCharsets.UTF_8).putByte((byte) 0);
+    }
+    return hasher.hash().toString();
+  }
+
+  private static String jarName(final Kind kind, final String digest) {
+    return jarPrefix(kind) + digest + ".jar";
+  }
+
+  private static String jarPrefix(final Kind kind) {
+    String fileName = kind.getFileName();
+    return fileName.substring(0, fileName.lastIndexOf('.')) + '-';
+  }
+
+  /**
+   * Delete the jars merged before other than the current and the previous one.
+   */
+  private void deleteJars(
+      final Path kindDirectory,
+      final Kind kind,
+      final Path current,
+      @Nullable final Path previous)
+  {
+    try (Stream<Path> files = Files.list(kindDirectory)) {
+      files.filter(path -> path.getFileName().toString().startsWith(jarPrefix(kind)))
+          .filter(path -> path.getFileName().toString().endsWith(".jar"))
+          .filter(path -> !path.equals(current) && !path.equals(previous))
+          .forEach(path -> path.toFile().delete());
+    }
+    catch (IOException e) {
+      log.debug("Unable to delete merged metadata in {}: {}", kindDirectory, e.toString());
+    }
+  }
+
+  /**
+   * Delete the fragments of the sites which were not merged, e.g. sites removed from the composite.
+   */
+  private void deleteFragments(final Path kindDirectory, final Collection<Path> merged) {
+    try (Stream<Path> files = Files.walk(kindDirectory)) {
+      files.filter(path -> path.getFileName().toString().endsWith(".frag"))
+          .filter(path -> !merged.contains(path))
+          .forEach(path -> path.toFile().delete());
+    }
+    catch (IOException e) {
+      log.debug("Unable to delete fragments in {}: {}", kindDirectory, e.toString());
+    }
+  }
+
+  /**
+   * A merged repository.
+   */
+  public static final class Merged
+  {
+    private final Path file;
+
+    private final long size;
+
+    private final String digest;
+
+    private final Map<String, String> owners;
+
+    Merged(final Path file, final long size, final String digest, final Map<String, String> owners) {
+      this.file = file;
+      this.size = size;
+      this.digest = digest;
+      this.owners = ImmutableMap.copyOf(owners);
+    }
+
+    /**
+     * The jar of the merged metadata.
+     */
+    public Path getFile() {
+      return file;
+    }
+
+    public long getSize() {
+      return size;
+    }
+
+    /**
+     * Identifies the sites and versions the repository was merged from.
+     */
+    public String getDigest() {
+      return digest;
+    }
+
+    /**
+     * The site the unit ({@code id/version}) or artifact ({@code classifier/id/version}) was taken from, if any.
+     */
+    public Optional<String> getSite(final String key) {
+      return Optional.ofNullable(owners.get(key));
+    }
+
+    public int size() {
+      return owners.size();
+    }
+  }
+}
@@ -0,0 +1,469 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.sonatype.goodies.common.ComponentSupport;
+import org.sonatype.nexus.blobstore.api.Blob;
+import org.sonatype.nexus.common.app.ApplicationDirectories;
+import org.sonatype.nexus.common.event.EventAware;
+import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.p2.P2Facet;
+import org.sonatype.nexus.repository.p2.internal.AssetKind;
+import org.sonatype.nexus.repository.p2.internal.P2Format;
+import org.sonatype.nexus.repository.p2.internal.metadata.InstallableUnitIndex;
+import org.sonatype.nexus.repository.p2.internal.metadata.MetadataXml;
+import org.sonatype.nexus.repository.storage.Asset;
+import org.sonatype.nexus.repository.storage.AssetCreatedEvent;
+import org.sonatype.nexus.repository.storage.AssetDeletedEvent;
+import org.sonatype.nexus.repository.storage.AssetEvent;
+import org.sonatype.nexus.repository.storage.Bucket;
+import org.sonatype.nexus.repository.storage.Query;
+import org.sonatype.nexus.repository.storage.StorageFacet;
+import org.sonatype.nexus.repository.storage.StorageTx;
+import org.sonatype.nexus.transaction.Transactional;
+import org.sonatype.nexus.transaction.UnitOfWork;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.eventbus.AllowConcurrentEvents;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import static com.google.common.collect.Streams.stream;
+import static java.util.stream.Collectors.toCollection;
+import static org.sonatype.nexus.common.hash.HashAlgorithm.SHA1;
+import static org.sonatype.nexus.repository.storage.AssetEntityAdapter.P_ASSET_KIND;
+import static org.sonatype.nexus.repository.storage.MetadataNodeEntityAdapter.P_ATTRIBUTES;
+import static org.sonatype.nexus.repository.storage.MetadataNodeEntityAdapter.P_NAME;
+
+/**
+ * Keeps an {@link InstallableUnitIndex} of the {@code content.xml} cached for each site of a repository, in the work
+ * directory.
+ *
+ * An index is written the first time it is asked for and again once the cached metadata of the site changed, it is
+ * otherwise opened from the file written before. Each version of the metadata is written to a file of its own, the
+ * index of the version replaced is closed before its file is deleted, and only the most recently used indexes are
+ * kept open. The sites with content metadata are found once per repository and then tracked from the content
+ * metadata stored, and the indexes the REST API asks for are written in the background so a request does not wait
+ * on parsing a {@code content.xml}.
+ *
+ * @since 1.1.14
+ */
+@Named
+@Singleton
+public class InstallableUnitIndexes
+    extends ComponentSupport
+    implements EventAware
+{
+  static final String DIRECTORY = "iu-index";
+
+  private static final List<String> CONTENT_METADATA_NAMES =
+      ImmutableList.of("content.jar", "content.xml.xz", "content.xml");
+
+  private static final String ROOT_SITE = "root";
+
+  private static final int INDEX_THREADS = 2;
+
+  private static final int MAX_INDEXES = 64;
+
+  private static final String INDEX_EXTENSION = ".idx";
+
+  private final Path directory;
+
+  /**
+   * The indexes open by site, those evicted are left for the garbage collector to unmap as they may still be read.
+   */
+  private final Cache<String, InstallableUnitIndex> indexes = CacheBuilder.newBuilder()
+      .maximumSize(MAX_INDEXES)
+      .build();
+
+  private final Map<String, Object> locks = new ConcurrentHashMap<>();
+
+  /**
+   * The sites with content metadata by repository, once they were found.
+   */
+  private final Map<String, NavigableSet<String>> sites = new ConcurrentHashMap<>();
+
+  /**
+   * The version of the content metadata of a site which could not be indexed, so it is not indexed again and again.
+   */
+  private final Map<String, String> failed = new ConcurrentHashMap<>();
+
+  private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+  private final ThreadPoolExecutor executor;
+
+  @Inject
+  public InstallableUnitIndexes(final ApplicationDirectories directories) {
+    this(new File(directories.getWorkDirectory("p2"), DIRECTORY).toPath());
+  }
+
+  @VisibleForTesting
+  InstallableUnitIndexes(final Path directory) {
+    this.directory = directory;
+    this.executor = new ThreadPoolExecutor(INDEX_THREADS, INDEX_THREADS, 60L, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(),
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("p2-iu-index-%d").build());
+    this.executor.allowCoreThreadTimeOut(true);
+  }
+
+  @Subscribe
+  @AllowConcurrentEvents
+  public void on(final AssetCreatedEvent event) {
+    if (isContentMetadata(event)) {
+      String site = site(event.getAsset().name());
+      sites.computeIfPresent(event.getRepositoryName(), (name, repositorySites) -> {
+        repositorySites.add(site);
+        return repositorySites;
+      });
+    }
+  }
+
+  /**
+   * Find the sites again once content metadata was deleted, as a site may still have content metadata of another
+   * name.
+   */
+  @Subscribe
+  @AllowConcurrentEvents
+  public void on(final AssetDeletedEvent event) {
+    if (isContentMetadata(event)) {
+      sites.remove(event.getRepositoryName());
+    }
+  }
+
+  private static boolean isContentMetadata(final AssetEvent event) {
+    return P2Format.NAME.equals(event.getAsset().format())
+        && AssetKind.CONTENT_METADATA.name().equals(event.getAsset().formatAttributes().get(P_ASSET_KIND));
+  }
+
+  /**
+   * The index of the metadata cached for the site of the repository if it was written already, else it is written
+   * in the background.
+   *
+   * @param site the site hash followed by {@code /}, or empty for the root site
+   * @return empty if no content metadata is cached for the site, it cannot be indexed, or its index is not written
+   * yet
+   * @see #isIndexing(Repository, String)
+   */
+  public Optional<InstallableUnitIndex> findIndex(final Repository repository, final String site) {
+    return Transactional.operation.withDb(repository.facet(StorageFacet.class).txSupplier())
+        .call(() -> findIndex(UnitOfWork.currentTx(), repository, site));
+  }
+
+  /**
+   * The index of the metadata cached for the site of the repository if it was written already, else it is written
+   * in the background, looking the metadata up within the transaction in progress.
+   *
+   * @param site the site hash followed by {@code /}, or empty for the root site
+   * @return empty if no content metadata is cached for the site, it cannot be indexed, or its index is not written
+   * yet
+   */
+  public Optional<InstallableUnitIndex> findIndex(
+      final StorageTx tx,
+      final Repository repository,
+      final String site)
+  {
+    Optional<String> version = findVersion(tx, repository, site);
+    if (!version.isPresent()) {
+      return Optional.empty();
+    }
+    String key = key(repository, site);
+    InstallableUnitIndex index = indexes.getIfPresent(key);
+    if (index != null && index.getVersion().equals(version.get())) {
+      return Optional.of(index);
+    }
+    if (version.get().equals(failed.get(key))) {
+      return Optional.empty();
+    }
+    try {
+      Optional<InstallableUnitIndex> written =
+          InstallableUnitIndex.open(file(repository, site, version.get()), version.get());
+      if (written.isPresent()) {
+        cache(key, written.get());
+        return written;
+      }
+    }
+    catch (IOException e) {
+      log.debug("Unable to open the index of {} in {}: {}", site, repository.getName(), e.toString());
+    }
+    if (pending.add(key)) {
+      try {
+        executor.execute(() -> {
+          try {
+            getIndex(repository, site);
+          }
+          finally {
+            pending.remove(key);
+          }
+        });
+      }
+      catch (RejectedExecutionException e) {
+        pending.remove(key);
+      }
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * Whether the index of the site is being written in the background.
+   */
+  public boolean isIndexing(final Repository repository, final String site) {
+    return pending.contains(key(repository, site));
+  }
+
+  /**
+   * The index of the metadata cached for the site of the repository.
+   *
+   * @param site the site hash followed by {@code /}, or empty for the root site
+   * @return empty if no content metadata is cached for the site or it cannot be indexed
+   */
+  public Optional<InstallableUnitIndex> getIndex(final Repository repository, final String site) {
+    Optional<Metadata> metadata = findMetadata(repository, site);
+    if (!metadata.isPresent()) {
+      return Optional.empty();
+    }
+    String key = key(repository, site);
+    String version = metadata.get().version;
+    InstallableUnitIndex index = indexes.getIfPresent(key);
+    if (index != null && index.getVersion().equals(version)) {
+      return Optional.of(index);
+    }
+
+    synchronized (locks.computeIfAbsent(key, k -> new Object())) {
+      index = indexes.getIfPresent(key);
+      if (index != null && index.getVersion().equals(version)) {
+        return Optional.of(index);
+      }
+      Path file = file(repository, site, version);
+      try {
+        index = InstallableUnitIndex.open(file, version).orElse(null);
+        if (index == null) {
+          index = write(metadata.get(), file);
+          log.debug("Indexed {} installable unit(s) of {}{} in {}", index.size(), site, metadata.get().name,
+              repository.getName());
+        }
+        cache(key, index);
+        failed.remove(key);
+        deleteOtherVersions(file);
+        return Optional.of(index);
+      }
+      catch (IOException | RuntimeException e) {
+        failed.put(key, version);
+        log.warn("Unable to index {}{} in {}: {}", site, metadata.get().name, repository.getName(), e.toString(),
+            log.isDebugEnabled() ? e : null);
+        return Optional.empty();
+      }
+    }
+  }
+
+  /**
+   * The sites of the repository with cached content metadata, as site hashes followed by {@code /} and empty for the
+   * root site, in order.
+   */
+  public List<String> findSites(final Repository repository) {
+    return new ArrayList<>(sites.computeIfAbsent(repository.getName(), name -> querySites(repository)));
+  }
+
+  /**
+   * Queries the sites the first time they are asked for, they are tracked from the events of the content metadata
+   * afterwards.
+   */
+  private static NavigableSet<String> querySites(final Repository repository) {
+    return Transactional.operation.withDb(repository.facet(StorageFacet.class).txSupplier()).call(() -> {
+      StorageTx tx = UnitOfWork.currentTx();
+      Query query = Query.builder()
+          .where(P_ATTRIBUTES + '.' + P2Format.NAME + '.' + P_ASSET_KIND).eq(AssetKind.CONTENT_METADATA.name())
+          .build();
+      return stream(tx.findAssets(query, Collections.singleton(repository)))
+          .map(Asset::name)
+          .map(InstallableUnitIndexes::site)
+          .collect(toCollection(ConcurrentSkipListSet::new));
+    });
+  }
+
+  /**
+   * Cache the index of the site, closing the index of another version it replaces so its file can be deleted.
+   */
+  private void cache(final String key, final InstallableUnitIndex index) {
+    InstallableUnitIndex replaced = indexes.asMap().put(key, index);
+    if (replaced != null && !replaced.getVersion().equals(index.getVersion())) {
+      replaced.close();
+    }
+  }
+
+  /**
+   * Delete the files of the other versions of the index, those still mapped are deleted once it is written again.
+   */
+  private void deleteOtherVersions(final Path file) {
+    String fileName = file.getFileName().toString();
+    String prefix = fileName.substring(0, fileName.indexOf('.') + 1);
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(file.getParent(), prefix + "*" + INDEX_EXTENSION)) {
+      for (Path other : files) {
+        if (!other.equals(file)) {
+          try {
+            Files.deleteIfExists(other);
+          }
+          catch (IOException e) {
+            log.debug("Unable to delete the installable unit index {}: {}", other, e.toString());
+          }
+        }
+      }
+    }
+    catch (IOException e) {
+      log.debug("Unable to list the installable unit indexes of {}: {}", file.getParent(), e.toString());
+    }
+  }
+
+  /**
+   * Forget the indexes of the repository, closing them, and delete their files.
+   */
+  public void delete(final Repository repository) {
+    String prefix = repository.getName() + '/';
+    indexes.asMap().entrySet().removeIf(entry -> {
+      if (entry.getKey().startsWith(prefix)) {
+        entry.getValue().close();
+        return true;
+      }
+      return false;
+    });
+    failed.keySet().removeIf(key -> key.startsWith(prefix));
+    sites.remove(repository.getName());
+    Path repositoryDirectory = directory.resolve(repository.getName());
+    if (!Files.isDirectory(repositoryDirectory)) {
+      return;
+    }
+    try (Stream<Path> files = Files.walk(repositoryDirectory)) {
+      files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+    catch (IOException e) {
+      log.warn("Unable to delete installable unit indexes of {}: {}", repository.getName(), e.toString());
+    }
+  }
+
+  private static String key(final Repository repository, final String site) {
+    return repository.getName() + '/' + site;
+  }
+
+  private static String site(final String path) {
+    return path.substring(0, path.lastIndexOf('/') + 1);
+  }
+
+  /**
+   * The file of the index of the version of the site metadata, as {@code <site>.<version>.idx}.
+   */
+  @VisibleForTesting
+  Path file(final Repository repository, final String site, final String version) {
+    String name = site.isEmpty() ? ROOT_SITE : site.substring(0, site.length() - 1);
+    return directory.resolve(repository.getName())
+        .resolve(name + '.' + version.replaceAll("[^A-Za-z0-9_-]", "_") + INDEX_EXTENSION);
+  }
+
+  private static InstallableUnitIndex write(final Metadata metadata, final Path file) throws IOException {
+    try (InputStream contentXml = MetadataXml.openContentXml(metadata.name, metadata.blob.getInputStream())) {
+      return InstallableUnitIndex.write(contentXml, file, metadata.version);
+    }
+  }
+
+  /**
+   * The version of the content metadata cached for the site, without reading it.
+   */
+  private static Optional<String> findVersion(final StorageTx tx, final Repository repository, final String site) {
+    Bucket bucket = tx.findBucket(repository);
+    for (String name : CONTENT_METADATA_NAMES) {
+      Asset asset = findAsset(tx, repository, bucket, site + name);
+      if (asset != null && asset.blobRef() != null) {
+        return Optional.of(version(asset));
+      }
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * Find the asset through the {@link P2Facet} of the repository, so its lookup cache is used.
+   */
+  @Nullable
+  private static Asset findAsset(
+      final StorageTx tx,
+      final Repository repository,
+      final Bucket bucket,
+      final String name)
+  {
+    Optional<P2Facet> p2Facet = repository.optionalFacet(P2Facet.class);
+    return p2Facet.isPresent() ? p2Facet.get().findAsset(tx, bucket, name)
+        : tx.findAssetWithProperty(P_NAME, name, bucket);
+  }
+
+  private static String version(final Asset asset) {
+    return Optional.ofNullable(asset.getChecksum(SHA1)).map(HashCode::toString)
+        .orElse(asset.requireBlobRef().toString());
+  }
+
+  private static Optional<Metadata> findMetadata(final Repository repository, final String site) {
+    return Transactional.operation.withDb(repository.facet(StorageFacet.class).txSupplier()).call(() -> {
+      StorageTx tx = UnitOfWork.currentTx();
+      Bucket bucket = tx.findBucket(repository);
+      for (String name : CONTENT_METADATA_NAMES) {
+        Asset asset = findAsset(tx, repository, bucket, site + name);
+        if (asset != null && asset.blobRef() != null) {
+          return Optional.of(new Metadata(name, version(asset), tx.requireBlob(asset.requireBlobRef())));
+        }
+      }
+      return Optional.empty();
+    });
+  }
+
+  private static class Metadata
+  {
+    private final String name;
+
+    private final String version;
+
+    private final Blob blob;
+
+    private Metadata(final String name, final String version, final Blob blob) {
+      this.name = name;
+      this.version = version;
+      this.blob = blob;
+    }
+  }
+}
@@ -0,0 +1,517 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarInputStream;
+import java.util.jar.Manifest;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.sonatype.goodies.common.ComponentSupport;
+import org.sonatype.nexus.repository.p2.internal.exception.AttributeParsingException;
+import org.sonatype.nexus.repository.p2.internal.util.AttributesParserFeatureXml.FeatureXml;
+import org.sonatype.nexus.repository.p2.internal.util.AttributesParserFeatureXml.Inclusion;
+import org.sonatype.nexus.repository.p2.internal.util.ManifestHeader.Clause;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Generates the installable units and artifact descriptors of a plugin, feature or binary, the way the p2 publisher
+ * does for a simple repository, so uploaded jars can be installed from a hosted repository.
+ *
+ * Bundles publish their symbolic name, exported packages, imported packages, required bundles and fragment host.
+ * Features publish their group and jar units, the group requiring the included plugins and features; requirements of
+ * features besides their inclusions are not published.
+ *
+ * @since 1.1.14
+ */
+@Named
+@Singleton
+public class InstallableUnitPublisher
+    extends ComponentSupport
+{
+  public static final String BUNDLE_CLASSIFIER = "osgi.bundle";
+
+  public static final String FEATURE_CLASSIFIER = "org.eclipse.update.feature";
+
+  public static final String BINARY_CLASSIFIER = "binary";
+
+  private static final String IU_NAMESPACE = "org.eclipse.equinox.p2.iu";
+
+  private static final String PACKAGE_NAMESPACE = "java.package";
+
+  private static final String TYPE_NAMESPACE = "org.eclipse.equinox.p2.eclipse.type";
+
+  private static final String NAME_PROPERTY = "org.eclipse.equinox.p2.name";
+
+  private static final String GROUP_SUFFIX = ".feature.group";
+
+  private static final String JAR_SUFFIX = ".feature.jar";
+
+  private static final String FEATURE_JAR_FILTER = "(org.eclipse.update.install.features=true)";
+
+  private static final String DEFAULT_VERSION = "0.0.0";
+
+  private static final int MAX_FEATURE_XML_SIZE = 16 * 1024 * 1024;
+
+  private final AttributesParserFeatureXml featureXmlParser;
+
+  @Inject
+  public InstallableUnitPublisher(final AttributesParserFeatureXml featureXmlParser) {
+    this.featureXmlParser = checkNotNull(featureXmlParser);
+  }
+
+  /**
+   * Publish a plugin or feature jar, empty if the jar has no bundle manifest or feature.xml respectively.
+   *
+   * @param name the human readable name of the plugin or feature, if known
+   */
+  public Optional<Published> publishJar(
+      final InputStream in,
+      final boolean feature,
+      final long size,
+      @Nullable final String name) throws IOException, AttributeParsingException
+  {
+    try (JarInputStream jis = new JarInputStream(in)) {
+      if (!feature && jis.getManifest() != null) {
+        return publishBundle(jis.getManifest(), size, name);
+      }
+      JarEntry jarEntry;
+      while ((jarEntry = jis.getNextJarEntry()) != null) {
+        if (feature && jarEntry.getName().equals(AttributesParserFeatureXml.XML_FILE_NAME)) {
+          byte[] featureXml = ByteStreams.toByteArray(ByteStreams.limit(jis, MAX_FEATURE_XML_SIZE));
+          return publishFeature(featureXmlParser.parseFeatureXml(new ByteArrayInputStream(featureXml)),
+              featureXmlParser.parseInclusions(new ByteArrayInputStream(featureXml)), size, name);
+        }
+        if (!feature && jarEntry.getName().equalsIgnoreCase(JarFile.MANIFEST_NAME)) {
+          return publishBundle(new Manifest(jis), size, name);
+        }
+      }
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * Publish a binary, which has an artifact but no unit of its own.
+   */
+  public Published publishBinary(final String id, final String version, final long size) throws IOException {
+    return new Published(id, version, Collections.emptyMap(),
+        ImmutableMap.of(artifactKey(BINARY_CLASSIFIER, id, version), artifact(BINARY_CLASSIFIER, id, version, size)));
+  }
+
+  @VisibleForTesting
+  Optional<Published> publishBundle(final Manifest manifest, final long size, @Nullable final String name)
+      throws IOException
+  {
+    Attributes attributes = manifest.getMainAttributes();
+    List<Clause> symbolicName = ManifestHeader.parse(attributes.getValue("Bundle-SymbolicName"));
+    if (symbolicName.isEmpty()) {
+      return Optional.empty();
+    }
+    String id = symbolicName.get(0).getName();
+    String version = Optional.ofNullable(attributes.getValue("Bundle-Version")).map(String::trim)
+        .filter(value -> !value.isEmpty()).orElse(DEFAULT_VERSION);
+    boolean singleton = "true".equals(symbolicName.get(0).get("singleton:"));
+    List<Clause> host = ManifestHeader.parse(attributes.getValue("Fragment-Host"));
+
+    List<Element> provides = new ArrayList<>();
+    provides.add(provided(IU_NAMESPACE, id, version));
+    provides.add(provided(BUNDLE_CLASSIFIER, id, version));
+    for (Clause exported : ManifestHeader.parse(attributes.getValue("Export-Package"))) {
+      for (String packageName : exported.getNames()) {
+        provides.add(provided(PACKAGE_NAMESPACE, packageName, exported.get("version", DEFAULT_VERSION)));
+      }
+    }
+    provides.add(provided(TYPE_NAMESPACE, "bundle", "1.0.0"));
+    if (!host.isEmpty()) {
+      provides.add(provided("osgi.fragment", host.get(0).getName(), version));
+    }
+
+    List<Element> requires = new ArrayList<>();
+    for (Clause required : host) {
+      requires.add(required(BUNDLE_CLASSIFIER, required.getName(), required.get("bundle-version", DEFAULT_VERSION),
+          false, null));
+    }
+    for (Clause required : ManifestHeader.parse(attributes.getValue("Require-Bundle"))) {
+      for (String bundle : required.getNames()) {
+        requires.add(required(BUNDLE_CLASSIFIER, bundle, required.get("bundle-version", DEFAULT_VERSION),
+            "optional".equals(required.get("resolution:")), null));
+      }
+    }
+    for (Clause imported : ManifestHeader.parse(attributes.getValue("Import-Package"))) {
+      for (String packageName : imported.getNames()) {
+        requires.add(required(PACKAGE_NAMESPACE, packageName, imported.get("version", DEFAULT_VERSION),
+            "optional".equals(imported.get("resolution:")), null));
+      }
+    }
+
+    StringBuilder manifestInstruction = new StringBuilder()
+        .append("Bundle-SymbolicName: ").append(id).append(singleton ? ";singleton:=true" : "").append('\n')
+        .append("Bundle-Version: ").append(version).append('\n');
+    if (!host.isEmpty()) {
+      manifestInstruction.append("Fragment-Host: ").append(attributes.getValue("Fragment-Host").trim()).append('\n');
+    }
+    List<Element> instructions = new ArrayList<>();
+    instructions.add(instruction("manifest", manifestInstruction.toString()));
+    if ("dir".equals(Optional.ofNullable(attributes.getValue("Eclipse-BundleShape")).map(String::trim).orElse(null))) {
+      instructions.add(instruction("zipped", "true"));
+    }
+    String platformFilter = attributes.getValue("Eclipse-PlatformFilter");
+
+    String unit = toXml(xml -> {
+      start(xml, "unit", "id", id, "version", version, "singleton", Boolean.toString(singleton));
+      empty(xml, "update", "id", id, "range", "[0.0.0," + version + ')', "severity", "0");
+      properties(xml, name);
+      list(xml, "provides", provides);
+      list(xml, "requires", requires);
+      if (platformFilter != null && !platformFilter.trim().isEmpty()) {
+        text(xml, "filter", platformFilter.trim());
+      }
+      list(xml, "artifacts", Collections.singletonList(artifactReference(BUNDLE_CLASSIFIER, id, version)));
+      empty(xml, "touchpoint", "id", "org.eclipse.equinox.p2.osgi", "version", "1.0.0");
+      touchpointData(xml, instructions);
+      xml.writeEndElement();
+    });
+
+    return Optional.of(new Published(id, version, ImmutableMap.of(unitKey(id, version), unit),
+        ImmutableMap.of(artifactKey(BUNDLE_CLASSIFIER, id, version),
+            artifact(BUNDLE_CLASSIFIER, id, version, size))));
+  }
+
+  @VisibleForTesting
+  Optional<Published> publishFeature(
+      final FeatureXml featureXml,
+      final List<Inclusion> inclusions,
+      final long size,
+      @Nullable final String name) throws IOException
+  {
+    String id = featureXml.getId();
+    if (id == null || id.trim().isEmpty()) {
+      return Optional.empty();
+    }
+    String version = Optional.ofNullable(featureXml.getVersion()).map(String::trim).filter(value -> !value.isEmpty())
+        .orElse(DEFAULT_VERSION);
+    String label = name != null ? name : featureXml.getLabel();
+
+    List<Element> groupProperties = new ArrayList<>();
+    if (label != null) {
+      groupProperties.add(property(NAME_PROPERTY, label));
+    }
+    groupProperties.add(property("org.eclipse.equinox.p2.type.group", "true"));
+    List<Element> requires = new ArrayList<>();
+    for (Inclusion inclusion : inclusions) {
+      if (inclusion.getId() == null) {
+        continue;
+      }
+      String included = inclusion.isFeature() ? inclusion.getId() + GROUP_SUFFIX : inclusion.getId();
+      requires.add(required(IU_NAMESPACE, included, strictRange(inclusion.getVersion()), inclusion.isOptional(),
+          inclusionFilter(inclusion)));
+    }
+    requires.add(required(IU_NAMESPACE, id + JAR_SUFFIX, strictRange(version), false, FEATURE_JAR_FILTER));
+
+    String group = toXml(xml -> {
+      start(xml, "unit", "id", id + GROUP_SUFFIX, "version", version, "singleton", "false");
+      empty(xml, "update", "id", id + GROUP_SUFFIX, "range", "[0.0.0," + version + ')', "severity", "0");
+      list(xml, "properties", groupProperties);
+      list(xml, "provides", Collections.singletonList(provided(IU_NAMESPACE, id + GROUP_SUFFIX, version)));
+      list(xml, "requires", requires);
+      empty(xml, "touchpoint", "id", "null", "version", "0.0.0");
+      xml.writeEndElement();
+    });
+
+    List<Element> provides = new ArrayList<>();
+    provides.add(provided(IU_NAMESPACE, id + JAR_SUFFIX, version));
+    provides.add(provided(TYPE_NAMESPACE, "feature", "1.0.0"));
+    provides.add(provided(FEATURE_CLASSIFIER, id, version));
+
+    String jar = toXml(xml -> {
+      start(xml, "unit", "id", id + JAR_SUFFIX, "version", version);
+      properties(xml, label);
+      list(xml, "provides", provides);
+      text(xml, "filter", FEATURE_JAR_FILTER);
+      list(xml, "artifacts", Collections.singletonList(artifactReference(FEATURE_CLASSIFIER, id, version)));
+      empty(xml, "touchpoint", "id", "org.eclipse.equinox.p2.osgi", "version", "1.0.0");
+      touchpointData(xml, Collections.singletonList(instruction("zipped", "true")));
+      xml.writeEndElement();
+    });
+
+    Map<String, String> units = new LinkedHashMap<>();
+    units.put(unitKey(id + GROUP_SUFFIX, version), group);
+    units.put(unitKey(id + JAR_SUFFIX, version), jar);
+    return Optional.of(new Published(id, version, units, ImmutableMap.of(artifactKey(FEATURE_CLASSIFIER, id, version),
+        artifact(FEATURE_CLASSIFIER, id, version, size))));
+  }
+
+  /**
+   * The unit key as merged by {@link org.sonatype.nexus.repository.p2.internal.metadata.MetadataMerger}.
+   */
+  public static String unitKey(final String id, final String version) {
+    return id + '/' + version;
+  }
+
+  /**
+   * The artifact key as merged by {@link org.sonatype.nexus.repository.p2.internal.metadata.MetadataMerger}.
+   */
+  public static String artifactKey(final String classifier, final String id, final String version) {
+    return classifier + '/' + id + '/' + version;
+  }
+
+  private static String artifact(final String classifier, final String id, final String version, final long size)
+      throws IOException
+  {
+    List<Element> properties = new ArrayList<>();
+    properties.add(property("artifact.size", Long.toString(size)));
+    properties.add(property("download.size", Long.toString(size)));
+    return toXml(xml -> {
+      start(xml, "artifact", "classifier", classifier, "id", id, "version", version);
+      list(xml, "properties", properties);
+      xml.writeEndElement();
+    });
+  }
+
+  private static void properties(final XMLStreamWriter xml, @Nullable final String name) throws XMLStreamException {
+    if (name != null) {
+      list(xml, "properties", Collections.singletonList(property(NAME_PROPERTY, name)));
+    }
+  }
+
+  private static void touchpointData(final XMLStreamWriter xml, final List<Element> instructions)
+      throws XMLStreamException
+  {
+    start(xml, "touchpointData", "size", "1");
+    list(xml, "instructions", instructions);
+    xml.writeEndElement();
+  }
+
+  private static Element property(final String name, final String value) {
+    return xml -> empty(xml, "property", "name", name, "value", value);
+  }
+
+  private static Element provided(final String namespace, final String name, final String version) {
+    return xml -> empty(xml, "provided", "namespace", namespace, "name", name, "version", version);
+  }
+
+  private static Element required(
+      final String namespace,
+      final String name,
+      final String range,
+      final boolean optional,
+      @Nullable final String filter)
+  {
+    return xml -> {
+      List<String> attributes = new ArrayList<>(Arrays.asList("namespace", namespace, "name", name, "range", range));
+      if (optional) {
+        attributes.addAll(Arrays.asList("optional", "true", "greedy", "false"));
+      }
+      String[] pairs = attributes.toArray(new String[0]);
+      if (filter == null) {
+        empty(xml, "required", pairs);
+      }
+      else {
+        start(xml, "required", pairs);
+        text(xml, "filter", filter);
+        xml.writeEndElement();
+      }
+    };
+  }
+
+  private static Element artifactReference(final String classifier, final String id, final String version) {
+    return xml -> empty(xml, "artifact", "classifier", classifier, "id", id, "version", version);
+  }
+
+  private static Element instruction(final String key, final String value) {
+    return xml -> text(xml, "instruction", value, "key", key);
+  }
+
+  private static String strictRange(@Nullable final String version) {
+    if (version == null || version.trim().isEmpty() || DEFAULT_VERSION.equals(version.trim())) {
+      return DEFAULT_VERSION;
+    }
+    return '[' + version.trim() + ',' + version.trim() + ']';
+  }
+
+  /**
+   * The filter of an inclusion, combining its LDAP filter with the platforms it is limited to.
+   */
+  @Nullable
+  @VisibleForTesting
+  static String inclusionFilter(final Inclusion inclusion) {
+    List<String> parts = new ArrayList<>();
+    if (inclusion.getFilter() != null && !inclusion.getFilter().trim().isEmpty()) {
+      parts.add(inclusion.getFilter().trim());
+    }
+    platformFilter(parts, "osgi.os", inclusion.getOs());
+    platformFilter(parts, "osgi.ws", inclusion.getWs());
+    platformFilter(parts, "osgi.arch", inclusion.getArch());
+    if (parts.isEmpty()) {
+      return null;
+    }
+    return parts.size() == 1 ? parts.get(0) : "(&" + String.join("", parts) + ')';
+  }
+
+  private static void platformFilter(final List<String> parts, final String key, @Nullable final String values) {
+    if (values == null || values.trim().isEmpty()) {
+      return;
+    }
+    List<String> comparisons = new ArrayList<>();
+    for (String value : values.split(",")) {
+      if (!value.trim().isEmpty()) {
+        comparisons.add('(' + key + '=' + value.trim() + ')');
+      }
+    }
+    if (!comparisons.isEmpty()) {
+      parts.add(comparisons.size() == 1 ? comparisons.get(0) : "(|" + String.join("", comparisons) + ')');
+    }
+  }
+
+  private static void start(final XMLStreamWriter xml, final String name, final String... attributes)
+      throws XMLStreamException
+  {
+    xml.writeStartElement(name);
+    attributes(xml, attributes);
+  }
+
+  private static void empty(final XMLStreamWriter xml, final String name, final String... attributes)
+      throws XMLStreamException
+  {
+    xml.writeEmptyElement(name);
+    attributes(xml, attributes);
+  }
+
+  private static void text(final XMLStreamWriter xml, final String name, final String text, final String... attributes)
+      throws XMLStreamException
+  {
+    start(xml, name, attributes);
+    xml.writeCharacters(text);
+    xml.writeEndElement();
+  }
+
+  private static void attributes(final XMLStreamWriter xml, final String... attributes) throws XMLStreamException {
+    for (int i = 0; i < attributes.length; i += 2) {
+      xml.writeAttribute(attributes[i], attributes[i + 1]);
+    }
+  }
+
+  private static void list(final XMLStreamWriter xml, final String name, final List<Element> elements)
+      throws XMLStreamException
+  {
+    if (elements.isEmpty()) {
+      return;
+    }
+    start(xml, name, "size", Integer.toString(elements.size()));
+    for (Element element : elements) {
+      element.write(xml);
+    }
+    xml.writeEndElement();
+  }
+
+  /**
+   * Write a unit or artifact element, as it is written into the units or artifacts of a repository.
+   */
+  private static String toXml(final Element element) throws IOException {
+    StringWriter out = new StringWriter();
+    try {
+      XMLStreamWriter xml = XMLOutputFactory.newFactory().createXMLStreamWriter(out);
+      element.write(xml);
+      xml.close();
+    }
+    catch (XMLStreamException e) {
+      throw new IOException(e);
+    }
+    return out.toString();
+  }
+
+  /**
+   * Writes an element of a unit or artifact.
+   */
+  @FunctionalInterface
+  private interface Element
+  {
+    void write(XMLStreamWriter xml) throws XMLStreamException;
+  }
+
+  /**
+   * The units and artifacts generated for a plugin, feature or binary.
+   */
+  public static final class Published
+  {
+    private final String id;
+
+    private final String version;
+
+    private final Map<String, String> units;
+
+    private final Map<String, String> artifacts;
+
+    Published(
+        final String id,
+        final String version,
+        final Map<String, String> units,
+        final Map<String, String> artifacts)
+    {
+      this.id = id;
+      this.version = version;
+      this.units = ImmutableMap.copyOf(units);
+      this.artifacts = ImmutableMap.copyOf(artifacts);
+    }
+
+    /**
+     * The id of the bundle, feature or binary, which its path is expected to be named after.
+     */
+    public String getId() {
+      return id;
+    }
+
+    public String getVersion() {
+      return version;
+    }
+
+    /**
+     * The unit elements by unit key.
+     */
+    public Map<String, String> getUnits() {
+      return units;
+    }
+
+    /**
+     * The artifact elements by artifact key.
+     */
+    public Map<String, String> getArtifacts() {
+      return artifacts;
+    }
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * Parses an OSGi manifest header into its clauses, e.g. {@code a;b;version="[1,2)";resolution:=optional,c}.
+ *
+ * @since 1.1.14
+ */
+final class ManifestHeader
+{
+  private ManifestHeader() {
+    throw new UnsupportedOperationException();
+  }
+
+  static List<Clause> parse(@Nullable final String header) {
+    if (header == null || header.trim().isEmpty()) {
+      return Collections.emptyList();
+    }
+    List<Clause> clauses = new ArrayList<>();
+    List<String> parts = new ArrayList<>();
+    StringBuilder token = new StringBuilder();
+    boolean quoted = false;
+    for (int i = 0; i <= header.length(); i++) {
+      char c = i < header.length() ? header.charAt(i) : ',';
+      if (c == '"') {
+        quoted = !quoted;
+      }
+      else if (!quoted && (c == ';' || c == ',')) {
+        parts.add(token.toString().trim());
+        token.setLength(0);
+        if (c == ',') {
+          Clause clause = Clause.of(parts);
+          if (clause != null) {
+            clauses.add(clause);
+          }
+          parts.clear();
+        }
+      }
+      else {
+        token.append(c);
+      }
+    }
+    return clauses;
+  }
+
+  /**
+   * A clause of a manifest header: its names followed by its attributes and directives, directives keyed by their name
+   * followed by {@code :}.
+   */
+  static final class Clause
+  {
+    private final List<String> names;
+
+    private final Map<String, String> parameters;
+
+    private Clause(final List<String> names, final Map<String, String> parameters) {
+      this.names = names;
+      this.parameters = parameters;
+    }
+
+    @Nullable
+    static Clause of(final List<String> parts) {
+      List<String> names = new ArrayList<>();
+      Map<String, String> parameters = new LinkedHashMap<>();
+      for (String part : parts) {
+        int equals = part.indexOf('=');
+        if (equals < 0) {
+          if (!part.isEmpty()) {
+            names.add(part);
+          }
+        }
+        else {
+          parameters.put(part.substring(0, equals).trim(), part.substring(equals + 1).trim());
+        }
+      }
+      return names.isEmpty() ? null : new Clause(names, parameters);
+    }
+
+    List<String> getNames() {
+      return names;
+    }
+
+    String getName() {
+      return names.get(0);
+    }
+
+    @Nullable
+    String get(final String key) {
+      return parameters.get(key);
+    }
+
+    String get(final String key, final String defaultValue) {
+      String value = parameters.get(key);
+      return value == null || value.isEmpty() ? defaultValue : value;
+    }
+  }
+}
@@ -0,0 +1,312 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.sonatype.goodies.lifecycle.LifecycleSupport;
+import org.sonatype.nexus.common.app.ApplicationDirectories;
+import org.sonatype.nexus.common.app.ManagedLifecycle;
+import org.sonatype.nexus.repository.p2.internal.P2Metrics;
+import org.sonatype.nexus.repository.p2.internal.metadata.P2Attributes;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.sonatype.nexus.common.app.ManagedLifecycle.Phase.SERVICES;
+
+/**
+ * Remembers the attributes extracted from bundles by the SHA-1 of their content, so the same bundle need not be parsed
+ * again when it is fetched through another site or repository, or restored.
+ *
+ * The least recently used attributes are evicted once the memo is full. The memo is kept in the work directory across
+ * restarts, it is saved in the background a while after enough attributes were remembered and when it stops.
+ *
+ * @since 1.1.14
+ */
+@Named
+@Singleton
+@ManagedLifecycle(phase = SERVICES)
+public class P2AttributesMemo
+    extends LifecycleSupport
+{
+  static final String FILE_NAME = "attributes-memo.bin";
+
+  private static final int FORMAT_VERSION = 2;
+
+  private static final int SAVE_INTERVAL = 1000;
+
+  /**
+   * Delay before saving, so the attributes remembered by a burst of fetches are saved at once.
+   */
+  private static final long SAVE_DELAY_SECONDS = 30;
+
+  private static final String METRICS_GROUP = "attributesMemo";
+
+  private final Path file;
+
+  private final Map<String, P2Attributes> entries;
+
+  private final Counter hits = new Counter();
+
+  private final Counter misses = new Counter();
+
+  private final Counter evictions = new Counter();
+
+  private final Object saveLock = new Object();
+
+  private final AtomicBoolean saveScheduled = new AtomicBoolean();
+
+  @Nullable
+  private ScheduledExecutorService saveExecutor;
+
+  private int unsaved;
+
+  @Inject
+  public P2AttributesMemo(
+      final ApplicationDirectories directories,
+      @Named("${nexus.p2.attributesMemo.maxEntries:-100000}") final int maxEntries)
+  {
+    this(new File(directories.getWorkDirectory("p2"), FILE_NAME).toPath(), maxEntries);
+  }
+
+  @VisibleForTesting
+  P2AttributesMemo(final Path file, final int maxEntries) {
+    checkArgument(maxEntries > 0, "maxEntries must be positive");
+    this.file = file;
+    this.entries = new LinkedHashMap<String, P2Attributes>(16, 0.75f, true)
+    {
+      @Override
+      protected boolean removeEldestEntry(final Entry<String, P2Attributes> eldest) {
+        if (size() > maxEntries) {
+          evictions.inc();
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  @Override
+  protected void doStart() throws Exception {
+    load();
+    P2Metrics.register(METRICS_GROUP, "hits", hits);
+    P2Metrics.register(METRICS_GROUP, "misses", misses);
+    P2Metrics.register(METRICS_GROUP, "evictions", evictions);
+    P2Metrics.register(METRICS_GROUP, "size", (Gauge<Integer>) this::size);
+  }
+
+  @Override
+  protected void doStop() throws Exception {
+    P2Metrics.removeAll(METRICS_GROUP);
+    synchronized (this) {
+      if (saveExecutor != null) {
+        saveExecutor.shutdownNow();
+        saveExecutor = null;
+      }
+    }
+    save();
+  }
+
+  /**
+   * The attributes remembered for the content with the SHA-1.
+   */
+  public Optional<P2Attributes> get(@Nullable final String sha1) {
+    if (sha1 == null) {
+      return Optional.empty();
+    }
+    P2Attributes attributes;
+    synchronized (entries) {
+      attributes = entries.get(sha1);
+    }
+    (attributes == null ? misses : hits).inc();
+    return Optional.ofNullable(attributes);
+  }
+
+  /**
+   * Remember the attributes extracted from the content with the SHA-1.
+   */
+  public void put(@Nullable final String sha1, final P2Attributes attributes) {
+    if (sha1 == null || attributes.isEmpty()) {
+      return;
+    }
+    boolean save;
+    synchronized (entries) {
+      entries.put(sha1, P2Attributes.builder()
+          .componentName(attributes.getComponentName())
+          .componentVersion(attributes.getComponentVersion())
+          .pluginName(attributes.getPluginName())
+          .providedPackages(attributes.getProvidedPackages())
+          .build());
+      save = ++unsaved >= SAVE_INTERVAL;
+    }
+    if (save && saveScheduled.compareAndSet(false, true)) {
+      scheduleSave();
+    }
+  }
+
+  private synchronized void scheduleSave() {
+    if (saveExecutor == null) {
+      saveExecutor = Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder().setDaemon(true).setNameFormat("p2-attributes-memo-%d").build());
+    }
+    try {
+      saveExecutor.schedule(this::saveInBackground, SAVE_DELAY_SECONDS, TimeUnit.SECONDS);
+    }
+    catch (RejectedExecutionException e) {
+      // stopping, saved by doStop
+      saveScheduled.set(false);
+    }
+  }
+
+  private void saveInBackground() {
+    saveScheduled.set(false);
+    try {
+      save();
+    }
+    catch (IOException e) {
+      log.warn("Unable to save p2 attributes memo to {}: {}", file, e.toString());
+    }
+  }
+
+  public int size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  public Counter getHits() {
+    return hits;
+  }
+
+  public Counter getMisses() {
+    return misses;
+  }
+
+  public Counter getEvictions() {
+    return evictions;
+  }
+
+  @VisibleForTesting
+  void load() throws IOException {
+    if (!Files.exists(file)) {
+      return;
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      if (in.readInt() != FORMAT_VERSION) {
+        log.info("Ignoring p2 attributes memo of another format: {}", file);
+        return;
+      }
+      int count = in.readInt();
+      synchronized (entries) {
+        for (int i = 0; i < count; i++) {
+          entries.put(in.readUTF(), P2Attributes.builder()
+              .componentName(readNullable(in))
+              .componentVersion(readNullable(in))
+              .pluginName(readNullable(in))
+              .providedPackages(readList(in))
+              .build());
+        }
+      }
+    }
+    catch (EOFException e) {
+      log.warn("Ignoring truncated p2 attributes memo: {}", file);
+    }
+    log.info("Loaded {} p2 attributes from {}", size(), file);
+  }
+
+  @VisibleForTesting
+  void save() throws IOException {
+    synchronized (saveLock) {
+      List<Entry<String, P2Attributes>> snapshot;
+      synchronized (entries) {
+        snapshot = new ArrayList<>(entries.entrySet());
+        unsaved = 0;
+      }
+      Files.createDirectories(file.getParent());
+      Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(snapshot.size());
+        for (Entry<String, P2Attributes> entry : snapshot) {
+          out.writeUTF(entry.getKey());
+          writeNullable(out, entry.getValue().getComponentName());
+          writeNullable(out, entry.getValue().getComponentVersion());
+          writeNullable(out, entry.getValue().getPluginName());
+          writeList(out, entry.getValue().getProvidedPackages());
+        }
+      }
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+  }
+
+  @Nullable
+  private static String readNullable(final DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  private static List<String> readList(final DataInputStream in) throws IOException {
+    int size = in.readUnsignedShort();
+    if (size == 0) {
+      return Collections.emptyList();
+    }
+    List<String> values = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      values.add(in.readUTF());
+    }
+    return values;
+  }
+
+  private static void writeList(final DataOutputStream out, final List<String> values) throws IOException {
+    out.writeShort(values.size());
+    for (String value : values) {
+      out.writeUTF(value);
+    }
+  }
+
+  private static void writeNullable(final DataOutputStream out, @Nullable final String value) throws IOException {
+    out.writeBoolean(value != null);
+    if (value != null) {
+      out.writeUTF(value);
+    }
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.util;
+
+import javax.annotation.Nullable;
+
+import org.sonatype.nexus.common.collect.NestedAttributesMap;
+import org.sonatype.nexus.repository.p2.internal.metadata.P2Attributes;
+import org.sonatype.nexus.repository.storage.Component;
+
+import static org.sonatype.nexus.repository.p2.internal.util.P2PathUtils.FEATURE_ID;
+import static org.sonatype.nexus.repository.p2.internal.util.P2PathUtils.PLUGIN_NAME;
+import static org.sonatype.nexus.repository.p2.internal.util.P2PathUtils.PROVIDED_PACKAGES;
+
+/**
+ * Utility methods for working with P2 components and their searchable attributes.
+ *
+ * @since 1.1.14
+ */
+public class P2ComponentUtils
+{
+  /**
+   * Packages kept of a bundle, so bundles exporting many packages do not bloat the search index.
+   */
+  public static final int MAX_PROVIDED_PACKAGES = 256;
+
+  private static final String FEATURES_DIRECTORY = "features/";
+
+  private P2ComponentUtils() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Set the searchable attributes of the component from the attributes extracted at ingest: plugin name, feature id
+   * and provided packages. The bundle symbolic name and version are searched on the component's name and version.
+   *
+   * @return {@code true} if any attribute changed
+   */
+  public static boolean setSearchAttributes(final Component component, final P2Attributes attributes) {
+    NestedAttributesMap formatAttributes = component.formatAttributes();
+    boolean changed = setIfChanged(formatAttributes, PLUGIN_NAME, attributes.getPluginName());
+    if (isFeature(attributes.getPath())) {
+      changed |= setIfChanged(formatAttributes, FEATURE_ID, component.name());
+    }
+    if (!attributes.getProvidedPackages().isEmpty()) {
+      changed |= setIfChanged(formatAttributes, PROVIDED_PACKAGES, attributes.getProvidedPackages());
+    }
+    return changed;
+  }
+
+  private static boolean setIfChanged(final NestedAttributesMap attributes,
+                                      final String key,
+                                      @Nullable final Object value)
+  {
+    if (value == null || value.equals(attributes.get(key))) {
+      return false;
+    }
+    attributes.set(key, value);
+    return true;
+  }
+
+  /**
+   * Whether the path is the path of a feature jar.
+   */
+  public static boolean isFeature(@Nullable final String path) {
+    return path != null && (path.startsWith(FEATURES_DIRECTORY) || path.contains('/' + FEATURES_DIRECTORY));
+  }
+}
@@ -13,6 +13,7 @@
 package org.sonatype.nexus.repository.p2.internal.util;
 
 import java.io.IOException;
+import java.util.Optional;
 
 import org.sonatype.nexus.blobstore.api.Blob;
 import org.sonatype.nexus.repository.p2.internal.AssetKind;
@@ -41,6 +42,16 @@ public class P2PathUtils
 {
   public static final String PLUGIN_NAME = "pluginName";
 
+  /**
+   * @since 1.1.14
+   */
+  public static final String FEATURE_ID = "featureId";
+
+  /**
+   * @since 1.1.14
+   */
+  public static final String PROVIDED_PACKAGES = "providedPackages";
+
   private final static String NAME_VERSION_SEPARATOR = "_";
 
   private P2PathUtils() {
@@ -193,6 +204,16 @@ public class P2PathUtils
   {
     P2Attributes.Builder attributes = P2Attributes.builder();
 
+    Optional<P2Attributes> memoized = p2TempBlobUtils
+        .getMemoizedAttributes(blob.getMetrics() == null ? null : blob.getMetrics().getSha1Hash());
+    if (memoized.isPresent()) {
+      return attributes.componentName(memoized.get().getComponentName())
+          .componentVersion(memoized.get().getComponentVersion())
+          .pluginName(memoized.get().getPluginName())
+          .assetKind(getAssetKind(blobName))
+          .build();
+    }
+
     try (TempBlob tempBlob = storageFacet.createTempBlob(blob.getInputStream(), HASH_ALGORITHMS)) {
       String extension = getPackageExtensionFromBlobName(blobName);
       P2Attributes p2Attributes = P2Attributes.builder().extension(extension).build();
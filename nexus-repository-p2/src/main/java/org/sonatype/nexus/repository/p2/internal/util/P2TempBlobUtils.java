@@ -12,19 +12,38 @@
  */
 package org.sonatype.nexus.repository.p2.internal.util;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Optional;
+import java.util.PropertyResourceBundle;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+import java.util.jar.Manifest;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Named;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.HashCode;
+import com.google.common.io.ByteStreams;
 import org.sonatype.goodies.common.ComponentSupport;
 import org.sonatype.nexus.repository.p2.internal.exception.AttributeParsingException;
 import org.sonatype.nexus.repository.p2.internal.metadata.P2Attributes;
+import org.sonatype.nexus.repository.p2.internal.util.AttributesParserFeatureXml.FeatureXml;
+import org.sonatype.nexus.repository.p2.internal.util.AttributesParserFeatureXml.Inclusion;
 import org.sonatype.nexus.repository.storage.TempBlob;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static org.sonatype.nexus.common.hash.HashAlgorithm.SHA1;
 
 /**
  * Shared code between P2 facets.
@@ -35,16 +54,27 @@ import static com.google.common.base.Preconditions.checkNotNull;
 public class P2TempBlobUtils
     extends ComponentSupport
 {
+  private static final String JAR_EXTENSION = "jar";
+
+  /**
+   * Limit of the properties held in memory while extracting attributes from a streamed jar.
+   */
+  private static final int MAX_PROPERTIES_SIZE = 1024 * 1024;
+
   private final AttributesParserFeatureXml featureXmlParser;
 
   private final AttributesParserManifest manifestParser;
 
+  private final P2AttributesMemo attributesMemo;
+
   @Inject
   public P2TempBlobUtils(final AttributesParserFeatureXml featureXmlParser,
-                         final AttributesParserManifest manifestParser)
+                         final AttributesParserManifest manifestParser,
+                         final P2AttributesMemo attributesMemo)
   {
     this.featureXmlParser = checkNotNull(featureXmlParser);
     this.manifestParser = checkNotNull(manifestParser);
+    this.attributesMemo = checkNotNull(attributesMemo);
   }
 
   @VisibleForTesting
@@ -52,6 +82,12 @@ public class P2TempBlobUtils
       throws IOException
   {
     checkNotNull(sourceP2Attributes.getExtension());
+    String sha1 = sha1(tempBlob);
+    Optional<P2Attributes> memoized = attributesMemo.get(sha1);
+    if (memoized.isPresent()) {
+      return merge(sourceP2Attributes, memoized.get());
+    }
+
     P2Attributes p2Attributes = null;
     try {
       // first try Features XML
@@ -61,11 +97,180 @@ public class P2TempBlobUtils
       if (p2Attributes.isEmpty()) {
         p2Attributes = manifestParser.getAttributesFromBlob(tempBlob, sourceP2Attributes.getExtension());
       }
+      attributesMemo.put(sha1, p2Attributes);
     }
     catch (AttributeParsingException ex) {
       log.warn("Could not get attributes from feature.xml due to following exception: {}", ex.getMessage());
     }
 
+    return merge(sourceP2Attributes, p2Attributes);
+  }
+
+  /**
+   * Start extracting the attributes of a jar bundle from the stream it is stored from, on the executor, as the stream
+   * is read. Bundles other than jars are not parsed while streaming.
+   *
+   * @since 1.1.14
+   */
+  public AttributesTee teeAttributes(
+      final InputStream in,
+      final P2Attributes sourceP2Attributes,
+      final Executor executor)
+  {
+    checkNotNull(sourceP2Attributes.getExtension());
+    CompletableFuture<Optional<P2Attributes>> extracted = new CompletableFuture<>();
+    if (!JAR_EXTENSION.equals(sourceP2Attributes.getExtension())) {
+      extracted.complete(Optional.empty());
+      return new AttributesTee(in, extracted);
+    }
+
+    ChunkPipe pipe = new ChunkPipe();
+    try {
+      executor.execute(() -> {
+        try (InputStream source = pipe.source()) {
+          extracted.complete(extractFromJarStream(source));
+        }
+        catch (Exception e) {
+          log.debug("Could not extract attributes while streaming {}: {}", sourceP2Attributes.getPath(), e.toString());
+          extracted.complete(Optional.empty());
+        }
+      });
+    }
+    catch (RejectedExecutionException e) {
+      extracted.complete(Optional.empty());
+      return new AttributesTee(in, extracted);
+    }
+    return new AttributesTee(pipe.tee(in, -1), extracted);
+  }
+
+  /**
+   * Merge the attributes extracted while the bundle was streamed into the temp blob, extracting them from the temp
+   * blob if they could not be extracted while streaming.
+   *
+   * @since 1.1.14
+   */
+  public P2Attributes mergeAttributes(
+      final AttributesTee tee,
+      final TempBlob tempBlob,
+      final P2Attributes sourceP2Attributes) throws IOException
+  {
+    Optional<P2Attributes> extracted = tee.getAttributes();
+    if (!extracted.isPresent()) {
+      return mergeAttributesFromTempBlob(tempBlob, sourceP2Attributes);
+    }
+    attributesMemo.put(sha1(tempBlob), extracted.get());
+    return merge(sourceP2Attributes, extracted.get());
+  }
+
+  /**
+   * The attributes remembered for a bundle with the SHA-1, which need not be extracted again.
+   *
+   * @since 1.1.14
+   */
+  public Optional<P2Attributes> getMemoizedAttributes(@Nullable final String sha1) {
+    return attributesMemo.get(sha1);
+  }
+
+  /**
+   * The plugins and features included by a feature jar.
+   *
+   * @since 1.1.14
+   */
+  public List<Inclusion> getFeatureInclusions(final InputStream in) throws IOException, AttributeParsingException {
+    return featureXmlParser.getInclusionsFromJar(in);
+  }
+
+  /**
+   * Merge the attributes extracted in one pass over a jar bundle, empty if the bundle is not a jar or its attributes
+   * could not be extracted from the stream.
+   *
+   * @since 1.1.14
+   */
+  public Optional<P2Attributes> mergeAttributesFromJarStream(
+      final InputStream in,
+      final P2Attributes sourceP2Attributes)
+  {
+    if (!JAR_EXTENSION.equals(sourceP2Attributes.getExtension())) {
+      return Optional.empty();
+    }
+    try {
+      return extractFromJarStream(in).map(p2Attributes -> merge(sourceP2Attributes, p2Attributes));
+    }
+    catch (IOException | AttributeParsingException e) {
+      log.debug("Could not extract attributes from {}: {}", sourceP2Attributes.getPath(), e.toString());
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Extract the attributes in one pass over the jar, the same way {@link #mergeAttributesFromTempBlob} does. Empty if
+   * the jar does not allow to, e.g. because its properties are too large to be held.
+   */
+  private Optional<P2Attributes> extractFromJarStream(final InputStream in)
+      throws IOException, AttributeParsingException
+  {
+    FeatureXml featureXml = null;
+    Manifest manifest = null;
+    Map<String, byte[]> properties = new LinkedHashMap<>();
+    long propertiesSize = 0;
+    try (JarInputStream jis = new JarInputStream(in)) {
+      JarEntry jarEntry;
+      while ((jarEntry = jis.getNextJarEntry()) != null) {
+        String name = jarEntry.getName();
+        if (manifest == null && name.startsWith(AttributesParserManifest.MANIFEST_FILE_PREFIX)) {
+          // like the temp blob extraction only jars with entries besides the manifest in META-INF are considered
+          manifest = jis.getManifest();
+          if (manifest == null) {
+            manifest = new Manifest(jis);
+            continue;
+          }
+        }
+        if (featureXml == null && name.startsWith(AttributesParserFeatureXml.XML_FILE_NAME)) {
+          featureXml = featureXmlParser.parseFeatureXml(jis);
+        }
+        else if (name.endsWith(PropertyParser.PROPERTY_RESOURCE_BUNDLE_EXTENSION)) {
+          byte[] bytes = ByteStreams.toByteArray(ByteStreams.limit(jis, MAX_PROPERTIES_SIZE + 1));
+          propertiesSize += bytes.length;
+          if (bytes.length > MAX_PROPERTIES_SIZE || propertiesSize > MAX_PROPERTIES_SIZE) {
+            return Optional.empty();
+          }
+          properties.putIfAbsent(name, bytes);
+        }
+      }
+    }
+
+    P2Attributes p2Attributes = P2Attributes.builder().build();
+    if (featureXml != null) {
+      p2Attributes = featureXmlParser.getAttributesFromFeatureXml(featureXml,
+          findProperties(properties, AttributesParserFeatureXml.FEATURE_PROPERTIES));
+    }
+    if (p2Attributes.isEmpty() && manifest != null) {
+      p2Attributes = manifestParser.getAttributesFromManifest(manifest,
+          findProperties(properties, manifestParser.getLocalization(manifest)));
+    }
+    return Optional.of(p2Attributes);
+  }
+
+  private static Optional<PropertyResourceBundle> findProperties(
+      final Map<String, byte[]> properties,
+      final String baseName) throws IOException
+  {
+    String prefix = baseName + PropertyParser.PROPERTY_RESOURCE_BUNDLE_EXTENSION;
+    for (Entry<String, byte[]> entry : properties.entrySet()) {
+      if (entry.getKey().startsWith(prefix)) {
+        return Optional.of(new PropertyResourceBundle(new ByteArrayInputStream(entry.getValue())));
+      }
+    }
+    return Optional.empty();
+  }
+
+  @Nullable
+  private static String sha1(final TempBlob tempBlob) {
+    return Optional.ofNullable(tempBlob.getHashes()).map(hashes -> hashes.get(SHA1)).map(HashCode::toString)
+        .orElse(null);
+  }
+
+  private static P2Attributes merge(final P2Attributes sourceP2Attributes, @Nullable final P2Attributes p2Attributes) {
     return Optional.ofNullable(p2Attributes)
         .filter(jarP2Attributes -> !jarP2Attributes.isEmpty())
         .map(jarP2Attributes -> P2Attributes.builder().merge(sourceP2Attributes, jarP2Attributes).build())
@@ -29,7 +29,7 @@ import org.sonatype.nexus.repository.storage.TempBlob;
  */
 public class PropertyParser
 {
-  private static final String PROPERTY_RESOURCE_BUNDLE_EXTENSION = ".properties";
+  static final String PROPERTY_RESOURCE_BUNDLE_EXTENSION = ".properties";
 
   private JarExtractor<PropertyResourceBundle> jarExtractor;
 
@@ -0,0 +1,225 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.rest;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.ForbiddenException;
+import javax.ws.rs.GET;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.ServiceUnavailableException;
+
+import org.sonatype.goodies.common.ComponentSupport;
+import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.manager.RepositoryManager;
+import org.sonatype.nexus.repository.p2.api.InstallableUnitArtifactXO;
+import org.sonatype.nexus.repository.p2.api.InstallableUnitXO;
+import org.sonatype.nexus.repository.p2.internal.P2Format;
+import org.sonatype.nexus.repository.p2.internal.metadata.InstallableUnitIndex;
+import org.sonatype.nexus.repository.p2.internal.metadata.InstallableUnitIndex.InstallableUnit;
+import org.sonatype.nexus.repository.p2.internal.metadata.InstallableUnitIndex.Key;
+import org.sonatype.nexus.repository.p2.internal.metadata.VersionRange;
+import org.sonatype.nexus.repository.p2.internal.util.InstallableUnitIndexes;
+import org.sonatype.nexus.repository.rest.api.RepositoriesApiResourceV1;
+import org.sonatype.nexus.repository.security.RepositoryPermissionChecker;
+import org.sonatype.nexus.rest.Page;
+import org.sonatype.nexus.rest.Resource;
+
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiParam;
+import io.swagger.annotations.ApiResponse;
+import io.swagger.annotations.ApiResponses;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
+import static org.sonatype.nexus.repository.p2.internal.metadata.VersionRange.VERSION_ORDER;
+
+/**
+ * Resolves installable units and capabilities from the content metadata cached by a p2 repository, giving the paths
+ * of their artifacts in the repository.
+ *
+ * Only the indexes written already are searched, a site whose index is still being written answers the request with
+ * {@code 503} until it is.
+ *
+ * @since 1.1.14
+ */
+@Named
+@Singleton
+@Path(P2InstallableUnitsApiResource.RESOURCE_URI)
+@Produces(APPLICATION_JSON)
+@Api("p2: installable units")
+public class P2InstallableUnitsApiResource
+    extends ComponentSupport
+    implements Resource
+{
+  public static final String RESOURCE_URI = RepositoriesApiResourceV1.RESOURCE_URI + "/p2/{repositoryName}/units";
+
+  static final int DEFAULT_LIMIT = 100;
+
+  static final int MAX_LIMIT = 1000;
+
+  static final long RETRY_AFTER_SECONDS = 10;
+
+  private static final Comparator<InstallableUnit> UNIT_ORDER =
+      Comparator.comparing(InstallableUnit::getId).thenComparing(InstallableUnit::getVersion, VERSION_ORDER);
+
+  private final RepositoryManager repositoryManager;
+
+  private final RepositoryPermissionChecker repositoryPermissionChecker;
+
+  private final InstallableUnitIndexes installableUnitIndexes;
+
+  @Inject
+  public P2InstallableUnitsApiResource(
+      final RepositoryManager repositoryManager,
+      final RepositoryPermissionChecker repositoryPermissionChecker,
+      final InstallableUnitIndexes installableUnitIndexes)
+  {
+    this.repositoryManager = checkNotNull(repositoryManager);
+    this.repositoryPermissionChecker = checkNotNull(repositoryPermissionChecker);
+    this.installableUnitIndexes = checkNotNull(installableUnitIndexes);
+  }
+
+  @ApiOperation("Resolve installable units by id or provided capability across the sites cached by a p2 repository")
+  @ApiResponses(value = {
+      @ApiResponse(code = 400, message = "Neither an id nor a capability namespace and name, or an invalid range"),
+      @ApiResponse(code = 403, message = "Insufficient permissions to browse the repository"),
+      @ApiResponse(code = 404, message = "No p2 repository with the name"),
+      @ApiResponse(code = 503, message = "The installable units of a site are still being indexed")
+  })
+  @GET
+  public Page<InstallableUnitXO> getUnits(
+      @ApiParam(value = "Name of the p2 repository") @PathParam("repositoryName") final String repositoryName,
+      @ApiParam(value = "Id of the installable unit") @QueryParam("id") @Nullable final String id,
+      @ApiParam(value = "Namespace of a provided capability, e.g. java.package") @QueryParam("namespace")
+      @Nullable final String namespace,
+      @ApiParam(value = "Name of a provided capability") @QueryParam("name") @Nullable final String name,
+      @ApiParam(value = "OSGi version range of the unit or capability, e.g. [3.18.0,4.0.0)") @QueryParam("range")
+      @Nullable final String range,
+      @ApiParam(value = "Maximum number of units per page, " + DEFAULT_LIMIT + " by default") @QueryParam("limit")
+      @Nullable final Integer limit,
+      @ApiParam(value = "Continuation token of the previous page") @QueryParam("continuationToken")
+      @Nullable final String continuationToken)
+  {
+    Repository repository = repositoryManager.get(repositoryName);
+    if (repository == null || !P2Format.NAME.equals(repository.getFormat().getValue())) {
+      throw new NotFoundException("No p2 repository named " + repositoryName);
+    }
+    if (!repositoryPermissionChecker.userCanBrowseRepository(repository)) {
+      throw new ForbiddenException();
+    }
+    boolean byCapability = namespace != null && name != null;
+    if (id == null && !byCapability) {
+      throw new BadRequestException("Either an id or a capability namespace and name is required");
+    }
+    VersionRange versionRange = parseRange(range);
+    int offset = parseOffset(continuationToken);
+    int pageSize = limit == null ? DEFAULT_LIMIT : Math.max(1, Math.min(limit, MAX_LIMIT));
+
+    // the units are matched until the one after the page, which tells whether there is a next page
+    int end = offset + pageSize;
+    int matched = 0;
+    List<InstallableUnitXO> page = new ArrayList<>();
+    for (String site : installableUnitIndexes.findSites(repository)) {
+      if (matched > end) {
+        break;
+      }
+      Optional<InstallableUnitIndex> index = installableUnitIndexes.findIndex(repository, site);
+      if (!index.isPresent()) {
+        if (installableUnitIndexes.isIndexing(repository, site)) {
+          throw new ServiceUnavailableException(RETRY_AFTER_SECONDS);
+        }
+        continue;
+      }
+      List<InstallableUnit> units = byCapability ? index.get().findProviders(namespace, name) : index.get().find(id);
+      units.sort(UNIT_ORDER);
+      for (InstallableUnit unit : units) {
+        if (matched > end) {
+          break;
+        }
+        if ((id == null || id.equals(unit.getId())) && inRange(unit, byCapability, namespace, name, versionRange)) {
+          if (matched >= offset && matched < end) {
+            page.add(toXO(repository, site, unit));
+          }
+          matched++;
+        }
+      }
+    }
+    return new Page<>(page, matched > end ? Integer.toString(end) : null);
+  }
+
+  /**
+   * Units are matched on the version of the capability when looked up by capability, else on their own version.
+   */
+  private static boolean inRange(
+      final InstallableUnit unit,
+      final boolean byCapability,
+      @Nullable final String namespace,
+      @Nullable final String name,
+      final VersionRange range)
+  {
+    if (!byCapability) {
+      return range.includes(unit.getVersion());
+    }
+    return unit.getProvided().stream().anyMatch(capability -> namespace.equals(capability.getKind())
+        && name.equals(capability.getName())
+        && capability.getVersion() != null && range.includes(capability.getVersion()));
+  }
+
+  private static InstallableUnitXO toXO(final Repository repository, final String site, final InstallableUnit unit) {
+    List<InstallableUnitArtifactXO> artifacts = new ArrayList<>();
+    for (Key artifact : unit.getArtifacts()) {
+      String path = artifact.getArtifactPath();
+      if (path != null) {
+        artifacts.add(new InstallableUnitArtifactXO(artifact.getKind(), site + path,
+            repository.getUrl() + '/' + site + path));
+      }
+    }
+    String siteHash = site.isEmpty() ? site : site.substring(0, site.length() - 1);
+    return new InstallableUnitXO(unit.getId(), unit.getVersion(), unit.getName(), siteHash, artifacts);
+  }
+
+  private static VersionRange parseRange(@Nullable final String range) {
+    try {
+      return VersionRange.parse(range);
+    }
+    catch (IllegalArgumentException e) {
+      throw new BadRequestException(e.getMessage());
+    }
+  }
+
+  private static int parseOffset(@Nullable final String continuationToken) {
+    if (continuationToken == null) {
+      return 0;
+    }
+    try {
+      return Math.max(0, Integer.parseInt(continuationToken));
+    }
+    catch (NumberFormatException e) {
+      throw new BadRequestException("Invalid continuation token: " + continuationToken);
+    }
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.rest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.ForbiddenException;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+
+import org.sonatype.goodies.common.ComponentSupport;
+import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.manager.RepositoryManager;
+import org.sonatype.nexus.repository.p2.api.P2WarmUpXO;
+import org.sonatype.nexus.repository.p2.internal.P2Format;
+import org.sonatype.nexus.repository.p2.internal.metadata.InstallableUnitIndex.Requirement;
+import org.sonatype.nexus.repository.p2.internal.metadata.InstallableUnitResolver.Resolution;
+import org.sonatype.nexus.repository.p2.internal.metadata.TargetDefinition;
+import org.sonatype.nexus.repository.p2.internal.proxy.P2ProxyFacetImpl;
+import org.sonatype.nexus.repository.proxy.ProxyFacet;
+import org.sonatype.nexus.repository.rest.api.RepositoriesApiResourceV1;
+import org.sonatype.nexus.repository.security.RepositoryPermissionChecker;
+import org.sonatype.nexus.repository.types.ProxyType;
+import org.sonatype.nexus.rest.Resource;
+
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiParam;
+import io.swagger.annotations.ApiResponse;
+import io.swagger.annotations.ApiResponses;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.Collections.singletonList;
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
+import static javax.ws.rs.core.MediaType.APPLICATION_XML;
+import static javax.ws.rs.core.MediaType.TEXT_PLAIN;
+import static javax.ws.rs.core.MediaType.TEXT_XML;
+import static org.sonatype.nexus.security.BreadActions.EDIT;
+
+/**
+ * Warms a p2 proxy repository up for a target platform: resolves the requirement closure of installable units against
+ * the content metadata it cached and fetches the artifacts of the closure in parallel, in the background. As this
+ * fills the cache of the repository, it requires the privilege to edit the repository.
+ *
+ * @since 1.1.14
+ */
+@Named
+@Singleton
+@Path(P2WarmUpApiResource.RESOURCE_URI)
+@Produces(APPLICATION_JSON)
+@Api("p2: warm-up")
+public class P2WarmUpApiResource
+    extends ComponentSupport
+    implements Resource
+{
+  public static final String RESOURCE_URI = RepositoriesApiResourceV1.RESOURCE_URI + "/p2/{repositoryName}/warmup";
+
+  private final RepositoryManager repositoryManager;
+
+  private final RepositoryPermissionChecker repositoryPermissionChecker;
+
+  @Inject
+  public P2WarmUpApiResource(
+      final RepositoryManager repositoryManager,
+      final RepositoryPermissionChecker repositoryPermissionChecker)
+  {
+    this.repositoryManager = checkNotNull(repositoryManager);
+    this.repositoryPermissionChecker = checkNotNull(repositoryPermissionChecker);
+  }
+
+  @ApiOperation("Warm a p2 proxy repository up for the units of a target definition (.target file)")
+  @ApiResponses(value = {
+      @ApiResponse(code = 400, message = "Not a valid target definition"),
+      @ApiResponse(code = 403, message = "Insufficient permissions to edit the repository"),
+      @ApiResponse(code = 404, message = "No p2 proxy repository with the name")
+  })
+  @POST
+  @Consumes({APPLICATION_XML, TEXT_XML})
+  public P2WarmUpXO warmUpTarget(
+      @ApiParam(value = "Name of the p2 proxy repository") @PathParam("repositoryName") final String repositoryName,
+      @ApiParam(value = "The target definition") final InputStream target)
+  {
+    P2ProxyFacetImpl proxyFacet = proxyFacet(repositoryName);
+    try {
+      return warmUp(repositoryName, proxyFacet, TargetDefinition.parse(target));
+    }
+    catch (IOException e) {
+      throw new BadRequestException("Invalid target definition: " + e.getMessage());
+    }
+  }
+
+  @ApiOperation("Warm a p2 proxy repository up for installable units, one per line as an id and optional range")
+  @ApiResponses(value = {
+      @ApiResponse(code = 400, message = "An invalid version range"),
+      @ApiResponse(code = 403, message = "Insufficient permissions to edit the repository"),
+      @ApiResponse(code = 404, message = "No p2 proxy repository with the name")
+  })
+  @POST
+  @Consumes(TEXT_PLAIN)
+  public P2WarmUpXO warmUpUnits(
+      @ApiParam(value = "Name of the p2 proxy repository") @PathParam("repositoryName") final String repositoryName,
+      @ApiParam(value = "The units, e.g. org.eclipse.platform.feature.group [4.16.0,4.17.0)") final String units)
+  {
+    P2ProxyFacetImpl proxyFacet = proxyFacet(repositoryName);
+    try {
+      return warmUp(repositoryName, proxyFacet, TargetDefinition.parseUnits(units));
+    }
+    catch (IOException | IllegalArgumentException e) {
+      throw new BadRequestException(e.getMessage());
+    }
+  }
+
+  private P2ProxyFacetImpl proxyFacet(final String repositoryName) {
+    Repository repository = repositoryManager.get(repositoryName);
+    if (repository == null || !P2Format.NAME.equals(repository.getFormat().getValue())
+        || !(repository.getType() instanceof ProxyType)) {
+      throw new NotFoundException("No p2 proxy repository named " + repositoryName);
+    }
+    // the artifacts are fetched into the cache on behalf of the user, so browsing is not enough
+    if (repositoryPermissionChecker.userHasRepositoryAdminPermission(singletonList(repository), EDIT).isEmpty()) {
+      throw new ForbiddenException();
+    }
+    return (P2ProxyFacetImpl) repository.facet(ProxyFacet.class);
+  }
+
+  private P2WarmUpXO warmUp(
+      final String repositoryName,
+      final P2ProxyFacetImpl proxyFacet,
+      final List<Requirement> units)
+  {
+    Resolution resolution = proxyFacet.resolve(units, proxyFacet.getPlatformFilter()::matches);
+    List<String> paths = resolution.getArtifactPaths();
+    int queued = proxyFacet.prefetch(paths);
+    log.info("Warming p2 repository {} up: {} unit(s) resolved, {} of {} artifact(s) queued, {} unresolved",
+        repositoryName, resolution.getUnits().size(), queued, paths.size(),
+        resolution.getUnresolved().size());
+    return new P2WarmUpXO(resolution.getUnits().size(), paths.size(), queued, resolution.isTruncated(),
+        resolution.getUnresolved());
+  }
+}
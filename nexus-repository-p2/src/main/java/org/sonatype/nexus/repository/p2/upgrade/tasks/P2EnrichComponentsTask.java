@@ -0,0 +1,74 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.upgrade.tasks;
+
+import java.util.List;
+
+import javax.inject.Named;
+
+import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.RepositoryTaskSupport;
+import org.sonatype.nexus.repository.p2.internal.P2Format;
+import org.sonatype.nexus.repository.p2.internal.proxy.P2ProxyFacetImpl;
+import org.sonatype.nexus.repository.proxy.ProxyFacet;
+import org.sonatype.nexus.repository.types.ProxyType;
+import org.sonatype.nexus.scheduling.Cancelable;
+import org.sonatype.nexus.scheduling.CancelableHelper;
+
+/**
+ * Extracts the attributes of the bundles stored with deferred enrichment which were not enriched yet, e.g. because
+ * the enrichment queue was full, and moves them to the components they identify.
+ *
+ * @since 1.1.14
+ */
+@Named
+public class P2EnrichComponentsTask
+    extends RepositoryTaskSupport
+    implements Cancelable
+{
+  @Override
+  protected void execute(final Repository repository) {
+    P2ProxyFacetImpl proxyFacet = (P2ProxyFacetImpl) repository.facet(ProxyFacet.class);
+
+    int enriched = 0;
+    int failed = 0;
+    // a page at a time, the bundles which failed are still pending but come before the next page
+    List<String> pending = proxyFacet.findPendingEnrichment(null);
+    while (!pending.isEmpty()) {
+      for (String assetName : pending) {
+        CancelableHelper.checkCancellation();
+        try {
+          proxyFacet.enrich(assetName);
+          enriched++;
+        }
+        catch (Exception e) {
+          log.warn("Unable to enrich {} in p2 repository: {}", assetName, repository.getName(), e);
+          failed++;
+        }
+      }
+      pending = proxyFacet.findPendingEnrichment(pending.get(pending.size() - 1));
+    }
+
+    log.info("Enriched {} bundle(s) in p2 repository: {}, {} failed", enriched, repository.getName(), failed);
+  }
+
+  @Override
+  protected boolean appliesTo(final Repository repository) {
+    return repository.getFormat() instanceof P2Format && repository.getType() instanceof ProxyType;
+  }
+
+  @Override
+  public String getMessage() {
+    return "Enrich p2 components of " + getRepositoryField();
+  }
+}
@@ -0,0 +1,48 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.upgrade.tasks;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.sonatype.nexus.formfields.RepositoryCombobox;
+import org.sonatype.nexus.repository.RepositoryTaskSupport;
+import org.sonatype.nexus.repository.p2.internal.P2Format;
+import org.sonatype.nexus.repository.types.ProxyType;
+import org.sonatype.nexus.scheduling.TaskDescriptorSupport;
+
+/**
+ * Task descriptor for {@link P2EnrichComponentsTask}.
+ *
+ * @since 1.1.14
+ */
+@Named
+@Singleton
+public class P2EnrichComponentsTaskDescriptor
+    extends TaskDescriptorSupport
+{
+  public static final String TASK_NAME = "p2 - enrich components";
+
+  public static final String TYPE_ID = "repository.p2.enrich-components";
+
+  public P2EnrichComponentsTaskDescriptor() {
+    super(TYPE_ID, P2EnrichComponentsTask.class, TASK_NAME, VISIBLE, EXPOSED,
+        new RepositoryCombobox(
+            RepositoryTaskSupport.REPOSITORY_NAME_FIELD_ID,
+            "Repository",
+            "Select the p2 proxy repository to enrich the pending bundles of",
+            true
+        ).includingAnyOfFormats(P2Format.NAME).includingAnyOfTypes(ProxyType.NAME).includeAnEntryForAllRepositories()
+    );
+  }
+}
@@ -0,0 +1,237 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.upgrade.tasks;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.RepositoryTaskSupport;
+import org.sonatype.nexus.repository.browse.node.RebuildBrowseNodesTaskDescriptor;
+import org.sonatype.nexus.repository.cache.CacheInfo;
+import org.sonatype.nexus.repository.p2.internal.AssetKind;
+import org.sonatype.nexus.repository.p2.internal.P2Format;
+import org.sonatype.nexus.repository.p2.internal.metadata.SiteUrlCanonicalizer;
+import org.sonatype.nexus.repository.p2.internal.metadata.UriToSiteHashUtil;
+import org.sonatype.nexus.repository.p2.internal.proxy.P2ProxyFacetImpl;
+import org.sonatype.nexus.repository.proxy.ProxyFacet;
+import org.sonatype.nexus.repository.storage.Asset;
+import org.sonatype.nexus.repository.storage.Bucket;
+import org.sonatype.nexus.repository.storage.Query;
+import org.sonatype.nexus.repository.storage.StorageFacet;
+import org.sonatype.nexus.repository.storage.StorageTx;
+import org.sonatype.nexus.repository.types.ProxyType;
+import org.sonatype.nexus.scheduling.Cancelable;
+import org.sonatype.nexus.scheduling.CancelableHelper;
+import org.sonatype.nexus.scheduling.TaskConfiguration;
+import org.sonatype.nexus.scheduling.TaskScheduler;
+import org.sonatype.nexus.transaction.Transactional;
+import org.sonatype.nexus.transaction.UnitOfWork;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.reflect.TypeToken;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.sonatype.nexus.repository.storage.AssetEntityAdapter.P_ASSET_KIND;
+import static org.sonatype.nexus.repository.storage.MetadataNodeEntityAdapter.P_ATTRIBUTES;
+import static org.sonatype.nexus.repository.storage.MetadataNodeEntityAdapter.P_NAME;
+
+/**
+ * Merges p2 site caches which were stored under different site hashes but are equivalent according to the
+ * repository's configured site URL canonicalization.
+ *
+ * Assets cached under a non-canonical site hash are moved to the canonical site hash, or deleted when the canonical
+ * site already holds the same path. Composite metadata is invalidated so it is rewritten to reference the canonical
+ * site hashes on the next request. The assets of a site are merged a batch at a time, each batch in its own
+ * transaction.
+ *
+ * @since 1.1.14
+ */
+@Named
+public class P2MergeDuplicateSitesTask
+    extends RepositoryTaskSupport
+    implements Cancelable
+{
+  private static final int BATCH_SIZE = 1000;
+
+  private static final String ASSET_KIND_FIELD = P_ATTRIBUTES + '.' + P2Format.NAME + '.' + P_ASSET_KIND;
+
+  private final TaskScheduler taskScheduler;
+
+  @Inject
+  public P2MergeDuplicateSitesTask(final TaskScheduler taskScheduler) {
+    this.taskScheduler = checkNotNull(taskScheduler);
+  }
+
+  @Override
+  protected void execute(final Repository repository) {
+    SiteUrlCanonicalizer canonicalizer =
+        ((P2ProxyFacetImpl) repository.facet(ProxyFacet.class)).getSiteUrlCanonicalizer();
+    if (canonicalizer.isIdentity()) {
+      log.info("No site URL canonicalization configured for p2 repository: {}", repository.getName());
+      return;
+    }
+
+    Map<String, String> canonicalSites = inTx(repository, tx -> findDuplicateSites(tx, repository, canonicalizer));
+    log.info("Found {} duplicate site(s) in p2 repository: {}", canonicalSites.size(), repository.getName());
+
+    Merged merged = new Merged();
+    for (Entry<String, String> site : canonicalSites.entrySet()) {
+      String after = null;
+      do {
+        CancelableHelper.checkCancellation();
+        String last = after;
+        after = inTx(repository, tx -> mergeBatch(tx, repository, site.getKey(), site.getValue(), last, merged));
+      }
+      while (after != null);
+    }
+
+    if (!canonicalSites.isEmpty()) {
+      inTx(repository, tx -> {
+        for (Asset asset : findComposites(tx, repository)) {
+          CacheInfo.invalidateAsset(asset);
+          tx.saveAsset(asset);
+        }
+        return null;
+      });
+    }
+
+    log.info("Merged duplicate sites in p2 repository: {}, moved {} and deleted {} asset(s)", repository.getName(),
+        merged.moved, merged.deleted);
+    if (merged.moved + merged.deleted > 0) {
+      rebuildBrowse(repository);
+    }
+  }
+
+  /**
+   * Move the next batch of assets of the site to the canonical site, or delete those the canonical site already holds.
+   *
+   * @return the name of the last asset of the batch, or {@code null} once the site has no more assets
+   */
+  @Nullable
+  private String mergeBatch(
+      final StorageTx tx,
+      final Repository repository,
+      final String site,
+      final String canonicalSite,
+      @Nullable final String after,
+      final Merged merged)
+  {
+    Bucket bucket = tx.findBucket(repository);
+    Query.Builder query = Query.builder().where(P_NAME).like(site + "/%");
+    if (after != null) {
+      query.and(P_NAME + " > ").param(after);
+    }
+    query.suffix(" ORDER BY " + P_NAME + " LIMIT " + BATCH_SIZE);
+
+    String last = null;
+    int count = 0;
+    for (Asset asset : tx.findAssets(query.build(), Collections.singleton(repository))) {
+      String name = asset.name();
+      String canonicalName = canonicalSite + name.substring(site.length());
+      if (tx.findAssetWithProperty(P_NAME, canonicalName, bucket) != null) {
+        log.debug("Deleting duplicate asset: {}", name);
+        tx.deleteAsset(asset);
+        merged.deleted++;
+      }
+      else {
+        log.debug("Moving asset: {} to {}", name, canonicalName);
+        asset.name(canonicalName);
+        tx.saveAsset(asset);
+        merged.moved++;
+      }
+      last = name;
+      count++;
+    }
+    return count < BATCH_SIZE ? null : last;
+  }
+
+  private Map<String, String> findDuplicateSites(
+      final StorageTx tx,
+      final Repository repository,
+      final SiteUrlCanonicalizer canonicalizer)
+  {
+    Map<String, String> canonicalSites = new HashMap<>();
+    for (Asset asset : findComposites(tx, repository)) {
+      List<String> urls = asset.formatAttributes().get(P2ProxyFacetImpl.CHILD_URLS, new TypeToken<List<String>>()
+      {
+      });
+      if (urls == null) {
+        continue;
+      }
+      for (String url : urls) {
+        String site = UriToSiteHashUtil.map(url);
+        String canonicalSite = UriToSiteHashUtil.map(url, canonicalizer);
+        if (!site.equals(canonicalSite)) {
+          canonicalSites.put(site, canonicalSite);
+        }
+      }
+    }
+    return canonicalSites;
+  }
+
+  private static Iterable<Asset> findComposites(final StorageTx tx, final Repository repository) {
+    Query query = Query.builder()
+        .where(ASSET_KIND_FIELD).eq(AssetKind.COMPOSITE_ARTIFACTS.name())
+        .or(ASSET_KIND_FIELD).eq(AssetKind.COMPOSITE_CONTENT.name())
+        .build();
+    return tx.findAssets(query, Collections.singleton(repository));
+  }
+
+  private static <T> T inTx(final Repository repository, final TxFunction<T> function) {
+    return Transactional.operation.withDb(repository.facet(StorageFacet.class).txSupplier())
+        .call(() -> function.apply(UnitOfWork.currentTx()));
+  }
+
+  @FunctionalInterface
+  private interface TxFunction<T>
+  {
+    T apply(StorageTx tx);
+  }
+
+  private static class Merged
+  {
+    private int moved;
+
+    private int deleted;
+  }
+
+  private void rebuildBrowse(final Repository repository) {
+    boolean existingTask = taskScheduler.findAndSubmit(RebuildBrowseNodesTaskDescriptor.TYPE_ID,
+        ImmutableMap.of(RebuildBrowseNodesTaskDescriptor.REPOSITORY_NAME_FIELD_ID, repository.getName()));
+    if (!existingTask) {
+      TaskConfiguration configuration = taskScheduler
+          .createTaskConfigurationInstance(RebuildBrowseNodesTaskDescriptor.TYPE_ID);
+      configuration.setString(RebuildBrowseNodesTaskDescriptor.REPOSITORY_NAME_FIELD_ID, repository.getName());
+      configuration.setName("Rebuild repository browse tree - (" + repository.getName() + ")");
+      taskScheduler.submit(configuration);
+    }
+  }
+
+  @Override
+  protected boolean appliesTo(final Repository repository) {
+    return repository.getFormat() instanceof P2Format && repository.getType() instanceof ProxyType;
+  }
+
+  @Override
+  public String getMessage() {
+    return "Merge duplicate p2 site caches of " + getRepositoryField();
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.upgrade.tasks;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.inject.Named;
+
+import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.RepositoryTaskSupport;
+import org.sonatype.nexus.repository.p2.internal.P2Format;
+import org.sonatype.nexus.repository.p2.internal.metadata.InstallableUnitIndex.Requirement;
+import org.sonatype.nexus.repository.p2.internal.metadata.InstallableUnitResolver.Resolution;
+import org.sonatype.nexus.repository.p2.internal.metadata.TargetDefinition;
+import org.sonatype.nexus.repository.p2.internal.proxy.P2ProxyFacetImpl;
+import org.sonatype.nexus.repository.proxy.ProxyFacet;
+import org.sonatype.nexus.repository.types.ProxyType;
+import org.sonatype.nexus.scheduling.Cancelable;
+import org.sonatype.nexus.scheduling.CancelableHelper;
+
+import static org.sonatype.nexus.repository.p2.upgrade.tasks.P2WarmUpTaskDescriptor.UNITS_FIELD_ID;
+
+/**
+ * Resolves the requirement closure of a target platform against the content metadata cached by a p2 proxy
+ * repository and queues the artifacts of the closure to be fetched in the background.
+ *
+ * @since 1.1.14
+ */
+@Named
+public class P2WarmUpTask
+    extends RepositoryTaskSupport
+    implements Cancelable
+{
+  @Override
+  protected void execute(final Repository repository) {
+    List<Requirement> units;
+    try {
+      units = TargetDefinition.parseUnits(getConfiguration().getString(UNITS_FIELD_ID, ""));
+    }
+    catch (IOException e) {
+      throw new IllegalArgumentException("Invalid target definition: " + e.getMessage(), e);
+    }
+
+    P2ProxyFacetImpl proxyFacet = (P2ProxyFacetImpl) repository.facet(ProxyFacet.class);
+    CancelableHelper.checkCancellation();
+    Resolution resolution = proxyFacet.resolve(units, proxyFacet.getPlatformFilter()::matches);
+    if (resolution.isTruncated()) {
+      log.warn("Requirement closure truncated in p2 repository: {}", repository.getName());
+    }
+    for (String unresolved : resolution.getUnresolved()) {
+      log.info("Unable to resolve {} in p2 repository: {}", unresolved, repository.getName());
+    }
+
+    CancelableHelper.checkCancellation();
+    List<String> paths = resolution.getArtifactPaths();
+    int queued = proxyFacet.prefetch(paths);
+    log.info("Resolved {} unit(s) in p2 repository: {}, queued {} of {} artifact(s) to be fetched",
+        resolution.getUnits().size(), repository.getName(), queued, paths.size());
+  }
+
+  @Override
+  protected boolean appliesTo(final Repository repository) {
+    return repository.getFormat() instanceof P2Format && repository.getType() instanceof ProxyType;
+  }
+
+  @Override
+  public String getMessage() {
+    return "Warm up p2 repository " + getRepositoryField() + " for a target platform";
+  }
+}
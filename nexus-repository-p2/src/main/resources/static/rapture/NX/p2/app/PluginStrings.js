@@ -28,7 +28,10 @@ Ext.define('NX.p2.app.PluginStrings', {
     SearchP2_Text: 'P2',
     SearchP2_Description: 'Search for components in P2 repositories',
     SearchP2_Group: 'P2 Repositories',
-    SearchP2_PluginName_FieldLabel: 'Plugin name'
+    SearchP2_PluginName_FieldLabel: 'Plugin name',
+    SearchP2_FeatureId_FieldLabel: 'Feature id',
+    SearchP2_ProvidedPackages_FieldLabel: 'Exported package',
+    SearchP2_AssetKind_FieldLabel: 'Asset kind'
   }
 }, function(self) {
   NX.I18n.register(self);
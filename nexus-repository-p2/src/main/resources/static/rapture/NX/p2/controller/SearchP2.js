@@ -32,6 +32,33 @@ Ext.define('NX.p2.controller.SearchP2', {
           fieldLabel: NX.I18n.get('SearchP2_PluginName_FieldLabel'),
           width: 250
         }
+      },
+      {
+        id: 'attributes.p2.featureId',
+        group: NX.I18n.get('SearchP2_Group'),
+        config: {
+          format: 'p2',
+          fieldLabel: NX.I18n.get('SearchP2_FeatureId_FieldLabel'),
+          width: 250
+        }
+      },
+      {
+        id: 'attributes.p2.providedPackages',
+        group: NX.I18n.get('SearchP2_Group'),
+        config: {
+          format: 'p2',
+          fieldLabel: NX.I18n.get('SearchP2_ProvidedPackages_FieldLabel'),
+          width: 250
+        }
+      },
+      {
+        id: 'assets.attributes.p2.asset_kind',
+        group: NX.I18n.get('SearchP2_Group'),
+        config: {
+          format: 'p2',
+          fieldLabel: NX.I18n.get('SearchP2_AssetKind_FieldLabel'),
+          width: 250
+        }
       }
     ], me);
 
@@ -44,7 +71,8 @@ Ext.define('NX.p2.controller.SearchP2', {
       criterias: [
         {id: 'format', value: 'p2', hidden: true},
         {id: 'attributes.p2.pluginName'},
-        {id: 'name.raw'}
+        {id: 'name.raw'},
+        {id: 'version'}
       ]
     }, me);
   }
@@ -0,0 +1,106 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.repository.p2.internal.P2CreateLocks.Section;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.fail;
+
+public class P2CreateLocksTest
+    extends TestSupport
+{
+  private final P2CreateLocks underTest = new P2CreateLocks(16);
+
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void serializesCreationOfTheSameComponent() throws Exception {
+    CountDownLatch locked = new CountDownLatch(1);
+    Future<?> other;
+    try (Section section = underTest.lock("org.eclipse.core", "1.0.0", "plugins/org.eclipse.core_1.0.0.jar")) {
+      other = executor.submit(() -> {
+        try (Section pack = underTest.lock("org.eclipse.core", "1.0.0", "plugins/org.eclipse.core_1.0.0.jar.pack.gz")) {
+          locked.countDown();
+        }
+      });
+      assertThat(locked.await(200, TimeUnit.MILLISECONDS), is(false));
+    }
+    other.get(5, TimeUnit.SECONDS);
+
+    assertThat(locked.getCount(), is(0L));
+    assertThat(underTest.getAcquired().getCount(), is(2L));
+    assertThat(underTest.getContended().getCount(), is(1L));
+  }
+
+  @Test
+  public void nestedSectionsDoNotLock() throws Exception {
+    Future<Boolean> other;
+    try (Section section = underTest.lock("a", "1.0.0", "plugins/a_1.0.0.jar")) {
+      try (Section nested = underTest.lock("b", "1.0.0", "plugins/b_1.0.0.jar")) {
+        underTest.attempt();
+      }
+      // still held after the nested section was closed
+      other = executor.submit(() -> {
+        try (Section again = underTest.lock("a", "1.0.0", "plugins/a_1.0.0.jar")) {
+          return true;
+        }
+      });
+      try {
+        other.get(200, TimeUnit.MILLISECONDS);
+        fail("Expected the section to be held");
+      }
+      catch (TimeoutException e) {
+        // expected
+      }
+    }
+
+    assertThat(other.get(5, TimeUnit.SECONDS), is(true));
+    assertThat(underTest.getAcquired().getCount(), is(2L));
+    assertThat(underTest.getRetries().getCount(), is(0L));
+  }
+
+  @Test
+  public void countsRetries() {
+    underTest.attempt();
+    assertThat(underTest.getRetries().getCount(), is(0L));
+
+    try (Section section = underTest.lock("a", "1.0.0", "plugins/a_1.0.0.jar")) {
+      underTest.attempt();
+      underTest.attempt();
+      underTest.attempt();
+    }
+    try (Section section = underTest.lock("a", "1.0.0", "plugins/a_1.0.0.jar")) {
+      underTest.attempt();
+    }
+
+    assertThat(underTest.getRetries().getCount(), is(2L));
+  }
+}
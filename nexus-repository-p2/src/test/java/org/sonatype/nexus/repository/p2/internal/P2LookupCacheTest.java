@@ -0,0 +1,183 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.common.entity.DetachedEntityId;
+import org.sonatype.nexus.common.entity.EntityId;
+import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.storage.Asset;
+import org.sonatype.nexus.repository.storage.AssetDeletedEvent;
+import org.sonatype.nexus.repository.storage.Bucket;
+import org.sonatype.nexus.repository.storage.Component;
+import org.sonatype.nexus.repository.storage.ComponentDeletedEvent;
+import org.sonatype.nexus.repository.storage.StorageTx;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class P2LookupCacheTest
+    extends TestSupport
+{
+  private static final String REPOSITORY_NAME = "p2-proxy";
+
+  private static final String ASSET_NAME = "plugins/org.example.bundle_1.0.0.jar";
+
+  private static final String COMPONENT_NAME = "org.example.bundle";
+
+  private static final String COMPONENT_VERSION = "1.0.0";
+
+  private static final EntityId ID = new DetachedEntityId("1");
+
+  @Mock
+  private Repository repository;
+
+  @Mock
+  private StorageTx tx;
+
+  @Mock
+  private Bucket bucket;
+
+  @Mock
+  private Asset asset;
+
+  @Mock
+  private Asset staleAsset;
+
+  @Mock
+  private Component component;
+
+  @Mock
+  private Component staleComponent;
+
+  @Mock
+  private AssetDeletedEvent assetDeletedEvent;
+
+  @Mock
+  private ComponentDeletedEvent componentDeletedEvent;
+
+  private P2LookupCache cache;
+
+  private P2FacetImpl underTest;
+
+  @Before
+  public void setUp() throws Exception {
+    when(repository.getName()).thenReturn(REPOSITORY_NAME);
+    when(tx.findBucket(repository)).thenReturn(bucket);
+    when(asset.name()).thenReturn(ASSET_NAME);
+    when(staleAsset.name()).thenReturn("plugins/org.example.other_1.0.0.jar");
+    when(component.name()).thenReturn(COMPONENT_NAME);
+    when(component.version()).thenReturn(COMPONENT_VERSION);
+    when(staleComponent.name()).thenReturn("org.example.other");
+    when(staleComponent.version()).thenReturn(COMPONENT_VERSION);
+
+    cache = new P2LookupCache(10);
+    underTest = new P2FacetImpl();
+    underTest.attach(repository);
+    underTest.setLookupCache(cache);
+  }
+
+  @Test
+  public void forgetsInvalidatedIds() {
+    cache.putAsset(ASSET_NAME, ID);
+    cache.putComponent(COMPONENT_NAME, COMPONENT_VERSION, ID);
+
+    assertThat(cache.getAssetId(ASSET_NAME), is(equalTo(ID)));
+    assertThat(cache.getComponentId(COMPONENT_NAME, COMPONENT_VERSION), is(equalTo(ID)));
+    assertThat(cache.size(), is(2L));
+
+    cache.invalidateAsset(ASSET_NAME);
+    cache.invalidateComponent(COMPONENT_NAME, COMPONENT_VERSION);
+
+    assertThat(cache.getAssetId(ASSET_NAME), is(nullValue()));
+    assertThat(cache.getComponentId(COMPONENT_NAME, COMPONENT_VERSION), is(nullValue()));
+  }
+
+  @Test
+  public void deletedAssetIsForgotten() {
+    cache.putAsset(ASSET_NAME, ID);
+    when(assetDeletedEvent.getRepositoryName()).thenReturn(REPOSITORY_NAME);
+    when(assetDeletedEvent.getAsset()).thenReturn(asset);
+
+    underTest.on(assetDeletedEvent);
+
+    assertThat(cache.getAssetId(ASSET_NAME), is(nullValue()));
+  }
+
+  @Test
+  public void deletedComponentIsForgotten() {
+    cache.putComponent(COMPONENT_NAME, COMPONENT_VERSION, ID);
+    when(componentDeletedEvent.getRepositoryName()).thenReturn(REPOSITORY_NAME);
+    when(componentDeletedEvent.getComponent()).thenReturn(component);
+
+    underTest.on(componentDeletedEvent);
+
+    assertThat(cache.getComponentId(COMPONENT_NAME, COMPONENT_VERSION), is(nullValue()));
+  }
+
+  @Test
+  public void deletionsOfOtherRepositoriesAreIgnored() {
+    cache.putAsset(ASSET_NAME, ID);
+    when(assetDeletedEvent.getRepositoryName()).thenReturn("other");
+    when(assetDeletedEvent.getAsset()).thenReturn(asset);
+
+    underTest.on(assetDeletedEvent);
+
+    assertThat(cache.getAssetId(ASSET_NAME), is(equalTo(ID)));
+  }
+
+  @Test
+  public void assetIsLoadedByItsId() {
+    cache.putAsset(ASSET_NAME, ID);
+    when(tx.findAsset(ID, bucket)).thenReturn(asset);
+
+    assertThat(underTest.findAsset(tx, bucket, ASSET_NAME), is(equalTo(asset)));
+    verify(tx, never()).findAssetWithProperty(any(), any(), any(Bucket.class));
+    assertThat(cache.getAssetHits().getCount(), is(1L));
+  }
+
+  @Test
+  public void staleAssetIdIsRejected() {
+    cache.putAsset(ASSET_NAME, ID);
+    when(tx.findAsset(ID, bucket)).thenReturn(staleAsset);
+    when(tx.findAssetWithProperty(any(), any(), any(Bucket.class))).thenReturn(asset);
+
+    assertThat(underTest.findAsset(tx, bucket, ASSET_NAME), is(equalTo(asset)));
+    assertThat(cache.getAssetHits().getCount(), is(0L));
+    assertThat(cache.getAssetMisses().getCount(), is(1L));
+    assertThat(cache.getAssetId(ASSET_NAME), is(nullValue()));
+  }
+
+  @Test
+  public void staleComponentIdIsRejected() {
+    cache.putComponent(COMPONENT_NAME, COMPONENT_VERSION, ID);
+    when(tx.findComponentInBucket(ID, bucket)).thenReturn(staleComponent);
+    when(tx.findComponents(any(), any())).thenReturn(ImmutableList.of(component));
+
+    assertThat(underTest.findComponent(tx, repository, COMPONENT_NAME, COMPONENT_VERSION), is(equalTo(component)));
+    assertThat(cache.getComponentHits().getCount(), is(0L));
+    assertThat(cache.getComponentMisses().getCount(), is(1L));
+    assertThat(cache.getComponentId(COMPONENT_NAME, COMPONENT_VERSION), is(nullValue()));
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.group;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.repository.view.Content;
+import org.sonatype.nexus.repository.view.payloads.BytesPayload;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.core.Is.is;
+
+public class MemberSitesTest
+    extends TestSupport
+{
+  private static final String COMPOSITE = "<?xml version='1.0' encoding='UTF-8'?>\n" +
+      "<?compositeArtifactRepository version='1.0.0'?>\n" +
+      "<repository name='eclipse'" +
+      " type='org.eclipse.equinox.internal.p2.artifact.repository.CompositeArtifactRepository' version='1.0.0'>\n" +
+      "  <children size='4'>\n" +
+      "    <child location='0a/'/>\n" +
+      "    <child location='../0b/'/>\n" +
+      "    <child location='https://download.eclipse.org/releases/2020-06/'/>\n" +
+      "    <child location='0a'/>\n" +
+      "  </children>\n" +
+      "</repository>\n";
+
+  private final Map<String, Content> assets = new HashMap<>();
+
+  private MemberSites underTest;
+
+  @Before
+  public void setUp() {
+    underTest = new MemberSites(Arrays.asList("eclipse", "hosted"), (member, path) -> assets.get(member + '/' + path));
+  }
+
+  @Test
+  public void rootIsCompositeOfMembers() throws Exception {
+    assertThat(underTest.get("compositeArtifacts.jar"), notNullValue());
+    assertThat(underTest.get("artifacts.jar"), nullValue());
+    assertThat(underTest.get("p2.index"), nullValue());
+    assertThat(underTest.getChildren("compositeArtifacts.jar"), contains("eclipse/", "hosted/"));
+  }
+
+  @Test
+  public void getsAssetsOfMembersOnly() throws Exception {
+    Content content = content("jar");
+    assets.put("hosted/artifacts.jar", content);
+    assets.put("other/artifacts.jar", content("other"));
+
+    assertThat(underTest.get("hosted/artifacts.jar"), is(content));
+    assertThat(underTest.get("eclipse/artifacts.jar"), nullValue());
+    assertThat(underTest.get("other/artifacts.jar"), nullValue());
+  }
+
+  @Test
+  public void childSitesOfCompositeOfMemberAreServedByMember() throws Exception {
+    assets.put("eclipse/compositeArtifacts.xml", content(COMPOSITE));
+    assets.put("eclipse/0c/compositeArtifacts.xml", content(COMPOSITE));
+
+    // the parent of the root of the member is not served by the member
+    assertThat(underTest.getChildren("eclipse/compositeArtifacts.xml"), contains("eclipse/0a/"));
+    assertThat(underTest.getChildren("eclipse/0c/compositeArtifacts.xml"),
+        contains("eclipse/0c/0a/", "eclipse/0b/"));
+    assertThat(underTest.getChildren("hosted/compositeArtifacts.xml"), empty());
+  }
+
+  @Test
+  public void resolvesLocationsWithinTheMember() {
+    assertThat(MemberSites.resolve("eclipse/compositeContent.jar", "0a/"), is("eclipse/0a/"));
+    assertThat(MemberSites.resolve("eclipse/0a/compositeContent.jar", "../0b"), is("eclipse/0b/"));
+    assertThat(MemberSites.resolve("eclipse/compositeContent.jar", "./"), nullValue());
+    assertThat(MemberSites.resolve("eclipse/compositeContent.jar", "../hosted/"), nullValue());
+    assertThat(MemberSites.resolve("eclipse/compositeContent.jar", "http://example.com/p2/"), nullValue());
+    assertThat(MemberSites.resolve("eclipse/compositeContent.jar", "//example.com/p2/"), nullValue());
+  }
+
+  @Test
+  public void readsChildLocations() throws Exception {
+    assertThat(MemberSites.readChildLocations(new ByteArrayInputStream(COMPOSITE.getBytes(StandardCharsets.UTF_8))),
+        contains("0a/", "../0b/", "https://download.eclipse.org/releases/2020-06/", "0a"));
+  }
+
+  private static Content content(final String text) {
+    return new Content(new BytesPayload(text.getBytes(StandardCharsets.UTF_8), "text/xml"));
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.group;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.common.app.ApplicationDirectories;
+import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.config.Configuration;
+import org.sonatype.nexus.repository.config.ConfigurationFacet;
+import org.sonatype.nexus.repository.group.GroupFacet;
+import org.sonatype.nexus.repository.p2.internal.util.FlattenedRepositories;
+import org.sonatype.nexus.repository.view.Content;
+import org.sonatype.nexus.repository.view.Context;
+import org.sonatype.nexus.repository.view.Request;
+import org.sonatype.nexus.repository.view.Response;
+import org.sonatype.nexus.repository.view.ViewFacet;
+import org.sonatype.nexus.repository.view.payloads.BytesPayload;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.core.Is.is;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.sonatype.nexus.repository.http.HttpResponses.notFound;
+import static org.sonatype.nexus.repository.http.HttpResponses.ok;
+
+public class P2GroupFacetImplTest
+    extends TestSupport
+{
+  @Mock
+  private Repository group;
+
+  @Mock
+  private GroupFacet groupFacet;
+
+  @Mock
+  private ConfigurationFacet configurationFacet;
+
+  @Mock
+  private Configuration configuration;
+
+  @Mock
+  private Context context;
+
+  private final P2GroupConfig p2Config = new P2GroupConfig();
+
+  private Repository releases;
+
+  private Repository hosted;
+
+  private P2GroupFacetImpl underTest;
+
+  @Before
+  public void setUp() throws Exception {
+    ApplicationDirectories directories = mock(ApplicationDirectories.class);
+    when(directories.getWorkDirectory("p2")).thenReturn(Files.createTempDirectory("p2").toFile());
+    when(group.getName()).thenReturn("p2-group");
+    when(group.facet(GroupFacet.class)).thenReturn(groupFacet);
+    when(group.facet(ConfigurationFacet.class)).thenReturn(configurationFacet);
+    when(configurationFacet.readSection(configuration, P2GroupConfig.CONFIG_KEY, P2GroupConfig.class))
+        .thenReturn(p2Config);
+    releases = member("releases");
+    hosted = member("hosted");
+    when(groupFacet.members()).thenReturn(Arrays.asList(releases, hosted));
+
+    underTest = new P2GroupFacetImpl(new FlattenedRepositories(directories));
+    underTest.attach(group);
+  }
+
+  @Test
+  public void compositeListsTheMembers() throws Exception {
+    underTest.doConfigure(configuration);
+
+    Content content = underTest.getMetadata(context, P2GroupFacetImpl.COMPOSITE_CONTENT);
+    String etag = content.getAttributes().get(Content.CONTENT_ETAG, String.class);
+    assertThat(read(content), containsString("<child location='releases/'/>"));
+    assertThat(read(content), containsString("<child location='hosted/'/>"));
+    assertThat(read(underTest.getMetadata(context, P2GroupFacetImpl.COMPOSITE_ARTIFACTS)),
+        containsString("CompositeArtifactRepository"));
+    assertThat(read(underTest.getMetadata(context, "p2.index")), containsString("compositeContent.xml"));
+    assertThat(underTest.getMetadata(context, "content.jar"), nullValue());
+
+    // generated once for the same members
+    assertThat(underTest.getMetadata(context, P2GroupFacetImpl.COMPOSITE_CONTENT).getAttributes()
+        .get(Content.CONTENT_ETAG, String.class), is(etag));
+    when(groupFacet.members()).thenReturn(Collections.singletonList(hosted));
+    assertThat(read(underTest.getMetadata(context, P2GroupFacetImpl.COMPOSITE_CONTENT)),
+        not(containsString("releases/")));
+  }
+
+  @Test
+  public void mergedMembersAreRequestedInTheContextOfTheRequest() throws Exception {
+    p2Config.mergeMembers = true;
+    underTest.doConfigure(configuration);
+    serve(releases, "/artifacts.xml", artifactsXml("org.a"));
+    serve(hosted, "/artifacts.xml", artifactsXml("org.b"));
+
+    assertThat(read(underTest.getMetadata(context, "p2.index")), containsString("artifacts.xml"));
+    assertThat(underTest.getMetadata(context, P2GroupFacetImpl.COMPOSITE_CONTENT), nullValue());
+    assertThat(underTest.findSite(context, "osgi.bundle/org.a/1.0.0"), is("releases/"));
+    assertThat(underTest.findSite(context, "osgi.bundle/org.b/1.0.0"), is("hosted/"));
+    assertThat(underTest.findSite(context, "osgi.bundle/org.c/1.0.0"), nullValue());
+    verify(releases.facet(ViewFacet.class), atLeastOnce()).dispatch(any(Request.class), eq(context));
+  }
+
+  @Test
+  public void compositeDoesNotFindSites() throws Exception {
+    underTest.doConfigure(configuration);
+
+    assertThat(underTest.findSite(context, "osgi.bundle/org.a/1.0.0"), nullValue());
+  }
+
+  @Test(expected = IOException.class)
+  public void checkedExceptionsOfMembersAreWrapped() throws Exception {
+    p2Config.mergeMembers = true;
+    underTest.doConfigure(configuration);
+    when(releases.facet(ViewFacet.class).dispatch(any(Request.class), any(Context.class)))
+        .thenThrow(new Exception("unavailable"));
+
+    underTest.findSite(context, "osgi.bundle/org.a/1.0.0");
+  }
+
+  private static Repository member(final String name) throws Exception {
+    Repository member = mock(Repository.class);
+    ViewFacet viewFacet = mock(ViewFacet.class);
+    when(member.getName()).thenReturn(name);
+    when(member.facet(ViewFacet.class)).thenReturn(viewFacet);
+    when(viewFacet.dispatch(any(Request.class), any(Context.class))).thenReturn(notFound());
+    return member;
+  }
+
+  private static void serve(final Repository member, final String path, final String xml) throws Exception {
+    Content content = new Content(new BytesPayload(xml.getBytes(StandardCharsets.UTF_8), "text/xml"));
+    content.getAttributes().set(Content.CONTENT_ETAG, Integer.toHexString(xml.hashCode()));
+    Response response = ok(content);
+    when(member.facet(ViewFacet.class).dispatch(any(Request.class), any(Context.class)))
+        .thenAnswer(invocation -> path.equals(((Request) invocation.getArguments()[0]).getPath())
+            ? response : notFound());
+  }
+
+  private static String artifactsXml(final String id) {
+    return "<?xml version='1.0' encoding='UTF-8'?>\n" +
+        "<repository name='" + id + "' type='org.eclipse.equinox.p2.artifact.repository.simpleRepository'>\n" +
+        "  <artifacts size='1'>\n" +
+        "    <artifact classifier='osgi.bundle' id='" + id + "' version='1.0.0'/>\n" +
+        "  </artifacts>\n" +
+        "</repository>\n";
+  }
+
+  private static String read(final Content content) throws IOException {
+    try (InputStream in = content.openInputStream()) {
+      return new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8);
+    }
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.hosted;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class DebouncedRebuildTest
+    extends TestSupport
+{
+  private static final long QUIET = 2_000;
+
+  private static final long MAX_DELAY = 5_000;
+
+  private final AtomicLong now = new AtomicLong();
+
+  private final AtomicInteger rebuilds = new AtomicInteger();
+
+  private boolean failing;
+
+  private DebouncedRebuild underTest;
+
+  @Before
+  public void setUp() {
+    underTest = new DebouncedRebuild(() -> {
+      if (failing) {
+        throw new IllegalStateException("db down");
+      }
+      rebuilds.incrementAndGet();
+    }, QUIET, MAX_DELAY, now::get, null);
+  }
+
+  @Test
+  public void rebuildsOnceRequestsQuietDown() {
+    underTest.request();
+    now.set(1_000);
+    underTest.request();
+
+    now.set(2_500);
+    assertThat(underTest.runIfDue(), is(500L));
+    assertThat(rebuilds.get(), is(0));
+
+    now.set(3_000);
+    assertThat(underTest.runIfDue(), is(0L));
+    assertThat(rebuilds.get(), is(1));
+    assertThat(underTest.isPending(), is(false));
+
+    now.set(10_000);
+    underTest.runIfDue();
+    assertThat(rebuilds.get(), is(1));
+  }
+
+  @Test
+  public void rebuildIsNotPutOffLongerThanTheMaximumDelay() {
+    for (long time = 0; time <= 5_000; time += 1_000) {
+      now.set(time);
+      underTest.request();
+    }
+
+    assertThat(underTest.runIfDue(), is(0L));
+    assertThat(rebuilds.get(), is(1));
+  }
+
+  @Test
+  public void failedRebuildIsRequestedAgain() {
+    failing = true;
+    underTest.request();
+    now.set(QUIET);
+    underTest.runIfDue();
+
+    assertThat(underTest.getFailures().getCount(), is(1L));
+    assertThat(underTest.isPending(), is(true));
+
+    failing = false;
+    now.set(2 * QUIET);
+    underTest.runIfDue();
+
+    assertThat(rebuilds.get(), is(1));
+    assertThat(underTest.isPending(), is(false));
+  }
+}
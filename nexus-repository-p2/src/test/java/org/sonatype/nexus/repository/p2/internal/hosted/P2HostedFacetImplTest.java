@@ -0,0 +1,265 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.hosted;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import javax.annotation.Nullable;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.blobstore.api.Blob;
+import org.sonatype.nexus.blobstore.api.BlobMetrics;
+import org.sonatype.nexus.blobstore.api.BlobRef;
+import org.sonatype.nexus.common.app.ApplicationDirectories;
+import org.sonatype.nexus.common.collect.NestedAttributesMap;
+import org.sonatype.nexus.repository.Format;
+import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.p2.P2Facet;
+import org.sonatype.nexus.repository.p2.internal.AssetKind;
+import org.sonatype.nexus.repository.p2.internal.P2Format;
+import org.sonatype.nexus.repository.p2.internal.metadata.InstallableUnitIndex;
+import org.sonatype.nexus.repository.p2.internal.metadata.MetadataXml;
+import org.sonatype.nexus.repository.p2.internal.metadata.P2Attributes;
+import org.sonatype.nexus.repository.p2.internal.util.AttributesParserFeatureXml;
+import org.sonatype.nexus.repository.p2.internal.util.InstallableUnitPublisher;
+import org.sonatype.nexus.repository.p2.internal.util.P2TempBlobUtils;
+import org.sonatype.nexus.repository.p2.internal.util.PropertyParser;
+import org.sonatype.nexus.repository.p2.internal.util.TempBlobConverter;
+import org.sonatype.nexus.repository.storage.Asset;
+import org.sonatype.nexus.repository.storage.Bucket;
+import org.sonatype.nexus.repository.storage.StorageFacet;
+import org.sonatype.nexus.repository.storage.StorageTx;
+import org.sonatype.nexus.repository.storage.TempBlob;
+import org.sonatype.nexus.repository.view.Payload;
+import org.sonatype.nexus.repository.view.matchers.token.TokenMatcher;
+import org.sonatype.nexus.repository.view.payloads.BytesPayload;
+import org.sonatype.nexus.transaction.Transactional;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.core.Is.is;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.sonatype.nexus.repository.p2.internal.util.P2PathUtils.PLUGIN_NAME;
+import static org.sonatype.nexus.repository.storage.AssetEntityAdapter.P_ASSET_KIND;
+import static org.sonatype.nexus.repository.storage.MetadataNodeEntityAdapter.P_ATTRIBUTES;
+
+public class P2HostedFacetImplTest
+    extends TestSupport
+{
+  private static final String BUNDLE_JAR = "/org/sonatype/nexus/repository/p2/internal/util/" +
+      "org.tigris.subversion.clientadapter.svnkit_1.7.5.jar";
+
+  private static final String BUNDLE_ID = "org.tigris.subversion.clientadapter.svnkit";
+
+  private static final String BUNDLE = "plugins/" + BUNDLE_ID + "_1.7.5.jar";
+
+  @Mock
+  private Repository repository;
+
+  @Mock
+  private StorageFacet storageFacet;
+
+  @Mock
+  private P2Facet p2Facet;
+
+  @Mock
+  private P2TempBlobUtils p2TempBlobUtils;
+
+  @Mock
+  private ApplicationDirectories applicationDirectories;
+
+  @Mock
+  private StorageTx tx;
+
+  @Mock
+  private Bucket bucket;
+
+  private byte[] jar;
+
+  private Path temporaryDirectory;
+
+  private final List<Asset> assets = new ArrayList<>();
+
+  private final Map<String, byte[]> stored = new HashMap<>();
+
+  private P2HostedFacetImpl underTest;
+
+  @Before
+  public void setUp() throws Exception {
+    try (InputStream in = getClass().getResourceAsStream(BUNDLE_JAR)) {
+      jar = ByteStreams.toByteArray(in);
+    }
+    temporaryDirectory = Files.createTempDirectory("p2");
+    when(applicationDirectories.getTemporaryDirectory()).thenReturn(temporaryDirectory.toFile());
+
+    TempBlobConverter tempBlobConverter = new TempBlobConverter();
+    InstallableUnitPublisher publisher = new InstallableUnitPublisher(
+        new AttributesParserFeatureXml(tempBlobConverter, new PropertyParser(tempBlobConverter)));
+    underTest = new TransactionalP2HostedFacet(p2TempBlobUtils, publisher, applicationDirectories);
+
+    when(repository.getName()).thenReturn("p2-hosted");
+    when(repository.facet(StorageFacet.class)).thenReturn(storageFacet);
+    when(repository.facet(P2Facet.class)).thenReturn(p2Facet);
+    when(storageFacet.txSupplier()).thenReturn(() -> tx);
+    when(tx.getTransaction()).thenReturn(tx);
+    when(tx.isActive()).thenReturn(true);
+    when(tx.findBucket(repository)).thenReturn(bucket);
+    when(tx.browseAssets(bucket)).thenReturn(assets);
+    when(tx.createAsset(eq(bucket), any(Format.class))).thenAnswer(invocation -> asset(null, null));
+    when(p2Facet.findAsset(eq(tx), eq(bucket), anyString())).thenAnswer(invocation -> assets.stream()
+        .filter(asset -> asset.name() != null && asset.name().equals(invocation.getArguments()[2]))
+        .findFirst().orElse(null));
+    when(storageFacet.createTempBlob(any(InputStream.class), any()))
+        .thenAnswer(invocation -> tempBlob(ByteStreams.toByteArray((InputStream) invocation.getArguments()[0])));
+    when(storageFacet.createTempBlob(any(Payload.class), any()))
+        .thenAnswer(invocation -> tempBlob(jar));
+    underTest.attach(repository);
+  }
+
+  @Test
+  public void rebuildListsTheUploadedBundle() throws Exception {
+    when(p2TempBlobUtils.mergeAttributesFromTempBlob(any(), any()))
+        .thenReturn(P2Attributes.builder().componentName(BUNDLE_ID).componentVersion("1.7.5").path(BUNDLE)
+            .pluginName("SVNKit Client Adapter").build());
+    // stores the bundle as P2Facet does
+    doAnswer(invocation -> {
+      Asset bundle = asset(BUNDLE, AssetKind.BUNDLE);
+      bundle.formatAttributes().set(PLUGIN_NAME, ((P2Attributes) invocation.getArguments()[0]).getPluginName());
+      assets.add(bundle);
+      return null;
+    }).when(p2Facet).doCreateOrSaveComponent(any(), any(), any(), eq(AssetKind.BUNDLE));
+    // keeps the metadata as P2Facet does
+    doAnswer(invocation -> {
+      Asset asset = (Asset) invocation.getArguments()[1];
+      if (!assets.contains(asset)) {
+        assets.add(asset);
+      }
+      try (InputStream in = ((Supplier<InputStream>) invocation.getArguments()[2]).get()) {
+        stored.put(asset.name(), ByteStreams.toByteArray(in));
+      }
+      return null;
+    }).when(p2Facet).saveAsset(eq(tx), any(), any(), any());
+
+    underTest.put(BUNDLE, state(), AssetKind.BUNDLE, new BytesPayload(jar, "application/java-archive"));
+    underTest.rebuildMetadata();
+
+    assertThat(stored.keySet(), containsInAnyOrder("p2.index", "content.jar", "content.xml.xz", "artifacts.jar",
+        "artifacts.xml.xz"));
+    InstallableUnitIndex index;
+    try (InputStream contentXml = MetadataXml.openContentXml("content.jar",
+        new ByteArrayInputStream(stored.get("content.jar")))) {
+      index = InstallableUnitIndex.write(contentXml, Files.createTempDirectory("p2").resolve("content.idx"), "1");
+    }
+    assertThat(index.find(BUNDLE_ID, "1.7.5").get().getName(), is("SVNKit Client Adapter"));
+    assertThat(index.findArtifact(BUNDLE).isPresent(), is(true));
+    // the fragments were written to the temporary directory of Nexus and deleted with it
+    try (Stream<Path> files = Files.list(temporaryDirectory)) {
+      assertThat(files.count(), is(0L));
+    }
+  }
+
+  private TokenMatcher.State state() {
+    TokenMatcher.State state = mock(TokenMatcher.State.class);
+    when(state.getTokens()).thenReturn(ImmutableMap.of("name", BUNDLE_ID, "version", "1.7.5", "extension", "jar"));
+    return state;
+  }
+
+  private Asset asset(@Nullable final String name, @Nullable final AssetKind assetKind) {
+    Asset asset = new Asset();
+    asset.format(P2Format.NAME);
+    asset.attributes(new NestedAttributesMap(P_ATTRIBUTES, new HashMap<>()));
+    if (name != null) {
+      BlobRef blobRef = new BlobRef("node", "store", name);
+      Blob blob = mock(Blob.class);
+      when(blob.getInputStream()).thenAnswer(invocation -> new ByteArrayInputStream(jar));
+      when(tx.requireBlob(blobRef)).thenReturn(blob);
+      asset.name(name);
+      asset.blobRef(blobRef);
+      asset.size((long) jar.length);
+      asset.formatAttributes().set(P_ASSET_KIND, assetKind.name());
+    }
+    return asset;
+  }
+
+  private static TempBlob tempBlob(final byte[] bytes) {
+    TempBlob tempBlob = mock(TempBlob.class);
+    Blob blob = mock(Blob.class);
+    when(tempBlob.get()).thenAnswer(invocation -> new ByteArrayInputStream(bytes));
+    when(tempBlob.getBlob()).thenReturn(blob);
+    when(blob.getMetrics()).thenReturn(new BlobMetrics(new DateTime(), "sha1", bytes.length));
+    return tempBlob;
+  }
+
+  /**
+   * Runs the transactional methods in a transaction, as the interceptors do.
+   */
+  private static class TransactionalP2HostedFacet
+      extends P2HostedFacetImpl
+  {
+    private TransactionalP2HostedFacet(
+        final P2TempBlobUtils p2TempBlobUtils,
+        final InstallableUnitPublisher publisher,
+        final ApplicationDirectories applicationDirectories)
+    {
+      super(p2TempBlobUtils, publisher, applicationDirectories);
+    }
+
+    @Override
+    protected List<Bundle> findBundles() {
+      return Transactional.operation.call(super::findBundles);
+    }
+
+    @Override
+    protected Blob requireBlob(final BlobRef blobRef) {
+      return Transactional.operation.call(() -> super.requireBlob(blobRef));
+    }
+
+    @Nullable
+    @Override
+    protected String getSourceDigest() {
+      return Transactional.operation.call(super::getSourceDigest);
+    }
+
+    @Override
+    protected void storeMetadata(
+        final String path,
+        final AssetKind assetKind,
+        final Path file,
+        @Nullable final String digest) throws IOException
+    {
+      Transactional.operation.throwing(IOException.class).run(() -> super.storeMetadata(path, assetKind, file, digest));
+    }
+  }
+}
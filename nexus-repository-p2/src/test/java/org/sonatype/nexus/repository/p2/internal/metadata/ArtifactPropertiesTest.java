@@ -0,0 +1,86 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.metadata;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasEntry;
+import static org.hamcrest.core.Is.is;
+
+public class ArtifactPropertiesTest
+    extends TestSupport
+{
+  private static final String ARTIFACTS_XML = "<?xml version='1.0' encoding='UTF-8'?>\n" +
+      "<repository name='Test' type='org.eclipse.equinox.p2.artifact.repository.simpleRepository'>\n" +
+      "  <properties size='1'>\n" +
+      "    <property name='download.md5' value='repository'/>\n" +
+      "  </properties>\n" +
+      "  <artifacts size='2'>\n" +
+      "    <artifact classifier='osgi.bundle' id='a' version='1.0.0'>\n" +
+      "      <processing size='1'>\n" +
+      "        <step id='org.eclipse.equinox.p2.processing.Pack200Unpacker' required='true'/>\n" +
+      "      </processing>\n" +
+      "      <properties size='2'>\n" +
+      "        <property name='format' value='packed'/>\n" +
+      "        <property name='download.md5' value='packed'/>\n" +
+      "      </properties>\n" +
+      "    </artifact>\n" +
+      "    <artifact classifier='osgi.bundle' id='a' version='1.0.0'>\n" +
+      "      <properties size='1'>\n" +
+      "        <property name='download.checksum.sha-256' value='canonical'/>\n" +
+      "      </properties>\n" +
+      "      <repositoryProperties size='1'>\n" +
+      "        <property name='download.md5' value='repositoryProperties'/>\n" +
+      "      </repositoryProperties>\n" +
+      "    </artifact>\n" +
+      "  </artifacts>\n" +
+      "</repository>\n";
+
+  @Test
+  public void findsTheCanonicalDescriptor() throws IOException {
+    Map<String, String> properties = find("osgi.bundle", "a", "1.0.0", false);
+
+    assertThat(properties, hasEntry(ArtifactProperties.DOWNLOAD_SHA256, "canonical"));
+    assertThat(properties.containsKey(ArtifactProperties.DOWNLOAD_MD5), is(false));
+  }
+
+  @Test
+  public void findsThePackedDescriptor() throws IOException {
+    assertThat(find("osgi.bundle", "a", "1.0.0", true), hasEntry(ArtifactProperties.DOWNLOAD_MD5, "packed"));
+  }
+
+  @Test
+  public void unknownArtifactHasNoProperties() throws IOException {
+    assertThat(find("osgi.bundle", "a", "2.0.0", false).isEmpty(), is(true));
+    assertThat(find("org.eclipse.update.feature", "a", "1.0.0", false).isEmpty(), is(true));
+    assertThat(find("osgi.bundle", "a", "1.0.0", false).isEmpty(), is(false));
+  }
+
+  private static Map<String, String> find(
+      final String classifier,
+      final String id,
+      final String version,
+      final boolean packed) throws IOException
+  {
+    return ArtifactProperties.find(new ByteArrayInputStream(ARTIFACTS_XML.getBytes(StandardCharsets.UTF_8)),
+        classifier, id, version, packed);
+  }
+}
@@ -0,0 +1,189 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.metadata;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.repository.p2.internal.metadata.InstallableUnitIndex.InstallableUnit;
+import org.sonatype.nexus.repository.p2.internal.metadata.InstallableUnitIndex.Key;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.core.Is.is;
+
+public class InstallableUnitIndexTest
+    extends TestSupport
+{
+  private static final String CONTENT_XML = "<?xml version='1.0' encoding='UTF-8'?>\n" +
+      "<repository name='Test' type='org.eclipse.equinox.internal.p2.metadata.repository.LocalMetadataRepository'>\n" +
+      "  <units size='5'>\n" +
+      "    <unit id='org.eclipse.core.runtime' version='3.18.0.v20200506-2143'>\n" +
+      "      <properties size='2'>\n" +
+      "        <property name='org.eclipse.equinox.p2.name' value='%pluginName'/>\n" +
+      "        <property name='df_LT.pluginName' value='Core Runtime'/>\n" +
+      "      </properties>\n" +
+      "      <provides size='2'>\n" +
+      "        <provided namespace='osgi.bundle' name='org.eclipse.core.runtime' version='3.18.0.v20200506-2143'/>\n" +
+      "        <provided namespace='java.package' name='org.eclipse.core.runtime' version='3.6.0'/>\n" +
+      "      </provides>\n" +
+      "      <artifacts size='1'>\n" +
+      "        <artifact classifier='osgi.bundle' id='org.eclipse.core.runtime' version='3.18.0.v20200506-2143'/>\n" +
+      "      </artifacts>\n" +
+      "    </unit>\n" +
+      "    <unit id='org.eclipse.core.runtime' version='3.17.0.v20191122-2104'>\n" +
+      "      <provides size='1'>\n" +
+      "        <provided namespace='java.package' name='org.eclipse.core.runtime' version='3.5.0'/>\n" +
+      "      </provides>\n" +
+      "    </unit>\n" +
+      "    <unit id='org.eclipse.platform.feature.group' version='4.16.0.v20200604-0951'>\n" +
+      "      <properties size='1'>\n" +
+      "        <property name='org.eclipse.equinox.p2.name' value='Eclipse Platform'/>\n" +
+      "      </properties>\n" +
+      "    </unit>\n" +
+      "    <unit id='org.eclipse.platform.feature.jar' version='4.16.0.v20200604-0951'>\n" +
+      "      <properties size='1'>\n" +
+      "        <property name='org.eclipse.equinox.p2.name' value='Eclipse Platform'/>\n" +
+      "      </properties>\n" +
+      "      <artifacts size='1'>\n" +
+      "        <artifact classifier='org.eclipse.update.feature' id='org.eclipse.platform'" +
+      " version='4.16.0.v20200604-0951'/>\n" +
+      "      </artifacts>\n" +
+      "    </unit>\n" +
+      "    <unit id='a.first' version='1.0.0'/>\n" +
+      "  </units>\n" +
+      "</repository>\n";
+
+  private Path file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = Files.createTempDirectory("p2").resolve("content.idx");
+  }
+
+  @Test
+  public void findsUnitsById() throws Exception {
+    InstallableUnitIndex underTest = write("1");
+
+    assertThat(underTest.size(), is(5));
+    assertThat(underTest.get(0).toString(), is("a.first_1.0.0"));
+    assertThat(versions(underTest.find("org.eclipse.core.runtime")),
+        is(asList("3.17.0.v20191122-2104", "3.18.0.v20200506-2143")));
+    assertThat(underTest.find("org.eclipse.core"), is(empty()));
+    assertThat(underTest.find("org.eclipse.core.runtime", "3.16.0").isPresent(), is(false));
+
+    InstallableUnit unit = underTest.find("org.eclipse.core.runtime", "3.18.0.v20200506-2143").get();
+    assertThat(unit.getName(), is("Core Runtime"));
+    assertThat(keys(unit.getProvided()), is(asList("osgi.bundle/org.eclipse.core.runtime/3.18.0.v20200506-2143",
+        "java.package/org.eclipse.core.runtime/3.6.0")));
+    assertThat(keys(unit.getArtifacts()),
+        is(asList("osgi.bundle/org.eclipse.core.runtime/3.18.0.v20200506-2143")));
+
+    InstallableUnit group = underTest.find("org.eclipse.platform.feature.group", "4.16.0.v20200604-0951").get();
+    assertThat(group.getName(), is("Eclipse Platform"));
+    assertThat(group.getArtifacts(), is(empty()));
+    assertThat(underTest.find("a.first", "1.0.0").get().getName(), is(nullValue()));
+  }
+
+  @Test
+  public void findsProviders() throws Exception {
+    InstallableUnitIndex underTest = write("1");
+
+    assertThat(versions(underTest.findProviders("java.package", "org.eclipse.core.runtime")),
+        is(asList("3.17.0.v20191122-2104", "3.18.0.v20200506-2143")));
+    assertThat(underTest.findProviders("java.package", "org.eclipse.core"), is(empty()));
+  }
+
+  @Test
+  public void findsBundlesByArtifactPath() throws Exception {
+    InstallableUnitIndex underTest = write("1");
+
+    assertThat(underTest.findArtifact("plugins/org.eclipse.core.runtime_3.18.0.v20200506-2143.jar").get().toString(),
+        is("org.eclipse.core.runtime_3.18.0.v20200506-2143"));
+    assertThat(underTest.findArtifact("plugins/org.eclipse.core.runtime_3.18.0.v20200506-2143.jar.pack.gz")
+        .isPresent(), is(true));
+  }
+
+  @Test
+  public void findsFeaturesByArtifactPath() throws Exception {
+    InstallableUnitIndex underTest = write("1");
+
+    InstallableUnit unit = underTest.findArtifact("features/org.eclipse.platform_4.16.0.v20200604-0951.jar").get();
+    assertThat(unit.getId(), is("org.eclipse.platform.feature.jar"));
+    assertThat(unit.getName(), is("Eclipse Platform"));
+  }
+
+  @Test
+  public void artifactsMissingFromMetadataAreNotFound() throws Exception {
+    InstallableUnitIndex underTest = write("1");
+
+    // the older unit lists no artifact, a bundle is not served as a feature
+    assertThat(underTest.findArtifact("plugins/org.eclipse.core.runtime_3.17.0.v20191122-2104.jar").isPresent(),
+        is(false));
+    assertThat(underTest.findArtifact("features/org.eclipse.core.runtime_3.18.0.v20200506-2143.jar").isPresent(),
+        is(false));
+    assertThat(underTest.findArtifact("plugins/org.eclipse.core.runtime.jar").isPresent(), is(false));
+  }
+
+  @Test
+  public void opensTheIndexOfTheSameVersion() throws Exception {
+    write("1");
+
+    assertThat(InstallableUnitIndex.open(file, "1").get().size(), is(5));
+    assertThat(InstallableUnitIndex.open(file, "2").isPresent(), is(false));
+    assertThat(InstallableUnitIndex.open(file.resolveSibling("missing.idx"), "1").isPresent(), is(false));
+  }
+
+  @Test
+  public void doesNotOpenFilesOfAnotherFormat() throws Exception {
+    Files.write(file, "not an index".getBytes(StandardCharsets.UTF_8));
+
+    assertThat(InstallableUnitIndex.open(file, "1").isPresent(), is(false));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void closeUnmapsTheIndex() throws Exception {
+    InstallableUnitIndex underTest = write("1");
+    InstallableUnit unit = underTest.find("org.eclipse.core.runtime").get(0);
+
+    underTest.close();
+
+    Files.delete(file);
+    assertThat(unit.getId(), is("org.eclipse.core.runtime"));
+    underTest.find("org.eclipse.core.runtime");
+  }
+
+  private InstallableUnitIndex write(final String version) throws IOException {
+    return InstallableUnitIndex.write(new ByteArrayInputStream(CONTENT_XML.getBytes(StandardCharsets.UTF_8)), file,
+        version);
+  }
+
+  private static List<String> versions(final List<InstallableUnit> units) {
+    return units.stream().map(InstallableUnit::getVersion).collect(Collectors.toList());
+  }
+
+  private static List<String> keys(final List<Key> keys) {
+    return keys.stream().map(Key::toString).collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.metadata;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.repository.p2.internal.metadata.InstallableUnitIndex.Requirement;
+import org.sonatype.nexus.repository.p2.internal.metadata.InstallableUnitResolver.Resolution;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.core.Is.is;
+
+public class InstallableUnitResolverTest
+    extends TestSupport
+{
+  private static final String CONTENT_XML = "<?xml version='1.0' encoding='UTF-8'?>\n" +
+      "<repository name='Test' type='org.eclipse.equinox.internal.p2.metadata.repository.LocalMetadataRepository'>\n" +
+      "  <units size='6'>\n" +
+      "    <unit id='org.example.feature.group' version='1.0.0'>\n" +
+      "      <requires size='4'>\n" +
+      "        <required namespace='org.eclipse.equinox.p2.iu' name='org.example.core' range='[1.0.0,2.0.0)'/>\n" +
+      "        <required namespace='org.eclipse.equinox.p2.iu' name='org.example.win32' range='0.0.0'>\n" +
+      "          <filter>(osgi.os=win32)</filter>\n" +
+      "        </required>\n" +
+      "        <required namespace='org.eclipse.equinox.p2.iu' name='org.example.extra' range='0.0.0'" +
+      " optional='true'/>\n" +
+      "        <required namespace='org.eclipse.equinox.p2.iu' name='org.example.missing' range='0.0.0'/>\n" +
+      "      </requires>\n" +
+      "    </unit>\n" +
+      "    <unit id='org.example.core' version='1.0.0'>\n" +
+      "      <provides size='1'>\n" +
+      "        <provided namespace='osgi.bundle' name='org.example.core' version='1.0.0'/>\n" +
+      "      </provides>\n" +
+      "      <requires size='2'>\n" +
+      "        <required namespace='java.package' name='org.example.api' range='[1.0.0,2.0.0)'/>\n" +
+      "        <required namespace='java.package' name='org.example.spi' range='0.0.0' greedy='false'/>\n" +
+      "      </requires>\n" +
+      "      <artifacts size='1'>\n" +
+      "        <artifact classifier='osgi.bundle' id='org.example.core' version='1.0.0'/>\n" +
+      "      </artifacts>\n" +
+      "    </unit>\n" +
+      "    <unit id='org.example.core' version='1.1.0'>\n" +
+      "      <artifacts size='1'>\n" +
+      "        <artifact classifier='osgi.bundle' id='org.example.core' version='1.1.0'/>\n" +
+      "      </artifacts>\n" +
+      "    </unit>\n" +
+      "    <unit id='org.example.api' version='1.2.0'>\n" +
+      "      <provides size='1'>\n" +
+      "        <provided namespace='java.package' name='org.example.api' version='1.2.0'/>\n" +
+      "      </provides>\n" +
+      "      <artifacts size='1'>\n" +
+      "        <artifact classifier='osgi.bundle' id='org.example.api' version='1.2.0'/>\n" +
+      "      </artifacts>\n" +
+      "    </unit>\n" +
+      "    <unit id='org.example.win32' version='1.0.0'>\n" +
+      "      <filter>(osgi.os=win32)</filter>\n" +
+      "    </unit>\n" +
+      "    <unit id='org.example.extra' version='1.0.0'/>\n" +
+      "  </units>\n" +
+      "</repository>\n";
+
+  private Map<String, InstallableUnitIndex> indexes;
+
+  @Before
+  public void setUp() throws IOException {
+    Path file = Files.createTempDirectory("p2").resolve("content.idx");
+    indexes = Collections.singletonMap("0123/",
+        InstallableUnitIndex.write(new ByteArrayInputStream(CONTENT_XML.getBytes(StandardCharsets.UTF_8)), file,
+            "1"));
+  }
+
+  @Test
+  public void resolvesTheClosureOfTheMatchingRequirements() {
+    Resolution resolution = resolve(filter -> filter.contains("linux"),
+        Requirement.unit("org.example.feature.group", null));
+
+    assertThat(units(resolution), is(asList("0123/org.example.feature.group_1.0.0", "0123/org.example.core_1.1.0")));
+    assertThat(resolution.getArtifactPaths(), is(singletonList("0123/plugins/org.example.core_1.1.0.jar")));
+    assertThat(resolution.getUnresolved(), is(singletonList(
+        "org.example.feature.group_1.0.0 requires org.eclipse.equinox.p2.iu/org.example.missing/0.0.0")));
+    assertThat(resolution.isTruncated(), is(false));
+  }
+
+  @Test
+  public void followsCapabilitiesOfOtherNamespaces() {
+    Resolution resolution = resolve(filter -> true, Requirement.unit("org.example.core", "[1.0.0,1.0.0]"));
+
+    assertThat(units(resolution), is(asList("0123/org.example.core_1.0.0", "0123/org.example.api_1.2.0")));
+    assertThat(resolution.getArtifactPaths(),
+        is(asList("0123/plugins/org.example.core_1.0.0.jar", "0123/plugins/org.example.api_1.2.0.jar")));
+    assertThat(resolution.getUnresolved(), is(empty()));
+  }
+
+  @Test
+  public void prefersUnitsAlreadyResolved() {
+    Resolution resolution = resolve(filter -> true, Requirement.unit("org.example.core", "[1.0.0,1.0.0]"),
+        Requirement.unit("org.example.core", null));
+
+    assertThat(units(resolution), is(asList("0123/org.example.core_1.0.0", "0123/org.example.api_1.2.0")));
+  }
+
+  @Test
+  public void reportsUnresolvedRoots() {
+    Resolution resolution = resolve(filter -> true, Requirement.unit("org.example.core", "[2.0.0,3.0.0)"),
+        Requirement.unit("org.example.core", "not a range"));
+
+    assertThat(resolution.getUnits(), is(empty()));
+    assertThat(resolution.getUnresolved(), is(asList("org.eclipse.equinox.p2.iu/org.example.core/[2.0.0,3.0.0)",
+        "org.eclipse.equinox.p2.iu/org.example.core/not a range")));
+  }
+
+  private Resolution resolve(final Predicate<String> filterMatcher, final Requirement... roots) {
+    return new InstallableUnitResolver(indexes, filterMatcher).resolve(asList(roots));
+  }
+
+  private static List<String> units(final Resolution resolution) {
+    return resolution.getUnits().stream().map(Object::toString).collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.metadata;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.repository.p2.internal.metadata.MetadataMerger.Kind;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.core.Is.is;
+
+public class MetadataMergerTest
+    extends TestSupport
+{
+  private static final String CONTENT_A = "<?xml version='1.0' encoding='UTF-8'?>\n" +
+      "<repository name='A' type='org.eclipse.equinox.internal.p2.metadata.repository.LocalMetadataRepository'>\n" +
+      "  <units size='2'>\n" +
+      "    <unit id='a' version='1.0.0'>\n" +
+      "      <filter>(&amp;(osgi.os=linux)(osgi.arch=x86_64))</filter>\n" +
+      "    </unit>\n" +
+      "    <unit id='shared' version='1.0.0' singleton='false'/>\n" +
+      "  </units>\n" +
+      "</repository>\n";
+
+  private static final String CONTENT_B = "<?xml version='1.0' encoding='UTF-8'?>\n" +
+      "<repository name='B' type='org.eclipse.equinox.internal.p2.metadata.repository.LocalMetadataRepository'>\n" +
+      "  <units size='2'>\n" +
+      "    <unit id='shared' version='1.0.0' singleton='true'/>\n" +
+      "    <unit id='b' version='2.0.0'/>\n" +
+      "  </units>\n" +
+      "</repository>\n";
+
+  private static final String ARTIFACTS_A = "<?xml version='1.0' encoding='UTF-8'?>\n" +
+      "<repository name='A' type='org.eclipse.equinox.p2.artifact.repository.simpleRepository'>\n" +
+      "  <mappings size='1'>\n" +
+      "    <rule filter='(&amp; (classifier=osgi.bundle))' output='${repoUrl}/plugins/${id}_${version}.jar'/>\n" +
+      "  </mappings>\n" +
+      "  <artifacts size='2'>\n" +
+      "    <artifact classifier='osgi.bundle' id='a' version='1.0.0'/>\n" +
+      "    <artifact classifier='osgi.bundle' id='a' version='1.0.0'>\n" +
+      "      <properties size='1'>\n" +
+      "        <property name='format' value='packed'/>\n" +
+      "      </properties>\n" +
+      "    </artifact>\n" +
+      "  </artifacts>\n" +
+      "</repository>\n";
+
+  private Path directory;
+
+  @Before
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("p2");
+  }
+
+  @Test
+  public void mergesUnitsTakingDuplicatesFromTheFirstSite() throws IOException {
+    Map<String, Path> fragments = new LinkedHashMap<>();
+    fragments.put("a/", fragment(Kind.CONTENT, CONTENT_A, "a.frag"));
+    fragments.put("b/", fragment(Kind.CONTENT, CONTENT_B, "b.frag"));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    Map<String, String> owners = MetadataMerger.merge(Kind.CONTENT, "merged", 1L, fragments, out);
+
+    String merged = new String(out.toByteArray(), StandardCharsets.UTF_8);
+    assertThat(owners.size(), is(3));
+    assertThat(owners.get("shared/1.0.0"), is("a/"));
+    assertThat(owners.get("b/2.0.0"), is("b/"));
+    assertThat(merged, containsString("<?metadataRepository version='1.2.0'?>"));
+    assertThat(merged, containsString("<units size='3'>"));
+    assertThat(merged, containsString("<filter>(&amp;(osgi.os=linux)(osgi.arch=x86_64))</filter>"));
+    assertThat(merged, containsString("singleton=\"false\""));
+    assertThat(merged, not(containsString("singleton=\"true\"")));
+    assertThat(merged, containsString("<unit id=\"b\" version=\"2.0.0\"></unit>"));
+  }
+
+  @Test
+  public void keepsAllDescriptorsOfAnArtifactOfTheSameSite() throws IOException {
+    Map<String, Path> fragments = new LinkedHashMap<>();
+    fragments.put("a/", fragment(Kind.ARTIFACTS, ARTIFACTS_A, "a.frag"));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    Map<String, String> owners = MetadataMerger.merge(Kind.ARTIFACTS, "merged", 1L, fragments, out);
+
+    String merged = new String(out.toByteArray(), StandardCharsets.UTF_8);
+    assertThat(owners.get("osgi.bundle/a/1.0.0"), is("a/"));
+    assertThat(merged, containsString("<mappings size='5'>"));
+    assertThat(merged, containsString("<artifacts size='2'>"));
+    assertThat(merged, containsString("<property name=\"format\" value=\"packed\"></property>"));
+  }
+
+  @Test
+  public void remembersTheVersionOfAFragment() throws IOException {
+    Path file = fragment(Kind.CONTENT, CONTENT_A, "a.frag");
+
+    assertThat(MetadataMerger.readFragmentVersion(file), is(Optional.of("1")));
+    assertThat(MetadataMerger.readFragmentVersion(directory.resolve("missing.frag")), is(Optional.empty()));
+  }
+
+  private Path fragment(final Kind kind, final String xml, final String name) throws IOException {
+    Path file = directory.resolve(name);
+    MetadataMerger.writeFragment(kind, new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), "1", file);
+    return file;
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.metadata;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class MetadataXmlTest
+    extends TestSupport
+{
+  private static final String CONTENT_XML = "<repository name='Test'/>";
+
+  @Test
+  public void readsContentJar() throws Exception {
+    ByteArrayOutputStream jar = new ByteArrayOutputStream();
+    try (ZipOutputStream zip = new ZipOutputStream(jar)) {
+      zip.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+      zip.putNextEntry(new ZipEntry("content.xml"));
+      zip.write(CONTENT_XML.getBytes(StandardCharsets.UTF_8));
+    }
+
+    try (InputStream in = MetadataXml.openContentXml("content.jar", new ByteArrayInputStream(jar.toByteArray()))) {
+      assertThat(new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8), is(CONTENT_XML));
+    }
+  }
+
+  @Test
+  public void readsContentXml() throws Exception {
+    try (InputStream in = MetadataXml.openContentXml("content.xml",
+        new ByteArrayInputStream(CONTENT_XML.getBytes(StandardCharsets.UTF_8)))) {
+      assertThat(new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8), is(CONTENT_XML));
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void jarsWithoutTheEntryAreRejected() throws Exception {
+    ByteArrayOutputStream jar = new ByteArrayOutputStream();
+    try (ZipOutputStream zip = new ZipOutputStream(jar)) {
+      zip.putNextEntry(new ZipEntry("artifacts.xml"));
+    }
+
+    MetadataXml.openContentXml("content.jar", new ByteArrayInputStream(jar.toByteArray()));
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.metadata;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+
+import org.junit.Test;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class PlatformFilterTest
+    extends TestSupport
+{
+  private final PlatformFilter linux = PlatformFilter.of(singletonList("linux/gtk/x86_64"));
+
+  @Test
+  public void matchesEverythingWithoutPlatforms() {
+    assertThat(PlatformFilter.of(null).isAll(), is(true));
+    assertThat(PlatformFilter.ALL.matches("(osgi.os=win32)"), is(true));
+    assertThat(PlatformFilter.ALL.matches("win32", "win32", "aarch64"), is(true));
+  }
+
+  @Test
+  public void matchesInclusionPlatforms() {
+    assertThat(linux.matches(null, null, null), is(true));
+    assertThat(linux.matches("linux,macosx", "gtk,cocoa", null), is(true));
+    assertThat(linux.matches("win32", null, null), is(false));
+    assertThat(linux.matches("linux", "gtk", "aarch64"), is(false));
+  }
+
+  @Test
+  public void matchesLdapFilters() {
+    assertThat(linux.matches("(osgi.os=linux)"), is(true));
+    assertThat(linux.matches("(osgi.os=win32)"), is(false));
+    assertThat(linux.matches("(& (osgi.os=linux) (osgi.ws=gtk) (osgi.arch=x86_64))"), is(true));
+    assertThat(linux.matches("(&(osgi.os=linux)(osgi.arch=aarch64))"), is(false));
+    assertThat(linux.matches("(|(osgi.os=win32)(osgi.os=linux))"), is(true));
+    assertThat(linux.matches("(!(osgi.os=win32))"), is(true));
+    assertThat(linux.matches("(OSGI.OS=lin*)"), is(true));
+    assertThat(linux.matches("(osgi.os~=LINUX)"), is(true));
+  }
+
+  @Test
+  public void matchesFiltersOnOtherProperties() {
+    assertThat(linux.matches("(org.eclipse.update.install.sources=true)"), is(true));
+    assertThat(linux.matches("(!(org.eclipse.update.install.sources=true))"), is(true));
+    assertThat(linux.matches("(&(osgi.os=win32)(org.eclipse.update.install.sources=true))"), is(false));
+    assertThat(linux.matches("(|(osgi.os=win32)(osgi.nl=de))"), is(true));
+    assertThat(linux.matches("not a filter"), is(true));
+    assertThat(linux.matches("(&(osgi.os=linux)(org.example.path=a\\)b*))"), is(true));
+    assertThat(linux.matches("(&(osgi.os=win32)(org.example.path=a\\)b*))"), is(false));
+  }
+
+  @Test
+  public void matchesAnyOfThePlatforms() {
+    PlatformFilter underTest = PlatformFilter.of(asList("linux/gtk/x86_64", "macosx/cocoa/*"));
+
+    assertThat(underTest.matches("(osgi.os=macosx)"), is(true));
+    assertThat(underTest.matches("(&(osgi.os=macosx)(osgi.arch=aarch64))"), is(true));
+    assertThat(underTest.matches("(osgi.os=win32)"), is(false));
+    assertThat(underTest.matches("macosx", "cocoa", "aarch64"), is(true));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsInvalidPlatforms() {
+    PlatformFilter.of(singletonList("linux/gtk"));
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.metadata;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static java.util.Collections.singletonList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class PlatformUnitFilterTest
+    extends TestSupport
+{
+  private static final String CONTENT_XML = "<?xml version='1.0' encoding='UTF-8'?>\n" +
+      "<repository name='Test' type='org.eclipse.equinox.internal.p2.metadata.repository.LocalMetadataRepository'>\n" +
+      "  <units size='4'>\n" +
+      "    <unit id='org.eclipse.swt.gtk.linux.x86_64' version='3.114.0'>\n" +
+      "      <artifacts size='1'>\n" +
+      "        <artifact classifier='osgi.bundle' id='org.eclipse.swt.gtk.linux.x86_64' version='3.114.0'/>\n" +
+      "      </artifacts>\n" +
+      "      <filter>(&amp;(osgi.os=linux)(osgi.ws=gtk)(osgi.arch=x86_64))</filter>\n" +
+      "    </unit>\n" +
+      "    <unit id='org.eclipse.swt.win32.win32.x86_64' version='3.114.0'>\n" +
+      "      <artifacts size='1'>\n" +
+      "        <artifact classifier='osgi.bundle' id='org.eclipse.swt.win32.win32.x86_64' version='3.114.0'/>\n" +
+      "      </artifacts>\n" +
+      "      <filter>(&amp;(osgi.os=win32)(osgi.ws=win32)(osgi.arch=x86_64))</filter>\n" +
+      "    </unit>\n" +
+      "    <unit id='org.example.launcher.win32' version='1.0.0'>\n" +
+      "      <artifacts size='1'>\n" +
+      "        <artifact classifier='binary' id='org.example.launcher' version='1.0.0'/>\n" +
+      "      </artifacts>\n" +
+      "      <filter>(osgi.os=win32)</filter>\n" +
+      "    </unit>\n" +
+      "    <unit id='org.example.launcher' version='1.0.0'>\n" +
+      "      <artifacts size='1'>\n" +
+      "        <artifact classifier='binary' id='org.example.launcher' version='1.0.0'/>\n" +
+      "      </artifacts>\n" +
+      "    </unit>\n" +
+      "  </units>\n" +
+      "</repository>\n";
+
+  private PlatformUnitFilter underTest;
+
+  @Before
+  public void setUp() throws IOException {
+    Path file = Files.createTempDirectory("p2").resolve("content.idx");
+    InstallableUnitIndex index = InstallableUnitIndex.write(
+        new ByteArrayInputStream(CONTENT_XML.getBytes(StandardCharsets.UTF_8)), file, "1");
+    underTest = new PlatformUnitFilter(PlatformFilter.of(singletonList("linux/gtk/x86_64")), singletonList(index));
+  }
+
+  @Test
+  public void dropsUnitsForOtherPlatforms() {
+    assertThat(underTest.keepUnit("org.eclipse.swt.gtk.linux.x86_64", "3.114.0",
+        "(&(osgi.os=linux)(osgi.ws=gtk)(osgi.arch=x86_64))", false), is(true));
+    assertThat(underTest.keepUnit("org.eclipse.swt.win32.win32.x86_64", "3.114.0",
+        "(&(osgi.os=win32)(osgi.ws=win32)(osgi.arch=x86_64))", false), is(false));
+    assertThat(underTest.keepUnit("org.example.launcher", "1.0.0", null, false), is(true));
+  }
+
+  @Test
+  public void dropsArtifactsOnlyUnitsForOtherPlatformsReferTo() {
+    assertThat(underTest.getExcludedArtifacts(), is(1));
+    assertThat(underTest.keepArtifact("osgi.bundle", "org.eclipse.swt.gtk.linux.x86_64", "3.114.0"), is(true));
+    assertThat(underTest.keepArtifact("osgi.bundle", "org.eclipse.swt.win32.win32.x86_64", "3.114.0"), is(false));
+    assertThat(underTest.keepArtifact("binary", "org.example.launcher", "1.0.0"), is(true));
+    assertThat(underTest.keepArtifact("osgi.bundle", "org.example.unknown", "1.0.0"), is(true));
+  }
+
+  @Test
+  public void combinesWithOtherFilters() {
+    UnitSlice emptySlice = new UnitSlice(
+        new InstallableUnitResolver(Collections.emptyMap(), filter -> true).resolve(Collections.emptyList()));
+    UnitFilterTransformer.Filter combined = underTest.and(emptySlice);
+
+    assertThat(combined.keepUnit("org.example.launcher", "1.0.0", null, false), is(false));
+    assertThat(combined.keepUnit("org.example.config", "1.0.0", null, true), is(true));
+    assertThat(combined.keepUnit("org.example.config.win32", "1.0.0", "(osgi.os=win32)", true), is(false));
+  }
+}
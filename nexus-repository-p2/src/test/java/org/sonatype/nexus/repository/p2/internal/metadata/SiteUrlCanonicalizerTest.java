@@ -0,0 +1,110 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.metadata;
+
+import java.util.Collections;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+
+public class SiteUrlCanonicalizerTest
+    extends TestSupport
+{
+  @Test
+  public void noneLeavesUrlUnchanged() {
+    String url = "HTTP://download.eclipse.org//releases/2019-12/./index";
+    assertThat(SiteUrlCanonicalizer.NONE.canonicalize(url), is(equalTo(url)));
+    assertThat(SiteUrlCanonicalizer.NONE.isIdentity(), is(true));
+  }
+
+  @Test
+  public void foldScheme() {
+    SiteUrlCanonicalizer underTest = new SiteUrlCanonicalizer(true, null, false, null);
+
+    assertThat(underTest.canonicalize("http://download.eclipse.org/releases/"),
+        is(equalTo("https://download.eclipse.org/releases/")));
+    assertThat(underTest.canonicalize("http://download.eclipse.org:80/releases/"),
+        is(equalTo("https://download.eclipse.org/releases/")));
+  }
+
+  @Test
+  public void hostAliases() {
+    SiteUrlCanonicalizer underTest = new SiteUrlCanonicalizer(false,
+        Collections.singletonMap("Mirror.Example.COM", "download.eclipse.org"), false, null);
+
+    assertThat(underTest.canonicalize("https://mirror.example.com/releases/"),
+        is(equalTo("https://download.eclipse.org/releases/")));
+    assertThat(underTest.canonicalize("https://other.example.com/releases/"),
+        is(equalTo("https://other.example.com/releases/")));
+  }
+
+  @Test
+  public void normalizePath() {
+    SiteUrlCanonicalizer underTest = new SiteUrlCanonicalizer(false, null, true, null);
+
+    assertThat(underTest.canonicalize("https://Download.Eclipse.org:443//releases/./2019-12/../2020-03//"),
+        is(equalTo("https://download.eclipse.org/releases/2020-03/")));
+    assertThat(underTest.canonicalize("https://download.eclipse.org/releases/2020-03/index"),
+        is(equalTo("https://download.eclipse.org/releases/2020-03/")));
+    assertThat(underTest.canonicalize("https://download.eclipse.org/releases/2020-03/index.html"),
+        is(equalTo("https://download.eclipse.org/releases/2020-03/")));
+    assertThat(underTest.canonicalize("https://download.eclipse.org"),
+        is(equalTo("https://download.eclipse.org/")));
+  }
+
+  @Test
+  public void equivalences() {
+    SiteUrlCanonicalizer underTest = new SiteUrlCanonicalizer(true, null, true, ImmutableMap.of(
+        "http://download.eclipse.org/releases/latest", "https://download.eclipse.org/releases/2020-03",
+        "http://download.eclipse.org/releases", "https://archive.eclipse.org/releases"));
+
+    assertThat(underTest.canonicalize("https://download.eclipse.org/releases/latest/"),
+        is(equalTo("https://download.eclipse.org/releases/2020-03/")));
+    assertThat(underTest.canonicalize("https://download.eclipse.org/releases/2019-12/child"),
+        is(equalTo("https://archive.eclipse.org/releases/2019-12/child")));
+    assertThat(underTest.canonicalize("http://download.eclipse.org/releases/latest"),
+        is(equalTo("https://download.eclipse.org/releases/2020-03")));
+  }
+
+  @Test
+  public void equivalenceMatchingFileUrlAddsNoSlash() {
+    SiteUrlCanonicalizer underTest = new SiteUrlCanonicalizer(false, null, false, ImmutableMap.of(
+        "https://mirror.example.com/releases/2020-03/", "https://download.eclipse.org/releases/2020-03/"));
+
+    assertThat(underTest.canonicalize("https://mirror.example.com/releases/2020-03/plugins/foo_1.0.0.jar"),
+        is(equalTo("https://download.eclipse.org/releases/2020-03/plugins/foo_1.0.0.jar")));
+    assertThat(underTest.canonicalize("https://mirror.example.com/releases/2020-03/content.jar"),
+        is(equalTo("https://download.eclipse.org/releases/2020-03/content.jar")));
+  }
+
+  @Test
+  public void equivalentUrlsShareSiteHash() {
+    SiteUrlCanonicalizer underTest = new SiteUrlCanonicalizer(true, null, true, null);
+
+    assertThat(UriToSiteHashUtil.map("http://download.eclipse.org//releases/2020-03", underTest),
+        is(equalTo(UriToSiteHashUtil.map("https://download.eclipse.org/releases/2020-03/"))));
+  }
+
+  @Test
+  public void unparseableUrlIsUnchanged() {
+    SiteUrlCanonicalizer underTest = new SiteUrlCanonicalizer(true, null, true, null);
+
+    assertThat(underTest.canonicalize("not a url"), is(equalTo("not a url")));
+  }
+}
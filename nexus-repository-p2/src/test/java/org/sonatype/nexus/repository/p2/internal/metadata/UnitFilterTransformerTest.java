@@ -0,0 +1,149 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.metadata;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import javax.annotation.Nullable;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.core.Is.is;
+
+public class UnitFilterTransformerTest
+    extends TestSupport
+{
+  private static final String CONTENT_XML = "<?xml version='1.0' encoding='UTF-8'?>\n" +
+      "<repository name='Test' type='org.eclipse.equinox.internal.p2.metadata.repository.LocalMetadataRepository'>\n" +
+      "  <properties size='1'>\n" +
+      "    <property name='p2.timestamp' value='1593007720425'/>\n" +
+      "  </properties>\n" +
+      "  <units size='3'>\n" +
+      "    <unit id='a' version='1.0.0'>\n" +
+      "      <artifacts size='1'>\n" +
+      "        <artifact classifier='osgi.bundle' id='a' version='1.0.0'/>\n" +
+      "      </artifacts>\n" +
+      "    </unit>\n" +
+      "    <unit id='b.win32' version='1.0.0'>\n" +
+      "      <requires size='1'>\n" +
+      "        <required namespace='org.eclipse.equinox.p2.iu' name='a' range='0.0.0'>\n" +
+      "          <filter>(osgi.os=linux)</filter>\n" +
+      "        </required>\n" +
+      "      </requires>\n" +
+      "      <filter>(osgi.os=win32)</filter>\n" +
+      "    </unit>\n" +
+      "    <unit id='tooling.osgi.bundle.default' version='1.0.0'>\n" +
+      "      <hostRequirements size='1'>\n" +
+      "        <required namespace='org.eclipse.equinox.p2.eclipse.type' name='bundle' range='0.0.0'/>\n" +
+      "      </hostRequirements>\n" +
+      "    </unit>\n" +
+      "  </units>\n" +
+      "</repository>\n";
+
+  private static final String ARTIFACTS_XML = "<?xml version='1.0' encoding='UTF-8'?>\n" +
+      "<repository name='Test' type='org.eclipse.equinox.p2.artifact.repository.simpleRepository'>\n" +
+      "  <artifacts size='2'>\n" +
+      "    <artifact classifier='osgi.bundle' id='a' version='1.0.0'>\n" +
+      "      <properties size='1'>\n" +
+      "        <property name='download.size' value='1024'/>\n" +
+      "      </properties>\n" +
+      "    </artifact>\n" +
+      "    <artifact classifier='osgi.bundle' id='b.win32' version='1.0.0'/>\n" +
+      "  </artifacts>\n" +
+      "</repository>\n";
+
+  private static final UnitFilterTransformer.Filter KEEP_A = new UnitFilterTransformer.Filter()
+  {
+    @Override
+    public boolean keepUnit(
+        final String id,
+        final String version,
+        @Nullable final String filter,
+        final boolean fragment)
+    {
+      return fragment || "a".equals(id);
+    }
+
+    @Override
+    public boolean keepArtifact(final String classifier, final String id, final String version) {
+      return "a".equals(id);
+    }
+  };
+
+  @Test
+  public void dropsUnitsAndCorrectsTheSize() throws Exception {
+    UnitFilterTransformer underTest = new UnitFilterTransformer(KEEP_A);
+
+    String transformed = transform(underTest, CONTENT_XML);
+
+    assertThat(underTest.getKept(), is(2));
+    assertThat(underTest.getRemoved(), is(1));
+    assertThat(transformed, containsString("<units size=\"2\">"));
+    assertThat(transformed, containsString("<properties size=\"1\">"));
+    assertThat(transformed, containsString("<unit id=\"a\" version=\"1.0.0\">"));
+    assertThat(transformed, containsString("<artifacts size=\"1\">"));
+    assertThat(transformed, containsString("<unit id=\"tooling.osgi.bundle.default\" version=\"1.0.0\">"));
+    assertThat(transformed, not(containsString("b.win32")));
+  }
+
+  @Test
+  public void passesTheUnitFilter() throws Exception {
+    StringBuilder filters = new StringBuilder();
+    transform(new UnitFilterTransformer(new UnitFilterTransformer.Filter()
+    {
+      @Override
+      public boolean keepUnit(
+          final String id,
+          final String version,
+          @Nullable final String filter,
+          final boolean fragment)
+      {
+        filters.append(id).append('=').append(filter).append(';');
+        return true;
+      }
+
+      @Override
+      public boolean keepArtifact(final String classifier, final String id, final String version) {
+        return true;
+      }
+    }), CONTENT_XML);
+
+    assertThat(filters.toString(), is("a=null;b.win32=(osgi.os=win32);tooling.osgi.bundle.default=null;"));
+  }
+
+  @Test
+  public void dropsArtifacts() throws Exception {
+    UnitFilterTransformer underTest = new UnitFilterTransformer(KEEP_A);
+
+    String transformed = transform(underTest, ARTIFACTS_XML);
+
+    assertThat(underTest.getKept(), is(1));
+    assertThat(underTest.getRemoved(), is(1));
+    assertThat(transformed, containsString("<artifacts size=\"1\">"));
+    assertThat(transformed, containsString("<property name=\"download.size\" value=\"1024\">"));
+    assertThat(transformed, not(containsString("b.win32")));
+  }
+
+  private static String transform(final UnitFilterTransformer transformer, final String xml) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    transformer.transform(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), out);
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+}
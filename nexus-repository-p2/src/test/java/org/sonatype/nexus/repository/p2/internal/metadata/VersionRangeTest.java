@@ -0,0 +1,64 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.metadata;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.core.Is.is;
+
+public class VersionRangeTest
+    extends TestSupport
+{
+  @Test
+  public void comparesOsgiVersions() {
+    assertThat(VersionRange.compare("3.10.0", "3.9.0"), is(greaterThan(0)));
+    assertThat(VersionRange.compare("3.18", "3.18.0"), is(0));
+    assertThat(VersionRange.compare("3.18.0", "3.18.0.v20200506-2143"), is(lessThan(0)));
+    assertThat(VersionRange.compare("3.18.0.v20200506", "3.18.0.v20200601"), is(lessThan(0)));
+  }
+
+  @Test
+  public void includesVersionsOfARange() {
+    VersionRange range = VersionRange.parse("[3.18.0,4.0.0)");
+
+    assertThat(range.includes("3.18.0"), is(true));
+    assertThat(range.includes("3.18.0.v20200506-2143"), is(true));
+    assertThat(range.includes("3.17.9"), is(false));
+    assertThat(range.includes("4.0.0"), is(false));
+    assertThat(VersionRange.parse("(3.18.0,4.0.0]").includes("3.18.0"), is(false));
+    assertThat(VersionRange.parse("(3.18.0,4.0.0]").includes("4.0.0"), is(true));
+  }
+
+  @Test
+  public void treatsAVersionAsMinimum() {
+    assertThat(VersionRange.parse("3.18.0").includes("3.18.0"), is(true));
+    assertThat(VersionRange.parse("3.18.0").includes("10.0.0"), is(true));
+    assertThat(VersionRange.parse("3.18.0").includes("3.2.0"), is(false));
+    assertThat(VersionRange.parse(null).includes("0.0.1"), is(true));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsInvalidRanges() {
+    VersionRange.parse("[4.0.0,3.0.0)");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsInvalidVersions() {
+    VersionRange.parse("[a.b,3.0.0)");
+  }
+}
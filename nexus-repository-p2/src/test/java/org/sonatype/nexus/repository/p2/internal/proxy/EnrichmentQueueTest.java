@@ -0,0 +1,106 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.proxy;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class EnrichmentQueueTest
+    extends TestSupport
+{
+  private final CountDownLatch started = new CountDownLatch(1);
+
+  private final CountDownLatch release = new CountDownLatch(1);
+
+  private final List<String> enriched = new CopyOnWriteArrayList<>();
+
+  private EnrichmentQueue underTest;
+
+  @After
+  public void tearDown() {
+    underTest.shutdown();
+  }
+
+  @Test
+  public void dropsAssetsWhenFull() throws Exception {
+    underTest = new EnrichmentQueue("test", 1, 1, this::enrich);
+
+    assertThat(underTest.submit("a"), is(true));
+    assertThat(started.await(5, TimeUnit.SECONDS), is(true));
+    assertThat(underTest.submit("b"), is(true));
+    assertThat(underTest.submit("c"), is(false));
+    assertThat(underTest.getQueueDepth(), is(1));
+    assertThat(underTest.getDropped().getCount(), is(1L));
+
+    release.countDown();
+    awaitEnriched(2);
+    assertThat(enriched, is(asList("a", "b")));
+  }
+
+  @Test
+  public void queuesAssetsOnce() throws Exception {
+    underTest = new EnrichmentQueue("test", 1, 10, this::enrich);
+
+    underTest.submit("a");
+    assertThat(started.await(5, TimeUnit.SECONDS), is(true));
+    underTest.submit("b");
+    underTest.submit("b");
+    assertThat(underTest.getQueueDepth(), is(1));
+
+    release.countDown();
+    awaitEnriched(2);
+    assertThat(enriched, is(asList("a", "b")));
+    assertThat(underTest.getDropped().getCount(), is(0L));
+  }
+
+  @Test
+  public void countsFailures() throws Exception {
+    underTest = new EnrichmentQueue("test", 1, 10, assetName -> {
+      throw new IllegalStateException(assetName);
+    });
+
+    underTest.submit("a");
+
+    long deadline = System.currentTimeMillis() + 5000;
+    while (underTest.getFailed().getCount() == 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(underTest.getFailed().getCount(), is(1L));
+    assertThat(underTest.getEnriched().getCount(), is(0L));
+  }
+
+  private void enrich(final String assetName) throws InterruptedException {
+    started.countDown();
+    release.await();
+    enriched.add(assetName);
+  }
+
+  private void awaitEnriched(final long count) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (underTest.getEnriched().getCount() < count && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(underTest.getEnriched().getCount(), is(count));
+  }
+}
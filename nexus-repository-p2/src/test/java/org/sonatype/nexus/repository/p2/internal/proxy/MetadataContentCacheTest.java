@@ -0,0 +1,112 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.proxy;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.common.entity.EntityId;
+import org.sonatype.nexus.common.entity.EntityMetadata;
+import org.sonatype.nexus.repository.storage.Asset;
+
+import org.junit.Test;
+import org.mockito.Mock;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.core.Is.is;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class MetadataContentCacheTest
+    extends TestSupport
+{
+  private static final String PATH = "compositeContent.xml";
+
+  @Mock
+  private Asset asset;
+
+  private final MetadataContentCache underTest = new MetadataContentCache(4096, 1024, 3600);
+
+  @Test
+  public void servesKeptContent() {
+    assertThat(underTest.get(PATH), is(nullValue()));
+
+    underTest.put(PATH, underTest.mark(), asset, new byte[100], "text/xml");
+
+    MetadataContentCache.Entry entry = underTest.get(PATH);
+    assertThat(entry, is(notNullValue()));
+    assertThat(entry.getAsset(), is(asset));
+    assertThat(entry.getBytes().length, is(100));
+    assertThat(entry.getContentType(), is("text/xml"));
+    assertThat(underTest.getBytes(), is(100L));
+    assertThat(underTest.getHits().getCount(), is(1L));
+    assertThat(underTest.getMisses().getCount(), is(1L));
+  }
+
+  @Test
+  public void dropsInvalidatedContent() {
+    underTest.put(PATH, underTest.mark(), asset, new byte[100], "text/xml");
+
+    underTest.invalidate(PATH);
+
+    assertThat(underTest.get(PATH), is(nullValue()));
+    assertThat(underTest.getBytes(), is(0L));
+  }
+
+  @Test
+  public void dropsContentKeptUnderTheFormerNameOfARenamedAsset() {
+    EntityId assetId = mock(EntityId.class);
+    EntityMetadata metadata = mock(EntityMetadata.class);
+    when(metadata.getId()).thenReturn(assetId);
+    when(asset.getEntityMetadata()).thenReturn(metadata);
+    underTest.put("site/" + PATH, underTest.mark(), asset, new byte[100], "text/xml");
+    underTest.put("other/" + PATH, underTest.mark(), mock(Asset.class), new byte[100], "text/xml");
+
+    underTest.invalidate("canonical/" + PATH, assetId);
+
+    assertThat(underTest.get("site/" + PATH), is(nullValue()));
+    assertThat(underTest.get("other/" + PATH), is(notNullValue()));
+  }
+
+  @Test
+  public void ignoresContentReadBeforeAnInvalidation() {
+    long mark = underTest.mark();
+    underTest.invalidate("p2.index");
+
+    underTest.put(PATH, mark, asset, new byte[100], "text/xml");
+
+    assertThat(underTest.get(PATH), is(nullValue()));
+  }
+
+  @Test
+  public void keepsOnlySmallContent() {
+    assertThat(underTest.accepts(1024), is(true));
+    assertThat(underTest.accepts(1025), is(false));
+    assertThat(underTest.accepts(-1), is(false));
+
+    underTest.put(PATH, underTest.mark(), asset, new byte[1025], "text/xml");
+
+    assertThat(underTest.get(PATH), is(nullValue()));
+  }
+
+  @Test
+  public void boundsTheTotalSize() {
+    for (int i = 0; i < 20; i++) {
+      underTest.put("site" + i + "/" + PATH, underTest.mark(), asset, new byte[512], "text/xml");
+    }
+
+    assertThat(underTest.getBytes(), is(lessThanOrEqualTo(4096L)));
+    assertThat(underTest.getBytes(), is(underTest.size() * 512));
+  }
+}
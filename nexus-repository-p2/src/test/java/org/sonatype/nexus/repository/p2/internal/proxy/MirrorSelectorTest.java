@@ -0,0 +1,174 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.proxy;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.repository.p2.internal.proxy.MirrorSelector.Mirror;
+
+import org.junit.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.collection.IsIterableContainingInOrder.contains;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+
+public class MirrorSelectorTest
+    extends TestSupport
+{
+  private static final String SITE = "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef";
+
+  private static final String MIRRORS_URL = "https://www.eclipse.org/downloads/download.php?format=xml";
+
+  private final AtomicInteger loads = new AtomicInteger();
+
+  private MirrorSelector underTest(final boolean spread, final String... mirrors) {
+    return new MirrorSelector(site -> Optional.of(MIRRORS_URL), url -> {
+      loads.incrementAndGet();
+      return Arrays.asList(mirrors);
+    }, Runnable::run, 3600, spread);
+  }
+
+  @Test
+  public void parsesMirrors() throws IOException {
+    String xml = "<?xml version='1.0' encoding='UTF-8'?>\n" +
+        "<mirrors>\n" +
+        "  <mirror url='https://mirror.one.example.com/eclipse/releases/' label='[Germany] one'/>\n" +
+        "  <mirror label='no url'/>\n" +
+        "  <mirror url=' https://mirror.two.example.com/releases ' label='[France] two'/>\n" +
+        "</mirrors>";
+
+    List<String> mirrors = MirrorSelector.parseMirrors(new ByteArrayInputStream(xml.getBytes(UTF_8)));
+
+    assertThat(mirrors,
+        contains("https://mirror.one.example.com/eclipse/releases/", "https://mirror.two.example.com/releases"));
+  }
+
+  @Test
+  public void resolvesRelativeToMirror() {
+    MirrorSelector selector = underTest(false, "https://mirror.one.example.com/releases");
+
+    Optional<Mirror> mirror = selector.select(SITE);
+
+    assertThat(mirror.isPresent(), is(true));
+    assertThat(mirror.get().resolve("plugins/a_1.0.0.jar"),
+        is(equalTo(URI.create("https://mirror.one.example.com/releases/plugins/a_1.0.0.jar"))));
+  }
+
+  @Test
+  public void prefersFasterMirror() throws IOException {
+    MirrorSelector selector = underTest(false, "https://slow.example.com/", "https://fast.example.com/");
+    Mirror slow = selector.select(SITE).get();
+    measure(slow, 500);
+    Mirror fast = selector.select(SITE).get();
+    measure(fast, 20);
+
+    assertThat(selector.select(SITE).get(), is(fast));
+    assertThat(selector.getMirrorFetches().getCount(), is(3L));
+  }
+
+  @Test
+  public void failingMirrorIsAvoided() throws IOException {
+    MirrorSelector selector = underTest(false, "https://one.example.com/", "https://two.example.com/");
+    Mirror first = selector.select(SITE).get();
+    measure(first, 10);
+    Mirror second = selector.select(SITE).get();
+    measure(second, 100);
+
+    first.begin();
+    selector.fallback(first);
+
+    assertThat(selector.select(SITE).get(), is(second));
+    assertThat(selector.getFallbacks().getCount(), is(1L));
+  }
+
+  @Test
+  public void spreadsConcurrentFetches() throws IOException {
+    MirrorSelector selector = underTest(true, "https://one.example.com/", "https://two.example.com/");
+    Mirror first = selector.select(SITE).get();
+    measure(first, 10);
+    Mirror second = selector.select(SITE).get();
+    measure(second, 15);
+
+    first.begin();
+
+    assertThat(selector.select(SITE).get(), is(second));
+  }
+
+  @Test
+  public void mirrorListIsLoadedOnceUntilInvalidated() {
+    MirrorSelector selector = underTest(false, "https://one.example.com/");
+    selector.select(SITE);
+    selector.select(SITE);
+
+    assertThat(loads.get(), is(1));
+
+    selector.invalidate(SITE);
+    selector.select(SITE);
+
+    assertThat(loads.get(), is(2));
+  }
+
+  @Test
+  public void rejectedRefreshIsRetried() {
+    AtomicBoolean rejecting = new AtomicBoolean(true);
+    MirrorSelector selector = new MirrorSelector(site -> Optional.of(MIRRORS_URL), url -> {
+      loads.incrementAndGet();
+      return Arrays.asList("https://one.example.com/");
+    }, command -> {
+      if (rejecting.get()) {
+        throw new RejectedExecutionException();
+      }
+      command.run();
+    }, 3600, false);
+
+    assertThat(selector.select(SITE).isPresent(), is(false));
+    assertThat(loads.get(), is(0));
+
+    rejecting.set(false);
+
+    assertThat(selector.select(SITE).isPresent(), is(true));
+    assertThat(loads.get(), is(1));
+  }
+
+  @Test
+  public void noMirrorsWithoutMirrorsUrl() {
+    MirrorSelector selector = new MirrorSelector(site -> Optional.empty(), url -> {
+      throw new IOException("not expected");
+    }, Runnable::run, 3600, false);
+
+    assertThat(selector.select(null).isPresent(), is(false));
+    assertThat(selector.size(), is(0));
+  }
+
+  private static void measure(final Mirror mirror, final long latency) throws IOException {
+    mirror.begin();
+    mirror.responded(latency);
+    try (InputStream in = mirror.measure(new ByteArrayInputStream(new byte[0]))) {
+      while (in.read() != -1) {
+        // drain
+      }
+    }
+  }
+}
@@ -0,0 +1,197 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.proxy;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Optional;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.blobstore.api.Blob;
+import org.sonatype.nexus.blobstore.api.BlobRef;
+import org.sonatype.nexus.common.app.ApplicationDirectories;
+import org.sonatype.nexus.common.collect.NestedAttributesMap;
+import org.sonatype.nexus.common.entity.EntityId;
+import org.sonatype.nexus.common.entity.EntityMetadata;
+import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.mime.ContentValidator;
+import org.sonatype.nexus.repository.p2.P2Facet;
+import org.sonatype.nexus.repository.p2.internal.P2Format;
+import org.sonatype.nexus.repository.p2.internal.metadata.P2Attributes;
+import org.sonatype.nexus.repository.p2.internal.util.ContentMetadataAttributes;
+import org.sonatype.nexus.repository.p2.internal.util.FlattenedRepositories;
+import org.sonatype.nexus.repository.p2.internal.util.InstallableUnitIndexes;
+import org.sonatype.nexus.repository.p2.internal.util.P2TempBlobUtils;
+import org.sonatype.nexus.repository.storage.Asset;
+import org.sonatype.nexus.repository.storage.Bucket;
+import org.sonatype.nexus.repository.storage.Component;
+import org.sonatype.nexus.repository.storage.Query;
+import org.sonatype.nexus.repository.storage.StorageFacet;
+import org.sonatype.nexus.repository.storage.StorageTx;
+import org.sonatype.nexus.transaction.Transactional;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.core.Is.is;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.sonatype.nexus.repository.p2.internal.proxy.P2ProxyFacetImpl.ENRICHMENT_PENDING;
+import static org.sonatype.nexus.repository.p2.internal.util.P2PathUtils.PLUGIN_NAME;
+
+public class P2ProxyFacetImplTest
+    extends TestSupport
+{
+  private static final String BUNDLE = "https/download.eclipse.org/releases/plugins/org.b_2.0.0.jar";
+
+  @Mock
+  private ContentMetadataAttributes contentMetadataAttributes;
+
+  @Mock
+  private Repository repository;
+
+  @Mock
+  private StorageFacet storageFacet;
+
+  @Mock
+  private P2Facet p2Facet;
+
+  @Mock
+  private StorageTx tx;
+
+  @Mock
+  private Bucket bucket;
+
+  @Mock
+  private Asset asset;
+
+  @Mock
+  private Component component;
+
+  @Mock
+  private Component target;
+
+  @Mock
+  private EntityId componentId;
+
+  @Mock
+  private EntityId targetId;
+
+  private final NestedAttributesMap formatAttributes = new NestedAttributesMap(P2Format.NAME, new HashMap<>());
+
+  private P2ProxyFacetImpl underTest;
+
+  @Before
+  public void setUp() throws Exception {
+    underTest = new P2ProxyFacetImpl(mock(P2TempBlobUtils.class), mock(ContentValidator.class),
+        contentMetadataAttributes, mock(InstallableUnitIndexes.class), mock(FlattenedRepositories.class),
+        mock(ApplicationDirectories.class));
+    when(repository.facet(StorageFacet.class)).thenReturn(storageFacet);
+    when(repository.facet(P2Facet.class)).thenReturn(p2Facet);
+    when(storageFacet.txSupplier()).thenReturn(() -> tx);
+    when(tx.getTransaction()).thenReturn(tx);
+    when(tx.isActive()).thenReturn(true);
+    when(tx.findBucket(repository)).thenReturn(bucket);
+    underTest.attach(repository);
+
+    formatAttributes.set(ENRICHMENT_PENDING, true);
+    when(asset.formatAttributes()).thenReturn(formatAttributes);
+    when(asset.componentId()).thenReturn(componentId);
+    when(asset.requireBlobRef()).thenReturn(new BlobRef("node", "store", "blob"));
+    when(tx.requireBlob(any())).thenReturn(mock(Blob.class));
+    when(p2Facet.findAsset(tx, bucket, BUNDLE)).thenReturn(asset);
+    when(tx.findComponentInBucket(componentId, bucket)).thenReturn(component);
+    when(component.name()).thenReturn("org.a");
+    when(component.version()).thenReturn("1.0.0");
+    EntityMetadata metadata = mock(EntityMetadata.class);
+    when(metadata.getId()).thenReturn(targetId);
+    when(target.getEntityMetadata()).thenReturn(metadata);
+  }
+
+  @Test
+  public void findPendingEnrichmentPagesByName() {
+    Asset first = mock(Asset.class);
+    Asset second = mock(Asset.class);
+    when(first.name()).thenReturn("a");
+    when(second.name()).thenReturn("b");
+    when(tx.findAssets(any(Query.class), any())).thenReturn(Arrays.asList(first, second), Collections.emptyList());
+
+    assertThat(underTest.findPendingEnrichment(null), contains("a", "b"));
+    assertThat(underTest.findPendingEnrichment("b").isEmpty(), is(true));
+
+    ArgumentCaptor<Query> queries = ArgumentCaptor.forClass(Query.class);
+    verify(tx, times(2)).findAssets(queries.capture(), eq(Collections.singleton(repository)));
+    List<Query> pages = queries.getAllValues();
+    assertThat(pages.get(0).getWhere(), containsString(ENRICHMENT_PENDING));
+    assertThat(pages.get(0).getWhere(), not(containsString("name >")));
+    assertThat(pages.get(0).getQuerySuffix(), containsString("ORDER BY name LIMIT"));
+    assertThat(pages.get(1).getWhere(), containsString("name >"));
+    assertThat(pages.get(1).getParameters().values(), hasItem("b"));
+  }
+
+  @Test
+  public void enrichMovesTheAssetToTheComponentItIdentifies() throws Exception {
+    P2Attributes enriched = P2Attributes.builder().componentName("org.b").componentVersion("2.0.0")
+        .pluginName("B").build();
+    when(contentMetadataAttributes.mergeAttributes(eq(tx), eq(repository), any())).thenReturn(Optional.of(enriched));
+    when(p2Facet.findOrCreateComponent(tx, enriched)).thenReturn(target);
+    when(tx.browseAssets(component)).thenReturn(Collections.emptyList());
+
+    enrich();
+
+    // the move is stored before the emptied component is deleted with the assets it still has
+    InOrder order = inOrder(asset, tx);
+    order.verify(asset).componentId(targetId);
+    order.verify(tx).saveAsset(asset);
+    order.verify(tx).deleteComponent(component);
+    assertThat(formatAttributes.contains(ENRICHMENT_PENDING), is(false));
+    assertThat(formatAttributes.get(PLUGIN_NAME), is("B"));
+  }
+
+  @Test
+  public void enrichKeepsTheAssetOfAnIdentifiedComponent() throws Exception {
+    P2Attributes enriched = P2Attributes.builder().componentName("org.a").componentVersion("1.0.0").build();
+    when(contentMetadataAttributes.mergeAttributes(eq(tx), eq(repository), any())).thenReturn(Optional.of(enriched));
+
+    enrich();
+
+    verify(asset, never()).componentId(any(EntityId.class));
+    verify(tx, never()).deleteComponent(any());
+    assertThat(formatAttributes.contains(ENRICHMENT_PENDING), is(false));
+  }
+
+  /**
+   * Enrich the bundle in a transaction, as the {@code @TransactionalStoreBlob} interceptor does.
+   */
+  private void enrich() throws IOException {
+    Transactional.operation.throwing(IOException.class).withDb(storageFacet.txSupplier())
+        .run(() -> underTest.doEnrich(BUNDLE));
+  }
+}
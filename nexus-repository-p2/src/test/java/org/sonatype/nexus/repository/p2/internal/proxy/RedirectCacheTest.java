@@ -0,0 +1,120 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.proxy;
+
+import java.net.URI;
+import java.util.Optional;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.repository.p2.internal.proxy.RedirectCache.Resolved;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+
+public class RedirectCacheTest
+    extends TestSupport
+{
+  private static final String SITE = "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef";
+
+  private RedirectCache underTest;
+
+  @Before
+  public void setUp() {
+    underTest = new RedirectCache(60, 100);
+  }
+
+  @Test
+  public void resolvesSiblingsOfRedirectedUrl() {
+    underTest.record(SITE, URI.create("https://download.eclipse.org/releases/plugins/a_1.0.0.jar"),
+        URI.create("https://mirror.example.com/eclipse/releases/plugins/a_1.0.0.jar"), 2);
+
+    Optional<Resolved> resolved =
+        underTest.resolve(SITE, URI.create("https://download.eclipse.org/releases/features/b_1.0.0.jar"));
+
+    assertThat(resolved.isPresent(), is(true));
+    assertThat(resolved.get().getLocation(),
+        is(equalTo(URI.create("https://mirror.example.com/eclipse/releases/features/b_1.0.0.jar"))));
+  }
+
+  @Test
+  public void redirectsAreRememberedPerSite() {
+    underTest.record(SITE, URI.create("https://download.eclipse.org/releases/plugins/a_1.0.0.jar"),
+        URI.create("https://mirror.example.com/eclipse/releases/plugins/a_1.0.0.jar"), 1);
+
+    assertThat(underTest.resolve(null, URI.create("https://download.eclipse.org/releases/plugins/a_1.0.0.jar"))
+        .isPresent(), is(false));
+  }
+
+  @Test
+  public void urlsWithQueriesAreRememberedExactly() {
+    URI url = URI.create("https://www.eclipse.org/downloads/download.php?file=/releases/plugins/a_1.0.0.jar");
+    underTest.record(SITE, url, URI.create("https://mirror.example.com/eclipse/releases/plugins/a_1.0.0.jar"), 1);
+
+    assertThat(underTest.resolve(SITE, url).get().getLocation(),
+        is(equalTo(URI.create("https://mirror.example.com/eclipse/releases/plugins/a_1.0.0.jar"))));
+    assertThat(underTest.resolve(SITE,
+        URI.create("https://www.eclipse.org/downloads/download.php?file=/releases/plugins/b_1.0.0.jar")).isPresent(),
+        is(false));
+  }
+
+  @Test
+  public void metadataIgnoresRulesLearnedFromBundles() {
+    underTest.record(SITE, URI.create("https://download.eclipse.org/releases/plugins/a_1.0.0.jar"),
+        URI.create("https://mirror.example.com/eclipse/releases/plugins/a_1.0.0.jar"), 1);
+
+    assertThat(underTest.resolveExact(SITE, URI.create("https://download.eclipse.org/releases/plugins/content.jar"))
+        .isPresent(), is(false));
+    assertThat(underTest.resolve(SITE, URI.create("https://download.eclipse.org/releases/plugins/b_1.0.0.jar"))
+        .isPresent(), is(true));
+  }
+
+  @Test
+  public void metadataIsRememberedExactly() {
+    URI url = URI.create("https://download.eclipse.org/releases/content.jar");
+    underTest.recordExact(SITE, url, URI.create("https://archive.eclipse.org/releases/content.jar"), 1);
+
+    assertThat(underTest.resolveExact(SITE, url).get().getLocation(),
+        is(equalTo(URI.create("https://archive.eclipse.org/releases/content.jar"))));
+    assertThat(underTest.resolveExact(SITE, URI.create("https://download.eclipse.org/releases/artifacts.jar"))
+        .isPresent(), is(false));
+    assertThat(underTest.resolve(SITE, URI.create("https://download.eclipse.org/releases/artifacts.jar"))
+        .isPresent(), is(false));
+  }
+
+  @Test
+  public void invalidateAfterFailure() {
+    URI url = URI.create("https://download.eclipse.org/releases/plugins/a_1.0.0.jar");
+    underTest.record(SITE, url, URI.create("https://mirror.example.com/eclipse/releases/plugins/a_1.0.0.jar"), 1);
+
+    underTest.invalidate(SITE, underTest.resolve(SITE, url).get());
+
+    assertThat(underTest.resolve(SITE, url).isPresent(), is(false));
+    assertThat(underTest.getFallbacks().getCount(), is(1L));
+  }
+
+  @Test
+  public void countsRoundTripsSaved() {
+    URI url = URI.create("https://download.eclipse.org/releases/plugins/a_1.0.0.jar");
+    underTest.record(SITE, url, URI.create("https://mirror.example.com/eclipse/releases/plugins/a_1.0.0.jar"), 3);
+
+    underTest.succeeded(underTest.resolve(SITE, url).get());
+    underTest.succeeded(underTest.resolve(SITE, url).get());
+
+    assertThat(underTest.getRoundTripsSaved().getCount(), is(6L));
+    assertThat(underTest.getHits().getCount(), is(2L));
+  }
+}
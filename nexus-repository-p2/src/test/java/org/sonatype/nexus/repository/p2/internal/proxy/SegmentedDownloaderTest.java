@@ -0,0 +1,224 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.proxy;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.repository.p2.internal.metadata.ArtifactProperties;
+import org.sonatype.nexus.repository.p2.internal.proxy.SegmentedDownloader.Digest;
+import org.sonatype.nexus.repository.p2.internal.proxy.SegmentedDownloader.RangeNotHonouredException;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+public class SegmentedDownloaderTest
+    extends TestSupport
+{
+  private static final URI LOCATION = URI.create("https://download.eclipse.org/releases/binary/a_1.0.0.zip");
+
+  private static final int LENGTH = 40 * 1024 * 1024;
+
+  private final byte[] data = new byte[LENGTH];
+
+  private final AtomicBoolean interrupt = new AtomicBoolean();
+
+  @Mock
+  private HttpClient client;
+
+  private ExecutorService executor;
+
+  private Path directory;
+
+  private Digest digest;
+
+  private SegmentedDownloader underTest;
+
+  @Before
+  public void setUp() throws IOException {
+    new Random(42).nextBytes(data);
+    digest = SegmentedDownloader.propertiesDigest(
+        ImmutableMap.of(ArtifactProperties.DOWNLOAD_SHA256, Hashing.sha256().hashBytes(data).toString())).get();
+    executor = Executors.newCachedThreadPool();
+    directory = Files.createTempDirectory("p2");
+    underTest = new SegmentedDownloader(executor, directory, 4, 3);
+    when(client.execute(any(HttpUriRequest.class)))
+        .thenAnswer(invocation -> range((HttpUriRequest) invocation.getArguments()[0]));
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void onlyLargeRangeableResponsesAreSegmentable() {
+    assertThat(underTest.isSegmentable(response(true), 1024), is(true));
+    assertThat(underTest.isSegmentable(response(false), 1024), is(false));
+    assertThat(underTest.isSegmentable(response(true), LENGTH + 1), is(false));
+  }
+
+  @Test
+  public void downloadsInSegments() throws IOException {
+    HttpEntity entity = underTest.download(client, LOCATION, new HttpGet(LOCATION), response(true), digest);
+
+    assertThat(read(entity), is(data));
+    assertThat(underTest.getDownloads().getCount(), is(1L));
+    assertThat(underTest.getResumes().getCount(), is(0L));
+  }
+
+  @Test(expected = NoSuchFileException.class)
+  public void downloadsIntoTheDirectory() throws IOException {
+    Files.delete(directory);
+
+    underTest.download(client, LOCATION, new HttpGet(LOCATION), response(true), digest);
+  }
+
+  @Test
+  public void resumesInterruptedSegment() throws IOException {
+    interrupt.set(true);
+
+    HttpEntity entity = underTest.download(client, LOCATION, new HttpGet(LOCATION), response(true), digest);
+
+    assertThat(read(entity), is(data));
+    assertThat(underTest.getResumes().getCount(), is(1L));
+  }
+
+  @Test
+  public void prefersTheDigestOfTheArtifactProperties() {
+    HttpResponse response = response(true);
+    response.setHeader("Content-MD5", BaseEncoding.base64().encode(Hashing.md5().hashBytes(data).asBytes()));
+    String md5 = Hashing.md5().hashBytes(data).toString();
+    String sha512 = Hashing.sha512().hashBytes(data).toString();
+
+    assertThat(underTest.digest(ImmutableMap.of(ArtifactProperties.DOWNLOAD_MD5, md5,
+        ArtifactProperties.DOWNLOAD_SHA512, sha512), response).get().toString(), is("SHA-512=" + sha512));
+    assertThat(underTest.digest(Collections.emptyMap(), response).get().toString(), is("MD5=" + md5));
+  }
+
+  @Test
+  public void verifiesAdvertisedDigest() throws IOException {
+    HttpResponse response = response(true);
+    response.setHeader("Digest", "SHA-256=" + BaseEncoding.base64().encode(Hashing.sha256().hashBytes(data).asBytes()));
+    Digest advertised = underTest.digest(Collections.emptyMap(), response).get();
+
+    assertThat(read(underTest.download(client, LOCATION, new HttpGet(LOCATION), response, advertised)), is(data));
+  }
+
+  @Test
+  public void unknownDigestIsUnverifiable() {
+    assertThat(underTest.digest(Collections.emptyMap(), response(true)).isPresent(), is(false));
+    assertThat(underTest.getUnverifiable().getCount(), is(1L));
+  }
+
+  @Test(expected = IOException.class)
+  public void failsOnDigestMismatch() throws IOException {
+    Digest empty = SegmentedDownloader.propertiesDigest(
+        ImmutableMap.of(ArtifactProperties.DOWNLOAD_MD5, Hashing.md5().hashBytes(new byte[0]).toString())).get();
+
+    read(underTest.download(client, LOCATION, new HttpGet(LOCATION), response(true), empty));
+  }
+
+  @Test(expected = RangeNotHonouredException.class)
+  public void failsWhenRangeIsNotHonoured() throws IOException {
+    doAnswer(invocation -> response(true)).when(client).execute(any(HttpUriRequest.class));
+
+    read(underTest.download(client, LOCATION, new HttpGet(LOCATION), response(true), digest));
+  }
+
+  @Test(expected = RangeNotHonouredException.class)
+  public void failsWhenNoThreadIsAvailable() throws IOException {
+    underTest = new SegmentedDownloader(command -> {
+      throw new RejectedExecutionException();
+    }, directory, 4, 3);
+
+    underTest.download(client, LOCATION, new HttpGet(LOCATION), response(true), digest);
+  }
+
+  private HttpResponse response(final boolean acceptRanges) {
+    BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+    if (acceptRanges) {
+      response.setHeader("Accept-Ranges", "bytes");
+    }
+    response.setHeader("ETag", "\"1234\"");
+    response.setEntity(new InputStreamEntity(new ByteArrayInputStream(data), LENGTH));
+    return response;
+  }
+
+  private HttpResponse range(final HttpUriRequest request) {
+    assertThat(request.getFirstHeader("If-Range").getValue(), is("\"1234\""));
+    String[] range = request.getFirstHeader("Range").getValue().substring("bytes=".length()).split("-");
+    int start = Integer.parseInt(range[0]);
+    int end = Integer.parseInt(range[1]);
+
+    BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 206, "Partial Content");
+    response.setHeader("Content-Range", "bytes " + start + '-' + end + '/' + LENGTH);
+    InputStream in = new ByteArrayInputStream(data, start, end - start + 1);
+    if (interrupt.compareAndSet(true, false)) {
+      in = new FilterInputStream(in)
+      {
+        private int count;
+
+        @Override
+        public int read(final byte[] buffer, final int off, final int len) throws IOException {
+          count += len;
+          if (count > 1024 * 1024) {
+            throw new IOException("Connection reset");
+          }
+          return super.read(buffer, off, len);
+        }
+      };
+    }
+    response.setEntity(new InputStreamEntity(in, end - start + 1));
+    return response;
+  }
+
+  private static byte[] read(final HttpEntity entity) throws IOException {
+    try (InputStream in = entity.getContent()) {
+      return ByteStreams.toByteArray(in);
+    }
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.proxy;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.repository.view.Content;
+import org.sonatype.nexus.repository.view.payloads.BytesPayload;
+
+import com.google.common.io.ByteStreams;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.InputStreamEntity;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class StreamThroughTest
+    extends TestSupport
+{
+  private static final String CONTENT_TYPE = "application/java-archive";
+
+  private final byte[] data = new byte[5 * 1024 * 1024];
+
+  private ExecutorService executor;
+
+  private StreamThrough underTest;
+
+  @Before
+  public void setUp() {
+    new Random(7).nextBytes(data);
+    executor = Executors.newCachedThreadPool();
+    underTest = new StreamThrough(new InputStreamEntity(new ByteArrayInputStream(data), data.length), executor);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void storesWhatIsServed() throws IOException {
+    underTest.ingestWith(in -> new Content(new BytesPayload(ByteStreams.toByteArray(in), CONTENT_TYPE)));
+    HttpEntity entity = underTest.entity();
+
+    assertThat(read(entity.getContent()), is(data));
+    assertThat(read(underTest.getStored().openInputStream()), is(data));
+    assertThat(underTest.isStored(), is(true));
+  }
+
+  @Test
+  public void laterStreamsReadStoredArtifact() throws IOException {
+    underTest.ingestWith(in -> new Content(new BytesPayload(ByteStreams.toByteArray(in), CONTENT_TYPE)));
+    HttpEntity entity = underTest.entity();
+    read(entity.getContent());
+
+    assertThat(read(entity.getContent()), is(data));
+  }
+
+  @Test(expected = IOException.class)
+  public void partialArtifactIsNotStored() throws IOException {
+    underTest.ingestWith(in -> new Content(new BytesPayload(ByteStreams.toByteArray(in), CONTENT_TYPE)));
+    try (InputStream in = underTest.entity().getContent()) {
+      ByteStreams.readFully(in, new byte[1024]);
+    }
+
+    underTest.getStored();
+  }
+
+  @Test
+  public void clientIsServedWhenIngestFails() throws IOException {
+    underTest.ingestWith(in -> {
+      throw new IOException("blob store unavailable");
+    });
+
+    assertThat(read(underTest.entity().getContent()), is(data));
+    assertThat(underTest.isStored(), is(false));
+  }
+
+  @Test
+  public void servedWithoutIngest() throws IOException {
+    assertThat(read(underTest.entity().getContent()), is(data));
+    assertThat(underTest.isStored(), is(false));
+  }
+
+  private static byte[] read(final InputStream stream) throws IOException {
+    try (InputStream in = stream) {
+      return ByteStreams.toByteArray(in);
+    }
+  }
+}
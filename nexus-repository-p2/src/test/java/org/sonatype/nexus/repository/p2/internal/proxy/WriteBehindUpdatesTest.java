@@ -0,0 +1,110 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.proxy;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.repository.cache.CacheInfo;
+import org.sonatype.nexus.repository.p2.internal.proxy.WriteBehindUpdates.Update;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.core.Is.is;
+
+public class WriteBehindUpdatesTest
+    extends TestSupport
+{
+  private final List<Map<String, Update>> batches = new ArrayList<>();
+
+  private boolean failing;
+
+  private WriteBehindUpdates underTest;
+
+  @Before
+  public void setUp() {
+    underTest = new WriteBehindUpdates(updates -> {
+      if (failing) {
+        throw new IllegalStateException("db down");
+      }
+      batches.add(new LinkedHashMap<>(updates));
+    }, null);
+  }
+
+  @Test
+  public void mergesUpdatesOfAnAsset() {
+    CacheInfo older = new CacheInfo(DateTime.now().minusMinutes(1), null);
+    CacheInfo newer = new CacheInfo(DateTime.now(), null);
+
+    underTest.verified("a", older);
+    underTest.downloaded("a");
+    underTest.verified("a", newer);
+    underTest.downloaded("b");
+    assertThat(underTest.getPending(), is(2));
+    assertThat(underTest.getPendingCacheInfo("a").get(), is(newer));
+    assertThat(underTest.getPendingCacheInfo("b").isPresent(), is(false));
+
+    underTest.flush();
+
+    assertThat(batches.size(), is(1));
+    Map<String, Update> batch = batches.get(0);
+    assertThat(batch.get("a").isDownloaded(), is(true));
+    assertThat(batch.get("a").getCacheInfo(), is(newer));
+    assertThat(batch.get("b").isDownloaded(), is(true));
+    assertThat(underTest.getPending(), is(0));
+    assertThat(underTest.getFlushed().getCount(), is(2L));
+  }
+
+  @Test
+  public void writesInBatches() {
+    for (int i = 0; i < 1200; i++) {
+      underTest.downloaded("asset-" + i);
+    }
+
+    underTest.flush();
+
+    assertThat(batches.size(), is(3));
+    assertThat(batches.get(2).size(), is(200));
+    assertThat(underTest.getFlushed().getCount(), is(1200L));
+  }
+
+  @Test
+  public void keepsUpdatesOfFailedBatches() {
+    CacheInfo cacheInfo = new CacheInfo(DateTime.now(), null);
+    underTest.verified("a", cacheInfo);
+    failing = true;
+
+    underTest.flush();
+
+    assertThat(batches, is(empty()));
+    assertThat(underTest.getFailures().getCount(), is(1L));
+    assertThat(underTest.getPending(), is(1));
+
+    underTest.downloaded("a");
+    failing = false;
+    underTest.shutdown();
+
+    assertThat(batches.size(), is(1));
+    assertThat(batches.get(0).keySet(), contains("a"));
+    assertThat(batches.get(0).get("a").isDownloaded(), is(true));
+    assertThat(batches.get(0).get("a").getCacheInfo(), is(cacheInfo));
+  }
+}
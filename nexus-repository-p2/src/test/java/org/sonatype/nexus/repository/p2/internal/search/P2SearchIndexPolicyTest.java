@@ -0,0 +1,102 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.search;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.common.collect.NestedAttributesMap;
+import org.sonatype.nexus.repository.p2.internal.metadata.UriToSiteHashUtil;
+import org.sonatype.nexus.repository.storage.Asset;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.sonatype.nexus.repository.storage.AssetEntityAdapter.P_ASSET_KIND;
+
+public class P2SearchIndexPolicyTest
+    extends TestSupport
+{
+  private static final String SITE_URL = "https://download.example.org/nightly/";
+
+  private static final String SITE_HASH = UriToSiteHashUtil.map(SITE_URL);
+
+  @Test
+  public void emptyConfigIndexesAll() {
+    P2SearchIndexPolicy policy = P2SearchIndexPolicy.of(new P2SearchConfig());
+
+    assertThat(policy, is(sameInstance(P2SearchIndexPolicy.INDEX_ALL)));
+    assertThat(policy.indexes(Collections.singletonList(asset("binary/org.example_1.0.0", "BINARY_BUNDLE"))),
+        is(true));
+  }
+
+  @Test
+  public void excludesAssetKinds() {
+    P2SearchIndexPolicy policy = policy(Collections.singletonList("BINARY_BUNDLE"), null);
+
+    assertThat(policy.excludes("binary/org.example_1.0.0", "BINARY_BUNDLE"), is(true));
+    assertThat(policy.excludes("plugins/org.example_1.0.0.jar", "BUNDLE"), is(false));
+  }
+
+  @Test
+  public void excludesSitesByHashOrUrl() {
+    String otherHash = UriToSiteHashUtil.map("https://download.example.org/other/");
+    P2SearchIndexPolicy policy = policy(null, Arrays.asList(SITE_URL, otherHash));
+
+    assertThat(policy.excludes(SITE_HASH + "/plugins/org.example_1.0.0.jar", "BUNDLE"), is(true));
+    assertThat(policy.excludes(otherHash + "/plugins/org.example_1.0.0.jar", "BUNDLE"), is(true));
+    assertThat(policy.excludes("plugins/org.example_1.0.0.jar", "BUNDLE"), is(false));
+  }
+
+  @Test
+  public void indexesComponentsWithAnAssetNotExcluded() {
+    P2SearchIndexPolicy policy = policy(null, Collections.singletonList(SITE_URL));
+
+    assertThat(policy.indexes(Arrays.asList(
+        asset(SITE_HASH + "/plugins/org.example_1.0.0.jar", "BUNDLE"),
+        asset("plugins/org.example_1.0.0.jar", "BUNDLE"))), is(true));
+    assertThat(policy.indexes(Collections.singletonList(
+        asset(SITE_HASH + "/plugins/org.example_1.0.0.jar", "BUNDLE"))), is(false));
+    assertThat(policy.indexes(Collections.emptyList()), is(true));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void unknownAssetKindIsRejected() {
+    policy(Collections.singletonList("PLUGIN"), null);
+  }
+
+  private static P2SearchIndexPolicy policy(final List<String> assetKinds,
+                                            final List<String> sites)
+  {
+    P2SearchConfig config = new P2SearchConfig();
+    config.excludedAssetKinds = assetKinds;
+    config.excludedSites = sites;
+    return P2SearchIndexPolicy.of(config);
+  }
+
+  private static Asset asset(final String name, final String assetKind) {
+    Asset asset = mock(Asset.class);
+    NestedAttributesMap attributes = new NestedAttributesMap("p2", new HashMap<>());
+    attributes.set(P_ASSET_KIND, assetKind);
+    when(asset.name()).thenReturn(name);
+    when(asset.formatAttributes()).thenReturn(attributes);
+    return asset;
+  }
+}
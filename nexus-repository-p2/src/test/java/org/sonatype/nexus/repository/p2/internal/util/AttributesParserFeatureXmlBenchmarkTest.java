@@ -0,0 +1,129 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.util;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.xpath.XPathFactory;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.common.io.SafeXml;
+import org.sonatype.nexus.repository.p2.internal.metadata.P2Attributes;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+import static javax.xml.xpath.XPathConstants.NODE;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Compares the streaming feature.xml parser with the DOM and XPath parser it replaced. The timings are only taken when
+ * run with {@code -Dp2.benchmark=true}.
+ */
+public class AttributesParserFeatureXmlBenchmarkTest
+    extends TestSupport
+{
+  private static final int PLUGINS = 500;
+
+  private static final int WARMUP = 200;
+
+  private static final int ITERATIONS = 1000;
+
+  private AttributesParserFeatureXml underTest;
+
+  private PropertyParser propertyParser;
+
+  private byte[] featureXml;
+
+  @Before
+  public void setUp() {
+    TempBlobConverter tempBlobConverter = new TempBlobConverter();
+    propertyParser = new PropertyParser(tempBlobConverter);
+    underTest = new AttributesParserFeatureXml(tempBlobConverter, propertyParser);
+
+    StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+        .append("<feature id=\"org.example.large\" label=\"Large Feature\" version=\"1.0.0.v20200101\"")
+        .append(" provider-name=\"Example\">\n")
+        .append("  <description>A feature with many plugins</description>\n");
+    for (int i = 0; i < PLUGINS; i++) {
+      xml.append("  <plugin id=\"org.example.plugin").append(i)
+          .append("\" download-size=\"0\" install-size=\"0\" version=\"1.0.0\" unpack=\"false\"/>\n");
+    }
+    featureXml = xml.append("</feature>\n").toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void streamingParserMatchesDomParser() throws Exception {
+    assertThat(streaming(), is(equalTo(dom())));
+    assertThat(streaming().getComponentName(), is(equalTo("org.example.large")));
+  }
+
+  @Test
+  public void benchmark() throws Exception {
+    assumeTrue(Boolean.getBoolean("p2.benchmark"));
+
+    long dom = time(this::dom);
+    long streaming = time(this::streaming);
+    log("feature.xml with {} plugins, DOM and XPath: {} us/op, streaming: {} us/op", PLUGINS, dom / 1000,
+        streaming / 1000);
+  }
+
+  private P2Attributes streaming() throws Exception {
+    return underTest.getAttributesFromFeatureXml(underTest.parseFeatureXml(new ByteArrayInputStream(featureXml)),
+        Optional.empty());
+  }
+
+  /**
+   * The parser replaced by {@link AttributesParserFeatureXml#parseFeatureXml}.
+   */
+  private P2Attributes dom() throws Exception {
+    DocumentBuilderFactory documentBuilderFactory = SafeXml.newdocumentBuilderFactory();
+    documentBuilderFactory.setValidating(false);
+    Document document = documentBuilderFactory.newDocumentBuilder().parse(new ByteArrayInputStream(featureXml));
+
+    String pluginId = xpath("feature/@plugin", document);
+    if (pluginId == null) {
+      pluginId = xpath("feature/@id", document);
+    }
+    return P2Attributes.builder()
+        .componentName(propertyParser.extractValueFromProperty(pluginId, Optional.empty()))
+        .pluginName(propertyParser.extractValueFromProperty(xpath("feature/@label", document), Optional.empty()))
+        .componentVersion(xpath("feature/@version", document))
+        .build();
+  }
+
+  private static String xpath(final String path, final Document document) throws Exception {
+    Node node = (Node) XPathFactory.newInstance().newXPath().evaluate(path, document, NODE);
+    return node == null ? null : node.getNodeValue();
+  }
+
+  private static long time(final Callable<P2Attributes> parser) throws Exception {
+    for (int i = 0; i < WARMUP; i++) {
+      parser.call();
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      parser.call();
+    }
+    return (System.nanoTime() - start) / ITERATIONS;
+  }
+}
@@ -12,20 +12,27 @@
  */
 package org.sonatype.nexus.repository.p2.internal.util;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import javax.xml.parsers.ParserConfigurationException;
 
 import org.sonatype.goodies.testsupport.TestSupport;
 import org.sonatype.nexus.repository.p2.internal.exception.AttributeParsingException;
 import org.sonatype.nexus.repository.p2.internal.metadata.P2Attributes;
+import org.sonatype.nexus.repository.p2.internal.util.AttributesParserFeatureXml.Inclusion;
 import org.sonatype.nexus.repository.storage.TempBlob;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
 
+import static java.util.Arrays.asList;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.mockito.Mockito.when;
 import static org.sonatype.goodies.testsupport.hamcrest.DiffMatchers.equalTo;
@@ -74,4 +81,46 @@ public class AttributesParserFeatureXmlTest
     when(tempBlob.get()).thenAnswer((a) -> getClass().getResourceAsStream(NON_P2_JAR));
     underTest.getAttributesFromBlob(tempBlob, "zip");
   }
+
+  @Test
+  public void getInclusionsFromJarInputStream() throws AttributeParsingException, IOException {
+    List<Inclusion> inclusions = underTest.getInclusionsFromJar(getClass().getResourceAsStream(JAR_NAME));
+
+    assertThat(paths(inclusions), is(asList(
+        "features/org.eclipse.equinox.core.feature_1.5.0.v20170912-1859.jar",
+        "plugins/org.eclipse.core.runtime_3.13.100.v20170906-0828.jar",
+        "plugins/org.eclipse.core.variables_3.4.0.v20170113-2056.jar",
+        "plugins/org.eclipse.core.contenttype_3.7.0.v20170823-1402.jar",
+        "plugins/org.eclipse.equinox.preferences_3.7.0.v20170126-2132.jar",
+        "plugins/org.eclipse.core.expressions_3.6.100.v20170724-0832.jar")));
+    assertThat(underTest.getInclusionsFromJar(getClass().getResourceAsStream(JAR_NAME_WITH_MANIFEST)).isEmpty(),
+        is(true));
+  }
+
+  @Test
+  public void parseInclusionsWithPlatforms() throws AttributeParsingException {
+    String featureXml = "<feature id='f' version='1.0.0'>\n" +
+        "  <plugin id='a' version='1.0.0' os='linux,macosx' ws='gtk,cocoa' arch='x86_64'/>\n" +
+        "  <plugin id='b' version='0.0.0'/>\n" +
+        "  <includes id='c' version='2.0.0' optional='true' filter='(osgi.os=win32)'/>\n" +
+        "  <requires><import plugin='d' version='1.0.0'/></requires>\n" +
+        "</feature>";
+
+    List<Inclusion> inclusions =
+        underTest.parseInclusions(new ByteArrayInputStream(featureXml.getBytes(StandardCharsets.UTF_8)));
+
+    assertThat(inclusions.size(), is(3));
+    assertThat(inclusions.get(0).getOs(), is("linux,macosx"));
+    assertThat(inclusions.get(0).getWs(), is("gtk,cocoa"));
+    assertThat(inclusions.get(0).getArch(), is("x86_64"));
+    assertThat(inclusions.get(1).getPath(), is(nullValue()));
+    assertThat(inclusions.get(2).isFeature(), is(true));
+    assertThat(inclusions.get(2).isOptional(), is(true));
+    assertThat(inclusions.get(2).getFilter(), is("(osgi.os=win32)"));
+    assertThat(inclusions.get(2).getPath(), is("features/c_2.0.0.jar"));
+  }
+
+  private static List<String> paths(final List<Inclusion> inclusions) {
+    return inclusions.stream().map(Inclusion::getPath).collect(Collectors.toList());
+  }
 }
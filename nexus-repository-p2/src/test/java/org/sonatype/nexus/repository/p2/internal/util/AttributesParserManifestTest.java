@@ -25,6 +25,8 @@ import org.mockito.Mock;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
 import static org.mockito.Mockito.when;
 import static org.sonatype.goodies.testsupport.hamcrest.DiffMatchers.equalTo;
 
@@ -87,6 +89,28 @@ public class AttributesParserManifestTest
     underTest.getAttributesFromBlob(tempBlob, "zip");
   }
 
+  @Test
+  public void exportedPackagesWithoutVersionsAndDirectives() {
+    assertThat(AttributesParserManifest.exportedPackages(
+        "org.a;org.b;version=\"1.0\";uses:=\"org.c,org.d\", org.e;x-internal:=true,org.a"),
+        contains("org.a", "org.b", "org.e"));
+  }
+
+  @Test
+  public void exportedPackagesOfMissingHeader() {
+    assertThat(AttributesParserManifest.exportedPackages(null), is(empty()));
+  }
+
+  @Test
+  public void exportedPackagesAreCapped() {
+    StringBuilder header = new StringBuilder("p0");
+    for (int i = 1; i < 1000; i++) {
+      header.append(",p").append(i);
+    }
+    assertThat(AttributesParserManifest.exportedPackages(header.toString()).size(),
+        is(P2ComponentUtils.MAX_PROVIDED_PACKAGES));
+  }
+
   private P2Attributes getAttributesFromJarFile(final TempBlob tempBlob, final String jar)
       throws AttributeParsingException, IOException
   {
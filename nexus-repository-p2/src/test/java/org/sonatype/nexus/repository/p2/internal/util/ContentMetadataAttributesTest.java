@@ -0,0 +1,127 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.util;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Optional;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.p2.internal.metadata.InstallableUnitIndex;
+import org.sonatype.nexus.repository.p2.internal.metadata.P2Attributes;
+import org.sonatype.nexus.repository.storage.StorageTx;
+
+import com.google.common.base.Strings;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ContentMetadataAttributesTest
+    extends TestSupport
+{
+  private static final String SITE = Strings.repeat("a", 64) + '/';
+
+  private static final String CONTENT_XML = "<?xml version='1.0' encoding='UTF-8'?>\n" +
+      "<repository name='Test' type='org.eclipse.equinox.internal.p2.metadata.repository.LocalMetadataRepository'>\n" +
+      "  <units size='1'>\n" +
+      "    <unit id='org.eclipse.core.runtime' version='3.18.0.v20200506-2143'>\n" +
+      "      <properties size='2'>\n" +
+      "        <property name='org.eclipse.equinox.p2.name' value='%pluginName'/>\n" +
+      "        <property name='df_LT.pluginName' value='Core Runtime'/>\n" +
+      "      </properties>\n" +
+      "      <provides size='3'>\n" +
+      "        <provided namespace='osgi.bundle' name='org.eclipse.core.runtime' version='3.18.0.v20200506-2143'/>\n" +
+      "        <provided namespace='java.package' name='org.eclipse.core.runtime' version='3.6.0'/>\n" +
+      "        <provided namespace='java.package' name='org.eclipse.core.internal.runtime' version='0.0.0'/>\n" +
+      "      </provides>\n" +
+      "      <artifacts size='1'>\n" +
+      "        <artifact classifier='osgi.bundle' id='org.eclipse.core.runtime' version='3.18.0.v20200506-2143'/>\n" +
+      "      </artifacts>\n" +
+      "    </unit>\n" +
+      "  </units>\n" +
+      "</repository>\n";
+
+  @Mock
+  private InstallableUnitIndexes installableUnitIndexes;
+
+  @Mock
+  private Repository repository;
+
+  @Mock
+  private StorageTx tx;
+
+  private ContentMetadataAttributes underTest;
+
+  @Before
+  public void setUp() throws Exception {
+    InstallableUnitIndex index = InstallableUnitIndex.write(
+        new ByteArrayInputStream(CONTENT_XML.getBytes(StandardCharsets.UTF_8)),
+        Files.createTempDirectory("p2").resolve("content.idx"), "1");
+    when(installableUnitIndexes.findIndex(tx, repository, SITE)).thenReturn(Optional.of(index));
+    when(installableUnitIndexes.findIndex(tx, repository, "")).thenReturn(Optional.empty());
+    underTest = new ContentMetadataAttributes(installableUnitIndexes);
+  }
+
+  @Test
+  public void mergesTheAttributesOfTheUnitListingTheArtifact() {
+    P2Attributes source = P2Attributes.builder()
+        .path(SITE + "plugins/org.eclipse.core.runtime_3.18.0.v20200506-2143.jar")
+        .build();
+
+    P2Attributes merged = underTest.mergeAttributes(tx, repository, source).get();
+
+    assertThat(merged.getPath(), is(source.getPath()));
+    assertThat(merged.getComponentName(), is("org.eclipse.core.runtime"));
+    assertThat(merged.getComponentVersion(), is("3.18.0.v20200506-2143"));
+    assertThat(merged.getPluginName(), is("Core Runtime"));
+    assertThat(merged.getProvidedPackages(),
+        is(asList("org.eclipse.core.runtime", "org.eclipse.core.internal.runtime")));
+  }
+
+  @Test
+  public void artifactsOfSitesWithoutAnIndexAreLeftToJarParsing() {
+    P2Attributes source = P2Attributes.builder()
+        .path("plugins/org.eclipse.core.runtime_3.18.0.v20200506-2143.jar")
+        .build();
+
+    assertThat(underTest.mergeAttributes(tx, repository, source).isPresent(), is(false));
+  }
+
+  @Test
+  public void artifactsMissingFromTheIndexAreLeftToJarParsing() {
+    P2Attributes source = P2Attributes.builder()
+        .path(SITE + "plugins/org.eclipse.core.runtime_3.17.0.v20191122-2104.jar")
+        .build();
+
+    assertThat(underTest.mergeAttributes(tx, repository, source).isPresent(), is(false));
+  }
+
+  @Test
+  public void metadataIsNotLookedUp() {
+    P2Attributes source = P2Attributes.builder().path(SITE + "content.jar").build();
+
+    assertThat(underTest.mergeAttributes(tx, repository, source).isPresent(), is(false));
+    verify(installableUnitIndexes, never()).findIndex(any(StorageTx.class), any(Repository.class), anyString());
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.p2.internal.metadata.MetadataMerger.Kind;
+import org.sonatype.nexus.repository.p2.internal.util.FlattenedRepositories.Merged;
+import org.sonatype.nexus.repository.p2.internal.util.FlattenedRepositories.Source;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.mockito.Mockito.when;
+
+public class FlattenedRepositoriesTest
+    extends TestSupport
+{
+  @Mock
+  private Repository repository;
+
+  private Path directory;
+
+  private FlattenedRepositories underTest;
+
+  @Before
+  public void setUp() throws Exception {
+    when(repository.getName()).thenReturn("eclipse");
+    directory = Files.createTempDirectory("p2");
+    underTest = new FlattenedRepositories(directory);
+  }
+
+  @Test
+  public void mergesSitesOnceForTheSameVersions() throws Exception {
+    Merged merged = underTest.merge(repository, Kind.ARTIFACTS, Arrays.asList(source("a/", "1"), source("b/", "1")));
+
+    assertThat(merged.getSite("osgi.bundle/a/1.0.0").get(), is("a/"));
+    assertThat(merged.getSite("osgi.bundle/b/1.0.0").get(), is("b/"));
+    assertThat(underTest.merge(repository, Kind.ARTIFACTS, Arrays.asList(source("a/", "1"), source("b/", "1"))),
+        is(merged));
+  }
+
+  @Test
+  public void deletesFragmentsOfSitesNoLongerMerged() throws Exception {
+    underTest.merge(repository, Kind.ARTIFACTS, Arrays.asList(source("a/", "1"), source("b/", "1")));
+    Path artifacts = directory.resolve("eclipse").resolve("artifacts");
+    assertThat(Files.exists(artifacts.resolve("b.frag")), is(true));
+
+    Merged merged = underTest.merge(repository, Kind.ARTIFACTS, Collections.singletonList(source("a/", "2")));
+
+    assertThat(Files.exists(artifacts.resolve("a.frag")), is(true));
+    assertThat(Files.exists(artifacts.resolve("b.frag")), is(false));
+    assertThat(merged.getSite("osgi.bundle/b/1.0.0").isPresent(), is(false));
+  }
+
+  private static Source source(final String site, final String version) {
+    String id = site.substring(0, site.length() - 1);
+    String xml = "<?xml version='1.0' encoding='UTF-8'?>\n" +
+        "<repository name='" + id + "' type='org.eclipse.equinox.p2.artifact.repository.simpleRepository'>\n" +
+        "  <artifacts size='1'>\n" +
+        "    <artifact classifier='osgi.bundle' id='" + id + "' version='1.0.0'/>\n" +
+        "  </artifacts>\n" +
+        "</repository>\n";
+    return new Source()
+    {
+      @Override
+      public String getSite() {
+        return site;
+      }
+
+      @Override
+      public String getName() {
+        return site + "artifacts.xml";
+      }
+
+      @Override
+      public String getVersion() {
+        return version;
+      }
+
+      @Override
+      public InputStream openInputStream() {
+        return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+      }
+    };
+  }
+}
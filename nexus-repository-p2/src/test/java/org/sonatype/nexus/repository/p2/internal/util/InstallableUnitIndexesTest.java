@@ -0,0 +1,155 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.util;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Optional;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.blobstore.api.Blob;
+import org.sonatype.nexus.blobstore.api.BlobRef;
+import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.p2.P2Facet;
+import org.sonatype.nexus.repository.p2.internal.metadata.InstallableUnitIndex;
+import org.sonatype.nexus.repository.storage.Asset;
+import org.sonatype.nexus.repository.storage.Bucket;
+import org.sonatype.nexus.repository.storage.StorageFacet;
+import org.sonatype.nexus.repository.storage.StorageTx;
+
+import com.google.common.hash.HashCode;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.sonatype.nexus.common.hash.HashAlgorithm.SHA1;
+import static org.sonatype.nexus.repository.storage.MetadataNodeEntityAdapter.P_NAME;
+
+public class InstallableUnitIndexesTest
+    extends TestSupport
+{
+  private static final String CONTENT_XML = "<?xml version='1.0' encoding='UTF-8'?>\n" +
+      "<repository name='Test' type='org.eclipse.equinox.internal.p2.metadata.repository.LocalMetadataRepository'>\n" +
+      "  <units size='1'>\n" +
+      "    <unit id='org.eclipse.core.runtime' version='3.18.0.v20200506-2143'/>\n" +
+      "  </units>\n" +
+      "</repository>\n";
+
+  @Mock
+  private Repository repository;
+
+  @Mock
+  private StorageFacet storageFacet;
+
+  @Mock
+  private P2Facet p2Facet;
+
+  @Mock
+  private StorageTx tx;
+
+  @Mock
+  private Bucket bucket;
+
+  @Mock
+  private Asset asset;
+
+  @Mock
+  private Blob blob;
+
+  private InstallableUnitIndexes underTest;
+
+  @Before
+  public void setUp() throws Exception {
+    when(repository.getName()).thenReturn("p2-proxy");
+    when(repository.facet(StorageFacet.class)).thenReturn(storageFacet);
+    when(storageFacet.txSupplier()).thenReturn(() -> tx);
+    when(tx.getTransaction()).thenReturn(tx);
+    when(tx.isActive()).thenReturn(true);
+    when(tx.findBucket(repository)).thenReturn(bucket);
+
+    BlobRef blobRef = new BlobRef("node", "store", "blob");
+    when(asset.blobRef()).thenReturn(blobRef);
+    when(asset.requireBlobRef()).thenReturn(blobRef);
+    when(asset.getChecksum(SHA1)).thenReturn(HashCode.fromString("aa"));
+    when(tx.requireBlob(blobRef)).thenReturn(blob);
+    when(blob.getInputStream())
+        .thenAnswer(invocation -> new ByteArrayInputStream(CONTENT_XML.getBytes(StandardCharsets.UTF_8)));
+
+    underTest = new InstallableUnitIndexes(Files.createTempDirectory("p2"));
+  }
+
+  @Test
+  public void findsTheContentMetadataThroughTheP2Facet() {
+    when(repository.optionalFacet(P2Facet.class)).thenReturn(Optional.of(p2Facet));
+    when(p2Facet.findAsset(tx, bucket, "content.xml")).thenReturn(asset);
+
+    assertThat(underTest.getIndex(repository, "").get().size(), is(1));
+    assertThat(underTest.findIndex(repository, "").get().getVersion(), is("aa"));
+    verify(p2Facet, times(2)).findAsset(tx, bucket, "content.jar");
+    verify(tx, never()).findAssetWithProperty(eq(P_NAME), anyString(), eq(bucket));
+  }
+
+  @Test
+  public void findsTheContentMetadataOfRepositoriesWithoutP2Facet() {
+    when(repository.optionalFacet(P2Facet.class)).thenReturn(Optional.empty());
+    when(tx.findAssetWithProperty(P_NAME, "content.xml", bucket)).thenReturn(asset);
+
+    assertThat(underTest.getIndex(repository, "").get().size(), is(1));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void newVersionsAreWrittenToFilesOfTheirOwn() {
+    when(repository.optionalFacet(P2Facet.class)).thenReturn(Optional.of(p2Facet));
+    when(p2Facet.findAsset(tx, bucket, "content.xml")).thenReturn(asset);
+    InstallableUnitIndex previous = underTest.getIndex(repository, "").get();
+
+    when(asset.getChecksum(SHA1)).thenReturn(HashCode.fromString("bb"));
+    InstallableUnitIndex index = underTest.getIndex(repository, "").get();
+
+    assertThat(index.getVersion(), is("bb"));
+    assertThat(index.find("org.eclipse.core.runtime").size(), is(1));
+    assertThat(Files.exists(underTest.file(repository, "", "bb")), is(true));
+    // the index replaced is unmapped before its file is deleted
+    assertThat(Files.exists(underTest.file(repository, "", "aa")), is(false));
+    previous.find("org.eclipse.core.runtime");
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void deleteClosesTheIndexesOfTheRepository() {
+    when(repository.optionalFacet(P2Facet.class)).thenReturn(Optional.of(p2Facet));
+    when(p2Facet.findAsset(tx, bucket, "content.xml")).thenReturn(asset);
+    InstallableUnitIndex index = underTest.getIndex(repository, "").get();
+
+    underTest.delete(repository);
+
+    assertThat(Files.exists(underTest.file(repository, "", "aa").getParent()), is(false));
+    index.find("org.eclipse.core.runtime");
+  }
+
+  @Test
+  public void sitesWithoutContentMetadataHaveNoIndex() {
+    when(repository.optionalFacet(P2Facet.class)).thenReturn(Optional.of(p2Facet));
+
+    assertThat(underTest.getIndex(repository, "").isPresent(), is(false));
+    assertThat(underTest.findIndex(repository, "").isPresent(), is(false));
+  }
+}
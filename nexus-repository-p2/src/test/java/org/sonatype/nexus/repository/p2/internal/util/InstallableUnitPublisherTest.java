@@ -0,0 +1,148 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.util;
+
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.Optional;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamReader;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.repository.p2.internal.util.AttributesParserFeatureXml.Inclusion;
+import org.sonatype.nexus.repository.p2.internal.util.InstallableUnitPublisher.Published;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class InstallableUnitPublisherTest
+    extends TestSupport
+{
+  private static final String BUNDLE_JAR = "org.tigris.subversion.clientadapter.svnkit_1.7.5.jar";
+
+  private static final String FEATURE_JAR = "org.eclipse.core.runtime.feature_1.2.100.v20170912-1859.jar";
+
+  private static final String FEATURE_VERSION = "1.2.100.v20170912-1859";
+
+  private InstallableUnitPublisher underTest;
+
+  @Before
+  public void setUp() {
+    TempBlobConverter tempBlobConverter = new TempBlobConverter();
+    underTest = new InstallableUnitPublisher(
+        new AttributesParserFeatureXml(tempBlobConverter, new PropertyParser(tempBlobConverter)));
+  }
+
+  @Test
+  public void publishesBundle() throws Exception {
+    Published published = publish(BUNDLE_JAR, false, "SVNKit Client Adapter").get();
+
+    assertThat(published.getId(), is("org.tigris.subversion.clientadapter.svnkit"));
+    assertThat(published.getVersion(), is("1.7.5"));
+    assertThat(published.getUnits().keySet(), contains("org.tigris.subversion.clientadapter.svnkit/1.7.5"));
+    String unit = published.getUnits().values().iterator().next();
+    assertWellFormed(unit);
+    assertThat(unit, containsString("singleton=\"true\""));
+    assertThat(unit,
+        containsString("<property name=\"org.eclipse.equinox.p2.name\" value=\"SVNKit Client Adapter\"/>"));
+    assertThat(unit, containsString(
+        "<provided namespace=\"osgi.bundle\" name=\"org.tigris.subversion.clientadapter.svnkit\" version=\"1.7.5\"/>"));
+    assertThat(unit,
+        containsString("<required namespace=\"osgi.bundle\" name=\"org.eclipse.core.runtime\" range=\"0.0.0\"/>"));
+    assertThat(unit, containsString(
+        "<required namespace=\"osgi.bundle\" name=\"org.tigris.subversion.clientadapter\" range=\"[1.8.0,1.9.0)\"/>"));
+    assertThat(unit, containsString(
+        "<artifact classifier=\"osgi.bundle\" id=\"org.tigris.subversion.clientadapter.svnkit\" version=\"1.7.5\"/>"));
+    assertThat(unit,
+        containsString("Bundle-SymbolicName: org.tigris.subversion.clientadapter.svnkit;singleton:=true"));
+
+    assertThat(published.getArtifacts().keySet(),
+        contains("osgi.bundle/org.tigris.subversion.clientadapter.svnkit/1.7.5"));
+    String artifact = published.getArtifacts().values().iterator().next();
+    assertWellFormed(artifact);
+    assertThat(artifact, containsString("<property name=\"artifact.size\" value=\"1234\"/>"));
+  }
+
+  @Test
+  public void publishesFeatureGroupAndJar() throws Exception {
+    Published published = publish(FEATURE_JAR, true, "Eclipse Core Runtime Infrastructure").get();
+
+    assertThat(published.getId(), is("org.eclipse.core.runtime.feature"));
+    assertThat(published.getVersion(), is(FEATURE_VERSION));
+    assertThat(published.getUnits().keySet(), contains(
+        "org.eclipse.core.runtime.feature.feature.group/" + FEATURE_VERSION,
+        "org.eclipse.core.runtime.feature.feature.jar/" + FEATURE_VERSION));
+    String group = published.getUnits().get("org.eclipse.core.runtime.feature.feature.group/" + FEATURE_VERSION);
+    assertWellFormed(group);
+    assertThat(group, containsString("<property name=\"org.eclipse.equinox.p2.type.group\" value=\"true\"/>"));
+    assertThat(group, containsString("<required namespace=\"org.eclipse.equinox.p2.iu\"" +
+        " name=\"org.eclipse.equinox.core.feature.feature.group\"" +
+        " range=\"[1.5.0.v20170912-1859,1.5.0.v20170912-1859]\"/>"));
+    assertThat(group, containsString("<required namespace=\"org.eclipse.equinox.p2.iu\"" +
+        " name=\"org.eclipse.core.runtime\" range=\"[3.13.100.v20170906-0828,3.13.100.v20170906-0828]\"/>"));
+    assertThat(group, containsString("<filter>(org.eclipse.update.install.features=true)</filter>"));
+    String jar = published.getUnits().get("org.eclipse.core.runtime.feature.feature.jar/" + FEATURE_VERSION);
+    assertWellFormed(jar);
+    assertThat(jar, containsString("<artifact classifier=\"org.eclipse.update.feature\"" +
+        " id=\"org.eclipse.core.runtime.feature\" version=\"" + FEATURE_VERSION + "\"/>"));
+
+    assertThat(published.getArtifacts().keySet(),
+        contains("org.eclipse.update.feature/org.eclipse.core.runtime.feature/" + FEATURE_VERSION));
+  }
+
+  @Test
+  public void publishesNothingForJarOfOtherKind() throws Exception {
+    assertThat(publish(BUNDLE_JAR, true, null).isPresent(), is(false));
+  }
+
+  @Test
+  public void publishesBinaryArtifactOnly() throws Exception {
+    Published published = underTest.publishBinary("org.eclipse.launcher", "1.0.0", 42);
+
+    assertThat(published.getUnits().keySet(), is(empty()));
+    assertThat(published.getArtifacts().keySet(), contains("binary/org.eclipse.launcher/1.0.0"));
+  }
+
+  @Test
+  public void combinesInclusionFilters() {
+    Inclusion inclusion = new Inclusion(false, "org.a", "1.0.0", "linux,macosx", "gtk",
+        null, "(osgi.arch=x86_64)", false);
+
+    assertThat(InstallableUnitPublisher.inclusionFilter(inclusion),
+        is("(&(osgi.arch=x86_64)(|(osgi.os=linux)(osgi.os=macosx))(osgi.ws=gtk))"));
+    assertThat(InstallableUnitPublisher.inclusionFilter(
+        new Inclusion(false, "org.a", "1.0.0", null, null, null, null, false)),
+        is(nullValue()));
+  }
+
+  private Optional<Published> publish(final String jar, final boolean feature, final String name) throws Exception {
+    try (InputStream in = getClass().getResourceAsStream(jar)) {
+      return underTest.publishJar(in, feature, 1234, name);
+    }
+  }
+
+  private static void assertWellFormed(final String element) throws Exception {
+    XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(new StringReader(element));
+    while (reader.hasNext()) {
+      reader.next();
+    }
+  }
+}
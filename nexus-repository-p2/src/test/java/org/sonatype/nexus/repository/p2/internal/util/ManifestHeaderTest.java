@@ -0,0 +1,57 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.util;
+
+import java.util.List;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.repository.p2.internal.util.ManifestHeader.Clause;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class ManifestHeaderTest
+    extends TestSupport
+{
+  @Test
+  public void parsesClauses() {
+    List<Clause> clauses = ManifestHeader.parse("org.a;org.b;version=\"[1.0,2.0)\";resolution:=optional, org.c");
+
+    assertThat(clauses.size(), is(2));
+    assertThat(clauses.get(0).getNames(), contains("org.a", "org.b"));
+    assertThat(clauses.get(0).get("version"), is("[1.0,2.0)"));
+    assertThat(clauses.get(0).get("resolution:"), is("optional"));
+    assertThat(clauses.get(1).getNames(), contains("org.c"));
+    assertThat(clauses.get(1).get("version"), is(nullValue()));
+  }
+
+  @Test
+  public void keepsSeparatorsInQuotedValues() {
+    List<Clause> clauses = ManifestHeader.parse("org.a;uses:=\"org.b,org.c\";version=\"1.0\",org.d");
+
+    assertThat(clauses.size(), is(2));
+    assertThat(clauses.get(0).get("uses:"), is("org.b,org.c"));
+    assertThat(clauses.get(1).getNames(), contains("org.d"));
+  }
+
+  @Test
+  public void parsesMissingHeader() {
+    assertThat(ManifestHeader.parse(null), is(empty()));
+    assertThat(ManifestHeader.parse(" "), is(empty()));
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.internal.util;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.repository.p2.internal.metadata.P2Attributes;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+
+public class P2AttributesMemoTest
+    extends TestSupport
+{
+  private static final String SHA1_A = "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa";
+
+  private static final String SHA1_B = "bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb";
+
+  private static final String SHA1_C = "cccccccccccccccccccccccccccccccccccccccc";
+
+  private Path file;
+
+  @Before
+  public void setUp() throws Exception {
+    file = Files.createTempDirectory("p2").resolve(P2AttributesMemo.FILE_NAME);
+  }
+
+  @Test
+  public void countsHitsAndMisses() {
+    P2AttributesMemo underTest = new P2AttributesMemo(file, 10);
+    underTest.put(SHA1_A, attributes("a"));
+
+    assertThat(underTest.get(SHA1_A).get().getComponentName(), is(equalTo("a")));
+    assertThat(underTest.get(SHA1_B).isPresent(), is(false));
+    assertThat(underTest.get(null).isPresent(), is(false));
+    assertThat(underTest.getHits().getCount(), is(1L));
+    assertThat(underTest.getMisses().getCount(), is(1L));
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsed() {
+    P2AttributesMemo underTest = new P2AttributesMemo(file, 2);
+    underTest.put(SHA1_A, attributes("a"));
+    underTest.put(SHA1_B, attributes("b"));
+    underTest.get(SHA1_A);
+    underTest.put(SHA1_C, attributes("c"));
+
+    assertThat(underTest.size(), is(2));
+    assertThat(underTest.get(SHA1_A).isPresent(), is(true));
+    assertThat(underTest.get(SHA1_B).isPresent(), is(false));
+    assertThat(underTest.getEvictions().getCount(), is(1L));
+  }
+
+  @Test
+  public void ignoresEmptyAttributes() {
+    P2AttributesMemo underTest = new P2AttributesMemo(file, 10);
+    underTest.put(SHA1_A, P2Attributes.builder().build());
+
+    assertThat(underTest.size(), is(0));
+  }
+
+  @Test
+  public void survivesRestart() throws Exception {
+    P2AttributesMemo memo = new P2AttributesMemo(file, 10);
+    memo.put(SHA1_A, attributes("a"));
+    memo.put(SHA1_B, P2Attributes.builder().componentName("b").componentVersion("2.0.0").build());
+    memo.save();
+
+    P2AttributesMemo underTest = new P2AttributesMemo(file, 10);
+    underTest.load();
+
+    assertThat(underTest.size(), is(2));
+    assertThat(underTest.get(SHA1_A).get(), is(equalTo(attributes("a"))));
+    assertThat(underTest.get(SHA1_B).get().getPluginName(), is((String) null));
+  }
+
+  private static P2Attributes attributes(final String name) {
+    return P2Attributes.builder().componentName(name).componentVersion("1.0.0").pluginName(name.toUpperCase())
+        .build();
+  }
+}
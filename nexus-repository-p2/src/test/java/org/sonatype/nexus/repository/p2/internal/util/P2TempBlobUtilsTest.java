@@ -13,12 +13,21 @@
 package org.sonatype.nexus.repository.p2.internal.util;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.xml.parsers.ParserConfigurationException;
 
 import org.sonatype.goodies.testsupport.TestSupport;
 import org.sonatype.nexus.repository.p2.internal.exception.AttributeParsingException;
 import org.sonatype.nexus.repository.p2.internal.metadata.P2Attributes;
 import org.sonatype.nexus.repository.storage.TempBlob;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.common.io.ByteStreams;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -33,6 +42,7 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.when;
+import static org.sonatype.nexus.common.hash.HashAlgorithm.SHA1;
 
 public class P2TempBlobUtilsTest
     extends TestSupport
@@ -43,6 +53,12 @@ public class P2TempBlobUtilsTest
 
   private static final String JAR_NAME = "org.eclipse.core.runtime.feature_1.2.100.v20170912-1859.jar";
 
+  private static final String SOURCE_JAR_NAME = "org.eclipse.e4.tools.emf.editor3x.source_4.7.0.v20170712-1432.jar";
+
+  private static final String BUNDLE_JAR_NAME = "org.tigris.subversion.clientadapter.svnkit_1.7.5.jar";
+
+  private static final String SHA1_HASH = "0123456789abcdef0123456789abcdef01234567";
+
   private P2TempBlobUtils p2TempBlobUtils;
 
   @Mock
@@ -62,9 +78,12 @@ public class P2TempBlobUtilsTest
   @Mock
   private TempBlob tempBlob;
 
+  private P2AttributesMemo attributesMemo;
+
   @Before
-  public void setUp() {
-    p2TempBlobUtils = new P2TempBlobUtils(xmlParser, manifestParser);
+  public void setUp() throws IOException {
+    attributesMemo = new P2AttributesMemo(Files.createTempDirectory("p2").resolve(P2AttributesMemo.FILE_NAME), 100);
+    p2TempBlobUtils = new P2TempBlobUtils(xmlParser, manifestParser, attributesMemo);
   }
 
   @Test
@@ -102,6 +121,72 @@ public class P2TempBlobUtilsTest
     assertThat(xmlParser.getAttributesFromBlob(tempBlob, EXTENSION).isEmpty(), is(false));
   }
 
+  @Test
+  public void extractsSameAttributesWhileStreaming() throws Exception {
+    P2TempBlobUtils underTest = realP2TempBlobUtils();
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      for (String jar : new String[]{JAR_NAME, SOURCE_JAR_NAME, BUNDLE_JAR_NAME}) {
+        when(tempBlob.get()).thenAnswer((a) -> getClass().getResourceAsStream(jar));
+
+        AttributesTee tee =
+            underTest.teeAttributes(getClass().getResourceAsStream(jar), buildWithExtension(), executor);
+        try (InputStream in = tee.stream()) {
+          ByteStreams.exhaust(in);
+        }
+
+        assertThat(tee.getAttributes().isPresent(), is(true));
+        assertThat(underTest.mergeAttributes(tee, tempBlob, buildWithExtension()),
+            is(equalTo(underTest.mergeAttributesFromTempBlob(tempBlob, buildWithExtension()))));
+      }
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void fallsBackToTempBlobWhenStreamFails() throws Exception {
+    P2TempBlobUtils underTest = realP2TempBlobUtils();
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      when(tempBlob.get()).thenAnswer((a) -> getClass().getResourceAsStream(JAR_NAME));
+
+      AttributesTee tee =
+          underTest.teeAttributes(getClass().getResourceAsStream(JAR_NAME), buildWithExtension(), executor);
+      tee.stream().close();
+
+      assertThat(tee.getAttributes().isPresent(), is(false));
+      assertThat(underTest.mergeAttributes(tee, tempBlob, buildWithExtension()).getComponentVersion(),
+          is(equalTo(FAKE_VERSION)));
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void remembersAttributesByDigest() throws Exception {
+    P2TempBlobUtils underTest = realP2TempBlobUtils();
+    when(tempBlob.getHashes()).thenReturn(ImmutableMap.of(SHA1, HashCode.fromString(SHA1_HASH)));
+    when(tempBlob.get()).thenAnswer((a) -> getClass().getResourceAsStream(BUNDLE_JAR_NAME));
+
+    P2Attributes parsed = underTest.mergeAttributesFromTempBlob(tempBlob, buildWithExtension());
+    P2Attributes memoized = underTest.mergeAttributesFromTempBlob(tempBlob, buildWithExtension());
+
+    assertThat(memoized, is(equalTo(parsed)));
+    assertThat(attributesMemo.getMisses().getCount(), is(1L));
+    assertThat(attributesMemo.getHits().getCount(), is(1L));
+    assertThat(underTest.getMemoizedAttributes(SHA1_HASH).get().getComponentName(),
+        is(equalTo(parsed.getComponentName())));
+  }
+
+  private P2TempBlobUtils realP2TempBlobUtils() throws ParserConfigurationException {
+    PropertyParser realPropertyParser = new PropertyParser(tempBlobConverter);
+    return new P2TempBlobUtils(new AttributesParserFeatureXml(tempBlobConverter, realPropertyParser),
+        new AttributesParserManifest(tempBlobConverter, realPropertyParser), attributesMemo);
+  }
+
   private P2Attributes buildWithVersionAndExtension() {
     return P2Attributes.builder()
         .componentVersion(FAKE_VERSION)
@@ -0,0 +1,167 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.p2.rest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import javax.ws.rs.ForbiddenException;
+import javax.ws.rs.ServiceUnavailableException;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.manager.RepositoryManager;
+import org.sonatype.nexus.repository.p2.api.InstallableUnitXO;
+import org.sonatype.nexus.repository.p2.internal.P2Format;
+import org.sonatype.nexus.repository.p2.internal.metadata.InstallableUnitIndex;
+import org.sonatype.nexus.repository.p2.internal.util.InstallableUnitIndexes;
+import org.sonatype.nexus.repository.security.RepositoryPermissionChecker;
+import org.sonatype.nexus.rest.Page;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.core.Is.is;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class P2InstallableUnitsApiResourceTest
+    extends TestSupport
+{
+  private static final String REPOSITORY_NAME = "p2-proxy";
+
+  private static final String FIRST_SITE = "0123456789abcdef/";
+
+  private static final String SECOND_SITE = "fedcba9876543210/";
+
+  @Mock
+  private RepositoryManager repositoryManager;
+
+  @Mock
+  private RepositoryPermissionChecker repositoryPermissionChecker;
+
+  @Mock
+  private InstallableUnitIndexes installableUnitIndexes;
+
+  @Mock
+  private Repository repository;
+
+  private P2InstallableUnitsApiResource underTest;
+
+  @Before
+  public void setUp() throws IOException {
+    when(repositoryManager.get(REPOSITORY_NAME)).thenReturn(repository);
+    when(repository.getName()).thenReturn(REPOSITORY_NAME);
+    when(repository.getFormat()).thenReturn(new P2Format());
+    when(repository.getUrl()).thenReturn("http://localhost:8081/repository/" + REPOSITORY_NAME);
+    when(repositoryPermissionChecker.userCanBrowseRepository(repository)).thenReturn(true);
+    when(installableUnitIndexes.findSites(repository)).thenReturn(asList("", FIRST_SITE, SECOND_SITE));
+    // the root site cannot be indexed
+    when(installableUnitIndexes.findIndex(repository, "")).thenReturn(Optional.empty());
+    when(installableUnitIndexes.findIndex(repository, FIRST_SITE))
+        .thenReturn(Optional.of(index("1", "a.bundle", "1.0.0", "2.0.0")));
+    when(installableUnitIndexes.findIndex(repository, SECOND_SITE))
+        .thenReturn(Optional.of(index("2", "a.bundle", "3.0.0")));
+
+    underTest = new P2InstallableUnitsApiResource(repositoryManager, repositoryPermissionChecker,
+        installableUnitIndexes);
+  }
+
+  @Test
+  public void pagesTheUnitsOfTheSites() {
+    Page<InstallableUnitXO> page = getUnits(2, null);
+
+    assertThat(versions(page), is(asList("1.0.0", "2.0.0")));
+    assertThat(page.getItems().get(0).getSite(), is("0123456789abcdef"));
+    assertThat(page.getContinuationToken(), is("2"));
+
+    page = getUnits(2, page.getContinuationToken());
+
+    assertThat(versions(page), is(asList("3.0.0")));
+    assertThat(page.getItems().get(0).getSite(), is("fedcba9876543210"));
+    assertThat(page.getContinuationToken(), is(nullValue()));
+  }
+
+  @Test
+  public void stopsOnceThePageIsFound() {
+    Page<InstallableUnitXO> page = getUnits(1, null);
+
+    assertThat(versions(page), is(asList("1.0.0")));
+    assertThat(page.getContinuationToken(), is("1"));
+    verify(installableUnitIndexes, never()).findIndex(repository, SECOND_SITE);
+  }
+
+  @Test
+  public void skipsSitesWhichCannotBeIndexed() {
+    Page<InstallableUnitXO> page = getUnits(10, null);
+
+    assertThat(versions(page), is(asList("1.0.0", "2.0.0", "3.0.0")));
+    assertThat(page.getContinuationToken(), is(nullValue()));
+  }
+
+  @Test(expected = ServiceUnavailableException.class)
+  public void isUnavailableWhileASiteIsIndexed() {
+    when(installableUnitIndexes.findIndex(repository, SECOND_SITE)).thenReturn(Optional.empty());
+    when(installableUnitIndexes.isIndexing(repository, SECOND_SITE)).thenReturn(true);
+
+    getUnits(10, null);
+  }
+
+  @Test
+  public void pagesPastTheLastUnitAreEmpty() {
+    Page<InstallableUnitXO> page = getUnits(2, "4");
+
+    assertThat(page.getItems(), is(empty()));
+    assertThat(page.getContinuationToken(), is(nullValue()));
+  }
+
+  @Test(expected = ForbiddenException.class)
+  public void requiresBrowsingTheRepository() {
+    when(repositoryPermissionChecker.userCanBrowseRepository(repository)).thenReturn(false);
+
+    getUnits(10, null);
+  }
+
+  private Page<InstallableUnitXO> getUnits(final int limit, final String continuationToken) {
+    return underTest.getUnits(REPOSITORY_NAME, "a.bundle", null, null, null, limit, continuationToken);
+  }
+
+  private static List<String> versions(final Page<InstallableUnitXO> page) {
+    return page.getItems().stream().map(InstallableUnitXO::getVersion).collect(Collectors.toList());
+  }
+
+  private static InstallableUnitIndex index(final String version, final String id, final String... unitVersions)
+      throws IOException
+  {
+    StringBuilder contentXml = new StringBuilder("<?xml version='1.0' encoding='UTF-8'?>\n<repository>\n<units>\n");
+    for (String unitVersion : unitVersions) {
+      contentXml.append("<unit id='").append(id).append("' version='").append(unitVersion).append("'/>\n");
+    }
+    contentXml.append("</units>\n</repository>\n");
+    Path file = Files.createTempDirectory("p2").resolve("content.idx");
+    return InstallableUnitIndex.write(
+        new ByteArrayInputStream(contentXml.toString().getBytes(StandardCharsets.UTF_8)), file, version);
+  }
+}
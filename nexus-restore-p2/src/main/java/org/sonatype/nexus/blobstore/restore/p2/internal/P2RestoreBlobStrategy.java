@@ -125,6 +125,12 @@ public class P2RestoreBlobStrategy
     facet.restore(assetBlob, path);
   }
 
+  @Override
+  public void after(final boolean updateAssets, final Repository repository) {
+    super.after(updateAssets, repository);
+    repository.optionalFacet(P2RestoreFacet.class).ifPresent(P2RestoreFacet::restoreFinished);
+  }
+
   private P2RestoreFacet getRestoreFacet(@Nonnull final P2RestoreBlobData p2RestoreBlobData) {
     final Repository repository = getRepository(p2RestoreBlobData);
     return repository.facet(P2RestoreFacet.class);